@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ml4j.nn.util.MnistDataBatch;
+import org.ml4j.nn.util.MnistDataBatchSource;
+
+/**
+ * Generates mini-batches of randomly transformed copies of a labelled training set,
+ * lazily and on background worker threads.
+ *
+ * Each batch is generated from a seed derived from the base seed and the batch number,
+ * so the sequence of batches is deterministic regardless of the number of workers.
+ * Only the batches queued ahead of the consumer are held in memory - the transformed
+ * variants are never materialized up front.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class AugmentedMnistDataBatchSource implements MnistDataBatchSource {
+
+	private double[][] data;
+	private double[][] labels;
+	private List<DigitImageTransform> transforms;
+	private double untransformedFraction;
+	private int batchSize;
+	private long batchCount;
+	private long seed;
+
+	private ExecutorService executorService;
+	private Deque<Future<MnistDataBatch>> pendingBatches;
+	private long nextBatchToSubmit;
+
+	/**
+	 *
+	 * @param data The pixel vectors of the original training set
+	 * @param labels The multiclass label vectors of the original training set
+	 * @param transforms The transforms to choose between for each augmented row
+	 * @param untransformedFraction The fraction of rows to pass through unchanged
+	 * @param batchSize The number of rows in each batch
+	 * @param batchCount The number of batches to generate, or Long.MAX_VALUE for an unbounded source
+	 * @param seed The base seed
+	 * @param workerCount The number of background worker threads
+	 * @param prefetchCount The number of batches to generate ahead of the consumer
+	 */
+	public AugmentedMnistDataBatchSource(double[][] data, double[][] labels, List<DigitImageTransform> transforms,
+			double untransformedFraction, int batchSize, long batchCount, long seed, int workerCount,
+			int prefetchCount) {
+		if (data.length != labels.length || data.length == 0) {
+			throw new IllegalArgumentException("Data and labels must have the same, non-zero, number of rows");
+		}
+		if (transforms.isEmpty() && untransformedFraction < 1) {
+			throw new IllegalArgumentException("At least one transform is required");
+		}
+		this.data = data;
+		this.labels = labels;
+		this.transforms = transforms;
+		this.untransformedFraction = untransformedFraction;
+		this.batchSize = batchSize;
+		this.batchCount = batchCount;
+		this.seed = seed;
+		this.executorService = Executors.newFixedThreadPool(workerCount, new AugmentationThreadFactory());
+		this.pendingBatches = new ArrayDeque<Future<MnistDataBatch>>();
+		for (int i = 0; i < Math.max(1, prefetchCount); i++) {
+			submitNextBatch();
+		}
+	}
+
+	private void submitNextBatch() {
+		if (nextBatchToSubmit < batchCount) {
+			pendingBatches.addLast(executorService.submit(new BatchGeneration(nextBatchToSubmit++)));
+		}
+	}
+
+	/**
+	 * Returns the next augmented batch, waiting only if the workers have fallen behind
+	 *
+	 * @param maxBatchSize The maximum number of rows to return
+	 */
+	@Override
+	public MnistDataBatch nextBatch(int maxBatchSize) {
+		Future<MnistDataBatch> pendingBatch = pendingBatches.pollFirst();
+		if (pendingBatch == null) {
+			return null;
+		}
+		submitNextBatch();
+		MnistDataBatch batch;
+		try {
+			batch = pendingBatch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for augmented batch", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unable to generate augmented batch", e.getCause());
+		}
+		if (batch.size() > maxBatchSize) {
+			batch = new MnistDataBatch(Arrays.copyOf(batch.getData(), maxBatchSize),
+					Arrays.copyOf(batch.getLabels(), maxBatchSize), batch.getFirstRowId());
+		}
+		return batch;
+	}
+
+	@Override
+	public void close() {
+		executorService.shutdownNow();
+		pendingBatches.clear();
+	}
+
+	private class BatchGeneration implements Callable<MnistDataBatch> {
+
+		private long batchNumber;
+
+		public BatchGeneration(long batchNumber) {
+			this.batchNumber = batchNumber;
+		}
+
+		@Override
+		public MnistDataBatch call() {
+			Random random = new Random(seed + batchNumber * 0x9E3779B97F4A7C15L);
+			double[][] batchData = new double[batchSize][];
+			double[][] batchLabels = new double[batchSize][];
+			for (int row = 0; row < batchSize; row++) {
+				int sourceRow = random.nextInt(data.length);
+				batchLabels[row] = labels[sourceRow];
+				if (random.nextDouble() < untransformedFraction) {
+					batchData[row] = data[sourceRow];
+				} else {
+					DigitImageTransform transform = transforms.get(random.nextInt(transforms.size()));
+					batchData[row] = new double[data[sourceRow].length];
+					transform.nextRemapping(random).apply(data[sourceRow], batchData[row]);
+				}
+			}
+			return new MnistDataBatch(batchData, batchLabels, batchNumber * batchSize);
+		}
+	}
+
+	private static class AugmentationThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "mnist-augmentation");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
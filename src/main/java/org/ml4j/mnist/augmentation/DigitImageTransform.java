@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+import java.util.Random;
+
+/**
+ * A family of random transformations of 28 * 28 digit images
+ *
+ * Implementations precompute their remappings on construction so that choosing a
+ * transformation for an image is cheap and thread-safe.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public interface DigitImageTransform {
+
+	/**
+	 *
+	 * @param random The source of randomness - the same sequence yields the same remappings
+	 * @return A randomly chosen remapping from this family
+	 */
+	public PixelRemapping nextRemapping(Random random);
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Factory methods for commonly used combinations of digit image transforms
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitImageTransforms {
+
+	/**
+	 * Shifts of up to 2 pixels, rotations of up to 15 degrees and 200 elastic distortions, with the
+	 * intensity Simard et al. found best for a gaussian of sigma 4 - with weaker fields, many of the
+	 * sub-pixel displacements round back to the source pixel when remapped to whole pixels
+	 *
+	 * @param seed The seed used to generate the elastic distortion fields
+	 * @return The transforms
+	 */
+	public static List<DigitImageTransform> createDefaultTransforms(long seed) {
+		List<DigitImageTransform> transforms = new ArrayList<DigitImageTransform>();
+		transforms.add(new RandomShiftTransform(2));
+		transforms.add(new RandomRotationTransform(15, 3));
+		transforms.add(new RandomElasticDistortionTransform(200, 34, 4, seed));
+		return transforms;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+/**
+ * A precomputed integer pixel mapping for 28 * 28 digit images - each target pixel is
+ * copied from a source pixel index, or cleared if the index is negative.
+ *
+ * Applying a remapping is a single pass of array reads, so binarized images remain
+ * binarized and no interpolation is required.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class PixelRemapping {
+
+	public static final int WIDTH = 28;
+	public static final int HEIGHT = 28;
+
+	private int[] sourceIndices;
+
+	/**
+	 *
+	 * @param sourceIndices For each target pixel, the index of the source pixel, or -1
+	 */
+	public PixelRemapping(int[] sourceIndices) {
+		if (sourceIndices.length != WIDTH * HEIGHT) {
+			throw new IllegalArgumentException("Remapping must have " + (WIDTH * HEIGHT) + " entries");
+		}
+		this.sourceIndices = sourceIndices;
+	}
+
+	/**
+	 *
+	 * @return The remapping which leaves images unchanged
+	 */
+	public static PixelRemapping identity() {
+		int[] sourceIndices = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < sourceIndices.length; i++) {
+			sourceIndices[i] = i;
+		}
+		return new PixelRemapping(sourceIndices);
+	}
+
+	/**
+	 *
+	 * @param source The source image
+	 * @param target The image to write into
+	 */
+	public void apply(double[] source, double[] target) {
+		for (int i = 0; i < sourceIndices.length; i++) {
+			int sourceIndex = sourceIndices[i];
+			target[i] = sourceIndex < 0 ? 0 : source[sourceIndex];
+		}
+	}
+
+	/**
+	 * Returns the source index for a fractional source position, rounded to the nearest pixel
+	 */
+	static int nearestSourceIndex(double sourceRow, double sourceColumn) {
+		int row = (int) Math.round(sourceRow);
+		int column = (int) Math.round(sourceColumn);
+		if (row < 0 || row >= HEIGHT || column < 0 || column >= WIDTH) {
+			return -1;
+		}
+		return row * WIDTH + column;
+	}
+}
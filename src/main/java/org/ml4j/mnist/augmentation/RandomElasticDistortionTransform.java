@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+import java.util.Random;
+
+/**
+ * Applies elastic distortions to digit images - random displacement fields smoothed
+ * with a gaussian kernel and scaled by an intensity factor (Simard et al, 2003).
+ *
+ * A fixed number of displacement fields are generated from a seed on construction and
+ * rounded to integer pixel remappings, so distorting an image costs no more than a shift.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class RandomElasticDistortionTransform implements DigitImageTransform {
+
+	private PixelRemapping[] remappings;
+
+	/**
+	 *
+	 * @param fieldCount The number of displacement fields to precompute
+	 * @param alpha The scaling factor of the smoothed displacements, in pixels
+	 * @param sigma The standard deviation of the gaussian smoothing kernel, in pixels
+	 * @param seed The seed used to generate the displacement fields
+	 */
+	public RandomElasticDistortionTransform(int fieldCount, double alpha, double sigma, long seed) {
+		Random random = new Random(seed);
+		this.remappings = new PixelRemapping[fieldCount];
+		double[] kernel = createGaussianKernel(sigma);
+		for (int f = 0; f < fieldCount; f++) {
+			double[] rowDisplacements = createDisplacementField(random, kernel, alpha);
+			double[] columnDisplacements = createDisplacementField(random, kernel, alpha);
+			int[] sourceIndices = new int[PixelRemapping.WIDTH * PixelRemapping.HEIGHT];
+			for (int r = 0; r < PixelRemapping.HEIGHT; r++) {
+				for (int c = 0; c < PixelRemapping.WIDTH; c++) {
+					int i = r * PixelRemapping.WIDTH + c;
+					sourceIndices[i] = PixelRemapping.nearestSourceIndex(r + rowDisplacements[i],
+							c + columnDisplacements[i]);
+				}
+			}
+			remappings[f] = new PixelRemapping(sourceIndices);
+		}
+	}
+
+	private static double[] createGaussianKernel(double sigma) {
+		int radius = (int) Math.ceil(3 * sigma);
+		double[] kernel = new double[2 * radius + 1];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++) {
+			kernel[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+			sum += kernel[i + radius];
+		}
+		for (int i = 0; i < kernel.length; i++) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
+
+	private static double[] createDisplacementField(Random random, double[] kernel, double alpha) {
+		int width = PixelRemapping.WIDTH;
+		int height = PixelRemapping.HEIGHT;
+		int radius = kernel.length / 2;
+		double[] field = new double[width * height];
+		for (int i = 0; i < field.length; i++) {
+			field[i] = random.nextDouble() * 2 - 1;
+		}
+		// Separable gaussian smoothing - rows, then columns
+		double[] smoothed = new double[field.length];
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++) {
+				double sum = 0;
+				for (int k = -radius; k <= radius; k++) {
+					int column = Math.min(width - 1, Math.max(0, c + k));
+					sum += kernel[k + radius] * field[r * width + column];
+				}
+				smoothed[r * width + c] = sum;
+			}
+		}
+		for (int c = 0; c < width; c++) {
+			for (int r = 0; r < height; r++) {
+				double sum = 0;
+				for (int k = -radius; k <= radius; k++) {
+					int row = Math.min(height - 1, Math.max(0, r + k));
+					sum += kernel[k + radius] * smoothed[row * width + c];
+				}
+				field[r * width + c] = alpha * sum;
+			}
+		}
+		return field;
+	}
+
+	@Override
+	public PixelRemapping nextRemapping(Random random) {
+		return remappings[random.nextInt(remappings.length)];
+	}
+}
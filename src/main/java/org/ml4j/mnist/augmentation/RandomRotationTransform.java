@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+import java.util.Random;
+
+/**
+ * Rotates digit images about their centre by one of a fixed set of angles, using
+ * nearest-neighbour sampling
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class RandomRotationTransform implements DigitImageTransform {
+
+	private PixelRemapping[] remappings;
+
+	/**
+	 *
+	 * @param maxDegrees The maximum rotation, clockwise or anticlockwise
+	 * @param stepDegrees The difference between successive precomputed angles
+	 */
+	public RandomRotationTransform(double maxDegrees, double stepDegrees) {
+		int steps = (int) Math.floor(maxDegrees / stepDegrees);
+		this.remappings = new PixelRemapping[2 * steps + 1];
+		double centreRow = (PixelRemapping.HEIGHT - 1) / 2d;
+		double centreColumn = (PixelRemapping.WIDTH - 1) / 2d;
+		for (int step = -steps; step <= steps; step++) {
+			double radians = Math.toRadians(step * stepDegrees);
+			double cos = Math.cos(radians);
+			double sin = Math.sin(radians);
+			int[] sourceIndices = new int[PixelRemapping.WIDTH * PixelRemapping.HEIGHT];
+			for (int r = 0; r < PixelRemapping.HEIGHT; r++) {
+				for (int c = 0; c < PixelRemapping.WIDTH; c++) {
+					// Inverse rotation of the target position gives the source position
+					double y = r - centreRow;
+					double x = c - centreColumn;
+					double sourceRow = centreRow + y * cos - x * sin;
+					double sourceColumn = centreColumn + y * sin + x * cos;
+					sourceIndices[r * PixelRemapping.WIDTH + c] = PixelRemapping.nearestSourceIndex(sourceRow,
+							sourceColumn);
+				}
+			}
+			remappings[step + steps] = new PixelRemapping(sourceIndices);
+		}
+	}
+
+	@Override
+	public PixelRemapping nextRemapping(Random random) {
+		return remappings[random.nextInt(remappings.length)];
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.augmentation;
+
+import java.util.Random;
+
+/**
+ * Translates digit images by a whole number of pixels in each direction
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class RandomShiftTransform implements DigitImageTransform {
+
+	private PixelRemapping[] remappings;
+
+	/**
+	 *
+	 * @param maxShift The maximum number of pixels to shift by, horizontally and vertically
+	 */
+	public RandomShiftTransform(int maxShift) {
+		int size = 2 * maxShift + 1;
+		this.remappings = new PixelRemapping[size * size];
+		int ind = 0;
+		for (int rowShift = -maxShift; rowShift <= maxShift; rowShift++) {
+			for (int columnShift = -maxShift; columnShift <= maxShift; columnShift++) {
+				int[] sourceIndices = new int[PixelRemapping.WIDTH * PixelRemapping.HEIGHT];
+				for (int r = 0; r < PixelRemapping.HEIGHT; r++) {
+					for (int c = 0; c < PixelRemapping.WIDTH; c++) {
+						sourceIndices[r * PixelRemapping.WIDTH + c] = PixelRemapping.nearestSourceIndex(r - rowShift,
+								c - columnShift);
+					}
+				}
+				remappings[ind++] = new PixelRemapping(sourceIndices);
+			}
+		}
+	}
+
+	@Override
+	public PixelRemapping nextRemapping(Random random) {
+		return remappings[random.nextInt(remappings.length)];
+	}
+}
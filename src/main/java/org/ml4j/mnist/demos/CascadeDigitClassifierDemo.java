@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.demos;
+
+import org.ml4j.mnist.service.CascadeDigitClassificationService;
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.mnist.training.DigitClassificationCNNTrainer;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+/**
+ * Classifies MNIST digits (from the raw data) with a cascade of a fast Feed Forward Neural Network
+ * and a more accurate Convolutional Neural Network, escalating only low-confidence predictions of
+ * the fast network.
+ * 
+ * Serialized hypothesis functions are loaded from the classpath by name
+ * 
+ * @author Michael Lavelle
+ *
+ */
+public class CascadeDigitClassifierDemo {
+
+	public static void main(String[] args)
+	{
+		// Assumed that GPU Cuda optimisation is disabled by default - enable for faster performance if CUDA available
+		boolean cudaAvailable = false;
+
+		// Assumed that JBlas is available by default (the case on Macbooks) - disable to fall back to JAMA matrix strategy (slower)
+		boolean jBlasAvailable = true;
+
+		// The fast model, as serialized by DigitClassificationFNNTrainer, and the accurate model
+		String fastHypothesisFunctionName = "workingFFNHypothesisFunction";
+		String accurateHypothesisFunctionName = "19_08_2015_CNN_1";
+
+		// Images whose top two softmax outputs of the fast model differ by less than this are escalated
+		double escalationThreshold = 0.5;
+
+		// Load cross validation set data and labels from 10000 records towards end of text file that haven't been seen before during training
+		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
+				DigitClassificationCNNTrainer.class.getClassLoader());
+
+		double[][] crossValidationDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 32005, 42005);
+
+		double[][] crossValidationLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 32005, 42005);
+
+		NeuralNetworkDigitClassificationService fastService = new NeuralNetworkDigitClassificationService(
+				PreTrainedHypothesisFunctionLoader.load(fastHypothesisFunctionName), cudaAvailable, jBlasAvailable);
+		NeuralNetworkDigitClassificationService accurateService = new NeuralNetworkDigitClassificationService(
+				PreTrainedHypothesisFunctionLoader.load(accurateHypothesisFunctionName), cudaAvailable, jBlasAvailable);
+
+		CascadeDigitClassificationService cascadeService = new CascadeDigitClassificationService(fastService,
+				accurateService, escalationThreshold);
+
+		System.out.println("Cascade trade-offs on cross validation set...\n");
+		System.out.println(cascadeService.getThresholdReport(crossValidationDataMatrix, crossValidationLabelsMatrix,
+				new double[] { 0, 0.1, 0.2, 0.3, 0.5, 0.7, 0.9, 1.1 }));
+
+		System.out.println("Accuracy on cross validation set with threshold " + escalationThreshold + ":"
+				+ cascadeService.getAccuracy(crossValidationDataMatrix, crossValidationLabelsMatrix));
+		System.out.println("Fraction escalated:" + cascadeService.getEscalatedFraction());
+		System.out.println("Images/s:" + cascadeService.getThroughput());
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.demos;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.ml4j.mnist.online.OnlineFineTuner;
+import org.ml4j.mnist.server.DigitClassificationServer;
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.mnist.service.WarmUpTiming;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+/**
+ * Serves a pre-learned Neural Network hypothesis function over the network using the embedded
+ * DigitClassificationServer - binary protocol on port 9028, HTTP on port 9080.
+ *
+ * Try: curl --data-binary @src/main/resources/test_images/0.jpg http://localhost:9080/classify
+ * or run DigitClassificationLoadGenerator against the binary port
+ *
+ * The service is warmed up after the server starts - http://localhost:9080/ready returns 503 until then
+ *
+ * With online fine-tuning enabled, post correctly labelled images to /feedback, eg.
+ * curl --data-binary @src/main/resources/test_images/0.jpg http://localhost:9080/feedback?digit=0
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationServerDemo {
+
+	public static void main(String[] args) throws IOException
+	{
+		// Assumed that GPU Cuda optimisation is disabled by default - enable for faster performance if CUDA available
+		boolean cudaAvailable = false;
+
+		// Assumed that JBlas is available by default (this is case on MacBooks) - disable to fall back to JAMA matrix strategy (slower)
+		boolean jBlasAvailable = true;
+
+		String serializedHypothesisFunctionName = "19_08_2015_CNN_1";
+
+		// By default only accept connections from this host - set to "0.0.0.0" to serve clients on other hosts
+		String bindAddress = "localhost";
+
+		// By default serve the pre-learned model unchanged - set to true to fine-tune it in the background
+		// from feedback posted to /feedback, publishing fine-tuned models which validate at least as well
+		boolean fineTuneFromFeedback = false;
+
+		NeuralNetworkHypothesisFunction preLearnedHypothesisFunction
+		 =PreTrainedHypothesisFunctionLoader.load(serializedHypothesisFunctionName);
+
+		NeuralNetworkDigitClassificationService digitClassificationService
+		 = new NeuralNetworkDigitClassificationService(preLearnedHypothesisFunction,cudaAvailable,jBlasAvailable);
+
+		// Batch up to 256 requests, waiting at most 2ms for a batch to fill, and reject requests
+		// once 4096 are queued
+		final DigitClassificationServer server = new DigitClassificationServer(digitClassificationService, bindAddress,
+				9028, 9080, 256, 2000, 4096, 2, 1024 * 1024);
+		if (fineTuneFromFeedback) {
+			// Validate fine-tuned models against the 1000 records just before the test set - the test set
+			// (rows 32005 onwards), which the demos and regression suite report accuracy on, must not be
+			// used to select models
+			DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
+					DigitClassificationServerDemo.class.getClassLoader());
+			double[][] validationDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+					new PixelFeaturesMatrixCsvDataExtractor(), 31005, 32005);
+			double[][] validationLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+					new SingleDigitLabelsMatrixCsvDataExtractor(), 31005, 32005);
+
+			// Fine-tune after every 20 corrections, on the latest 200, using at most a quarter of a core
+			OnlineFineTuner onlineFineTuner = new OnlineFineTuner(digitClassificationService,
+					validationDataMatrix, validationLabelsMatrix, 20, 200, 10, 0.0001, 0.25);
+			onlineFineTuner.start();
+			server.setOnlineFineTuner(onlineFineTuner);
+		}
+		server.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					server.close();
+				} catch (IOException e) {
+					// Ignore - shutting down
+				}
+			}
+		});
+
+		System.out.println("Serving on " + bindAddress + " - binary protocol on port " + server.getBinaryPort()
+				+ ", HTTP on port " + server.getHttpPort());
+
+		// Classify synthetic digits until the timings settle, before reporting ready
+		System.out.println("Warming up...");
+		long warmUpStart = System.currentTimeMillis();
+		List<WarmUpTiming> warmUpTimings = digitClassificationService.warmUp();
+		for (WarmUpTiming warmUpTiming : warmUpTimings) {
+			System.out.println(warmUpTiming);
+		}
+		System.out.println("Ready after " + (System.currentTimeMillis() - warmUpStart) + "ms");
+	}
+}
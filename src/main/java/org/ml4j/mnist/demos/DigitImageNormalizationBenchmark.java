@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.demos;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.ml4j.mnist.service.MnistDigitImageNormalizer;
+import org.ml4j.nn.util.JpegFileFilter;
+
+/**
+ * Benchmarks MnistDigitImageNormalizer on large scans of digits, reporting images/sec in
+ * total and per core for an increasing number of threads, alongside resizing with Graphics2D
+ * as a baseline.  Bilinear resizing samples only a few source pixels, so it is fast but aliases
+ * badly when shrinking large scans - area averaging is the comparable quality baseline.
+ *
+ * The scans are generated from src/main/resources/test_images by enlarging each digit
+ * onto a larger, off-center white canvas.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitImageNormalizationBenchmark {
+
+	private static final String RASTER_NORMALIZATION = "Raster normalization";
+	private static final String BILINEAR_RESIZE = "Graphics2D bilinear resize";
+	private static final String AREA_AVERAGING_RESIZE = "Graphics2D area averaging resize";
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+
+		// Size of the generated scans, and how much each 28 * 28 digit is enlarged
+		int scanWidth = 240;
+		int scanHeight = 320;
+		int enlargement = 6;
+
+		// Time spent measuring each configuration
+		long measurementMillis = 3000;
+
+		File imagesDirectory = new File(DigitImageNormalizationBenchmark.class.getClassLoader()
+				.getResource("test_images").getFile());
+		List<BufferedImage> scans = new ArrayList<BufferedImage>();
+		for (File imageFile : imagesDirectory.listFiles(new JpegFileFilter())) {
+			scans.add(createScan(ImageIO.read(imageFile), scanWidth, scanHeight, enlargement));
+		}
+		System.out.println("Benchmarking on " + scans.size() + " scans of " + scanWidth + " * " + scanHeight
+				+ " pixels\n");
+
+		System.out.println("Method,Threads,Images/s,Images/s per core");
+		for (String baseline : new String[] { BILINEAR_RESIZE, AREA_AVERAGING_RESIZE }) {
+			double baselineImagesPerSecond = measure(scans, 1, measurementMillis, baseline);
+			System.out.println(baseline + ",1," + Math.round(baselineImagesPerSecond) + ","
+					+ Math.round(baselineImagesPerSecond));
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		int threads = 1;
+		while (true) {
+			double imagesPerSecond = measure(scans, threads, measurementMillis, RASTER_NORMALIZATION);
+			System.out.println(RASTER_NORMALIZATION + "," + threads + "," + Math.round(imagesPerSecond) + ","
+					+ Math.round(imagesPerSecond / threads));
+			if (threads == processors) {
+				break;
+			}
+			threads = Math.min(processors, threads * 2);
+		}
+	}
+
+	private static double measure(final List<BufferedImage> scans, int threads, final long measurementMillis,
+			final String method) throws InterruptedException, ExecutionException {
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executorService.submit(new Callable<Long>() {
+
+					@Override
+					public Long call() {
+						MnistDigitImageNormalizer normalizer = new MnistDigitImageNormalizer(0.2);
+						double[] features = new double[28 * 28];
+						// Warm up before timing
+						for (BufferedImage scan : scans) {
+							normalize(normalizer, scan, features, method);
+						}
+						long images = 0;
+						long end = System.currentTimeMillis() + measurementMillis;
+						while (System.currentTimeMillis() < end) {
+							for (BufferedImage scan : scans) {
+								normalize(normalizer, scan, features, method);
+							}
+							images += scans.size();
+						}
+						return images;
+					}
+				}));
+			}
+			long images = 0;
+			for (Future<Long> future : futures) {
+				images += future.get();
+			}
+			return images / (measurementMillis / 1000d);
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private static void normalize(MnistDigitImageNormalizer normalizer, BufferedImage scan, double[] features,
+			String method) {
+		if (method.equals(RASTER_NORMALIZATION)) {
+			normalizer.normalize(scan, features);
+		} else {
+			// The baselines - a plain resize of the whole scan to 28 * 28, without cropping or centering
+			BufferedImage resized = new BufferedImage(28, 28, BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = resized.createGraphics();
+			if (method.equals(BILINEAR_RESIZE)) {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+						RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.drawImage(scan, 0, 0, 28, 28, null);
+			} else {
+				graphics.drawImage(scan.getScaledInstance(28, 28, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+			}
+			graphics.dispose();
+			int index = 0;
+			for (int y = 0; y < 28; y++) {
+				for (int x = 0; x < 28; x++) {
+					features[index++] = 1 - (resized.getRGB(x, y) & 0xFF) / 255d;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enlarges a digit by pixel replication onto a white canvas, a quarter of the way in
+	 */
+	private static BufferedImage createScan(BufferedImage digit, int width, int height, int enlargement) {
+		BufferedImage scan = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				scan.setRGB(x, y, 0xFFFFFF);
+			}
+		}
+		int left = width / 4;
+		int top = height / 4;
+		for (int y = 0; y < digit.getHeight() * enlargement && top + y < height; y++) {
+			for (int x = 0; x < digit.getWidth() * enlargement && left + x < width; x++) {
+				scan.setRGB(left + x, top + y, digit.getRGB(x / enlargement, y / enlargement));
+			}
+		}
+		return scan;
+	}
+}
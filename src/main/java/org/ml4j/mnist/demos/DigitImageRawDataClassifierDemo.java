@@ -15,7 +15,13 @@
  */
 package org.ml4j.mnist.demos;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.ml4j.imaging.targets.ImageDisplay;
+import org.ml4j.mnist.evaluation.ContactSheetRenderer;
+import org.ml4j.mnist.evaluation.DigitClassificationEvaluation;
+import org.ml4j.mnist.evaluation.ParallelDigitClassificationEvaluator;
 import org.ml4j.mnist.service.DigitClassificationService;
 import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
 import org.ml4j.mnist.training.DigitClassificationCNNTrainer;
@@ -35,7 +41,7 @@ import org.ml4j.util.SerializationHelper;
  */
 public class DigitImageRawDataClassifierDemo {
 
-	public static void main(String[] args) throws InterruptedException
+	public static void main(String[] args) throws InterruptedException, IOException
 	{
 		// Assumed that GPU Cuda optimisation is disabled by default - enable for faster performance if CUDA available
 		boolean cudaAvailable = false;
@@ -47,6 +53,10 @@ public class DigitImageRawDataClassifierDemo {
 	
 		// Whether to display the images as we are predicting them
 		boolean displayImages = false;
+
+		// Whether to render every misclassified digit into PNG contact sheets in the misclassified
+		// directory, in the background while evaluating - no display is needed
+		boolean renderMisclassifiedDigits = false;
 		
 		// Load cross validation set data and labels from 10000 records towards end of text file that haven't been seen before during training
 		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
@@ -68,9 +78,29 @@ public class DigitImageRawDataClassifierDemo {
 		DigitClassificationService digitClassificationService
 		 = new NeuralNetworkDigitClassificationService(preLearnedHypothesisFunction,cudaAvailable,jBlasAvailable);
 	
-		System.out.println("Computing accuracy on entire cross validation set...\n");
+		System.out.println("Evaluating entire cross validation set...\n");
+
+		// Score the cross validation set in parallel chunks, reporting the confusion matrix, per-digit
+		// precision/recall, top-k accuracy and the worst misclassified rows
+		ParallelDigitClassificationEvaluator evaluator = new ParallelDigitClassificationEvaluator(
+				preLearnedHypothesisFunction, Runtime.getRuntime().availableProcessors(), 1000, 20);
+		ContactSheetRenderer contactSheetRenderer = null;
+		if (renderMisclassifiedDigits) {
+			File misclassifiedDirectory = new File("misclassified");
+			misclassifiedDirectory.mkdirs();
+			contactSheetRenderer = new ContactSheetRenderer(misclassifiedDirectory, "misclassified-", 20, 10, 2, 1000);
+			evaluator.setMisclassificationListener(contactSheetRenderer);
+		}
+		DigitClassificationEvaluation evaluation = evaluator.evaluate(crossValidationDataMatrix,
+				crossValidationLabelsMatrix, 32005);
+		if (contactSheetRenderer != null) {
+			for (File contactSheet : contactSheetRenderer.finish()) {
+				System.out.println("Misclassified digits written to " + contactSheet.getAbsolutePath());
+			}
+		}
 
-		System.out.println("Accuracy on cross validation set:" + preLearnedHypothesisFunction.getAccuracy(crossValidationDataMatrix, crossValidationLabelsMatrix));
+		System.out.println("Accuracy on cross validation set:" + evaluation.getAccuracy());
+		System.out.println(evaluation);
 
 		Thread.sleep(2000);
 
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.demos;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.ml4j.nn.util.IdxMnistDataSet;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+
+/**
+ * Compares the time taken to load the rows of train.csv with DoubleArrayMatrixLoader with the
+ * time taken to load the same rows from IDX ubyte files with IdxMnistDataSet.
+ *
+ * The IDX files are written to a temporary directory from train.csv before timing, and the
+ * pixel and label vectors from both loaders are checked to be identical.  The time to map the
+ * files alone is reported too - for mini-batch training, only the current batch's rows are read.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class IdxMnistLoadBenchmark {
+
+	private static final int IMAGES_MAGIC_NUMBER = 0x00000803;
+	private static final int LABELS_MAGIC_NUMBER = 0x00000801;
+
+	public static void main(String[] args) throws IOException {
+
+		// All 42000 rows of train.csv - line 0 is the header
+		int startLine = 1;
+		int endLine = 42001;
+
+		// Each load is repeated, reporting the fastest, so that the loaders are compared after warming up
+		int repetitions = 3;
+
+		File directory = File.createTempFile("idxBenchmark", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create directory:" + directory);
+		}
+		File imagesFile = new File(directory, "train-images-idx3-ubyte");
+		File labelsFile = new File(directory, "train-labels-idx1-ubyte");
+		try {
+			int rowCount = writeIdxFiles("train.csv", startLine, endLine, imagesFile, labelsFile);
+			System.out.println("Loading " + rowCount + " rows\n");
+
+			DoubleArrayMatrixLoader csvLoader = new DoubleArrayMatrixLoader(
+					IdxMnistLoadBenchmark.class.getClassLoader());
+			double[][] csvData = null;
+			double[][] csvLabels = null;
+			long csvNanos = Long.MAX_VALUE;
+			for (int i = 0; i < repetitions; i++) {
+				long start = System.nanoTime();
+				csvData = csvLoader.loadDoubleMatrixFromCsv("train.csv", new PixelFeaturesMatrixCsvDataExtractor(),
+						startLine, endLine);
+				csvLabels = csvLoader.loadDoubleMatrixFromCsv("train.csv",
+						new SingleDigitLabelsMatrixCsvDataExtractor(), startLine, endLine);
+				csvNanos = Math.min(csvNanos, System.nanoTime() - start);
+			}
+
+			double[][] idxData = null;
+			double[][] idxLabels = null;
+			long mapNanos = Long.MAX_VALUE;
+			long idxNanos = Long.MAX_VALUE;
+			for (int i = 0; i < repetitions; i++) {
+				long start = System.nanoTime();
+				IdxMnistDataSet dataSet = IdxMnistDataSet.open(imagesFile, labelsFile);
+				long mapped = System.nanoTime();
+				idxData = dataSet.getDataMatrix(true);
+				idxLabels = dataSet.getLabelsMatrix();
+				long end = System.nanoTime();
+				mapNanos = Math.min(mapNanos, mapped - start);
+				idxNanos = Math.min(idxNanos, end - start);
+			}
+
+			System.out.println("DoubleArrayMatrixLoader ms:" + csvNanos / 1000000);
+			System.out.println("IdxMnistDataSet map ms:" + mapNanos / 1000000);
+			System.out.println("IdxMnistDataSet map and read all rows ms:" + idxNanos / 1000000);
+			System.out.println("IDX load time as a fraction of csv:" + (double) idxNanos / csvNanos);
+			System.out.println("Identical pixel and label vectors:"
+					+ (Arrays.deepEquals(csvData, idxData) && Arrays.deepEquals(csvLabels, idxLabels)));
+		} finally {
+			imagesFile.delete();
+			labelsFile.delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Writes a range of lines of a csv in train.csv format as IDX images and labels files of 28 * 28 images
+	 *
+	 * @return The number of rows written
+	 */
+	private static int writeIdxFiles(String resourceName, int startLine, int endLine, File imagesFile,
+			File labelsFile) throws IOException {
+		InputStream inputStream = IdxMnistLoadBenchmark.class.getClassLoader().getResourceAsStream(resourceName);
+		if (inputStream == null) {
+			throw new IOException("Unable to find resource on classpath:" + resourceName);
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "US-ASCII"));
+		DataOutputStream images = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(imagesFile)));
+		DataOutputStream labels = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(labelsFile)));
+		int rowCount = 0;
+		try {
+			// The row count is filled into the headers once all the rows have been written
+			images.writeInt(IMAGES_MAGIC_NUMBER);
+			images.writeInt(0);
+			images.writeInt(28);
+			images.writeInt(28);
+			labels.writeInt(LABELS_MAGIC_NUMBER);
+			labels.writeInt(0);
+			String line;
+			for (int lineIndex = 0; lineIndex < endLine && (line = reader.readLine()) != null; lineIndex++) {
+				if (lineIndex >= startLine) {
+					String[] values = line.split(",");
+					labels.writeByte(Integer.parseInt(values[0].trim()));
+					for (int i = 1; i < values.length; i++) {
+						images.writeByte(Integer.parseInt(values[i].trim()));
+					}
+					rowCount++;
+				}
+			}
+		} finally {
+			reader.close();
+			images.close();
+			labels.close();
+		}
+		writeRowCount(imagesFile, rowCount);
+		writeRowCount(labelsFile, rowCount);
+		return rowCount;
+	}
+
+	private static void writeRowCount(File file, int rowCount) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.seek(4);
+			randomAccessFile.writeInt(rowCount);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+}
@@ -15,8 +15,8 @@
  */
 package org.ml4j.mnist.demos;
 
-import org.ml4j.mnist.service.DigitClassificationService;
 import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.service.SubBatchSizeMeasurement;
 import org.ml4j.mnist.training.DigitClassificationCNNTrainer;
 import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
 import org.ml4j.nn.util.KaggleTestSetPixelFeaturesMatrixCsvDataExtractor;
@@ -61,13 +61,20 @@ public class KaggleTestSetDigitClassifier {
 		System.out.println(preLearnedHypothesisFunction.getNeuralNetwork());
 		
 		
-		DigitClassificationService digitClassificationService
+		NeuralNetworkDigitClassificationService digitClassificationService
 		 = new NeuralNetworkDigitClassificationService(preLearnedHypothesisFunction,cudaAvailable,jBlasAvailable);
 	
 		// Output the predictions
 		System.out.println("Generating predictions for 28000 Kaggle test set images...\n");
 		
 		int[] predictions = digitClassificationService.getPredictedDigitClassifications(testSetDataMatrix);
+		System.out.println("Classified in sub-batches of "
+				+ digitClassificationService.getSubBatchSizeAutotuner().getChosenSubBatchSize() + " images");
+		for (SubBatchSizeMeasurement measurement : digitClassificationService.getSubBatchSizeAutotuner()
+				.getMeasurements()) {
+			System.out.println(measurement);
+		}
+		System.out.println();
 		System.out.println("\"ImageId\",\"Label\"");
 		int rowNumber = 1;
 		for (int i = 0; i < 28000; i++) {
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.demos;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.ml4j.mnist.service.MnistDigitImageNormalizer;
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.mnist.service.SlidingWindowDigitRecognizer;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.JpegFileFilter;
+
+/**
+ * Recognizes strips of several MNIST digits, such as account numbers, with a
+ * SlidingWindowDigitRecognizer and a pre-learned Convolutional Neural Network.
+ *
+ * The strips are composed from the images in src/main/resources/test_images, placed side by side
+ * with gaps.  Each recognized sequence is compared with the service's prediction for each image
+ * on its own, and the time taken is compared with classifying every window position separately.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MultiDigitStripRecognizerDemo {
+
+	public static void main(String[] args) throws IOException {
+
+		// Assumed that JBlas is available by default (this is case on MacBooks) - disable to fall back to JAMA matrix strategy (slower)
+		boolean jBlasAvailable = true;
+
+		// Number of digits in each strip, and the blank pixels between them
+		int digitsPerStrip = 8;
+		int gap = 6;
+
+		// Softmax activation a window must reach to be detected, and the overlap above which the less confident of two windows is dropped
+		double minConfidence = 0.5;
+		double maxOverlap = 0.4;
+
+		String serializedHypothesisFunctionName = "19_08_2015_CNN_1";
+
+		NeuralNetworkHypothesisFunction preLearnedHypothesisFunction = PreTrainedHypothesisFunctionLoader
+				.load(serializedHypothesisFunctionName);
+
+		NeuralNetworkDigitClassificationService digitClassificationService = new NeuralNetworkDigitClassificationService(
+				preLearnedHypothesisFunction, false, jBlasAvailable);
+		SlidingWindowDigitRecognizer recognizer = new SlidingWindowDigitRecognizer(preLearnedHypothesisFunction,
+				minConfidence, maxOverlap);
+
+		File imagesDirectory = new File(MultiDigitStripRecognizerDemo.class.getClassLoader().getResource("test_images")
+				.getFile());
+		List<BufferedImage> images = new ArrayList<BufferedImage>();
+		for (File imageFile : imagesDirectory.listFiles(new JpegFileFilter())) {
+			images.add(ImageIO.read(imageFile));
+		}
+
+		int stripCount = 0;
+		int correctStripCount = 0;
+		long sharedNanos = 0;
+		long perWindowNanos = 0;
+		for (int first = 0; first + digitsPerStrip <= images.size(); first += digitsPerStrip) {
+			List<BufferedImage> digits = images.subList(first, first + digitsPerStrip);
+			int[] expected = new int[digitsPerStrip];
+			for (int i = 0; i < digitsPerStrip; i++) {
+				expected[i] = digitClassificationService.getPredictedDigitClassification(digits.get(i));
+			}
+			BufferedImage strip = createStrip(digits, gap);
+
+			long start = System.nanoTime();
+			int[] recognized = recognizer.recognizeLine(strip);
+			sharedNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			classifyEveryWindow(preLearnedHypothesisFunction, strip);
+			perWindowNanos += System.nanoTime() - start;
+
+			boolean correct = Arrays.equals(expected, recognized);
+			System.out.println("Expected " + Arrays.toString(expected) + ", recognized " + Arrays.toString(recognized)
+					+ (correct ? "" : " - MISMATCH"));
+			stripCount++;
+			if (correct) {
+				correctStripCount++;
+			}
+		}
+
+		System.out.println("\nStrips recognized as per-image predictions:" + correctStripCount + " of " + stripCount);
+		System.out.println("Shared convolution millis:" + sharedNanos / 1000000);
+		System.out.println("Per-window classification millis:" + perWindowNanos / 1000000);
+		System.out.println("Speedup:" + (double) perWindowNanos / Math.max(1, sharedNanos));
+	}
+
+	/**
+	 * Places the digits side by side on a white strip
+	 */
+	private static BufferedImage createStrip(List<BufferedImage> digits, int gap) {
+		int width = gap;
+		int height = 0;
+		for (BufferedImage digit : digits) {
+			width += digit.getWidth() + gap;
+			height = Math.max(height, digit.getHeight());
+		}
+		BufferedImage strip = new BufferedImage(width, height + 2 * gap, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = strip.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, strip.getWidth(), strip.getHeight());
+		int x = gap;
+		for (BufferedImage digit : digits) {
+			graphics.drawImage(digit, x, gap, null);
+			x += digit.getWidth() + gap;
+		}
+		graphics.dispose();
+		return strip;
+	}
+
+	/**
+	 * The baseline - classifies each 28 * 28 window of the normalized strip separately, at the
+	 * same positions the recognizer considers
+	 */
+	private static void classifyEveryWindow(NeuralNetworkHypothesisFunction hypothesisFunction, BufferedImage strip) {
+		double[][] line = new MnistDigitImageNormalizer(0.2).normalizeLine(strip);
+		if (line == null) {
+			return;
+		}
+		double[] window = new double[28 * 28];
+		for (int x = 0; x + 28 <= line[0].length; x += 2) {
+			for (int r = 0; r < 28; r++) {
+				System.arraycopy(line[r], x, window, r * 28, 28);
+			}
+			hypothesisFunction.predict(window);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+import java.io.Serializable;
+
+/**
+ * Counts of actual vs predicted classes, indexed by [actual][predicted]
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ConfusionMatrix implements Serializable {
+
+	/**
+	 * Default serialization id
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private long[][] counts;
+
+	public ConfusionMatrix(int classCount) {
+		this.counts = new long[classCount][classCount];
+	}
+
+	public int getClassCount() {
+		return counts.length;
+	}
+
+	public void add(int actual, int predicted) {
+		counts[actual][predicted]++;
+	}
+
+	/**
+	 * Adds the counts of another confusion matrix to this one
+	 *
+	 * @param other The confusion matrix to merge into this one
+	 */
+	public void merge(ConfusionMatrix other) {
+		if (other.getClassCount() != getClassCount()) {
+			throw new IllegalArgumentException("Confusion matrices must have the same number of classes");
+		}
+		for (int actual = 0; actual < counts.length; actual++) {
+			for (int predicted = 0; predicted < counts.length; predicted++) {
+				counts[actual][predicted] += other.counts[actual][predicted];
+			}
+		}
+	}
+
+	public long getCount(int actual, int predicted) {
+		return counts[actual][predicted];
+	}
+
+	public long getTotal() {
+		long total = 0;
+		for (int actual = 0; actual < counts.length; actual++) {
+			total += getActualCount(actual);
+		}
+		return total;
+	}
+
+	public long getCorrect() {
+		long correct = 0;
+		for (int c = 0; c < counts.length; c++) {
+			correct += counts[c][c];
+		}
+		return correct;
+	}
+
+	public long getActualCount(int actual) {
+		long count = 0;
+		for (int predicted = 0; predicted < counts.length; predicted++) {
+			count += counts[actual][predicted];
+		}
+		return count;
+	}
+
+	public long getPredictedCount(int predicted) {
+		long count = 0;
+		for (int actual = 0; actual < counts.length; actual++) {
+			count += counts[actual][predicted];
+		}
+		return count;
+	}
+
+	public double getAccuracy() {
+		long total = getTotal();
+		return total == 0 ? 0 : (double) getCorrect() / total;
+	}
+
+	/**
+	 *
+	 * @param c The class
+	 * @return The fraction of predictions of class c which were correct
+	 */
+	public double getPrecision(int c) {
+		long predicted = getPredictedCount(c);
+		return predicted == 0 ? 0 : (double) counts[c][c] / predicted;
+	}
+
+	/**
+	 *
+	 * @param c The class
+	 * @return The fraction of rows of class c which were predicted correctly
+	 */
+	public double getRecall(int c) {
+		long actual = getActualCount(c);
+		return actual == 0 ? 0 : (double) counts[c][c] / actual;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%8s", "act\\pred"));
+		for (int predicted = 0; predicted < counts.length; predicted++) {
+			sb.append(String.format("%8d", predicted));
+		}
+		sb.append('\n');
+		for (int actual = 0; actual < counts.length; actual++) {
+			sb.append(String.format("%8d", actual));
+			for (int predicted = 0; predicted < counts.length; predicted++) {
+				sb.append(String.format("%8d", counts[actual][predicted]));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders misclassified digits into tiled grayscale PNG contact sheets, without a display.
+ *
+ * Each tile shows a digit, enlarged by pixel replication, above a label of the form
+ * "P7 A3" giving the predicted and actual digits.  Pixels and labels are written directly
+ * into each sheet's byte raster - no Graphics2D is involved.
+ *
+ * Digits are queued as they are reported and tiled by a background rendering thread, and
+ * full sheets are PNG-encoded by a second background thread, so rendering overlaps with
+ * evaluation.  If the queue is full, reporting threads wait for the renderer to catch up.
+ * Close the renderer once evaluation has finished to write the last, partial sheet.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ContactSheetRenderer implements MisclassificationListener, Closeable {
+
+	private static final int DIGIT_SIZE = 28;
+	private static final int FONT_SCALE = 2;
+	private static final int GLYPH_WIDTH = 3;
+	private static final int GLYPH_HEIGHT = 5;
+	private static final int LABEL_HEIGHT = (GLYPH_HEIGHT + 2) * FONT_SCALE;
+	private static final int GRID_LINE_LEVEL = 160;
+	private static final byte WHITE = (byte) 255;
+
+	/**
+	 * 3 * 5 bitmaps of the digits 0 to 9, followed by 'P' and 'A', row by row
+	 */
+	private static final String[] GLYPHS = new String[] { "111101101101111", "010110010010111", "111001111100111",
+			"111001111001111", "101101111001001", "111100111001111", "111100111101111", "111001001001001",
+			"111101111101111", "111101111001111", "111101111100100", "010101111101101" };
+	private static final int P_GLYPH = 10;
+	private static final int A_GLYPH = 11;
+
+	private static final Tile END = new Tile(null, 0, 0);
+
+	private File outputDirectory;
+	private String fileNamePrefix;
+	private int columns;
+	private int rows;
+	private int scale;
+	private int tileWidth;
+	private int tileHeight;
+
+	private BlockingQueue<Tile> queue;
+	private Thread renderingThread;
+	private ExecutorService encoder;
+	private List<Future<File>> encodedSheets = new ArrayList<Future<File>>();
+	private volatile Exception renderingFailure;
+	private volatile long tilesRendered;
+
+	/**
+	 *
+	 * @param outputDirectory The directory to write the sheets to
+	 * @param fileNamePrefix The prefix of each sheet's file name, followed by the sheet number
+	 * @param columns The number of tiles across each sheet
+	 * @param rows The number of tiles down each sheet
+	 * @param scale The enlargement of each digit
+	 * @param queueCapacity The number of digits which may be waiting to be rendered
+	 */
+	public ContactSheetRenderer(File outputDirectory, String fileNamePrefix, int columns, int rows, int scale,
+			int queueCapacity) {
+		if (columns < 1 || rows < 1 || scale < 1) {
+			throw new IllegalArgumentException("Columns, rows and scale must be positive");
+		}
+		this.outputDirectory = outputDirectory;
+		this.fileNamePrefix = fileNamePrefix;
+		this.columns = columns;
+		this.rows = rows;
+		this.scale = scale;
+		// One pixel grid line to the right of and below each tile
+		this.tileWidth = Math.max(DIGIT_SIZE * scale, (5 * (GLYPH_WIDTH + 1) + 1) * FONT_SCALE) + 1;
+		this.tileHeight = DIGIT_SIZE * scale + LABEL_HEIGHT + 1;
+		this.queue = new ArrayBlockingQueue<Tile>(queueCapacity);
+		this.encoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "contact-sheet-encoder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.renderingThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				render();
+			}
+		}, "contact-sheet-renderer");
+		this.renderingThread.setDaemon(true);
+		this.renderingThread.start();
+	}
+
+	@Override
+	public void onMisclassified(long rowId, double[] mnistData, int predicted, int actual) {
+		// Copy the pixels as gray levels, so the caller's data can be released
+		byte[] pixels = new byte[DIGIT_SIZE * DIGIT_SIZE];
+		for (int i = 0; i < pixels.length; i++) {
+			double ink = Math.max(0, Math.min(1, mnistData[i]));
+			pixels[i] = (byte) (255 - (int) Math.round(ink * 255));
+		}
+		try {
+			queue.put(new Tile(pixels, predicted, actual));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while queueing digit for rendering", e);
+		}
+	}
+
+	/**
+	 * Runs on the rendering thread until the end of the queue
+	 */
+	private void render() {
+		BufferedImage sheet = null;
+		int tileIndex = 0;
+		int sheetNumber = 0;
+		try {
+			while (true) {
+				Tile tile = queue.take();
+				if (tile == END) {
+					break;
+				}
+				if (sheet == null) {
+					sheet = createSheet(rows);
+				}
+				drawTile(sheet, tileIndex % columns, tileIndex / columns, tile);
+				tilesRendered++;
+				if (++tileIndex == columns * rows) {
+					encode(sheet, ++sheetNumber);
+					sheet = null;
+					tileIndex = 0;
+				}
+			}
+			if (sheet != null) {
+				// Crop the last sheet to the rows used - the raster is shared, not copied
+				int usedRows = (tileIndex + columns - 1) / columns;
+				encode(sheet.getSubimage(0, 0, sheet.getWidth(), usedRows * tileHeight + 1), ++sheetNumber);
+			}
+		} catch (InterruptedException e) {
+			renderingFailure = e;
+		} catch (RuntimeException e) {
+			renderingFailure = e;
+			// Keep draining, so that reporting threads are not blocked forever
+			drain();
+		}
+	}
+
+	private void drain() {
+		try {
+			while (queue.take() != END) {
+				continue;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private BufferedImage createSheet(int sheetRows) {
+		BufferedImage sheet = new BufferedImage(columns * tileWidth + 1, sheetRows * tileHeight + 1,
+				BufferedImage.TYPE_BYTE_GRAY);
+		byte[] raster = ((DataBufferByte) sheet.getRaster().getDataBuffer()).getData();
+		int width = sheet.getWidth();
+		for (int y = 0; y < sheet.getHeight(); y++) {
+			boolean gridRow = y % tileHeight == 0;
+			for (int x = 0; x < width; x++) {
+				raster[y * width + x] = gridRow || x % tileWidth == 0 ? (byte) GRID_LINE_LEVEL : WHITE;
+			}
+		}
+		return sheet;
+	}
+
+	private void drawTile(BufferedImage sheet, int column, int row, Tile tile) {
+		byte[] raster = ((DataBufferByte) sheet.getRaster().getDataBuffer()).getData();
+		int width = sheet.getWidth();
+		int left = column * tileWidth + 1;
+		int top = row * tileHeight + 1;
+		int digitLeft = left + (tileWidth - 1 - DIGIT_SIZE * scale) / 2;
+		for (int y = 0; y < DIGIT_SIZE * scale; y++) {
+			int sourceOffset = (y / scale) * DIGIT_SIZE;
+			int targetOffset = (top + y) * width + digitLeft;
+			for (int x = 0; x < DIGIT_SIZE * scale; x++) {
+				raster[targetOffset + x] = tile.pixels[sourceOffset + x / scale];
+			}
+		}
+		int labelTop = top + DIGIT_SIZE * scale + FONT_SCALE;
+		int labelLeft = left + FONT_SCALE;
+		int[] label = new int[] { P_GLYPH, tile.predicted, -1, A_GLYPH, tile.actual };
+		for (int g = 0; g < label.length; g++) {
+			if (label[g] >= 0) {
+				drawGlyph(raster, width, labelLeft + g * (GLYPH_WIDTH + 1) * FONT_SCALE, labelTop, label[g]);
+			}
+		}
+	}
+
+	private static void drawGlyph(byte[] raster, int width, int left, int top, int glyph) {
+		String bitmap = GLYPHS[glyph];
+		for (int y = 0; y < GLYPH_HEIGHT * FONT_SCALE; y++) {
+			for (int x = 0; x < GLYPH_WIDTH * FONT_SCALE; x++) {
+				if (bitmap.charAt((y / FONT_SCALE) * GLYPH_WIDTH + x / FONT_SCALE) == '1') {
+					raster[(top + y) * width + left + x] = 0;
+				}
+			}
+		}
+	}
+
+	private void encode(final BufferedImage sheet, int sheetNumber) {
+		final File file = new File(outputDirectory, fileNamePrefix + String.format("%04d", sheetNumber) + ".png");
+		encodedSheets.add(encoder.submit(new Callable<File>() {
+
+			@Override
+			public File call() throws IOException {
+				if (!ImageIO.write(sheet, "png", file)) {
+					throw new IOException("No PNG writer available");
+				}
+				return file;
+			}
+		}));
+	}
+
+	/**
+	 * Waits for all queued digits to be rendered and all sheets to be written
+	 *
+	 * @return The sheets written
+	 * @throws IOException if rendering or writing any sheet failed
+	 */
+	public List<File> finish() throws IOException {
+		try {
+			queue.put(END);
+			renderingThread.join();
+			if (renderingFailure != null) {
+				throw new IOException("Unable to render contact sheets", renderingFailure);
+			}
+			List<File> files = new ArrayList<File>();
+			for (Future<File> encodedSheet : encodedSheets) {
+				files.add(encodedSheet.get());
+			}
+			return files;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while finishing contact sheets", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to write contact sheet", e.getCause());
+		} finally {
+			encoder.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of digits rendered so far
+	 */
+	public long getTilesRendered() {
+		return tilesRendered;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (renderingThread.isAlive()) {
+			finish();
+		}
+	}
+
+	private static class Tile {
+
+		private byte[] pixels;
+		private int predicted;
+		private int actual;
+
+		public Tile(byte[] pixels, int predicted, int actual) {
+			this.pixels = pixels;
+			this.predicted = predicted;
+			this.actual = actual;
+		}
+	}
+}
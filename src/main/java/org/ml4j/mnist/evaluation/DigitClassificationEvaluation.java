@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Accumulates the results of classifying labelled digits - a confusion matrix, the
+ * rank of the actual digit within each prediction (for top-k accuracy) and a bounded
+ * list of the worst misclassifications.
+ *
+ * Memory use is independent of the number of rows recorded, and evaluations of
+ * disjoint chunks of a data set can be merged.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationEvaluation implements Serializable {
+
+	/**
+	 * Default serialization id
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final int DIGIT_COUNT = 10;
+
+	/**
+	 * Orders misclassifications with the least bad first, so the head of the queue
+	 * is the one to evict when the queue is full
+	 */
+	private static final Comparator<Misclassification> LEAST_BAD_FIRST = new LeastBadFirstComparator();
+
+	private ConfusionMatrix confusionMatrix;
+	private long[] actualRankCounts;
+	private int maxMisclassifications;
+	private PriorityQueue<Misclassification> worstMisclassifications;
+
+	/**
+	 *
+	 * @param maxMisclassifications The number of worst misclassifications to retain
+	 */
+	public DigitClassificationEvaluation(int maxMisclassifications) {
+		this.confusionMatrix = new ConfusionMatrix(DIGIT_COUNT);
+		this.actualRankCounts = new long[DIGIT_COUNT];
+		this.maxMisclassifications = maxMisclassifications;
+		this.worstMisclassifications = new PriorityQueue<Misclassification>(Math.max(1, maxMisclassifications + 1),
+				LEAST_BAD_FIRST);
+	}
+
+	/**
+	 * Records the outcome of classifying a single row
+	 *
+	 * @param rowId The id of the row
+	 * @param outputActivations The softmax output activations for the row
+	 * @param actual The actual digit
+	 */
+	public void add(long rowId, double[] outputActivations, int actual) {
+		int predicted = 0;
+		int actualRank = 0;
+		double actualProbability = outputActivations[actual];
+		for (int c = 0; c < outputActivations.length; c++) {
+			if (outputActivations[c] > outputActivations[predicted]) {
+				predicted = c;
+			}
+			if (outputActivations[c] > actualProbability) {
+				actualRank++;
+			}
+		}
+		confusionMatrix.add(actual, predicted);
+		actualRankCounts[actualRank]++;
+		if (predicted != actual) {
+			offer(new Misclassification(rowId, predicted, actual, actualProbability));
+		}
+	}
+
+	private void offer(Misclassification misclassification) {
+		if (maxMisclassifications <= 0) {
+			return;
+		}
+		worstMisclassifications.add(misclassification);
+		if (worstMisclassifications.size() > maxMisclassifications) {
+			worstMisclassifications.poll();
+		}
+	}
+
+	/**
+	 * Merges the results of an evaluation of a disjoint set of rows into this evaluation
+	 *
+	 * @param other The evaluation to merge
+	 */
+	public void merge(DigitClassificationEvaluation other) {
+		confusionMatrix.merge(other.confusionMatrix);
+		for (int rank = 0; rank < actualRankCounts.length; rank++) {
+			actualRankCounts[rank] += other.actualRankCounts[rank];
+		}
+		for (Misclassification misclassification : other.worstMisclassifications) {
+			offer(misclassification);
+		}
+	}
+
+	public ConfusionMatrix getConfusionMatrix() {
+		return confusionMatrix;
+	}
+
+	public long getRowCount() {
+		return confusionMatrix.getTotal();
+	}
+
+	public double getAccuracy() {
+		return confusionMatrix.getAccuracy();
+	}
+
+	/**
+	 *
+	 * @param k The number of highest ranked predictions to consider
+	 * @return The fraction of rows where the actual digit was within the top k predictions
+	 */
+	public double getTopKAccuracy(int k) {
+		long rowCount = getRowCount();
+		if (rowCount == 0) {
+			return 0;
+		}
+		long correct = 0;
+		for (int rank = 0; rank < Math.min(k, actualRankCounts.length); rank++) {
+			correct += actualRankCounts[rank];
+		}
+		return (double) correct / rowCount;
+	}
+
+	/**
+	 *
+	 * @return The retained misclassifications, worst (lowest probability of the actual digit) first
+	 */
+	public List<Misclassification> getWorstMisclassifications() {
+		List<Misclassification> misclassifications = new ArrayList<Misclassification>(worstMisclassifications);
+		Collections.sort(misclassifications, Collections.reverseOrder(LEAST_BAD_FIRST));
+		return misclassifications;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Rows evaluated:" + getRowCount() + "\n");
+		sb.append("Accuracy:" + getAccuracy() + "\n");
+		for (int k = 2; k <= 3; k++) {
+			sb.append("Top-" + k + " accuracy:" + getTopKAccuracy(k) + "\n");
+		}
+		sb.append("\nConfusion matrix:\n");
+		sb.append(confusionMatrix);
+		sb.append("\nDigit,Precision,Recall\n");
+		for (int digit = 0; digit < DIGIT_COUNT; digit++) {
+			sb.append(digit + "," + String.format("%.4f", confusionMatrix.getPrecision(digit)) + ","
+					+ String.format("%.4f", confusionMatrix.getRecall(digit)) + "\n");
+		}
+		sb.append("\nWorst misclassifications:\n");
+		for (Misclassification misclassification : getWorstMisclassifications()) {
+			sb.append(misclassification + "\n");
+		}
+		return sb.toString();
+	}
+
+	private static class LeastBadFirstComparator implements Comparator<Misclassification>, Serializable {
+
+		/**
+		 * Default serialization id
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public int compare(Misclassification first, Misclassification second) {
+			int result = Double.compare(second.getActualProbability(), first.getActualProbability());
+			if (result == 0) {
+				// Deterministic ordering regardless of merge order
+				result = first.getRowId() < second.getRowId() ? 1 : (first.getRowId() == second.getRowId() ? 0 : -1);
+			}
+			return result;
+		}
+	}
+}
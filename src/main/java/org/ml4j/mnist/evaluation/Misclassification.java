@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+import java.io.Serializable;
+
+/**
+ * A misclassified row, with the probability the model assigned to the actual digit
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class Misclassification implements Serializable {
+
+	/**
+	 * Default serialization id
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private long rowId;
+	private int predicted;
+	private int actual;
+	private double actualProbability;
+
+	public Misclassification(long rowId, int predicted, int actual, double actualProbability) {
+		this.rowId = rowId;
+		this.predicted = predicted;
+		this.actual = actual;
+		this.actualProbability = actualProbability;
+	}
+
+	public long getRowId() {
+		return rowId;
+	}
+
+	public int getPredicted() {
+		return predicted;
+	}
+
+	public int getActual() {
+		return actual;
+	}
+
+	/**
+	 *
+	 * @return The output activation of the actual digit - the lower this is, the
+	 *         worse the misclassification
+	 */
+	public double getActualProbability() {
+		return actualProbability;
+	}
+
+	@Override
+	public String toString() {
+		return "Row:" + rowId + ",Predicted:" + predicted + ",Actual:" + actual + ",P(actual):"
+				+ String.format("%.6f", actualProbability);
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+/**
+ * Notified of each misclassified row as it is evaluated.  Notifications arrive on the
+ * evaluator's worker threads, in no particular order, so implementations must be thread-safe.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public interface MisclassificationListener {
+
+	/**
+	 *
+	 * @param rowId The id of the row
+	 * @param mnistData The 28 * 28 image of the row - implementations must not modify it
+	 * @param predicted The predicted digit
+	 * @param actual The actual digit
+	 */
+	void onMisclassified(long rowId, double[] mnistData, int predicted, int actual);
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.ArrayMnistDataBatchSource;
+import org.ml4j.nn.util.MnistDataBatch;
+import org.ml4j.nn.util.MnistDataBatchSource;
+
+/**
+ * Evaluates a NeuralNetworkHypothesisFunction against a labelled data set, scoring
+ * chunks of rows in parallel and merging the per-chunk confusion matrices and metrics.
+ *
+ * Chunks are read from an MnistDataBatchSource on the calling thread, and at most two
+ * chunks per worker thread are in memory at any time, so arbitrarily large data sets
+ * can be evaluated in bounded memory.
+ *
+ * The worker threads call predict on the same hypothesis function concurrently, using the
+ * DoubleMatrixConfig strategy configured globally for the JVM.  This relies on predict only
+ * reading the network's weights and allocating new matrices for each call, rather than
+ * sharing working state between calls - ParallelDigitClassificationEvaluatorTest checks that
+ * parallel and sequential predictions of the same rows are identical.  The strategy should
+ * not be changed while an evaluation is running.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ParallelDigitClassificationEvaluator {
+
+	private NeuralNetworkHypothesisFunction hypothesisFunction;
+	private int threadCount;
+	private int chunkSize;
+	private int maxMisclassifications;
+	private MisclassificationListener misclassificationListener;
+
+	/**
+	 *
+	 * @param hypothesisFunction The hypothesis function to evaluate
+	 * @param threadCount The number of worker threads
+	 * @param chunkSize The number of rows scored by each call to predict
+	 * @param maxMisclassifications The number of worst misclassifications to report
+	 */
+	public ParallelDigitClassificationEvaluator(NeuralNetworkHypothesisFunction hypothesisFunction, int threadCount,
+			int chunkSize, int maxMisclassifications) {
+		if (threadCount < 1 || chunkSize < 1) {
+			throw new IllegalArgumentException("Thread count and chunk size must be positive");
+		}
+		this.hypothesisFunction = hypothesisFunction;
+		this.threadCount = threadCount;
+		this.chunkSize = chunkSize;
+		this.maxMisclassifications = maxMisclassifications;
+	}
+
+	/**
+	 *
+	 * @param misclassificationListener A listener to notify of every misclassified row, or null
+	 */
+	public void setMisclassificationListener(MisclassificationListener misclassificationListener) {
+		this.misclassificationListener = misclassificationListener;
+	}
+
+	/**
+	 *
+	 * @param testSetData A mnistData array of 28 * 28 images, each represented as a double[]
+	 * @param testSetLabels An array of labels, each represented as a double[] with the index of the '1' element identifying the digit
+	 * @param firstRowId The row id to report for the first row of the test set
+	 * @return The evaluation
+	 */
+	public DigitClassificationEvaluation evaluate(double[][] testSetData, double[][] testSetLabels, long firstRowId) {
+		try {
+			return evaluate(new ArrayMnistDataBatchSource(testSetData, testSetLabels, firstRowId));
+		} catch (IOException e) {
+			// Not thrown by in-memory sources
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Evaluates all batches from the source.  The source is not closed.
+	 *
+	 * @param source A source of labelled batches
+	 * @return The evaluation
+	 * @throws IOException
+	 */
+	public DigitClassificationEvaluation evaluate(MnistDataBatchSource source) throws IOException {
+		DigitClassificationEvaluation evaluation = new DigitClassificationEvaluation(maxMisclassifications);
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+		try {
+			CompletionService<DigitClassificationEvaluation> completionService = new ExecutorCompletionService<DigitClassificationEvaluation>(
+					executorService);
+			int maxPendingChunks = threadCount * 2;
+			int pendingChunks = 0;
+			MnistDataBatch batch;
+			while ((batch = source.nextBatch(chunkSize)) != null) {
+				if (!batch.isLabelled()) {
+					throw new IllegalArgumentException("Evaluation requires labelled data");
+				}
+				if (pendingChunks == maxPendingChunks) {
+					evaluation.merge(takeResult(completionService));
+					pendingChunks--;
+				}
+				completionService.submit(new ChunkEvaluation(batch));
+				pendingChunks++;
+			}
+			while (pendingChunks > 0) {
+				evaluation.merge(takeResult(completionService));
+				pendingChunks--;
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+		return evaluation;
+	}
+
+	private DigitClassificationEvaluation takeResult(CompletionService<DigitClassificationEvaluation> completionService) {
+		try {
+			return completionService.take().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during evaluation", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unable to evaluate chunk", e.getCause());
+		}
+	}
+
+	private class ChunkEvaluation implements Callable<DigitClassificationEvaluation> {
+
+		private MnistDataBatch batch;
+
+		public ChunkEvaluation(MnistDataBatch batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		public DigitClassificationEvaluation call() {
+			DigitClassificationEvaluation chunkEvaluation = new DigitClassificationEvaluation(maxMisclassifications);
+			double[][] outputActivations = hypothesisFunction.predict(batch.getData());
+			double[][] labels = batch.getLabels();
+			for (int row = 0; row < outputActivations.length; row++) {
+				int actual = NeuralNetworkDigitClassificationService.getArgMaxIndex(labels[row]);
+				chunkEvaluation.add(batch.getFirstRowId() + row, outputActivations[row], actual);
+				if (misclassificationListener != null) {
+					int predicted = NeuralNetworkDigitClassificationService.getArgMaxIndex(outputActivations[row]);
+					if (predicted != actual) {
+						misclassificationListener.onMisclassified(batch.getFirstRowId() + row,
+								batch.getData()[row], predicted, actual);
+					}
+				}
+			}
+			return chunkEvaluation;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.online;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Fine-tunes the model served by a NeuralNetworkDigitClassificationService from labelled
+ * feedback, such as operators' corrections of misclassified digits, while it keeps serving.
+ *
+ * Feedback is buffered, and once enough has arrived a low priority background thread copies
+ * the served hypothesis function, trains the copy for a few iterations on the most recent
+ * feedback, and validates the copy against a held-out slice of labelled data.  The copy is
+ * published to the service only if its validation accuracy is no worse than that of the served
+ * function - publishing swaps a reference, so classification is never paused.
+ *
+ * Training runs in slices of a few iterations, and validation in slices of a few hundred images,
+ * and the background thread sleeps after each slice in proportion to the CPU time it used, so that
+ * fine-tuning uses at most the configured fraction of a core.  Matrix libraries which multiply on
+ * threads of their own are not capped.  Failed steps and published models are reported through
+ * the counters and accuracies exposed here.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class OnlineFineTuner implements Closeable {
+
+	private static final int LABEL_COUNT = 10;
+
+	// The number of validation images classified between throttling sleeps
+	private static final int VALIDATION_SLICE_SIZE = 250;
+
+	private NeuralNetworkDigitClassificationService service;
+	private double[][] validationData;
+	private double[][] validationLabels;
+	private int minFeedbackPerStep;
+	private int trainingWindowSize;
+	private int iterationsPerStep;
+	private int iterationsPerSlice;
+	private double regularizationLambda;
+	private double maxCpuFraction;
+
+	private BlockingQueue<double[][]> feedbackQueue;
+	private LinkedList<double[][]> trainingWindow = new LinkedList<double[][]>();
+	private Thread fineTuningThread;
+	private volatile boolean running;
+	private NeuralNetworkHypothesisFunction validatedFunction;
+
+	private AtomicLong feedbackCount = new AtomicLong();
+	private AtomicLong rejectedFeedbackCount = new AtomicLong();
+	private AtomicLong stepCount = new AtomicLong();
+	private AtomicLong publishedCount = new AtomicLong();
+	private AtomicLong failedStepCount = new AtomicLong();
+	private volatile Exception lastFailure;
+	private volatile double servedValidationAccuracy = Double.NaN;
+	private volatile double lastCandidateValidationAccuracy = Double.NaN;
+
+	/**
+	 *
+	 * @param service The service whose model is fine-tuned
+	 * @param validationData The held-out images each candidate is validated against
+	 * @param validationLabels The labels of the held-out images
+	 * @param minFeedbackPerStep The number of new feedback samples which trigger a fine-tuning step
+	 * @param trainingWindowSize The number of most recent feedback samples each step trains on
+	 * @param iterationsPerStep The number of training iterations in each step
+	 * @param regularizationLambda The amount of regularisation
+	 * @param maxCpuFraction The fraction of a core fine-tuning may use, greater than 0 and at most 1
+	 */
+	public OnlineFineTuner(NeuralNetworkDigitClassificationService service, double[][] validationData,
+			double[][] validationLabels, int minFeedbackPerStep, int trainingWindowSize, int iterationsPerStep,
+			double regularizationLambda, double maxCpuFraction) {
+		if (minFeedbackPerStep < 1 || trainingWindowSize < minFeedbackPerStep || iterationsPerStep < 1) {
+			throw new IllegalArgumentException("Feedback per step, training window and iterations must be positive,"
+					+ " and the training window at least the feedback per step");
+		}
+		if (maxCpuFraction <= 0 || maxCpuFraction > 1) {
+			throw new IllegalArgumentException("CPU fraction must be greater than 0 and at most 1");
+		}
+		this.service = service;
+		this.validationData = validationData;
+		this.validationLabels = validationLabels;
+		this.minFeedbackPerStep = minFeedbackPerStep;
+		this.trainingWindowSize = trainingWindowSize;
+		this.iterationsPerStep = iterationsPerStep;
+		this.iterationsPerSlice = Math.min(iterationsPerStep, 2);
+		this.regularizationLambda = regularizationLambda;
+		this.maxCpuFraction = maxCpuFraction;
+		this.feedbackQueue = new ArrayBlockingQueue<double[][]>(trainingWindowSize);
+	}
+
+	public void start() {
+		running = true;
+		fineTuningThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				fineTuneUntilClosed();
+			}
+		}, "mnist-online-fine-tuner");
+		fineTuningThread.setPriority(Thread.MIN_PRIORITY);
+		fineTuningThread.setDaemon(true);
+		fineTuningThread.start();
+	}
+
+	/**
+	 * Buffers a labelled sample for fine-tuning.  May be called from any thread.
+	 *
+	 * @param mnistData A 28 * 28 image represented as a double[]
+	 * @param digit The correct digit
+	 * @return false if the feedback buffer is full and the sample was dropped
+	 */
+	public boolean addFeedback(double[] mnistData, int digit) {
+		if (digit < 0 || digit >= LABEL_COUNT) {
+			throw new IllegalArgumentException("Digit must be between 0 and 9");
+		}
+		double[] label = new double[LABEL_COUNT];
+		label[digit] = 1;
+		if (feedbackQueue.offer(new double[][] { mnistData.clone(), label })) {
+			feedbackCount.incrementAndGet();
+			return true;
+		}
+		rejectedFeedbackCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Runs on the fine-tuning thread
+	 */
+	private void fineTuneUntilClosed() {
+		int newFeedback = 0;
+		while (running) {
+			try {
+				double[][] feedback = feedbackQueue.poll(100, TimeUnit.MILLISECONDS);
+				if (feedback != null) {
+					trainingWindow.add(feedback);
+					if (trainingWindow.size() > trainingWindowSize) {
+						trainingWindow.removeFirst();
+					}
+					newFeedback++;
+				}
+				if (newFeedback >= minFeedbackPerStep) {
+					newFeedback = 0;
+					fineTuneStep();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				// Keep serving with the current model - the next step will try again
+				failedStepCount.incrementAndGet();
+				lastFailure = e;
+			}
+		}
+	}
+
+	private void fineTuneStep() throws IOException, ClassNotFoundException, InterruptedException {
+		NeuralNetworkHypothesisFunction served = service.getNeuralNetworkHypothesisFunction();
+		double[][] trainingData = new double[trainingWindow.size()][];
+		double[][] trainingLabels = new double[trainingWindow.size()][];
+		int row = 0;
+		for (double[][] feedback : trainingWindow) {
+			trainingData[row] = feedback[0];
+			trainingLabels[row] = feedback[1];
+			row++;
+		}
+
+		NeuralNetworkHypothesisFunction candidate = copy(served);
+		NeuralNetworkAlgorithm algorithm = new NeuralNetworkAlgorithm(candidate.getNeuralNetwork());
+		int iterations = 0;
+		while (iterations < iterationsPerStep && running) {
+			int sliceIterations = Math.min(iterationsPerSlice, iterationsPerStep - iterations);
+			long cpuStart = getCpuTime();
+			NeuralNetworkAlgorithmTrainingContext context = new NeuralNetworkAlgorithmTrainingContext(sliceIterations);
+			context.setRegularizationLambda(regularizationLambda);
+			candidate = algorithm.getHypothesisFunction(trainingData, trainingLabels, context);
+			iterations += sliceIterations;
+			throttle(getCpuTime() - cpuStart);
+		}
+		if (!running) {
+			return;
+		}
+		stepCount.incrementAndGet();
+
+		if (served != validatedFunction) {
+			servedValidationAccuracy = validate(served);
+			validatedFunction = served;
+		}
+		double candidateAccuracy = validate(candidate);
+		if (!running) {
+			return;
+		}
+		lastCandidateValidationAccuracy = candidateAccuracy;
+		// Publish only if the served function hasn't been replaced meanwhile, and the candidate is no worse
+		if (candidateAccuracy >= servedValidationAccuracy && served == service.getNeuralNetworkHypothesisFunction()) {
+			service.setNeuralNetworkHypothesisFunction(candidate);
+			servedValidationAccuracy = candidateAccuracy;
+			validatedFunction = candidate;
+			publishedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Measures validation accuracy in slices, throttling after each slice as for training
+	 */
+	private double validate(NeuralNetworkHypothesisFunction hypothesisFunction) throws InterruptedException {
+		double correct = 0;
+		for (int start = 0; start < validationData.length && running; start += VALIDATION_SLICE_SIZE) {
+			int end = Math.min(start + VALIDATION_SLICE_SIZE, validationData.length);
+			long cpuStart = getCpuTime();
+			correct += hypothesisFunction.getAccuracy(Arrays.copyOfRange(validationData, start, end),
+					Arrays.copyOfRange(validationLabels, start, end)) * (end - start);
+			throttle(getCpuTime() - cpuStart);
+		}
+		return correct / validationData.length;
+	}
+
+	/**
+	 *
+	 * @return The CPU time used by the current thread, or the wall-clock time if CPU time isn't supported
+	 */
+	private static long getCpuTime() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : System
+				.nanoTime();
+	}
+
+	/**
+	 * Sleeps long enough for the CPU time just used to be at most the configured fraction of the elapsed time
+	 */
+	private void throttle(long usedNanos) throws InterruptedException {
+		long sleepNanos = (long) (usedNanos * (1 / maxCpuFraction - 1));
+		if (sleepNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(sleepNanos);
+		}
+	}
+
+	/**
+	 * Deep copies a hypothesis function by serialization, so the copy can be trained while the original serves
+	 */
+	private static NeuralNetworkHypothesisFunction copy(NeuralNetworkHypothesisFunction hypothesisFunction)
+			throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		try {
+			out.writeObject(hypothesisFunction);
+		} finally {
+			out.close();
+		}
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		try {
+			return (NeuralNetworkHypothesisFunction) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	public long getFeedbackCount() {
+		return feedbackCount.get();
+	}
+
+	/**
+	 *
+	 * @return The number of feedback samples dropped because the buffer was full
+	 */
+	public long getRejectedFeedbackCount() {
+		return rejectedFeedbackCount.get();
+	}
+
+	public long getStepCount() {
+		return stepCount.get();
+	}
+
+	/**
+	 *
+	 * @return The number of fine-tuned models published to the service
+	 */
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	/**
+	 *
+	 * @return The number of fine-tuning steps which failed - the served model is unchanged by a failed step
+	 */
+	public long getFailedStepCount() {
+		return failedStepCount.get();
+	}
+
+	/**
+	 *
+	 * @return The reason the last failed step failed, or null if no step has failed
+	 */
+	public Exception getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 *
+	 * @return The validation accuracy of the served model, or NaN before the first step
+	 */
+	public double getServedValidationAccuracy() {
+		return servedValidationAccuracy;
+	}
+
+	/**
+	 *
+	 * @return The validation accuracy of the last candidate, published or not, or NaN before the first step
+	 */
+	public double getLastCandidateValidationAccuracy() {
+		return lastCandidateValidationAccuracy;
+	}
+
+	/**
+	 * Stops fine-tuning - a step in progress is abandoned without being published
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		if (fineTuningThread != null) {
+			fineTuningThread.interrupt();
+			try {
+				fineTuningThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import java.io.Serializable;
+
+/**
+ * A sparse matrix in compressed sparse row (CSR) form, with matrix-vector and
+ * matrix-matrix multiplication kernels.
+ *
+ * Each row of the matrix holds the incoming weights of one output neuron, so multiplying
+ * an input vector by this matrix produces the weighted input of each neuron.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class CsrMatrix implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of examples processed together by the matrix-matrix kernel, chosen so that
+	 * the transposed block of inputs stays in cache
+	 */
+	private static final int EXAMPLE_BLOCK_SIZE = 64;
+
+	private int rowCount;
+	private int columnCount;
+	private int[] rowPointers;
+	private int[] columnIndexes;
+	private double[] values;
+
+	public CsrMatrix(int rowCount, int columnCount, int[] rowPointers, int[] columnIndexes, double[] values) {
+		if (rowPointers.length != rowCount + 1 || columnIndexes.length != values.length
+				|| rowPointers[rowCount] != values.length) {
+			throw new IllegalArgumentException("Inconsistent CSR arrays");
+		}
+		this.rowCount = rowCount;
+		this.columnCount = columnCount;
+		this.rowPointers = rowPointers;
+		this.columnIndexes = columnIndexes;
+		this.values = values;
+	}
+
+	/**
+	 * Creates a CSR matrix from the non-zero elements of a dense matrix
+	 *
+	 * @param dense The dense matrix, indexed by [row][column]
+	 * @param columnCount The number of columns of the dense matrix
+	 * @return The CSR matrix
+	 */
+	public static CsrMatrix fromDense(double[][] dense, int columnCount) {
+		int nonZeroCount = 0;
+		for (double[] row : dense) {
+			for (double value : row) {
+				if (value != 0) {
+					nonZeroCount++;
+				}
+			}
+		}
+		int[] rowPointers = new int[dense.length + 1];
+		int[] columnIndexes = new int[nonZeroCount];
+		double[] values = new double[nonZeroCount];
+		int index = 0;
+		for (int r = 0; r < dense.length; r++) {
+			rowPointers[r] = index;
+			for (int c = 0; c < columnCount; c++) {
+				if (dense[r][c] != 0) {
+					columnIndexes[index] = c;
+					values[index++] = dense[r][c];
+				}
+			}
+		}
+		rowPointers[dense.length] = index;
+		return new CsrMatrix(dense.length, columnCount, rowPointers, columnIndexes, values);
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	public int getNonZeroCount() {
+		return values.length;
+	}
+
+	/**
+	 *
+	 * @return The fraction of elements which are non-zero
+	 */
+	public double getDensity() {
+		return (double) values.length / ((long) rowCount * columnCount);
+	}
+
+	/**
+	 * Sparse matrix-vector multiply
+	 *
+	 * @param input A vector of length getColumnCount()
+	 * @param output A vector of length getRowCount(), overwritten with this matrix multiplied by the input
+	 */
+	public void multiply(double[] input, double[] output) {
+		for (int r = 0; r < rowCount; r++) {
+			double sum = 0;
+			for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+				sum += values[k] * input[columnIndexes[k]];
+			}
+			output[r] = sum;
+		}
+	}
+
+	/**
+	 * Sparse matrix-matrix multiply of a batch of input vectors.
+	 *
+	 * Examples are processed in blocks - each block is transposed so that the inputs
+	 * read for a non-zero element are contiguous, and each non-zero element is then read
+	 * once per block rather than once per example.
+	 *
+	 * @param inputs The input vectors, each of length getColumnCount()
+	 * @return The output vectors, each of length getRowCount()
+	 */
+	public double[][] multiply(double[][] inputs) {
+		double[][] outputs = new double[inputs.length][rowCount];
+		double[][] block = new double[columnCount][EXAMPLE_BLOCK_SIZE];
+		double[] sums = new double[EXAMPLE_BLOCK_SIZE];
+		for (int blockStart = 0; blockStart < inputs.length; blockStart += EXAMPLE_BLOCK_SIZE) {
+			int blockSize = Math.min(EXAMPLE_BLOCK_SIZE, inputs.length - blockStart);
+			for (int i = 0; i < blockSize; i++) {
+				double[] input = inputs[blockStart + i];
+				for (int c = 0; c < columnCount; c++) {
+					block[c][i] = input[c];
+				}
+			}
+			for (int r = 0; r < rowCount; r++) {
+				for (int i = 0; i < blockSize; i++) {
+					sums[i] = 0;
+				}
+				for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+					double value = values[k];
+					double[] column = block[columnIndexes[k]];
+					for (int i = 0; i < blockSize; i++) {
+						sums[i] += value * column[i];
+					}
+				}
+				for (int i = 0; i < blockSize; i++) {
+					outputs[blockStart + i][r] = sums[i];
+				}
+			}
+		}
+		return outputs;
+	}
+}
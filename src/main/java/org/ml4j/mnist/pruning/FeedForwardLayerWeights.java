@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ml4j.DoubleMatrix;
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.activationfunctions.SigmoidActivationFunction;
+import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
+
+/**
+ * A copy of the weights of a fully connected FeedForwardLayer, split into a dense
+ * weights matrix and a bias vector, which can be written back to the layer once modified.
+ *
+ * The layer's thetas hold one row per output neuron, with the bias weight in the first
+ * column when the layer has a bias unit.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class FeedForwardLayerWeights {
+
+	private FeedForwardLayer layer;
+	private double[][] weights;
+	private double[] biases;
+	private boolean softmax;
+
+	private FeedForwardLayerWeights(FeedForwardLayer layer, double[][] weights, double[] biases, boolean softmax) {
+		this.layer = layer;
+		this.weights = weights;
+		this.biases = biases;
+		this.softmax = softmax;
+	}
+
+	/**
+	 * Reads the current weights of a layer
+	 *
+	 * @param layer A fully connected layer with a sigmoid or softmax activation function
+	 * @return A copy of the layer's weights
+	 */
+	public static FeedForwardLayerWeights read(FeedForwardLayer layer) {
+		if (!isFullyConnected(layer)) {
+			throw new IllegalArgumentException("Not a fully connected sigmoid or softmax layer:" + layer);
+		}
+		double[][] thetas = layer.getClonedThetas().toArray2();
+		int firstWeightColumn = layer.hasBiasUnit() ? 1 : 0;
+		double[][] weights = new double[thetas.length][];
+		double[] biases = new double[thetas.length];
+		for (int r = 0; r < thetas.length; r++) {
+			if (layer.hasBiasUnit()) {
+				biases[r] = thetas[r][0];
+			}
+			weights[r] = new double[thetas[r].length - firstWeightColumn];
+			System.arraycopy(thetas[r], firstWeightColumn, weights[r], 0, weights[r].length);
+		}
+		return new FeedForwardLayerWeights(layer, weights, biases,
+				layer.getActivationFunction() instanceof SoftmaxActivationFunction);
+	}
+
+	/**
+	 * Reads the weights of each fully connected layer of a network, skipping convolutional
+	 * and pooling layers
+	 */
+	public static List<FeedForwardLayerWeights> readFullyConnectedLayers(FeedForwardNeuralNetwork neuralNetwork) {
+		List<FeedForwardLayerWeights> layerWeights = new ArrayList<FeedForwardLayerWeights>();
+		for (FeedForwardLayer layer : neuralNetwork.getLayers()) {
+			if (isFullyConnected(layer)) {
+				layerWeights.add(read(layer));
+			}
+		}
+		return layerWeights;
+	}
+
+	/**
+	 *
+	 * @return Whether every layer of the network is fully connected
+	 */
+	public static boolean isFullyConnected(FeedForwardNeuralNetwork neuralNetwork) {
+		for (FeedForwardLayer layer : neuralNetwork.getLayers()) {
+			if (!isFullyConnected(layer)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean isFullyConnected(FeedForwardLayer layer) {
+		// Convolutional and pooling layers are subclasses of FeedForwardLayer
+		return layer.getClass() == FeedForwardLayer.class
+				&& (layer.getActivationFunction() instanceof SigmoidActivationFunction || layer
+						.getActivationFunction() instanceof SoftmaxActivationFunction);
+	}
+
+	/**
+	 * Writes the (possibly modified) weights back to the layer
+	 */
+	public void write() {
+		int firstWeightColumn = layer.hasBiasUnit() ? 1 : 0;
+		double[][] thetas = new double[weights.length][];
+		for (int r = 0; r < weights.length; r++) {
+			thetas[r] = new double[weights[r].length + firstWeightColumn];
+			if (layer.hasBiasUnit()) {
+				thetas[r][0] = biases[r];
+			}
+			System.arraycopy(weights[r], 0, thetas[r], firstWeightColumn, weights[r].length);
+		}
+		layer.updateThetas(new DoubleMatrix(thetas), 0, true);
+	}
+
+	/**
+	 *
+	 * @return The weights matrix, indexed by [output neuron][input neuron], excluding biases
+	 */
+	public double[][] getWeights() {
+		return weights;
+	}
+
+	public double[] getBiases() {
+		return biases;
+	}
+
+	public int getInputNeuronCount() {
+		return weights.length == 0 ? 0 : weights[0].length;
+	}
+
+	public int getOutputNeuronCount() {
+		return weights.length;
+	}
+
+	public boolean isSoftmax() {
+		return softmax;
+	}
+
+	public int getWeightCount() {
+		return getInputNeuronCount() * getOutputNeuronCount();
+	}
+
+	public int getNonZeroWeightCount() {
+		int nonZero = 0;
+		for (double[] row : weights) {
+			for (double weight : row) {
+				if (weight != 0) {
+					nonZero++;
+				}
+			}
+		}
+		return nonZero;
+	}
+
+	/**
+	 *
+	 * @return A sparse layer with the current weights
+	 */
+	public SparseFeedForwardLayer toSparseLayer() {
+		return new SparseFeedForwardLayer(CsrMatrix.fromDense(weights, getInputNeuronCount()), biases.clone(),
+				softmax);
+	}
+}
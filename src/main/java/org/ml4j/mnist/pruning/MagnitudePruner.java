@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Iteratively prunes the fully connected layers of a network by weight magnitude.
+ *
+ * Each call to prune zeroes the smallest-magnitude weights of every fully connected layer
+ * until the layer reaches the requested sparsity, and records them in a mask.  Fine-tuning
+ * continues training from the pruned weights in short slices of iterations, re-applying the
+ * mask after each slice, so pruned weights can't drift far from zero during fine-tuning and
+ * stay pruned as the sparsity is raised.  Biases, convolutional and pooling layers are left
+ * untouched.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MagnitudePruner {
+
+	public static final int DEFAULT_ITERATIONS_PER_SLICE = 5;
+
+	private FeedForwardNeuralNetwork neuralNetwork;
+	private NeuralNetworkAlgorithm algorithm;
+	private int iterationsPerSlice;
+	private List<boolean[][]> prunedMasks;
+
+	/**
+	 *
+	 * @param neuralNetwork The network to prune in place
+	 * @param algorithm The algorithm used to fine-tune the network
+	 */
+	public MagnitudePruner(FeedForwardNeuralNetwork neuralNetwork, NeuralNetworkAlgorithm algorithm) {
+		this(neuralNetwork, algorithm, DEFAULT_ITERATIONS_PER_SLICE);
+	}
+
+	/**
+	 *
+	 * @param neuralNetwork The network to prune in place
+	 * @param algorithm The algorithm used to fine-tune the network
+	 * @param iterationsPerSlice The number of fine-tuning iterations between re-applications of the masks
+	 */
+	public MagnitudePruner(FeedForwardNeuralNetwork neuralNetwork, NeuralNetworkAlgorithm algorithm,
+			int iterationsPerSlice) {
+		if (iterationsPerSlice < 1) {
+			throw new IllegalArgumentException("Iterations per slice must be positive");
+		}
+		this.neuralNetwork = neuralNetwork;
+		this.algorithm = algorithm;
+		this.iterationsPerSlice = iterationsPerSlice;
+		this.prunedMasks = new ArrayList<boolean[][]>();
+		for (FeedForwardLayerWeights layerWeights : FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork)) {
+			prunedMasks.add(new boolean[layerWeights.getOutputNeuronCount()][layerWeights.getInputNeuronCount()]);
+		}
+		if (prunedMasks.isEmpty()) {
+			throw new IllegalArgumentException("Network has no fully connected layers to prune");
+		}
+	}
+
+	/**
+	 * Prunes each fully connected layer to the given sparsity
+	 *
+	 * @param sparsity The fraction of weights of each layer to prune, from 0 to 1
+	 */
+	public void prune(double sparsity) {
+		if (sparsity < 0 || sparsity > 1) {
+			throw new IllegalArgumentException("Sparsity must be between 0 and 1");
+		}
+		List<FeedForwardLayerWeights> layers = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+		for (int l = 0; l < layers.size(); l++) {
+			FeedForwardLayerWeights layerWeights = layers.get(l);
+			boolean[][] mask = prunedMasks.get(l);
+			double[][] weights = layerWeights.getWeights();
+			int targetPrunedCount = (int) Math.round(sparsity * layerWeights.getWeightCount());
+
+			double[] magnitudes = new double[layerWeights.getWeightCount()];
+			int index = 0;
+			int prunedCount = 0;
+			for (int r = 0; r < weights.length; r++) {
+				for (int c = 0; c < weights[r].length; c++) {
+					magnitudes[index++] = mask[r][c] ? 0 : Math.abs(weights[r][c]);
+					if (mask[r][c]) {
+						prunedCount++;
+					}
+				}
+			}
+			if (targetPrunedCount > prunedCount) {
+				Arrays.sort(magnitudes);
+				double threshold = magnitudes[targetPrunedCount - 1];
+				// Prune everything below the threshold first, then ties at the threshold until
+				// the target is reached
+				for (int pass = 0; pass < 2 && prunedCount < targetPrunedCount; pass++) {
+					for (int r = 0; r < weights.length && prunedCount < targetPrunedCount; r++) {
+						for (int c = 0; c < weights[r].length && prunedCount < targetPrunedCount; c++) {
+							double magnitude = Math.abs(weights[r][c]);
+							if (!mask[r][c] && (magnitude < threshold || (pass == 1 && magnitude == threshold))) {
+								mask[r][c] = true;
+								prunedCount++;
+							}
+						}
+					}
+				}
+			}
+			applyMask(layerWeights, mask);
+		}
+	}
+
+	/**
+	 * Continues training the pruned network in slices, re-applying the pruning masks after
+	 * each slice
+	 *
+	 * @param trainingData The training data
+	 * @param trainingLabels The training labels
+	 * @param iterations The number of training iterations
+	 * @param regularizationLambda The regularisation lambda
+	 * @return The hypothesis function of the fine-tuned, pruned network
+	 */
+	public NeuralNetworkHypothesisFunction fineTune(double[][] trainingData, double[][] trainingLabels,
+			int iterations, double regularizationLambda) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("At least one fine-tuning iteration is required");
+		}
+		NeuralNetworkHypothesisFunction hypothesisFunction = null;
+		int iterationsTrained = 0;
+		while (iterationsTrained < iterations) {
+			int sliceIterations = Math.min(iterationsPerSlice, iterations - iterationsTrained);
+			NeuralNetworkAlgorithmTrainingContext context = new NeuralNetworkAlgorithmTrainingContext(sliceIterations);
+			context.setRegularizationLambda(regularizationLambda);
+			hypothesisFunction = algorithm.getHypothesisFunction(trainingData, trainingLabels, context);
+			iterationsTrained += sliceIterations;
+			applyMasks();
+		}
+		return hypothesisFunction;
+	}
+
+	private void applyMasks() {
+		List<FeedForwardLayerWeights> layers = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+		for (int l = 0; l < layers.size(); l++) {
+			applyMask(layers.get(l), prunedMasks.get(l));
+		}
+	}
+
+	/**
+	 * Zeroes the pruned weights of the layer and writes them back to the network
+	 */
+	private void applyMask(FeedForwardLayerWeights layerWeights, boolean[][] mask) {
+		double[][] weights = layerWeights.getWeights();
+		for (int r = 0; r < weights.length; r++) {
+			for (int c = 0; c < weights[r].length; c++) {
+				if (mask[r][c]) {
+					weights[r][c] = 0;
+				}
+			}
+		}
+		layerWeights.write();
+	}
+
+	/**
+	 *
+	 * @return The fraction of weights of the fully connected layers which are currently zero
+	 */
+	public double getSparsity() {
+		long weightCount = 0;
+		long nonZeroCount = 0;
+		for (FeedForwardLayerWeights layerWeights : FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork)) {
+			weightCount += layerWeights.getWeightCount();
+			nonZeroCount += layerWeights.getNonZeroWeightCount();
+		}
+		return 1 - (double) nonZeroCount / weightCount;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import java.io.Serializable;
+
+/**
+ * A fully connected layer whose weights are held in CSR form, with a sigmoid or
+ * softmax activation function.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class SparseFeedForwardLayer implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private CsrMatrix weights;
+	private double[] biases;
+	private boolean softmax;
+
+	/**
+	 *
+	 * @param weights The weights, one row per output neuron
+	 * @param biases The bias weight of each output neuron
+	 * @param softmax Whether to apply a softmax activation function rather than a sigmoid
+	 */
+	public SparseFeedForwardLayer(CsrMatrix weights, double[] biases, boolean softmax) {
+		this.weights = weights;
+		this.biases = biases;
+		this.softmax = softmax;
+	}
+
+	public CsrMatrix getWeights() {
+		return weights;
+	}
+
+	public double[] getActivations(double[] input) {
+		double[] output = new double[weights.getRowCount()];
+		weights.multiply(input, output);
+		activate(output);
+		return output;
+	}
+
+	public double[][] getActivations(double[][] inputs) {
+		double[][] outputs = weights.multiply(inputs);
+		for (double[] output : outputs) {
+			activate(output);
+		}
+		return outputs;
+	}
+
+	private void activate(double[] output) {
+		if (softmax) {
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < output.length; i++) {
+				output[i] += biases[i];
+				max = Math.max(max, output[i]);
+			}
+			double sum = 0;
+			for (int i = 0; i < output.length; i++) {
+				output[i] = Math.exp(output[i] - max);
+				sum += output[i];
+			}
+			for (int i = 0; i < output.length; i++) {
+				output[i] /= sum;
+			}
+		} else {
+			for (int i = 0; i < output.length; i++) {
+				output[i] = 1 / (1 + Math.exp(-(output[i] + biases[i])));
+			}
+		}
+	}
+}
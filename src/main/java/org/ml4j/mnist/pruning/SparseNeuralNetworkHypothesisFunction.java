@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Hypothesis function for a pruned Feed Forward Neural Network, running its fully connected
+ * layers through a sparse CSR kernel rather than a dense matrix multiply.
+ *
+ * Any convolutional and pooling layers before the fully connected layers are run densely, as a
+ * network of their own, so Convolutional Neural Networks can be pruned too.  As a
+ * NeuralNetworkHypothesisFunction, it can be used wherever the dense hypothesis function can -
+ * eg. by NeuralNetworkDigitClassificationService, and so by the cascade and the server.
+ *
+ * The CSR layers are a snapshot of the fully connected weights when the hypothesis function is
+ * created - getNeuralNetwork() returns the original network, and training it further does not
+ * change the sparse layers.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class SparseNeuralNetworkHypothesisFunction extends NeuralNetworkHypothesisFunction {
+
+	private static final long serialVersionUID = 1L;
+
+	private NeuralNetworkHypothesisFunction denseHypothesisFunction;
+	private List<SparseFeedForwardLayer> layers;
+
+	/**
+	 * Creates a sparse hypothesis function from the current weights of a network
+	 *
+	 * @param neuralNetwork A network of convolutional and pooling layers, if any, followed by fully connected layers
+	 */
+	public SparseNeuralNetworkHypothesisFunction(FeedForwardNeuralNetwork neuralNetwork) {
+		super(neuralNetwork);
+		List<FeedForwardLayer> denseLayers = new ArrayList<FeedForwardLayer>();
+		this.layers = new ArrayList<SparseFeedForwardLayer>();
+		for (FeedForwardLayer layer : neuralNetwork.getLayers()) {
+			if (FeedForwardLayerWeights.isFullyConnected(layer)) {
+				layers.add(FeedForwardLayerWeights.read(layer).toSparseLayer());
+			} else if (layers.isEmpty()) {
+				denseLayers.add(layer);
+			} else {
+				throw new IllegalArgumentException(
+						"Sparse inference requires the fully connected layers to be the last layers of the network");
+			}
+		}
+		if (layers.isEmpty()) {
+			throw new IllegalArgumentException("Network has no fully connected layers");
+		}
+		if (!denseLayers.isEmpty()) {
+			this.denseHypothesisFunction = new NeuralNetworkHypothesisFunction(new FeedForwardNeuralNetwork(
+					denseLayers.toArray(new FeedForwardLayer[denseLayers.size()])));
+		}
+	}
+
+	/**
+	 *
+	 * @return Whether the network's fully connected layers are its last layers, so can be run sparsely
+	 */
+	public static boolean isSupported(FeedForwardNeuralNetwork neuralNetwork) {
+		boolean fullyConnectedLayerSeen = false;
+		for (FeedForwardLayer layer : neuralNetwork.getLayers()) {
+			if (FeedForwardLayerWeights.isFullyConnected(layer)) {
+				fullyConnectedLayerSeen = true;
+			} else if (fullyConnectedLayerSeen) {
+				return false;
+			}
+		}
+		return fullyConnectedLayerSeen;
+	}
+
+	/**
+	 *
+	 * @return The sparse fully connected layers
+	 */
+	public List<SparseFeedForwardLayer> getSparseLayers() {
+		return layers;
+	}
+
+	@Override
+	public double[] predict(double[] input) {
+		double[] activations = denseHypothesisFunction == null ? input : denseHypothesisFunction.predict(input);
+		for (SparseFeedForwardLayer layer : layers) {
+			activations = layer.getActivations(activations);
+		}
+		return activations;
+	}
+
+	@Override
+	public double[][] predict(double[][] inputs) {
+		double[][] activations = denseHypothesisFunction == null ? inputs : denseHypothesisFunction.predict(inputs);
+		for (SparseFeedForwardLayer layer : layers) {
+			activations = layer.getActivations(activations);
+		}
+		return activations;
+	}
+
+	/**
+	 *
+	 * @param testSetData The input vectors
+	 * @param testSetLabels The label vectors, with the index of the '1' element identifying the class
+	 * @return The fraction of inputs whose highest output matches the label
+	 */
+	@Override
+	public double getAccuracy(double[][] testSetData, double[][] testSetLabels) {
+		double[][] outputs = predict(testSetData);
+		int correct = 0;
+		for (int row = 0; row < outputs.length; row++) {
+			if (getArgMaxIndex(outputs[row]) == getArgMaxIndex(testSetLabels[row])) {
+				correct++;
+			}
+		}
+		return outputs.length == 0 ? 0 : (double) correct / outputs.length;
+	}
+
+	private static int getArgMaxIndex(double[] values) {
+		int argMax = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[argMax]) {
+				argMax = i;
+			}
+		}
+		return argMax;
+	}
+}
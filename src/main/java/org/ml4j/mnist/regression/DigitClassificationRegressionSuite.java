@@ -0,0 +1,438 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.regression;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.ml4j.algorithms.FeaturesMapper;
+import org.ml4j.mnist.service.MnistDigitBufferedImageFeaturesMapper;
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.JpegFileFilter;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+
+/**
+ * Checks that a pre-learned model still makes the same predictions, at the same speed, after
+ * changes to this project or its ml4j dependencies.
+ *
+ * The model classifies the images in src/main/resources/test_images and, when train.csv is on the
+ * classpath, the 10000 held-out rows of train.csv not used for training.  The throughput of image
+ * mapping, the latency of single predictions and the throughput of batch predictions are measured
+ * after warming the service up.  Any changed prediction is a failure, as is performance worse than
+ * the baseline by more than a tolerance.
+ *
+ * The golden predictions are committed in one baseline per model.  Performance baselines are kept
+ * per host id and matrix strategy, as figures from other hardware, or from JBlas rather than JAMA,
+ * aren't comparable - when there is none for the current host id and strategy, performance isn't
+ * checked and the result says why.  A missing prediction baseline is a failure - baselines are only
+ * written when recording is requested.
+ *
+ * The checks run offline on the CPU, as DigitClassificationRegressionTest during mvn test, which is
+ * skipped until the model is on the classpath and its prediction baseline has been committed.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationRegressionSuite {
+
+	public static final String DEFAULT_MODEL_NAME = "19_08_2015_CNN_1";
+
+	public static final File DEFAULT_BASELINE_DIRECTORY = new File("src/test/resources/regression");
+
+	// The held-out rows towards the end of train.csv which haven't been seen during training
+	private static final int HELD_OUT_START_ROW = 32005;
+	private static final int HELD_OUT_END_ROW = 42005;
+
+	private static final int BATCH_SIZE = 1000;
+
+	private String modelName;
+	private File baselineDirectory;
+	private String hostId;
+	private boolean jBlasAvailable;
+	private double performanceTolerance;
+	private long measurementMillis;
+
+	/**
+	 *
+	 * @param modelName The name the pre-learned hypothesis function was serialized with
+	 * @param baselineDirectory The directory holding the baselines
+	 * @param hostId The id of the host's performance baseline, eg. PerformanceBaseline.getCurrentHostId()
+	 * @param jBlasAvailable Whether to use the JBlas matrix strategy rather than JAMA
+	 * @param performanceTolerance How much worse than the baseline (as a fraction) performance may be before failing
+	 * @param measurementMillis The minimum time spent measuring each performance figure
+	 */
+	public DigitClassificationRegressionSuite(String modelName, File baselineDirectory, String hostId,
+			boolean jBlasAvailable, double performanceTolerance, long measurementMillis) {
+		this.modelName = modelName;
+		this.baselineDirectory = baselineDirectory;
+		this.hostId = hostId;
+		this.jBlasAvailable = jBlasAvailable;
+		this.performanceTolerance = performanceTolerance;
+		this.measurementMillis = measurementMillis;
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		// By default the measurements are checked against the baselines - set to true to record them as the baselines instead
+		boolean record = Boolean.getBoolean("regression.record");
+
+		// By default a missing performance baseline for this host is reported and skipped - set to true to fail instead
+		boolean requirePerformanceBaseline = Boolean.getBoolean("regression.requirePerformanceBaseline");
+
+		// Assumed that JBlas is available by default (this is case on MacBooks) - disable to fall back to JAMA matrix strategy, which has its own performance baseline
+		boolean jBlasAvailable = true;
+
+		String hostId = System.getProperty("regression.host", PerformanceBaseline.getCurrentHostId());
+
+		DigitClassificationRegressionSuite suite = new DigitClassificationRegressionSuite(DEFAULT_MODEL_NAME,
+				DEFAULT_BASELINE_DIRECTORY, hostId, jBlasAvailable, 0.25, 3000);
+		RegressionResult result = suite.run(record, requirePerformanceBaseline);
+
+		System.out.println(result.getMeasuredPredictions().getModelName() + " on " + result.getMeasuredPerformance()
+				.getHost());
+		System.out.println("Held-out accuracy:" + result.getMeasuredPredictions().getHeldOutAccuracy());
+		System.out.println("Image mapping images/s:" + result.getMeasuredPerformance().getImageMappingImagesPerSecond());
+		System.out.println("Single predict median micros:" + result.getMeasuredPerformance()
+				.getSinglePredictMedianMicros());
+		System.out.println("Single predict 95th percentile micros:" + result.getMeasuredPerformance()
+				.getSinglePredictPercentile95Micros());
+		System.out.println("Batch predict images/s:" + result.getMeasuredPerformance().getBatchPredictImagesPerSecond());
+		printSkipped("Held-out predictions", result.getHeldOutSkippedReason());
+		printSkipped("Performance", result.getPerformanceSkippedReason());
+
+		List<String> failures = new ArrayList<String>();
+		failures.addAll(result.getImagePredictionFailures());
+		failures.addAll(result.getHeldOutPredictionFailures());
+		failures.addAll(result.getPerformanceFailures());
+		for (String failure : failures) {
+			System.out.println("FAILED:" + failure);
+		}
+		if (!result.isPassed()) {
+			throw new IllegalStateException(failures.size() + " regression checks failed");
+		}
+		System.out.println(result.isRecorded() ? "Baselines recorded" : "Regression checks passed");
+	}
+
+	private static void printSkipped(String checks, String reason) {
+		if (reason != null) {
+			System.out.println(checks + " skipped:" + reason);
+		}
+	}
+
+	public File getPredictionBaselineFile() {
+		return new File(baselineDirectory, modelName + ".properties");
+	}
+
+	public File getPerformanceBaselineFile() {
+		return new File(baselineDirectory, modelName + "." + hostId + "." + getMatrixStrategyName() + ".properties");
+	}
+
+	private String getMatrixStrategyName() {
+		return jBlasAvailable ? "jblas" : "jama";
+	}
+
+	/**
+	 *
+	 * @param record Whether the measurements are to be recorded as the baselines
+	 * @return Why the suite can't run, eg. as the model isn't on the classpath, or null if it can
+	 */
+	public String getUnavailableReason(boolean record) {
+		if (!PreTrainedHypothesisFunctionLoader.isAvailable(modelName)) {
+			return "Pre-learned model " + modelName + " is not on the classpath";
+		}
+		if (!record && !getPredictionBaselineFile().exists()) {
+			return "No prediction baseline at " + getPredictionBaselineFile().getAbsolutePath()
+					+ " - record and commit one with -Dregression.record=true";
+		}
+		return null;
+	}
+
+	/**
+	 * Measures the model, and checks the measurements against the baselines or records them
+	 *
+	 * @param record Whether to record the measurements as the baselines, rather than check them
+	 * @param requirePerformanceBaseline Whether a missing performance baseline for the host id is a failure
+	 * @return The result of the checks
+	 * @throws IOException
+	 */
+	public RegressionResult run(boolean record, boolean requirePerformanceBaseline) throws IOException {
+		File[] imageFiles = getTestImagesDirectory().listFiles(new JpegFileFilter());
+		Arrays.sort(imageFiles);
+		String[] imageNames = new String[imageFiles.length];
+		List<BufferedImage> images = new ArrayList<BufferedImage>();
+		for (int i = 0; i < imageFiles.length; i++) {
+			imageNames[i] = imageFiles[i].getName();
+			images.add(ImageIO.read(imageFiles[i]));
+		}
+
+		double[][] heldOutDataMatrix = null;
+		double[][] heldOutLabelsMatrix = null;
+		if (DigitClassificationRegressionSuite.class.getClassLoader().getResource("train.csv") != null) {
+			DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
+					DigitClassificationRegressionSuite.class.getClassLoader());
+			heldOutDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv", new PixelFeaturesMatrixCsvDataExtractor(),
+					HELD_OUT_START_ROW, HELD_OUT_END_ROW);
+			heldOutLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+					new SingleDigitLabelsMatrixCsvDataExtractor(), HELD_OUT_START_ROW, HELD_OUT_END_ROW);
+		}
+
+		NeuralNetworkHypothesisFunction preLearnedHypothesisFunction = PreTrainedHypothesisFunctionLoader
+				.load(modelName);
+		NeuralNetworkDigitClassificationService digitClassificationService = new NeuralNetworkDigitClassificationService(
+				preLearnedHypothesisFunction, false, jBlasAvailable);
+		digitClassificationService.warmUp();
+
+		RegressionBaseline measuredPredictions = measurePredictions(digitClassificationService, imageNames, images,
+				heldOutDataMatrix, heldOutLabelsMatrix);
+		PerformanceBaseline measuredPerformance = measurePerformance(digitClassificationService, images);
+
+		List<String> imagePredictionFailures = new ArrayList<String>();
+		List<String> heldOutPredictionFailures = new ArrayList<String>();
+		List<String> performanceFailures = new ArrayList<String>();
+		String heldOutSkippedReason = heldOutDataMatrix == null ? "train.csv is not on the classpath" : null;
+		String performanceSkippedReason = null;
+
+		if (record) {
+			measuredPredictions.save(getPredictionBaselineFile());
+			measuredPerformance.save(getPerformanceBaselineFile());
+			return new RegressionResult(measuredPredictions, measuredPerformance, true, imagePredictionFailures,
+					heldOutPredictionFailures, heldOutSkippedReason, performanceFailures, "Recorded "
+							+ getPerformanceBaselineFile());
+		}
+
+		File predictionBaselineFile = getPredictionBaselineFile();
+		if (!predictionBaselineFile.exists()) {
+			String failure = "No prediction baseline at " + predictionBaselineFile.getAbsolutePath()
+					+ " - record and commit one with -Dregression.record=true";
+			imagePredictionFailures.add(failure);
+			if (heldOutSkippedReason == null) {
+				heldOutPredictionFailures.add(failure);
+			}
+		} else {
+			RegressionBaseline baseline = RegressionBaseline.load(predictionBaselineFile);
+			compareImagePredictions(baseline, measuredPredictions, imagePredictionFailures);
+			if (heldOutSkippedReason == null) {
+				compareHeldOutPredictions(baseline, measuredPredictions, heldOutPredictionFailures);
+			}
+		}
+
+		File performanceBaselineFile = getPerformanceBaselineFile();
+		if (!performanceBaselineFile.exists()) {
+			String reason = "No " + getMatrixStrategyName() + " performance baseline for host id " + hostId + " at "
+					+ performanceBaselineFile.getAbsolutePath() + " - record one on this host with"
+					+ " -Dregression.record=true, or select another host's with -Dregression.host=<host id>";
+			if (requirePerformanceBaseline) {
+				performanceFailures.add(reason);
+			} else {
+				performanceSkippedReason = reason;
+			}
+		} else {
+			comparePerformance(PerformanceBaseline.load(performanceBaselineFile), measuredPerformance,
+					performanceFailures);
+		}
+		return new RegressionResult(measuredPredictions, measuredPerformance, false, imagePredictionFailures,
+				heldOutPredictionFailures, heldOutSkippedReason, performanceFailures, performanceSkippedReason);
+	}
+
+	private File getTestImagesDirectory() throws IOException {
+		URL resource = DigitClassificationRegressionSuite.class.getClassLoader().getResource("test_images");
+		if (resource == null) {
+			throw new FileNotFoundException("Unable to find resource on classpath:test_images");
+		}
+		if (!"file".equals(resource.getProtocol())) {
+			throw new IOException("test_images must be a directory on the file system:" + resource);
+		}
+		try {
+			return new File(resource.toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid resource location:" + resource, e);
+		}
+	}
+
+	private RegressionBaseline measurePredictions(NeuralNetworkDigitClassificationService digitClassificationService,
+			String[] imageNames, List<BufferedImage> images, double[][] heldOutDataMatrix,
+			double[][] heldOutLabelsMatrix) {
+		int[] imagePredictions = new int[images.size()];
+		for (int i = 0; i < images.size(); i++) {
+			imagePredictions[i] = digitClassificationService.getPredictedDigitClassification(images.get(i));
+		}
+		if (heldOutDataMatrix == null) {
+			return new RegressionBaseline(modelName, imageNames, imagePredictions, HELD_OUT_START_ROW, new int[0], 0);
+		}
+		int[] heldOutPredictions = digitClassificationService.getPredictedDigitClassifications(heldOutDataMatrix);
+		int correct = 0;
+		for (int i = 0; i < heldOutPredictions.length; i++) {
+			if (heldOutPredictions[i] == NeuralNetworkDigitClassificationService
+					.getArgMaxIndex(heldOutLabelsMatrix[i])) {
+				correct++;
+			}
+		}
+		return new RegressionBaseline(modelName, imageNames, imagePredictions, HELD_OUT_START_ROW,
+				heldOutPredictions, (double) correct / heldOutPredictions.length);
+	}
+
+	private PerformanceBaseline measurePerformance(NeuralNetworkDigitClassificationService digitClassificationService,
+			List<BufferedImage> images) {
+		FeaturesMapper<BufferedImage> bufferedImageFeaturesMapper = new MnistDigitBufferedImageFeaturesMapper(28, 28);
+		double[][] imageData = new double[images.size()][];
+		for (int i = 0; i < images.size(); i++) {
+			imageData[i] = bufferedImageFeaturesMapper.toFeaturesVector(images.get(i));
+		}
+		double[][] batch = new double[BATCH_SIZE][];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = imageData[i % imageData.length];
+		}
+
+		long measurementNanos = TimeUnit.MILLISECONDS.toNanos(measurementMillis);
+
+		// Image mapping throughput
+		long mapped = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (BufferedImage image : images) {
+				bufferedImageFeaturesMapper.toFeaturesVector(image);
+			}
+			mapped += images.size();
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < measurementNanos);
+		double imageMappingImagesPerSecond = mapped * 1e9 / elapsed;
+
+		// Single prediction latency
+		List<Long> latencies = new ArrayList<Long>();
+		start = System.nanoTime();
+		do {
+			for (double[] mnistData : imageData) {
+				long predictStart = System.nanoTime();
+				digitClassificationService.getPredictedDigitClassification(mnistData);
+				latencies.add(System.nanoTime() - predictStart);
+			}
+		} while (System.nanoTime() - start < measurementNanos);
+		long[] sortedLatencies = new long[latencies.size()];
+		for (int i = 0; i < sortedLatencies.length; i++) {
+			sortedLatencies[i] = latencies.get(i);
+		}
+		Arrays.sort(sortedLatencies);
+		double singlePredictMedianMicros = sortedLatencies[sortedLatencies.length / 2] / 1000d;
+		double singlePredictPercentile95Micros = sortedLatencies[(int) (sortedLatencies.length * 0.95)] / 1000d;
+
+		// Batch prediction throughput
+		long predicted = 0;
+		start = System.nanoTime();
+		do {
+			digitClassificationService.getPredictedDigitClassifications(batch);
+			predicted += batch.length;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < measurementNanos);
+		double batchPredictImagesPerSecond = predicted * 1e9 / elapsed;
+
+		return new PerformanceBaseline(PerformanceBaseline.describeCurrentHost(), imageMappingImagesPerSecond,
+				singlePredictMedianMicros, singlePredictPercentile95Micros, batchPredictImagesPerSecond);
+	}
+
+	private void compareImagePredictions(RegressionBaseline baseline, RegressionBaseline measured,
+			List<String> failures) {
+		if (!baseline.getModelName().equals(measured.getModelName())) {
+			failures.add("Baseline is for model " + baseline.getModelName());
+		} else if (!Arrays.equals(baseline.getImageNames(), measured.getImageNames())) {
+			failures.add("Test images differ from the baseline's - expected "
+					+ Arrays.toString(baseline.getImageNames()));
+		} else {
+			int[] expected = baseline.getImagePredictions();
+			int[] actual = measured.getImagePredictions();
+			for (int i = 0; i < expected.length; i++) {
+				if (expected[i] != actual[i]) {
+					failures.add("test_images/" + baseline.getImageNames()[i] + " predicted " + actual[i]
+							+ ", expected " + expected[i]);
+				}
+			}
+		}
+	}
+
+	private void compareHeldOutPredictions(RegressionBaseline baseline, RegressionBaseline measured,
+			List<String> failures) {
+		if (!baseline.hasHeldOutPredictions()) {
+			failures.add("Baseline has no held-out predictions - re-record it with train.csv on the classpath");
+			return;
+		}
+		int[] expected = baseline.getHeldOutPredictions();
+		int[] actual = measured.getHeldOutPredictions();
+		if (baseline.getHeldOutStartRow() != measured.getHeldOutStartRow() || expected.length != actual.length) {
+			failures.add("Held-out rows differ from the baseline's - expected " + expected.length + " rows from row "
+					+ baseline.getHeldOutStartRow());
+			return;
+		}
+		int changed = 0;
+		StringBuilder examples = new StringBuilder();
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] != actual[i]) {
+				if (changed++ < 10) {
+					examples.append(" row ").append(baseline.getHeldOutStartRow() + i).append(" predicted ")
+							.append(actual[i]).append(", expected ").append(expected[i]).append(";");
+				}
+			}
+		}
+		if (changed > 0) {
+			failures.add(changed + " held-out predictions changed (accuracy " + measured.getHeldOutAccuracy()
+					+ ", expected " + baseline.getHeldOutAccuracy() + "):" + examples);
+		}
+	}
+
+	private void comparePerformance(PerformanceBaseline baseline, PerformanceBaseline measured,
+			List<String> failures) {
+		// A baseline selected explicitly may have been recorded on different hardware - say so in any failure
+		String recordedOn = baseline.getHost().equals(measured.getHost()) ? "" : " (baseline recorded on "
+				+ baseline.getHost() + ", measured on " + measured.getHost() + ")";
+		checkThroughput(failures, "Image mapping", baseline.getImageMappingImagesPerSecond(),
+				measured.getImageMappingImagesPerSecond(), recordedOn);
+		checkLatency(failures, "Single predict median", baseline.getSinglePredictMedianMicros(),
+				measured.getSinglePredictMedianMicros(), recordedOn);
+		checkLatency(failures, "Single predict 95th percentile", baseline.getSinglePredictPercentile95Micros(),
+				measured.getSinglePredictPercentile95Micros(), recordedOn);
+		checkThroughput(failures, "Batch predict", baseline.getBatchPredictImagesPerSecond(),
+				measured.getBatchPredictImagesPerSecond(), recordedOn);
+	}
+
+	private void checkThroughput(List<String> failures, String name, double baselineImagesPerSecond,
+			double measuredImagesPerSecond, String recordedOn) {
+		if (measuredImagesPerSecond < baselineImagesPerSecond * (1 - performanceTolerance)) {
+			failures.add(name + " throughput " + Math.round(measuredImagesPerSecond) + " images/s, baseline "
+					+ Math.round(baselineImagesPerSecond) + recordedOn);
+		}
+	}
+
+	private void checkLatency(List<String> failures, String name, double baselineMicros, double measuredMicros,
+			String recordedOn) {
+		if (measuredMicros > baselineMicros * (1 + performanceTolerance)) {
+			failures.add(name + " latency " + Math.round(measuredMicros) + " micros, baseline "
+					+ Math.round(baselineMicros) + recordedOn);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.regression;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Properties;
+
+/**
+ * The performance of a model measured by DigitClassificationRegressionSuite on one host - either
+ * the baseline stored for that host, or the figures measured by the current run.
+ *
+ * Figures from different hardware aren't comparable, so a performance baseline is stored for each
+ * host id.  The id defaults to one derived from the hardware and JVM, and can be set explicitly so
+ * that, eg. a CI pool of identical machines shares one baseline.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class PerformanceBaseline {
+
+	private String host;
+	private double imageMappingImagesPerSecond;
+	private double singlePredictMedianMicros;
+	private double singlePredictPercentile95Micros;
+	private double batchPredictImagesPerSecond;
+
+	public PerformanceBaseline(String host, double imageMappingImagesPerSecond, double singlePredictMedianMicros,
+			double singlePredictPercentile95Micros, double batchPredictImagesPerSecond) {
+		this.host = host;
+		this.imageMappingImagesPerSecond = imageMappingImagesPerSecond;
+		this.singlePredictMedianMicros = singlePredictMedianMicros;
+		this.singlePredictPercentile95Micros = singlePredictPercentile95Micros;
+		this.batchPredictImagesPerSecond = batchPredictImagesPerSecond;
+	}
+
+	/**
+	 *
+	 * @return A description of the hardware and JVM the figures are measured on
+	 */
+	public static String describeCurrentHost() {
+		return System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", "
+				+ Runtime.getRuntime().availableProcessors() + " processors, Java " + System.getProperty("java.version");
+	}
+
+	/**
+	 *
+	 * @return The default host id - the description of the current host, usable in a file name
+	 */
+	public static String getCurrentHostId() {
+		return describeCurrentHost().replaceAll("[^A-Za-z0-9.]+", "-");
+	}
+
+	public static PerformanceBaseline load(File file) throws IOException {
+		Properties properties = RegressionBaseline.loadProperties(file);
+		return new PerformanceBaseline(RegressionBaseline.getRequired(properties, "host"),
+				Double.parseDouble(RegressionBaseline.getRequired(properties, "imageMapping.imagesPerSecond")),
+				Double.parseDouble(RegressionBaseline.getRequired(properties, "singlePredict.medianMicros")),
+				Double.parseDouble(RegressionBaseline.getRequired(properties, "singlePredict.percentile95Micros")),
+				Double.parseDouble(RegressionBaseline.getRequired(properties, "batchPredict.imagesPerSecond")));
+	}
+
+	public void save(File file) throws IOException {
+		PrintWriter writer = RegressionBaseline.createWriter(file);
+		try {
+			writer.println("# Performance baseline - re-record on this host when a change to the");
+			writer.println("# performance is intended");
+			writer.println("host=" + host);
+			writer.println("imageMapping.imagesPerSecond=" + Math.round(imageMappingImagesPerSecond));
+			writer.println("singlePredict.medianMicros=" + Math.round(singlePredictMedianMicros));
+			writer.println("singlePredict.percentile95Micros=" + Math.round(singlePredictPercentile95Micros));
+			writer.println("batchPredict.imagesPerSecond=" + Math.round(batchPredictImagesPerSecond));
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Unable to write performance baseline to " + file);
+		}
+	}
+
+	/**
+	 *
+	 * @return A description of the hardware and JVM the figures were measured on
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 *
+	 * @return The images mapped to 28 * 28 features per second, on a single thread
+	 */
+	public double getImageMappingImagesPerSecond() {
+		return imageMappingImagesPerSecond;
+	}
+
+	public double getSinglePredictMedianMicros() {
+		return singlePredictMedianMicros;
+	}
+
+	public double getSinglePredictPercentile95Micros() {
+		return singlePredictPercentile95Micros;
+	}
+
+	/**
+	 *
+	 * @return The images classified per second, in batches of the test images repeated up to the batch size
+	 */
+	public double getBatchPredictImagesPerSecond() {
+		return batchPredictImagesPerSecond;
+	}
+}
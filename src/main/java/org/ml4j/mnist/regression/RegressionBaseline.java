@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.regression;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The golden predictions of a model checked by DigitClassificationRegressionSuite - either the
+ * baseline stored in a file, or the predictions made by the current run.
+ *
+ * Predictions don't depend on the host, so a single prediction baseline is committed for each
+ * model - performance is recorded separately for each host, as a PerformanceBaseline.  Baselines
+ * are stored as properties files, written in a fixed order so that changes to a baseline are easy
+ * to review.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class RegressionBaseline {
+
+	private String modelName;
+	private String[] imageNames;
+	private int[] imagePredictions;
+	private int heldOutStartRow;
+	private int[] heldOutPredictions;
+	private double heldOutAccuracy;
+
+	/**
+	 *
+	 * @param heldOutPredictions The predictions of the held-out rows, or an empty array if train.csv wasn't available
+	 */
+	public RegressionBaseline(String modelName, String[] imageNames, int[] imagePredictions, int heldOutStartRow,
+			int[] heldOutPredictions, double heldOutAccuracy) {
+		if (imageNames.length != imagePredictions.length) {
+			throw new IllegalArgumentException("An image prediction is required for each image name");
+		}
+		this.modelName = modelName;
+		this.imageNames = imageNames.clone();
+		this.imagePredictions = imagePredictions.clone();
+		this.heldOutStartRow = heldOutStartRow;
+		this.heldOutPredictions = heldOutPredictions.clone();
+		this.heldOutAccuracy = heldOutAccuracy;
+	}
+
+	public static RegressionBaseline load(File file) throws IOException {
+		Properties properties = loadProperties(file);
+		List<String> imageNames = new ArrayList<String>();
+		List<Integer> imagePredictions = new ArrayList<Integer>();
+		for (String imageName : getRequired(properties, "images").split(",")) {
+			if (!imageName.isEmpty()) {
+				imageNames.add(imageName);
+				imagePredictions.add(Integer.parseInt(getRequired(properties, "image." + imageName)));
+			}
+		}
+		int[] imagePredictionArray = new int[imagePredictions.size()];
+		for (int i = 0; i < imagePredictionArray.length; i++) {
+			imagePredictionArray[i] = imagePredictions.get(i);
+		}
+		String heldOutPredictionDigits = properties.getProperty("heldOut.predictions", "");
+		int[] heldOutPredictions = new int[heldOutPredictionDigits.length()];
+		for (int i = 0; i < heldOutPredictions.length; i++) {
+			heldOutPredictions[i] = heldOutPredictionDigits.charAt(i) - '0';
+		}
+		return new RegressionBaseline(getRequired(properties, "model"), imageNames.toArray(new String[imageNames
+				.size()]), imagePredictionArray, Integer.parseInt(properties.getProperty("heldOut.startRow", "0")),
+				heldOutPredictions, Double.parseDouble(properties.getProperty("heldOut.accuracy", "0")));
+	}
+
+	static Properties loadProperties(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			properties.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+		return properties;
+	}
+
+	static String getRequired(Properties properties, String key) throws IOException {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			throw new IOException("Regression baseline is missing " + key);
+		}
+		return value;
+	}
+
+	static PrintWriter createWriter(File file) throws IOException {
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		return new PrintWriter(file, "ISO-8859-1");
+	}
+
+	public void save(File file) throws IOException {
+		PrintWriter writer = createWriter(file);
+		try {
+			writer.println("# Golden predictions of " + modelName + " - re-record when a change to the");
+			writer.println("# predictions is intended");
+			writer.println("model=" + modelName);
+			StringBuilder names = new StringBuilder();
+			for (String imageName : imageNames) {
+				names.append(names.length() == 0 ? "" : ",").append(imageName);
+			}
+			writer.println("images=" + names);
+			for (int i = 0; i < imageNames.length; i++) {
+				writer.println("image." + imageNames[i] + "=" + imagePredictions[i]);
+			}
+			if (hasHeldOutPredictions()) {
+				writer.println("heldOut.startRow=" + heldOutStartRow);
+				StringBuilder digits = new StringBuilder();
+				for (int prediction : heldOutPredictions) {
+					digits.append(prediction);
+				}
+				writer.println("heldOut.predictions=" + digits);
+				writer.println("heldOut.accuracy=" + heldOutAccuracy);
+			}
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Unable to write regression baseline to " + file);
+		}
+	}
+
+	public String getModelName() {
+		return modelName;
+	}
+
+	/**
+	 *
+	 * @return The file names of the images in src/main/resources/test_images, in name order
+	 */
+	public String[] getImageNames() {
+		return imageNames.clone();
+	}
+
+	public int[] getImagePredictions() {
+		return imagePredictions.clone();
+	}
+
+	/**
+	 *
+	 * @return Whether the held-out rows of train.csv were predicted
+	 */
+	public boolean hasHeldOutPredictions() {
+		return heldOutPredictions.length > 0;
+	}
+
+	/**
+	 *
+	 * @return The first held-out row of train.csv predicted
+	 */
+	public int getHeldOutStartRow() {
+		return heldOutStartRow;
+	}
+
+	public int[] getHeldOutPredictions() {
+		return heldOutPredictions.clone();
+	}
+
+	public double getHeldOutAccuracy() {
+		return heldOutAccuracy;
+	}
+}
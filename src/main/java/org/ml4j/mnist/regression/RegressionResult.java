@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.regression;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a run of DigitClassificationRegressionSuite - the failures of each group of checks,
+ * and why a group wasn't checked, if it wasn't
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class RegressionResult {
+
+	private RegressionBaseline measuredPredictions;
+	private PerformanceBaseline measuredPerformance;
+	private boolean recorded;
+	private List<String> imagePredictionFailures;
+	private List<String> heldOutPredictionFailures;
+	private String heldOutSkippedReason;
+	private List<String> performanceFailures;
+	private String performanceSkippedReason;
+
+	public RegressionResult(RegressionBaseline measuredPredictions, PerformanceBaseline measuredPerformance,
+			boolean recorded, List<String> imagePredictionFailures, List<String> heldOutPredictionFailures,
+			String heldOutSkippedReason, List<String> performanceFailures, String performanceSkippedReason) {
+		this.measuredPredictions = measuredPredictions;
+		this.measuredPerformance = measuredPerformance;
+		this.recorded = recorded;
+		this.imagePredictionFailures = Collections.unmodifiableList(imagePredictionFailures);
+		this.heldOutPredictionFailures = Collections.unmodifiableList(heldOutPredictionFailures);
+		this.heldOutSkippedReason = heldOutSkippedReason;
+		this.performanceFailures = Collections.unmodifiableList(performanceFailures);
+		this.performanceSkippedReason = performanceSkippedReason;
+	}
+
+	public RegressionBaseline getMeasuredPredictions() {
+		return measuredPredictions;
+	}
+
+	public PerformanceBaseline getMeasuredPerformance() {
+		return measuredPerformance;
+	}
+
+	/**
+	 *
+	 * @return Whether the measurements were recorded as the baselines, rather than checked against them
+	 */
+	public boolean isRecorded() {
+		return recorded;
+	}
+
+	public List<String> getImagePredictionFailures() {
+		return imagePredictionFailures;
+	}
+
+	public List<String> getHeldOutPredictionFailures() {
+		return heldOutPredictionFailures;
+	}
+
+	/**
+	 *
+	 * @return Why the held-out predictions weren't checked, or null if they were
+	 */
+	public String getHeldOutSkippedReason() {
+		return heldOutSkippedReason;
+	}
+
+	public List<String> getPerformanceFailures() {
+		return performanceFailures;
+	}
+
+	/**
+	 *
+	 * @return Why performance wasn't checked, or null if it was
+	 */
+	public String getPerformanceSkippedReason() {
+		return performanceSkippedReason;
+	}
+
+	/**
+	 *
+	 * @return Whether every check which ran passed
+	 */
+	public boolean isPassed() {
+		return imagePredictionFailures.isEmpty() && heldOutPredictionFailures.isEmpty()
+				&& performanceFailures.isEmpty();
+	}
+}
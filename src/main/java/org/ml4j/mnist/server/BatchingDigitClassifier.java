@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ml4j.mnist.service.DigitClassificationService;
+
+/**
+ * Collects individually submitted classification requests into batches, so that a
+ * single call to getPredictedDigitClassifications is made for many concurrent requests.
+ *
+ * A batch is dispatched as soon as it is full, or once the oldest request in it has
+ * waited for the maximum batch delay.  The number of queued requests is bounded -
+ * submissions beyond this are rejected so that callers can shed load.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class BatchingDigitClassifier {
+
+	private DigitClassificationService digitClassificationService;
+	private int maxBatchSize;
+	private long maxBatchDelayNanos;
+	private BlockingQueue<PendingClassification> queue;
+	private Thread worker;
+	private volatile boolean running;
+
+	private AtomicLong batchCount = new AtomicLong();
+	private AtomicLong classifiedCount = new AtomicLong();
+	private AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 *
+	 * @param digitClassificationService The service to classify batches with
+	 * @param maxBatchSize The maximum number of requests in a batch
+	 * @param maxBatchDelayMicros The maximum time to wait for a batch to fill
+	 * @param maxQueuedRequests The maximum number of requests waiting to be batched
+	 */
+	public BatchingDigitClassifier(DigitClassificationService digitClassificationService, int maxBatchSize,
+			long maxBatchDelayMicros, int maxQueuedRequests) {
+		this.digitClassificationService = digitClassificationService;
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros);
+		this.queue = new ArrayBlockingQueue<PendingClassification>(maxQueuedRequests);
+	}
+
+	public void start() {
+		running = true;
+		worker = new Thread(new BatchWorker(), "mnist-batching-classifier");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (worker != null) {
+			worker.interrupt();
+		}
+		PendingClassification pending;
+		while ((pending = queue.poll()) != null) {
+			pending.callback.onFailure(new IllegalStateException("Classifier stopped"));
+		}
+	}
+
+	/**
+	 *
+	 * @param mnistData a 28 * 28 image represented as a double[]
+	 * @param callback Notified on the batching thread once the digit is classified
+	 * @return false if the request was rejected because the queue is full
+	 */
+	public boolean submit(double[] mnistData, DigitClassificationCallback callback) {
+		if (!running || !queue.offer(new PendingClassification(mnistData, callback))) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	public long getClassifiedCount() {
+		return classifiedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public int getQueuedCount() {
+		return queue.size();
+	}
+
+	private void classify(List<PendingClassification> batch) {
+		double[][] mnistData = new double[batch.size()][];
+		for (int i = 0; i < mnistData.length; i++) {
+			mnistData[i] = batch.get(i).mnistData;
+		}
+		int[] predictions;
+		try {
+			predictions = digitClassificationService.getPredictedDigitClassifications(mnistData);
+		} catch (Throwable t) {
+			// Errors (eg. OutOfMemoryError on a large batch, or BLAS linkage errors) fail this batch
+			// only - the worker carries on with the next one, so queued requests are still answered
+			Exception e = t instanceof Exception ? (Exception) t : new IllegalStateException("Classification failed", t);
+			for (PendingClassification pending : batch) {
+				pending.callback.onFailure(e);
+			}
+			return;
+		}
+		batchCount.incrementAndGet();
+		classifiedCount.addAndGet(predictions.length);
+		for (int i = 0; i < predictions.length; i++) {
+			batch.get(i).callback.onClassified(predictions[i]);
+		}
+	}
+
+	private class BatchWorker implements Runnable {
+
+		@Override
+		public void run() {
+			List<PendingClassification> batch = new ArrayList<PendingClassification>(maxBatchSize);
+			while (running) {
+				try {
+					PendingClassification first = queue.take();
+					batch.add(first);
+					long deadline = System.nanoTime() + maxBatchDelayNanos;
+					while (batch.size() < maxBatchSize) {
+						if (queue.drainTo(batch, maxBatchSize - batch.size()) == 0) {
+							long remaining = deadline - System.nanoTime();
+							PendingClassification next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+									: null;
+							if (next == null) {
+								break;
+							}
+							batch.add(next);
+						}
+					}
+					classify(batch);
+					batch.clear();
+				} catch (InterruptedException e) {
+					for (PendingClassification pending : batch) {
+						pending.callback.onFailure(new IllegalStateException("Classifier stopped"));
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private static class PendingClassification {
+
+		private double[] mnistData;
+		private DigitClassificationCallback callback;
+
+		public PendingClassification(double[] mnistData, DigitClassificationCallback callback) {
+			this.mnistData = mnistData;
+			this.callback = callback;
+		}
+	}
+}
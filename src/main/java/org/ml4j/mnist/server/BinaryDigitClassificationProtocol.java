@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The length-prefixed binary protocol of the DigitClassificationServer.
+ *
+ * Requests are a 4 byte big-endian frame length, followed by a frame of a 1 byte
+ * request type and the image payload - either 784 raw pixel bytes in row-major order
+ * (any non-zero byte is an active pixel, as for the csv extractors) or 98 bytes of
+ * packed bits (most significant bit first).
+ *
+ * Responses are a 4 byte frame length (always 2), a 1 byte status and the predicted digit.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public final class BinaryDigitClassificationProtocol {
+
+	public static final int PIXEL_COUNT = 28 * 28;
+	public static final int PACKED_BITS_LENGTH = PIXEL_COUNT / 8;
+
+	public static final byte REQUEST_RAW_PIXELS = 1;
+	public static final byte REQUEST_PACKED_BITS = 2;
+
+	public static final byte STATUS_OK = 0;
+	public static final byte STATUS_BUSY = 1;
+	public static final byte STATUS_BAD_REQUEST = 2;
+	public static final byte STATUS_ERROR = 3;
+
+	public static final int MAX_FRAME_LENGTH = 1 + PIXEL_COUNT;
+
+	private BinaryDigitClassificationProtocol() {
+	}
+
+	/**
+	 * Decodes the payload of a request frame into an MNIST-format double[]
+	 *
+	 * @param requestType The request type
+	 * @param payload The payload, positioned at its first byte
+	 * @param payloadLength The length of the payload
+	 * @return The pixel vector, or null if the request type or length is invalid
+	 */
+	public static double[] decodePayload(byte requestType, ByteBuffer payload, int payloadLength) {
+		double[] mnistData = new double[PIXEL_COUNT];
+		if (requestType == REQUEST_RAW_PIXELS && payloadLength == PIXEL_COUNT) {
+			for (int i = 0; i < PIXEL_COUNT; i++) {
+				mnistData[i] = payload.get() == 0 ? 0 : 1;
+			}
+			return mnistData;
+		} else if (requestType == REQUEST_PACKED_BITS && payloadLength == PACKED_BITS_LENGTH) {
+			for (int i = 0; i < PACKED_BITS_LENGTH; i++) {
+				int packed = payload.get() & 0xFF;
+				for (int bit = 0; bit < 8; bit++) {
+					mnistData[i * 8 + bit] = (packed >>> (7 - bit)) & 1;
+				}
+			}
+			return mnistData;
+		}
+		return null;
+	}
+
+	/**
+	 * Encodes a request for a binarized image as packed bits
+	 *
+	 * @param mnistData a 28 * 28 image represented as a double[]
+	 * @return The request, including the length prefix, ready to be written
+	 */
+	public static ByteBuffer encodePackedBitsRequest(double[] mnistData) {
+		ByteBuffer request = ByteBuffer.allocate(4 + 1 + PACKED_BITS_LENGTH);
+		request.putInt(1 + PACKED_BITS_LENGTH);
+		request.put(REQUEST_PACKED_BITS);
+		for (int i = 0; i < PACKED_BITS_LENGTH; i++) {
+			int packed = 0;
+			for (int bit = 0; bit < 8; bit++) {
+				packed = (packed << 1) | (mnistData[i * 8 + bit] == 0 ? 0 : 1);
+			}
+			request.put((byte) packed);
+		}
+		request.flip();
+		return request;
+	}
+
+	/**
+	 * Encodes a request for an image as raw pixel bytes
+	 *
+	 * @param mnistData a 28 * 28 image represented as a double[]
+	 * @return The request, including the length prefix, ready to be written
+	 */
+	public static ByteBuffer encodeRawPixelsRequest(double[] mnistData) {
+		ByteBuffer request = ByteBuffer.allocate(4 + 1 + PIXEL_COUNT);
+		request.putInt(1 + PIXEL_COUNT);
+		request.put(REQUEST_RAW_PIXELS);
+		for (int i = 0; i < PIXEL_COUNT; i++) {
+			request.put((byte) Math.round(Math.min(1, Math.max(0, mnistData[i])) * 255));
+		}
+		request.flip();
+		return request;
+	}
+
+	public static ByteBuffer encodeResponse(byte status, int digit) {
+		ByteBuffer response = ByteBuffer.allocate(4 + 2);
+		response.putInt(2);
+		response.put(status);
+		response.put((byte) digit);
+		response.flip();
+		return response;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.server;
+
+/**
+ * Receives the outcome of an asynchronous digit classification
+ *
+ * @author Michael Lavelle
+ *
+ */
+public interface DigitClassificationCallback {
+
+	/**
+	 *
+	 * @param digit The predicted digit
+	 */
+	public void onClassified(int digit);
+
+	/**
+	 *
+	 * @param e The reason classification failed
+	 */
+	public void onFailure(Exception e);
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-generating client for the binary endpoint of a DigitClassificationServer.
+ *
+ * Opens a number of concurrent connections, each sending requests for random
+ * binarized images back to back, and reports throughput, latency percentiles and
+ * the number of requests rejected as busy.
+ *
+ * Usage: DigitClassificationLoadGenerator [host] [port] [connections] [requestsPerConnection] [packed|raw]
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationLoadGenerator {
+
+	private InetSocketAddress address;
+	private int connectionCount;
+	private int requestsPerConnection;
+	private boolean packedBits;
+
+	public DigitClassificationLoadGenerator(InetSocketAddress address, int connectionCount, int requestsPerConnection,
+			boolean packedBits) {
+		this.address = address;
+		this.connectionCount = connectionCount;
+		this.requestsPerConnection = requestsPerConnection;
+		this.packedBits = packedBits;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 9028;
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		int requestsPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		boolean packedBits = args.length > 4 ? args[4].equals("packed") : true;
+
+		DigitClassificationLoadGenerator loadGenerator = new DigitClassificationLoadGenerator(new InetSocketAddress(
+				host, port), connections, requestsPerConnection, packedBits);
+		System.out.println(loadGenerator.run());
+	}
+
+	/**
+	 * Runs the load and returns a summary
+	 */
+	public String run() throws InterruptedException {
+		ClientWorker[] workers = new ClientWorker[connectionCount];
+		Thread[] threads = new Thread[connectionCount];
+		long start = System.nanoTime();
+		for (int i = 0; i < connectionCount; i++) {
+			workers[i] = new ClientWorker(i);
+			threads[i] = new Thread(workers[i], "mnist-load-generator-" + i);
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsedNanos = System.nanoTime() - start;
+
+		long[] latencies = new long[connectionCount * requestsPerConnection];
+		int latencyCount = 0;
+		int busy = 0;
+		int failed = 0;
+		for (ClientWorker worker : workers) {
+			System.arraycopy(worker.latencies, 0, latencies, latencyCount, worker.completed);
+			latencyCount += worker.completed;
+			busy += worker.busy;
+			failed += worker.failed;
+		}
+		Arrays.sort(latencies, 0, latencyCount);
+		double seconds = elapsedNanos / 1e9;
+		return "Requests:" + latencyCount + ",Busy:" + busy + ",Failed:" + failed + ",Elapsed s:"
+				+ String.format("%.3f", seconds) + ",Requests/s:" + String.format("%.1f", latencyCount / seconds)
+				+ ",p50 us:" + percentileMicros(latencies, latencyCount, 0.5) + ",p99 us:"
+				+ percentileMicros(latencies, latencyCount, 0.99) + ",max us:"
+				+ percentileMicros(latencies, latencyCount, 1);
+	}
+
+	private static long percentileMicros(long[] sortedLatencies, int count, double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		int index = Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+		return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[Math.max(0, index)]);
+	}
+
+	private class ClientWorker implements Runnable {
+
+		private Random random;
+		private long[] latencies = new long[requestsPerConnection];
+		private int completed;
+		private int busy;
+		private int failed;
+
+		public ClientWorker(int index) {
+			this.random = new Random(index);
+		}
+
+		@Override
+		public void run() {
+			ByteBuffer response = ByteBuffer.allocate(6);
+			double[] mnistData = new double[BinaryDigitClassificationProtocol.PIXEL_COUNT];
+			SocketChannel channel = null;
+			try {
+				channel = SocketChannel.open(address);
+				channel.socket().setTcpNoDelay(true);
+				for (int i = 0; i < requestsPerConnection; i++) {
+					for (int p = 0; p < mnistData.length; p++) {
+						mnistData[p] = random.nextInt(5) == 0 ? 1 : 0;
+					}
+					ByteBuffer request = packedBits ? BinaryDigitClassificationProtocol
+							.encodePackedBitsRequest(mnistData) : BinaryDigitClassificationProtocol
+							.encodeRawPixelsRequest(mnistData);
+					long start = System.nanoTime();
+					while (request.hasRemaining()) {
+						channel.write(request);
+					}
+					response.clear();
+					while (response.hasRemaining()) {
+						if (channel.read(response) < 0) {
+							throw new EOFException("Server closed connection");
+						}
+					}
+					long latency = System.nanoTime() - start;
+					byte status = response.get(4);
+					if (status == BinaryDigitClassificationProtocol.STATUS_OK) {
+						latencies[completed++] = latency;
+					} else if (status == BinaryDigitClassificationProtocol.STATUS_BUSY) {
+						busy++;
+					} else {
+						failed++;
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Load generator connection failed:" + e);
+			} finally {
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						// Ignore - closing
+					}
+				}
+			}
+		}
+	}
+}
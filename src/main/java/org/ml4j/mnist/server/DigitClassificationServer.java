@@ -0,0 +1,625 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.ml4j.algorithms.FeaturesMapper;
+import org.ml4j.mnist.online.OnlineFineTuner;
+import org.ml4j.mnist.service.DigitClassificationService;
+import org.ml4j.mnist.service.MnistDigitBufferedImageFeaturesMapper;
+import org.ml4j.mnist.service.ReadinessIndicator;
+
+/**
+ * Embedded, non-blocking server exposing a DigitClassificationService over the network,
+ * so that a single copy of a model can be shared by many clients.
+ *
+ * Two endpoints are provided - a length-prefixed binary protocol for raw or packed-bit
+ * pixel data (see BinaryDigitClassificationProtocol), and HTTP, accepting PNG/JPEG images
+ * posted to /classify.  When an OnlineFineTuner is set, correctly labelled images may also
+ * be posted to /feedback?digit=N.  For services which are ReadinessIndicators, GET /ready returns
+ * 503 until the service has been warmed up, so that load balancers can hold traffic until then.
+ * A single selector thread handles all network I/O, images are decoded on a small pool of decoder
+ * threads, and requests from all connections are batched before inference.
+ *
+ * Backpressure is applied at two levels - each connection has at most one request in
+ * flight (further requests are left unread in the socket), and requests beyond the
+ * batching queue capacity are rejected with a busy status (binary) or 503 (HTTP).
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationServer implements Closeable {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int INITIAL_READ_BUFFER_SIZE = 1024;
+	private static final int MAX_HTTP_HEADER_LENGTH = 8192;
+
+	private DigitClassificationService digitClassificationService;
+	private BatchingDigitClassifier batchingClassifier;
+	private FeaturesMapper<BufferedImage> bufferedImageFeaturesMapper = new MnistDigitBufferedImageFeaturesMapper(28,
+			28);
+	private ThreadPoolExecutor imageDecoderExecutor;
+	private int maxHttpBodyLength;
+	private volatile OnlineFineTuner onlineFineTuner;
+
+	private InetSocketAddress binaryAddress;
+	private InetSocketAddress httpAddress;
+	private Selector selector;
+	private ServerSocketChannel binaryServerChannel;
+	private ServerSocketChannel httpServerChannel;
+	private Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+	private Thread selectorThread;
+	private volatile boolean running;
+
+	/**
+	 * Creates a server accepting connections from this host only
+	 *
+	 * @param digitClassificationService The service to classify requests with
+	 * @param binaryPort The port for the binary protocol, or 0 for an ephemeral port
+	 * @param httpPort The port for HTTP, or 0 for an ephemeral port
+	 * @param maxBatchSize The maximum number of requests classified together
+	 * @param maxBatchDelayMicros The maximum time a request waits for its batch to fill
+	 * @param maxQueuedRequests The maximum number of requests waiting to be batched
+	 * @param imageDecoderThreads The number of threads decoding HTTP image uploads
+	 * @param maxHttpBodyLength The maximum size of an HTTP image upload
+	 */
+	public DigitClassificationServer(DigitClassificationService digitClassificationService, int binaryPort,
+			int httpPort, int maxBatchSize, long maxBatchDelayMicros, int maxQueuedRequests, int imageDecoderThreads,
+			int maxHttpBodyLength) {
+		this(digitClassificationService, "localhost", binaryPort, httpPort, maxBatchSize, maxBatchDelayMicros,
+				maxQueuedRequests, imageDecoderThreads, maxHttpBodyLength);
+	}
+
+	/**
+	 *
+	 * @param digitClassificationService The service to classify requests with
+	 * @param bindAddress The host name or address to accept connections on, eg. "0.0.0.0" for every interface
+	 * @param binaryPort The port for the binary protocol, or 0 for an ephemeral port
+	 * @param httpPort The port for HTTP, or 0 for an ephemeral port
+	 * @param maxBatchSize The maximum number of requests classified together
+	 * @param maxBatchDelayMicros The maximum time a request waits for its batch to fill
+	 * @param maxQueuedRequests The maximum number of requests waiting to be batched
+	 * @param imageDecoderThreads The number of threads decoding HTTP image uploads
+	 * @param maxHttpBodyLength The maximum size of an HTTP image upload
+	 */
+	public DigitClassificationServer(DigitClassificationService digitClassificationService, String bindAddress,
+			int binaryPort, int httpPort, int maxBatchSize, long maxBatchDelayMicros, int maxQueuedRequests,
+			int imageDecoderThreads, int maxHttpBodyLength) {
+		this.digitClassificationService = digitClassificationService;
+		this.batchingClassifier = new BatchingDigitClassifier(digitClassificationService, maxBatchSize,
+				maxBatchDelayMicros, maxQueuedRequests);
+		this.imageDecoderExecutor = new ThreadPoolExecutor(imageDecoderThreads, imageDecoderThreads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxQueuedRequests));
+		this.binaryAddress = new InetSocketAddress(bindAddress, binaryPort);
+		this.httpAddress = new InetSocketAddress(bindAddress, httpPort);
+		this.maxHttpBodyLength = maxHttpBodyLength;
+	}
+
+	public void start() throws IOException {
+		selector = Selector.open();
+		binaryServerChannel = openServerChannel(binaryAddress, Boolean.FALSE);
+		httpServerChannel = openServerChannel(httpAddress, Boolean.TRUE);
+		batchingClassifier.start();
+		running = true;
+		selectorThread = new Thread(new SelectorLoop(), "mnist-server-selector");
+		selectorThread.start();
+	}
+
+	private ServerSocketChannel openServerChannel(InetSocketAddress address, Boolean http) throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(address);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT, http);
+		return serverChannel;
+	}
+
+	public int getBinaryPort() {
+		return binaryServerChannel.socket().getLocalPort();
+	}
+
+	public int getHttpPort() {
+		return httpServerChannel.socket().getLocalPort();
+	}
+
+	/**
+	 *
+	 * @return Whether the service has been warmed up - services which aren't ReadinessIndicators are always ready
+	 */
+	public boolean isReady() {
+		return !(digitClassificationService instanceof ReadinessIndicator)
+				|| ((ReadinessIndicator) digitClassificationService).isReady();
+	}
+
+	public BatchingDigitClassifier getBatchingClassifier() {
+		return batchingClassifier;
+	}
+
+	/**
+	 *
+	 * @param onlineFineTuner The fine-tuner to pass images posted to /feedback to, or null to disable feedback
+	 */
+	public void setOnlineFineTuner(OnlineFineTuner onlineFineTuner) {
+		this.onlineFineTuner = onlineFineTuner;
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		if (selector != null) {
+			selector.wakeup();
+		}
+		if (selectorThread != null) {
+			try {
+				selectorThread.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		batchingClassifier.stop();
+		imageDecoderExecutor.shutdownNow();
+	}
+
+	/**
+	 * Queues a response to be written by the selector thread
+	 */
+	private void respondLater(final Connection connection, final ByteBuffer response, final boolean closeAfterWrite) {
+		selectorTasks.add(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					connection.respond(response, closeAfterWrite);
+				} catch (RuntimeException e) {
+					// Eg. the connection was closed concurrently - fail it rather than the selector thread
+					connection.close();
+				}
+			}
+		});
+		selector.wakeup();
+	}
+
+	private class SelectorLoop implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					Runnable task;
+					while ((task = selectorTasks.poll()) != null) {
+						task.run();
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						handle(key);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Digit classification server selector failed:" + e);
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					closeQuietly(key.channel());
+				}
+				closeQuietly(selector);
+			}
+		}
+
+		private void handle(SelectionKey key) {
+			try {
+				if (!key.isValid()) {
+					return;
+				}
+				if (key.isAcceptable()) {
+					accept(key);
+				} else {
+					Connection connection = (Connection) key.attachment();
+					if (key.isReadable()) {
+						connection.onReadable();
+					} else if (key.isWritable()) {
+						connection.onWritable();
+					}
+				}
+			} catch (IOException e) {
+				closeConnection(key);
+			} catch (RuntimeException e) {
+				// A bad request or response fails its own connection only - the selector thread serves every other client
+				System.err.println("Closing connection after failure handling request:" + e);
+				closeConnection(key);
+			}
+		}
+
+		private void closeConnection(SelectionKey key) {
+			if (key.attachment() instanceof Connection) {
+				((Connection) key.attachment()).close();
+			}
+		}
+
+		private void accept(SelectionKey key) throws IOException {
+			SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Connection connection = Boolean.TRUE.equals(key.attachment()) ? new HttpConnection(channel)
+					: new BinaryConnection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// Ignore - closing
+		}
+	}
+
+	/**
+	 * Connection state, accessed only on the selector thread
+	 */
+	private abstract class Connection {
+
+		protected SocketChannel channel;
+		protected SelectionKey key;
+		protected ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+		private ByteBuffer writeBuffer;
+		private boolean closeAfterWrite;
+		protected boolean awaitingResponse;
+
+		public Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		protected abstract int getMaxRequestLength();
+
+		/**
+		 * Parses and dispatches at most one complete request from the buffer, setting
+		 * awaitingResponse if a request is dispatched
+		 */
+		protected abstract void parseRequest(ByteBuffer buffer);
+
+		public void onReadable() throws IOException {
+			if (!readBuffer.hasRemaining()) {
+				if (readBuffer.capacity() >= getMaxRequestLength()) {
+					throw new IOException("Request too large");
+				}
+				ByteBuffer larger = ByteBuffer.allocate(Math.min(getMaxRequestLength(), readBuffer.capacity() * 2));
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+			if (channel.read(readBuffer) < 0) {
+				close();
+				return;
+			}
+			processRequests();
+		}
+
+		protected void processRequests() {
+			readBuffer.flip();
+			parseRequest(readBuffer);
+			readBuffer.compact();
+			if (awaitingResponse && writeBuffer == null && key.isValid()) {
+				// Stop reading until the response is written - the client sees TCP backpressure
+				key.interestOps(0);
+			}
+		}
+
+		public void respond(ByteBuffer response, boolean closeAfterWrite) {
+			if (!key.isValid()) {
+				return;
+			}
+			this.writeBuffer = response;
+			this.closeAfterWrite = closeAfterWrite;
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+
+		public void onWritable() throws IOException {
+			channel.write(writeBuffer);
+			if (!writeBuffer.hasRemaining()) {
+				writeBuffer = null;
+				awaitingResponse = false;
+				if (closeAfterWrite) {
+					close();
+				} else {
+					key.interestOps(SelectionKey.OP_READ);
+					// Pipelined requests may already be buffered
+					processRequests();
+				}
+			}
+		}
+
+		public void close() {
+			key.cancel();
+			closeQuietly(channel);
+		}
+	}
+
+	private class BinaryConnection extends Connection implements DigitClassificationCallback {
+
+		public BinaryConnection(SocketChannel channel) {
+			super(channel);
+		}
+
+		@Override
+		protected int getMaxRequestLength() {
+			return 4 + BinaryDigitClassificationProtocol.MAX_FRAME_LENGTH;
+		}
+
+		@Override
+		protected void parseRequest(ByteBuffer buffer) {
+			if (awaitingResponse || buffer.remaining() < 4) {
+				return;
+			}
+			int frameLength = buffer.getInt(buffer.position());
+			if (frameLength < 1 || frameLength > BinaryDigitClassificationProtocol.MAX_FRAME_LENGTH) {
+				awaitingResponse = true;
+				buffer.position(buffer.limit());
+				respond(BinaryDigitClassificationProtocol.encodeResponse(
+						BinaryDigitClassificationProtocol.STATUS_BAD_REQUEST, 0), true);
+				return;
+			}
+			if (buffer.remaining() < 4 + frameLength) {
+				return;
+			}
+			int frameEnd = buffer.position() + 4 + frameLength;
+			buffer.getInt();
+			byte requestType = buffer.get();
+			double[] mnistData = BinaryDigitClassificationProtocol.decodePayload(requestType, buffer,
+					frameLength - 1);
+			buffer.position(frameEnd);
+			awaitingResponse = true;
+			if (mnistData == null) {
+				respond(BinaryDigitClassificationProtocol.encodeResponse(
+						BinaryDigitClassificationProtocol.STATUS_BAD_REQUEST, 0), false);
+			} else if (!batchingClassifier.submit(mnistData, this)) {
+				respond(BinaryDigitClassificationProtocol.encodeResponse(BinaryDigitClassificationProtocol.STATUS_BUSY,
+						0), false);
+			}
+		}
+
+		@Override
+		public void onClassified(int digit) {
+			respondLater(this, BinaryDigitClassificationProtocol.encodeResponse(
+					BinaryDigitClassificationProtocol.STATUS_OK, digit), false);
+		}
+
+		@Override
+		public void onFailure(Exception e) {
+			respondLater(this, BinaryDigitClassificationProtocol.encodeResponse(
+					BinaryDigitClassificationProtocol.STATUS_ERROR, 0), false);
+		}
+	}
+
+	private class HttpConnection extends Connection implements DigitClassificationCallback {
+
+		public HttpConnection(SocketChannel channel) {
+			super(channel);
+		}
+
+		@Override
+		protected int getMaxRequestLength() {
+			return MAX_HTTP_HEADER_LENGTH + maxHttpBodyLength;
+		}
+
+		@Override
+		protected void parseRequest(ByteBuffer buffer) {
+			if (awaitingResponse) {
+				return;
+			}
+			int headerEnd = findHeaderEnd(buffer);
+			if (headerEnd < 0) {
+				if (buffer.remaining() >= MAX_HTTP_HEADER_LENGTH) {
+					reject(431, "Request Header Fields Too Large", buffer);
+				}
+				return;
+			}
+			String[] headerLines = new String(buffer.array(), buffer.position(), headerEnd - buffer.position(), ASCII)
+					.split("\r\n");
+			String[] requestLine = headerLines[0].split(" ");
+			int contentLength = 0;
+			for (int i = 1; i < headerLines.length; i++) {
+				int colon = headerLines[i].indexOf(':');
+				if (colon > 0 && headerLines[i].substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+					try {
+						contentLength = Integer.parseInt(headerLines[i].substring(colon + 1).trim());
+					} catch (NumberFormatException e) {
+						contentLength = -1;
+					}
+				}
+			}
+			if (requestLine.length < 2 || contentLength < 0) {
+				reject(400, "Bad Request", buffer);
+				return;
+			}
+			if (contentLength > maxHttpBodyLength) {
+				reject(413, "Payload Too Large", buffer);
+				return;
+			}
+			int bodyStart = headerEnd + 4;
+			if (buffer.limit() - bodyStart < contentLength) {
+				return;
+			}
+			String method = requestLine[0];
+			String path = requestLine[1];
+			final byte[] body = new byte[contentLength];
+			buffer.position(bodyStart);
+			buffer.get(body);
+			awaitingResponse = true;
+			if (method.equals("GET") && path.equals("/status")) {
+				respond(httpResponse(200, "OK", "queued=" + batchingClassifier.getQueuedCount() + ",classified="
+						+ batchingClassifier.getClassifiedCount() + ",batches=" + batchingClassifier.getBatchCount()
+						+ ",rejected=" + batchingClassifier.getRejectedCount() + ",ready="
+						+ isReady() + "\n"), true);
+			} else if (method.equals("GET") && path.equals("/ready")) {
+				if (isReady()) {
+					respond(httpResponse(200, "OK", "Ready\n"), true);
+				} else {
+					respond(httpResponse(503, "Service Unavailable", "Warming up\n"), true);
+				}
+			} else if (!path.equals("/classify") && !isFeedback(path)) {
+				respond(httpResponse(404, "Not Found", "Not Found\n"), true);
+			} else if (!method.equals("POST")) {
+				respond(httpResponse(405, "Method Not Allowed", "Method Not Allowed\n"), true);
+			} else {
+				final int feedbackDigit = isFeedback(path) ? parseDigit(path.substring(path.indexOf('=') + 1)) : -1;
+				if (isFeedback(path) && feedbackDigit < 0) {
+					respond(httpResponse(400, "Bad Request", "Digit must be between 0 and 9\n"), true);
+					return;
+				}
+				try {
+					imageDecoderExecutor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							if (feedbackDigit < 0) {
+								decodeAndSubmit(body);
+							} else {
+								decodeAndAddFeedback(body, feedbackDigit);
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					respond(httpResponse(503, "Service Unavailable", "Busy\n"), true);
+				}
+			}
+		}
+
+		private boolean isFeedback(String path) {
+			return onlineFineTuner != null && path.startsWith("/feedback?digit=");
+		}
+
+		private int parseDigit(String digit) {
+			return digit.length() == 1 && Character.isDigit(digit.charAt(0)) ? digit.charAt(0) - '0' : -1;
+		}
+
+		private void reject(int status, String reason, ByteBuffer buffer) {
+			awaitingResponse = true;
+			buffer.position(buffer.limit());
+			respond(httpResponse(status, reason, reason + "\n"), true);
+		}
+
+		/**
+		 * Runs on an image decoder thread
+		 */
+		private void decodeAndSubmit(byte[] body) {
+			double[] mnistData = decode(body);
+			if (mnistData != null && !batchingClassifier.submit(mnistData, this)) {
+				respondLater(this, httpResponse(503, "Service Unavailable", "Busy\n"), true);
+			}
+		}
+
+		/**
+		 * Runs on an image decoder thread
+		 */
+		private void decodeAndAddFeedback(byte[] body, int digit) {
+			OnlineFineTuner fineTuner = onlineFineTuner;
+			if (fineTuner == null) {
+				respondLater(this, httpResponse(404, "Not Found", "Not Found\n"), true);
+				return;
+			}
+			double[] mnistData = decode(body);
+			if (mnistData != null) {
+				if (fineTuner.addFeedback(mnistData, digit)) {
+					respondLater(this, httpResponse(202, "Accepted", "Accepted\n"), true);
+				} else {
+					respondLater(this, httpResponse(503, "Service Unavailable", "Busy\n"), true);
+				}
+			}
+		}
+
+		/**
+		 *
+		 * @return The pixels of the image, or null if it couldn't be decoded and an error has been sent
+		 */
+		private double[] decode(byte[] body) {
+			try {
+				BufferedImage image = ImageIO.read(new ByteArrayInputStream(body));
+				if (image == null) {
+					respondLater(this, httpResponse(400, "Bad Request", "Unsupported image format\n"), true);
+					return null;
+				}
+				return bufferedImageFeaturesMapper.toFeaturesVector(image);
+			} catch (IOException e) {
+				respondLater(this, httpResponse(400, "Bad Request", "Unable to decode image\n"), true);
+				return null;
+			} catch (IllegalArgumentException e) {
+				respondLater(this, httpResponse(400, "Bad Request", e.getMessage() + "\n"), true);
+				return null;
+			} catch (RuntimeException e) {
+				// ImageIO raises other runtime exceptions on malformed uploads, eg. ArrayIndexOutOfBoundsException
+				respondLater(this, httpResponse(400, "Bad Request", "Unable to decode image\n"), true);
+				return null;
+			}
+		}
+
+		@Override
+		public void onClassified(int digit) {
+			respondLater(this, httpResponse(200, "OK", digit + "\n"), true);
+		}
+
+		@Override
+		public void onFailure(Exception e) {
+			respondLater(this, httpResponse(500, "Internal Server Error", "Classification failed\n"), true);
+		}
+	}
+
+	private static int findHeaderEnd(ByteBuffer buffer) {
+		for (int i = buffer.position(); i + 3 < buffer.limit(); i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r'
+					&& buffer.get(i + 3) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static ByteBuffer httpResponse(int status, String reason, String body) {
+		byte[] bodyBytes = body.getBytes(ASCII);
+		String header = "HTTP/1.1 " + status + " " + reason + "\r\nContent-Type: text/plain\r\nContent-Length: "
+				+ bodyBytes.length + "\r\nConnection: close\r\n\r\n";
+		byte[] headerBytes = header.getBytes(ASCII);
+		ByteBuffer response = ByteBuffer.allocate(headerBytes.length + bodyBytes.length);
+		response.put(headerBytes);
+		response.put(bodyBytes);
+		response.flip();
+		return response;
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ml4j.algorithms.FeaturesMapper;
+
+/**
+ * DigitClassificationService which classifies each batch with a fast model first, and
+ * escalates only low-confidence images to a slower, more accurate model.
+ *
+ * Confidence is the margin between the two highest softmax outputs of the fast model -
+ * images with a margin below the escalation threshold are re-classified by the accurate
+ * model.  A threshold of 0 never escalates, and a threshold above 1 always escalates.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class CascadeDigitClassificationService implements DigitClassificationService, ReadinessIndicator {
+
+	private NeuralNetworkDigitClassificationService fastService;
+	private NeuralNetworkDigitClassificationService accurateService;
+	private volatile double escalationThreshold;
+	private FeaturesMapper<BufferedImage> bufferedImageFeaturesMapper
+	 = new MnistDigitBufferedImageFeaturesMapper(28,28);
+
+	private AtomicLong classifiedCount = new AtomicLong();
+	private AtomicLong escalatedCount = new AtomicLong();
+
+	// Wall-clock time during which at least one call was classifying - concurrent calls overlap,
+	// so their individual durations can't simply be added up
+	private Object busyLock = new Object();
+	private int activeCalls;
+	private long busySince;
+	private long busyNanos;
+
+	/**
+	 *
+	 * @param fastService The cheap model, run on every image ( eg. the FNN )
+	 * @param accurateService The expensive model, run on escalated images ( eg. the CNN )
+	 * @param escalationThreshold The softmax margin below which images are escalated
+	 */
+	public CascadeDigitClassificationService(NeuralNetworkDigitClassificationService fastService,
+			NeuralNetworkDigitClassificationService accurateService, double escalationThreshold) {
+		this.fastService = fastService;
+		this.accurateService = accurateService;
+		this.escalationThreshold = escalationThreshold;
+	}
+
+	public double getEscalationThreshold() {
+		return escalationThreshold;
+	}
+
+	public void setEscalationThreshold(double escalationThreshold) {
+		this.escalationThreshold = escalationThreshold;
+	}
+
+	/**
+	 *
+	 * @param outputActivations The softmax output activations for an image
+	 * @return The difference between the highest and second highest activations
+	 */
+	public static double getMargin(double[] outputActivations) {
+		double first = Double.NEGATIVE_INFINITY;
+		double second = Double.NEGATIVE_INFINITY;
+		for (double d : outputActivations) {
+			if (d > first) {
+				second = first;
+				first = d;
+			} else if (d > second) {
+				second = d;
+			}
+		}
+		return first - second;
+	}
+
+	@Override
+	public int getPredictedDigitClassification(double[] mnistData) {
+		return getPredictedDigitClassifications(new double[][] { mnistData })[0];
+	}
+
+	@Override
+	public int getPredictedDigitClassification(BufferedImage image) {
+		return getPredictedDigitClassification(bufferedImageFeaturesMapper.toFeaturesVector(image));
+	}
+
+	@Override
+	public int[] getPredictedDigitClassifications(double[][] mnistData) {
+		onCallStarted();
+		try {
+			return classify(mnistData);
+		} finally {
+			onCallFinished();
+		}
+	}
+
+	private int[] classify(double[][] mnistData) {
+		double[][] fastActivations = fastService.getPredictedDigitProbabilities(mnistData);
+
+		int[] predictions = new int[mnistData.length];
+		int[] escalatedIndexes = new int[mnistData.length];
+		int escalated = 0;
+		double threshold = escalationThreshold;
+		for (int index = 0; index < fastActivations.length; index++) {
+			if (getMargin(fastActivations[index]) < threshold) {
+				escalatedIndexes[escalated++] = index;
+			} else {
+				predictions[index] = NeuralNetworkDigitClassificationService.getArgMaxIndex(fastActivations[index]);
+			}
+		}
+		if (escalated > 0) {
+			double[][] escalatedData = new double[escalated][];
+			for (int i = 0; i < escalated; i++) {
+				escalatedData[i] = mnistData[escalatedIndexes[i]];
+			}
+			int[] accuratePredictions = accurateService.getPredictedDigitClassifications(escalatedData);
+			for (int i = 0; i < escalated; i++) {
+				predictions[escalatedIndexes[i]] = accuratePredictions[i];
+			}
+		}
+		classifiedCount.addAndGet(mnistData.length);
+		escalatedCount.addAndGet(escalated);
+		return predictions;
+	}
+
+	private void onCallStarted() {
+		synchronized (busyLock) {
+			if (activeCalls++ == 0) {
+				busySince = System.nanoTime();
+			}
+		}
+	}
+
+	private void onCallFinished() {
+		synchronized (busyLock) {
+			if (--activeCalls == 0) {
+				busyNanos += System.nanoTime() - busySince;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param testSetData A mnistData array of 28 * 28 images, each represented as a double[]
+	 * @param testSetLabels An array of labels, each represented as a double[] with the index of the '1' element identifying the digit
+	 * @return The fraction of images classified correctly by the cascade
+	 */
+	@Override
+	public double getAccuracy(double[][] testSetData, double[][] testSetLabels) {
+		int[] predictions = getPredictedDigitClassifications(testSetData);
+		int correct = 0;
+		for (int index = 0; index < predictions.length; index++) {
+			if (predictions[index] == NeuralNetworkDigitClassificationService.getArgMaxIndex(testSetLabels[index])) {
+				correct++;
+			}
+		}
+		return predictions.length == 0 ? 0 : (double) correct / predictions.length;
+	}
+
+	/**
+	 *
+	 * @return Whether both the fast and the accurate services have been warmed up
+	 */
+	@Override
+	public boolean isReady() {
+		return fastService.isReady() && accurateService.isReady();
+	}
+
+	public long getClassifiedCount() {
+		return classifiedCount.get();
+	}
+
+	/**
+	 *
+	 * @return The fraction of images classified so far which were escalated to the accurate model
+	 */
+	public double getEscalatedFraction() {
+		long classified = classifiedCount.get();
+		return classified == 0 ? 0 : (double) escalatedCount.get() / classified;
+	}
+
+	/**
+	 *
+	 * @return The images classified per second so far, across both models and all calling threads -
+	 * measured over the wall-clock time during which any call was in progress, so idle time isn't counted
+	 */
+	public double getThroughput() {
+		long nanos;
+		synchronized (busyLock) {
+			nanos = busyNanos + (activeCalls > 0 ? System.nanoTime() - busySince : 0);
+		}
+		return nanos == 0 ? 0 : classifiedCount.get() / (nanos / 1e9);
+	}
+
+	public void resetStatistics() {
+		classifiedCount.set(0);
+		escalatedCount.set(0);
+		synchronized (busyLock) {
+			busyNanos = 0;
+			busySince = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Reports the escalated fraction, accuracy and estimated throughput of the cascade
+	 * at each of a range of thresholds, to help choose a threshold.
+	 *
+	 * Both models are run once over the whole test set, and each threshold is then
+	 * simulated from their outputs, with throughput estimated from the measured
+	 * per-image cost of each model.
+	 *
+	 * @param testSetData A mnistData array of 28 * 28 images, each represented as a double[]
+	 * @param testSetLabels An array of labels, each represented as a double[] with the index of the '1' element identifying the digit
+	 * @param thresholds The thresholds to report on
+	 * @return The report
+	 */
+	public String getThresholdReport(double[][] testSetData, double[][] testSetLabels, double[] thresholds) {
+		long start = System.nanoTime();
+		double[][] fastActivations = fastService.getPredictedDigitProbabilities(testSetData);
+		long fastEnd = System.nanoTime();
+		int[] accuratePredictions = accurateService.getPredictedDigitClassifications(testSetData);
+		long accurateEnd = System.nanoTime();
+
+		int rows = testSetData.length;
+		double fastSecondsPerImage = (fastEnd - start) / 1e9 / rows;
+		double accurateSecondsPerImage = (accurateEnd - fastEnd) / 1e9 / rows;
+
+		StringBuilder report = new StringBuilder();
+		report.append("Fast model only: images/s:" + String.format("%.1f", 1 / fastSecondsPerImage) + "\n");
+		report.append("Accurate model only: images/s:" + String.format("%.1f", 1 / accurateSecondsPerImage) + "\n");
+		report.append("Threshold,Escalated fraction,Accuracy,Estimated images/s\n");
+		for (double threshold : thresholds) {
+			int escalated = 0;
+			int correct = 0;
+			for (int index = 0; index < rows; index++) {
+				int actual = NeuralNetworkDigitClassificationService.getArgMaxIndex(testSetLabels[index]);
+				int predicted;
+				if (getMargin(fastActivations[index]) < threshold) {
+					escalated++;
+					predicted = accuratePredictions[index];
+				} else {
+					predicted = NeuralNetworkDigitClassificationService.getArgMaxIndex(fastActivations[index]);
+				}
+				if (predicted == actual) {
+					correct++;
+				}
+			}
+			double escalatedFraction = (double) escalated / rows;
+			double secondsPerImage = fastSecondsPerImage + escalatedFraction * accurateSecondsPerImage;
+			report.append(threshold + "," + String.format("%.4f", escalatedFraction) + ","
+					+ String.format("%.4f", (double) correct / rows) + "," + String.format("%.1f", 1 / secondsPerImage)
+					+ "\n");
+		}
+		return report.toString();
+	}
+}
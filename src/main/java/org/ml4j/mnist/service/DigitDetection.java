@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+/**
+ * A digit found by a SlidingWindowDigitRecognizer, in the 28 * 28 window at (x, y)
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitDetection {
+
+	private int digit;
+	private int x;
+	private int y;
+	private double confidence;
+
+	public DigitDetection(int digit, int x, int y, double confidence) {
+		this.digit = digit;
+		this.x = x;
+		this.y = y;
+		this.confidence = confidence;
+	}
+
+	public int getDigit() {
+		return digit;
+	}
+
+	/**
+	 *
+	 * @return The left of the window
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 *
+	 * @return The top of the window
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 *
+	 * @return The softmax output activation of the digit
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public String toString() {
+		return "DigitDetection [digit=" + digit + ", x=" + x + ", y=" + y + ", confidence=" + confidence + "]";
+	}
+}
@@ -23,11 +23,22 @@ import org.ml4j.algorithms.FeaturesMapper;
 /**
  * Maps BufferedImage instances of MNIST digits into MNIST-specific format of double[]
  * 
+ * Images of exactly 28 * 28 pixels are assumed to be MNIST-normalized already, and are mapped
+ * pixel by pixel.  Images of any other size are normalized by a MnistDigitImageNormalizer.
+ * 
  * @author Michael Lavelle
  *
  */
 public class MnistDigitBufferedImageFeaturesMapper implements FeaturesMapper<BufferedImage> {
 
+	private static final ThreadLocal<MnistDigitImageNormalizer> NORMALIZERS = new ThreadLocal<MnistDigitImageNormalizer>() {
+
+		@Override
+		protected MnistDigitImageNormalizer initialValue() {
+			return new MnistDigitImageNormalizer(0.2);
+		}
+	};
+
 	private int width;
 	private int height;
 
@@ -51,7 +62,7 @@ public class MnistDigitBufferedImageFeaturesMapper implements FeaturesMapper<Buf
 		
 		if (image.getWidth() != 28 || image.getHeight() != 28)
 		{
-			throw new IllegalArgumentException("Image must be 28 * 28 pixels");
+			return NORMALIZERS.get().normalize(image);
 		}
 
 		double[] data = new double[image.getWidth() * image.getHeight()];
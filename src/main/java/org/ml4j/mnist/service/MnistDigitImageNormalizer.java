@@ -0,0 +1,316 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Normalizes an image of a digit of any size into the MNIST format, in the way the
+ * original MNIST images were produced - the digit's bounding box is scaled to fit a 20 * 20
+ * box preserving its aspect ratio, and the result is placed in a 28 * 28 field so that its
+ * center of mass is at the center of the field.
+ *
+ * Pixels are read directly from the image's raster for the common image types, and fall
+ * back to a bulk getRGB otherwise - no Graphics2D is involved.  Ink is 1 - luminance, as for
+ * MnistDigitBufferedImageFeaturesMapper, so dark digits on a light background are expected.
+ * Scaling averages the source pixels covered by each target pixel, which anti-aliases when
+ * shrinking.
+ *
+ * Working buffers are reused between calls, so an instance is not thread-safe - use one
+ * instance per thread.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MnistDigitImageNormalizer {
+
+	private static final int FIELD_SIZE = 28;
+	private static final int BOX_SIZE = 20;
+
+	// SRGB luminance constants, as for MnistDigitBufferedImageFeaturesMapper, in fixed point
+	// so that the luminance of a pixel can be computed with integer arithmetic
+	private static final int RED_WEIGHT = 54;
+	private static final int GREEN_WEIGHT = 183;
+	private static final int BLUE_WEIGHT = 19;
+
+	private static final float[] LUMINANCE_INK = new float[256];
+
+	static {
+		for (int luminance = 0; luminance < LUMINANCE_INK.length; luminance++) {
+			LUMINANCE_INK[luminance] = 1 - luminance / 255f;
+		}
+	}
+
+	private double inkThreshold;
+
+	private float[] ink = new float[0];
+	private int[] rgb = new int[0];
+	private float[] scaledRows = new float[0];
+	private float[] glyph = new float[BOX_SIZE * BOX_SIZE];
+	private float[] grayInk = new float[256];
+	private ColorModel grayColorModel;
+
+	/**
+	 *
+	 * @param inkThreshold The ink level above which a pixel is part of the digit's bounding box, from 0 to 1
+	 */
+	public MnistDigitImageNormalizer(double inkThreshold) {
+		this.inkThreshold = inkThreshold;
+	}
+
+	/**
+	 *
+	 * @param image An image of a single digit, of any size
+	 * @return A 28 * 28 feature vector, row by row
+	 */
+	public double[] normalize(BufferedImage image) {
+		double[] features = new double[FIELD_SIZE * FIELD_SIZE];
+		normalize(image, features);
+		return features;
+	}
+
+	/**
+	 *
+	 * @param image An image of a single digit, of any size
+	 * @param features The array to write the 28 * 28 feature vector into, row by row
+	 */
+	public void normalize(BufferedImage image, double[] features) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		readInk(image, width, height);
+
+		for (int i = 0; i < FIELD_SIZE * FIELD_SIZE; i++) {
+			features[i] = 0;
+		}
+
+		int[] box = findInkBoundingBox(width, height);
+		if (box == null) {
+			// A blank image
+			return;
+		}
+
+		// Scale the bounding box to fit 20 * 20, preserving aspect ratio
+		int minX = box[0];
+		int minY = box[1];
+		int boxWidth = box[2] - minX + 1;
+		int boxHeight = box[3] - minY + 1;
+		double scale = (double) BOX_SIZE / Math.max(boxWidth, boxHeight);
+		int glyphWidth = Math.max(1, Math.min(BOX_SIZE, (int) Math.round(boxWidth * scale)));
+		int glyphHeight = Math.max(1, Math.min(BOX_SIZE, (int) Math.round(boxHeight * scale)));
+		scaleBox(width, minX, minY, boxWidth, boxHeight, glyph, glyphWidth, glyphHeight);
+
+		// Center of mass of the scaled digit, at pixel centers
+		double mass = 0;
+		double sumX = 0;
+		double sumY = 0;
+		for (int y = 0; y < glyphHeight; y++) {
+			for (int x = 0; x < glyphWidth; x++) {
+				float value = glyph[y * glyphWidth + x];
+				mass += value;
+				sumX += value * (x + 0.5);
+				sumY += value * (y + 0.5);
+			}
+		}
+		int offsetX = clamp((int) Math.round(FIELD_SIZE / 2d - sumX / mass), FIELD_SIZE - glyphWidth);
+		int offsetY = clamp((int) Math.round(FIELD_SIZE / 2d - sumY / mass), FIELD_SIZE - glyphHeight);
+
+		for (int y = 0; y < glyphHeight; y++) {
+			int featuresOffset = (y + offsetY) * FIELD_SIZE + offsetX;
+			for (int x = 0; x < glyphWidth; x++) {
+				features[featuresOffset + x] = Math.min(1f, glyph[y * glyphWidth + x]);
+			}
+		}
+	}
+
+	/**
+	 * Normalizes an image of a line of digits, such as an account number or a date, so that the
+	 * line's ink is 20 pixels high, as for a single MNIST digit.  The line is surrounded by 4 blank
+	 * pixels above and below, and 14 to either side, so that 28 * 28 windows sliding along the line
+	 * can center on its first and last digits.
+	 *
+	 * @param image An image of a single line of digits, of any size
+	 * @return The ink of the normalized line, 28 rows from top to bottom - or null for a blank image
+	 */
+	public double[][] normalizeLine(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		readInk(image, width, height);
+		int[] box = findInkBoundingBox(width, height);
+		if (box == null) {
+			return null;
+		}
+		int boxWidth = box[2] - box[0] + 1;
+		int boxHeight = box[3] - box[1] + 1;
+		int lineWidth = Math.max(1, (int) Math.round(boxWidth * (double) BOX_SIZE / boxHeight));
+		float[] scaledLine = new float[BOX_SIZE * lineWidth];
+		scaleBox(width, box[0], box[1], boxWidth, boxHeight, scaledLine, lineWidth, BOX_SIZE);
+
+		int verticalMargin = (FIELD_SIZE - BOX_SIZE) / 2;
+		int horizontalMargin = FIELD_SIZE / 2;
+		double[][] line = new double[FIELD_SIZE][lineWidth + 2 * horizontalMargin];
+		for (int y = 0; y < BOX_SIZE; y++) {
+			for (int x = 0; x < lineWidth; x++) {
+				line[y + verticalMargin][x + horizontalMargin] = Math.min(1f, scaledLine[y * lineWidth + x]);
+			}
+		}
+		return line;
+	}
+
+	/**
+	 *
+	 * @return The inclusive minX, minY, maxX and maxY of the pixels with ink above the threshold, or null if there are none
+	 */
+	private int[] findInkBoundingBox(int width, int height) {
+		int minX = width;
+		int maxX = -1;
+		int minY = height;
+		int maxY = -1;
+		float threshold = (float) inkThreshold;
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			int first = 0;
+			while (first < width && ink[offset + first] <= threshold) {
+				first++;
+			}
+			if (first == width) {
+				continue;
+			}
+			int last = width - 1;
+			while (ink[offset + last] <= threshold) {
+				last--;
+			}
+			minX = Math.min(minX, first);
+			maxX = Math.max(maxX, last);
+			minY = Math.min(minY, y);
+			maxY = y;
+		}
+		return maxX < 0 ? null : new int[] { minX, minY, maxX, maxY };
+	}
+
+	private static int clamp(int offset, int max) {
+		return Math.max(0, Math.min(max, offset));
+	}
+
+	/**
+	 * Reads 1 - luminance of each pixel into the ink buffer, row by row.  Transparent
+	 * pixels are treated as if composited onto a white background.
+	 */
+	private void readInk(BufferedImage image, int width, int height) {
+		int pixels = width * height;
+		if (ink.length < pixels) {
+			ink = new float[pixels];
+		}
+		Raster raster = image.getRaster();
+		boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+		int type = image.getType();
+		if (untranslated && type == BufferedImage.TYPE_BYTE_GRAY
+				&& raster.getSampleModel() instanceof ComponentSampleModel
+				&& ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride() == width) {
+			// Gray levels are looked up through the color model, so they match getRGB
+			if (grayColorModel != image.getColorModel()) {
+				grayColorModel = image.getColorModel();
+				for (int level = 0; level < grayInk.length; level++) {
+					grayInk[level] = toInk(grayColorModel.getRGB(level), false);
+				}
+			}
+			byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int dataOffset = raster.getDataBuffer().getOffset();
+			for (int i = 0; i < pixels; i++) {
+				ink[i] = grayInk[data[dataOffset + i] & 0xFF];
+			}
+		} else if (untranslated && type == BufferedImage.TYPE_3BYTE_BGR
+				&& raster.getSampleModel() instanceof ComponentSampleModel
+				&& ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride() == width * 3) {
+			byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int dataOffset = raster.getDataBuffer().getOffset();
+			for (int i = 0; i < pixels; i++) {
+				int pixelOffset = dataOffset + i * 3;
+				ink[i] = LUMINANCE_INK[((data[pixelOffset + 2] & 0xFF) * RED_WEIGHT + (data[pixelOffset + 1] & 0xFF)
+						* GREEN_WEIGHT + (data[pixelOffset] & 0xFF) * BLUE_WEIGHT) >> 8];
+			}
+		} else if (untranslated
+				&& (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+				&& ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width) {
+			int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int dataOffset = raster.getDataBuffer().getOffset();
+			boolean alpha = type == BufferedImage.TYPE_INT_ARGB;
+			for (int i = 0; i < pixels; i++) {
+				ink[i] = toInk(data[dataOffset + i], alpha);
+			}
+		} else {
+			if (rgb.length < pixels) {
+				rgb = new int[pixels];
+			}
+			image.getRGB(0, 0, width, height, rgb, 0, width);
+			boolean alpha = image.getColorModel().hasAlpha();
+			for (int i = 0; i < pixels; i++) {
+				ink[i] = toInk(rgb[i], alpha);
+			}
+		}
+	}
+
+	private static float toInk(int color, boolean alpha) {
+		int red = (color >>> 16) & 0xFF;
+		int green = (color >>> 8) & 0xFF;
+		int blue = color & 0xFF;
+		float value = LUMINANCE_INK[(red * RED_WEIGHT + green * GREEN_WEIGHT + blue * BLUE_WEIGHT) >> 8];
+		return alpha ? value * ((color >>> 24) & 0xFF) / 255 : value;
+	}
+
+	/**
+	 * Scales the bounding box of the ink buffer into a target buffer by area averaging,
+	 * first along each row and then along each column
+	 */
+	private void scaleBox(int width, int minX, int minY, int boxWidth, int boxHeight, float[] target,
+			int glyphWidth, int glyphHeight) {
+		if (scaledRows.length < boxHeight * glyphWidth) {
+			scaledRows = new float[boxHeight * glyphWidth];
+		}
+		for (int y = 0; y < boxHeight; y++) {
+			resample(ink, (minY + y) * width + minX, 1, boxWidth, scaledRows, y * glyphWidth, 1, glyphWidth);
+		}
+		for (int x = 0; x < glyphWidth; x++) {
+			resample(scaledRows, x, glyphWidth, boxHeight, target, x, glyphWidth, glyphHeight);
+		}
+	}
+
+	/**
+	 * Area-averaging resample of a strided line of values
+	 */
+	private static void resample(float[] source, int sourceOffset, int sourceStride, int sourceLength,
+			float[] target, int targetOffset, int targetStride, int targetLength) {
+		double ratio = (double) sourceLength / targetLength;
+		for (int i = 0; i < targetLength; i++) {
+			double start = i * ratio;
+			double end = start + ratio;
+			int first = (int) start;
+			int last = Math.min(sourceLength - 1, (int) Math.ceil(end) - 1);
+			double sum = 0;
+			for (int j = first; j <= last; j++) {
+				double coverage = Math.min(end, j + 1) - Math.max(start, j);
+				sum += coverage * source[sourceOffset + j * sourceStride];
+			}
+			target[targetOffset + i * targetStride] = (float) (sum / ratio);
+		}
+	}
+}
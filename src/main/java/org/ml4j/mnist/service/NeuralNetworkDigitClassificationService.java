@@ -16,6 +16,9 @@
 package org.ml4j.mnist.service;
 
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.ml4j.ConvertToCudaMatrixOptimisationStrategy;
 import org.ml4j.CudaForMMulStrategy;
@@ -29,18 +32,31 @@ import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
  * DigitClassificationService using a pre-learned NeuralNetworkHypothesisFunction 
  * to classify images of MNIST digits
  * 
+ * Large batches are split into sub-batches before forward propagation, so that the intermediate
+ * activation matrices stay a manageable size - the sub-batch size is chosen at runtime by a
+ * SubBatchSizeAutotuner measuring throughput on the current host and model.
+ * 
+ * The first calls to a newly constructed service are much slower than later ones, while classes
+ * load and the JIT compiles the forward propagation loops - call warmUp() before taking traffic,
+ * and use isReady() to hold traffic until it completes.
+ * 
  * @author Michael Lavelle
  *
  */
-public class NeuralNetworkDigitClassificationService implements DigitClassificationService {
+public class NeuralNetworkDigitClassificationService implements DigitClassificationService, ReadinessIndicator {
 
-	private NeuralNetworkHypothesisFunction neuralNetworkHypothesisFunction;
+	private volatile NeuralNetworkHypothesisFunction neuralNetworkHypothesisFunction;
+	private boolean cudaAvailable;
 	private FeaturesMapper<BufferedImage> bufferedImageFeaturesMapper
 	 = new MnistDigitBufferedImageFeaturesMapper(28,28);
+	private volatile SubBatchSizeAutotuner subBatchSizeAutotuner = new SubBatchSizeAutotuner();
+	private volatile boolean ready;
+	private volatile List<WarmUpTiming> warmUpTimings = Collections.emptyList();
 	
 	public NeuralNetworkDigitClassificationService(NeuralNetworkHypothesisFunction neuralNetworkHypothesisFunction,boolean cudaAvailable,boolean jblasAvailable)
 	{
 		this.neuralNetworkHypothesisFunction = neuralNetworkHypothesisFunction;
+		this.cudaAvailable = cudaAvailable;
 
 		// Make optimisations to configuration depending on availablity of Cuda/Jblas
 		if (!cudaAvailable)
@@ -55,14 +71,45 @@ public class NeuralNetworkDigitClassificationService implements DigitClassificat
 				DoubleMatrixConfig.setDoubleMatrixStrategy(new NoJblasPresentMatrixAdapterStrategy());
 
 			}
-			this.neuralNetworkHypothesisFunction.getNeuralNetwork().updateForwardPropagationInputMatrixStrategyForCurrentLayers(new NoOpMatrixOptimisationStrategy());
 		}
 		else
 		{
 			// If Cuda is available, optimise for GPU matrix-matrix multiplication
 			DoubleMatrixConfig.setDoubleMatrixStrategy(new CudaForMMulStrategy());
-			this.neuralNetworkHypothesisFunction.getNeuralNetwork().updateForwardPropagationInputMatrixStrategyForCurrentLayers(new ConvertToCudaMatrixOptimisationStrategy());
 		}
+		updateForwardPropagationStrategy(neuralNetworkHypothesisFunction);
+	}
+
+	private void updateForwardPropagationStrategy(NeuralNetworkHypothesisFunction hypothesisFunction)
+	{
+		if (!cudaAvailable)
+		{
+			hypothesisFunction.getNeuralNetwork().updateForwardPropagationInputMatrixStrategyForCurrentLayers(new NoOpMatrixOptimisationStrategy());
+		}
+		else
+		{
+			hypothesisFunction.getNeuralNetwork().updateForwardPropagationInputMatrixStrategyForCurrentLayers(new ConvertToCudaMatrixOptimisationStrategy());
+		}
+	}
+
+	/**
+	 * 
+	 * @return The hypothesis function currently classifying images
+	 */
+	public NeuralNetworkHypothesisFunction getNeuralNetworkHypothesisFunction() {
+		return neuralNetworkHypothesisFunction;
+	}
+
+	/**
+	 * Replaces the hypothesis function classifying images, without pausing classification - calls
+	 * in progress complete with the previous function, and later calls use the new one.  The new
+	 * function must not be trained further once published.
+	 * 
+	 * @param neuralNetworkHypothesisFunction The new hypothesis function
+	 */
+	public void setNeuralNetworkHypothesisFunction(NeuralNetworkHypothesisFunction neuralNetworkHypothesisFunction) {
+		updateForwardPropagationStrategy(neuralNetworkHypothesisFunction);
+		this.neuralNetworkHypothesisFunction = neuralNetworkHypothesisFunction;
 	}
 	
 	/**
@@ -77,7 +124,7 @@ public class NeuralNetworkDigitClassificationService implements DigitClassificat
 
 	/**
 	 * 
-	 * @param image The image to classify ( must be 28 * 28)
+	 * @param image The image to classify ( images of other sizes are normalized to 28 * 28)
 	 * @return The predicted digit
 	 */
 	@Override
@@ -110,6 +157,15 @@ public class NeuralNetworkDigitClassificationService implements DigitClassificat
 		return neuralNetworkHypothesisFunction.getAccuracy(testSetData, testSetLabels);
 	}
 
+	/**
+	 * 
+	 * @param mnistData array of 28 * 28 images, each represented as a double[]
+	 * @return The softmax output activations for each image, indexed by digit
+	 */
+	public double[][] getPredictedDigitProbabilities(double[][] mnistData) {
+		return predictInSubBatches(mnistData);
+	}
+
 	/**
 	 * 
 	 * @param mnistData array of 28 * 28 images, each represented as a double[]
@@ -118,8 +174,8 @@ public class NeuralNetworkDigitClassificationService implements DigitClassificat
 	@Override
 	public int[] getPredictedDigitClassifications(double[][] mnistData) {
 		int[] predictions = new int[mnistData.length];
-		double[][] activations = neuralNetworkHypothesisFunction.predict(mnistData);
-		
+		double[][] activations = predictInSubBatches(mnistData);
+
 		for (int index = 0; index < activations.length;index++)
 		{
 			predictions[index] = getArgMaxIndex(activations[index]);
@@ -127,4 +183,89 @@ public class NeuralNetworkDigitClassificationService implements DigitClassificat
 		return predictions;
 	}
 
+	/**
+	 * Forward propagates a batch in sub-batches of the size chosen by the autotuner, measuring each one
+	 */
+	private double[][] predictInSubBatches(double[][] mnistData) {
+		// Classify the whole batch with the same hypothesis function, even if a new one is published meanwhile
+		NeuralNetworkHypothesisFunction hypothesisFunction = neuralNetworkHypothesisFunction;
+		SubBatchSizeAutotuner subBatchSizeAutotuner = this.subBatchSizeAutotuner;
+		subBatchSizeAutotuner.onBatch(mnistData.length);
+		double[][] activations = new double[mnistData.length][];
+		int offset = 0;
+		while (offset < mnistData.length) {
+			int remaining = mnistData.length - offset;
+			int subBatchSize = subBatchSizeAutotuner.getNextSubBatchSize(remaining);
+			int rows = Math.min(subBatchSize, remaining);
+			double[][] subBatch = rows == mnistData.length ? mnistData : Arrays.copyOfRange(mnistData, offset,
+					offset + rows);
+			long allocatedBefore = SubBatchSizeAutotuner.getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			double[][] subBatchActivations = hypothesisFunction.predict(subBatch);
+			long elapsed = System.nanoTime() - start;
+			long allocatedAfter = SubBatchSizeAutotuner.getCurrentThreadAllocatedBytes();
+			subBatchSizeAutotuner.record(subBatchSize, rows, elapsed, allocatedBefore < 0 ? -1 : allocatedAfter
+					- allocatedBefore);
+			System.arraycopy(subBatchActivations, 0, activations, offset, rows);
+			offset += rows;
+		}
+		return activations;
+	}
+
+	/**
+	 * 
+	 * @return The autotuner choosing the sub-batch size, exposing the chosen size and its measurements
+	 */
+	public SubBatchSizeAutotuner getSubBatchSizeAutotuner() {
+		return subBatchSizeAutotuner;
+	}
+
+	/**
+	 * 
+	 * @param subBatchSizeAutotuner An autotuner with other candidate sizes - use a single candidate for a fixed size
+	 */
+	public void setSubBatchSizeAutotuner(SubBatchSizeAutotuner subBatchSizeAutotuner) {
+		this.subBatchSizeAutotuner = subBatchSizeAutotuner;
+	}
+
+	/**
+	 * Warms up the service with the default ServiceWarmUp, then marks it ready
+	 * 
+	 * @return The cold and warm timings of each prediction path
+	 */
+	public List<WarmUpTiming> warmUp() {
+		return warmUp(new ServiceWarmUp());
+	}
+
+	/**
+	 * Warms up the service by classifying synthetic digits through every prediction path until
+	 * the timings settle, then marks it ready
+	 * 
+	 * @param serviceWarmUp The warm-up to run
+	 * @return The cold and warm timings of each prediction path
+	 */
+	public List<WarmUpTiming> warmUp(ServiceWarmUp serviceWarmUp) {
+		List<WarmUpTiming> timings = Collections.unmodifiableList(serviceWarmUp.warmUp(this));
+		this.warmUpTimings = timings;
+		this.ready = true;
+		return timings;
+	}
+
+	/**
+	 * 
+	 * @return Whether the service has been warmed up
+	 */
+	@Override
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * 
+	 * @return The cold and warm timings of each prediction path, or an empty list if not yet warmed up
+	 */
+	public List<WarmUpTiming> getWarmUpTimings() {
+		return warmUpTimings;
+	}
+
 }
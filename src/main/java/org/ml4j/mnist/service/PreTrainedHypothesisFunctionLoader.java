@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.util.SerializationHelper;
+
+/**
+ * Loads pre-trained Neural Network hypothesis functions serialized on the classpath under
+ * org/ml4j/mnist, eg. 19_08_2015_CNN_1, or serialized to a file
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class PreTrainedHypothesisFunctionLoader {
+
+	private PreTrainedHypothesisFunctionLoader() {
+	}
+
+	/**
+	 *
+	 * @param serializedHypothesisFunctionName The name the hypothesis function was serialized with
+	 * @return Whether the serialized hypothesis function is on the classpath
+	 */
+	public static boolean isAvailable(String serializedHypothesisFunctionName) {
+		// SerializationHelper stores each object as <directory>/<name>.ser
+		return PreTrainedHypothesisFunctionLoader.class.getClassLoader().getResource(
+				"org/ml4j/mnist/" + serializedHypothesisFunctionName + ".ser") != null;
+	}
+
+	/**
+	 *
+	 * @param serializedHypothesisFunctionName The name the hypothesis function was serialized with
+	 * @return The de-serialized hypothesis function
+	 * @throws RuntimeException If the hypothesis function can't be loaded, with the reason as its cause
+	 */
+	public static NeuralNetworkHypothesisFunction load(String serializedHypothesisFunctionName) {
+		if (serializedHypothesisFunctionName.isEmpty()) {
+			throw new IllegalArgumentException("Serialized hypothesis function name is unspecified");
+		}
+		try {
+			SerializationHelper serializationHelper = new SerializationHelper(
+					PreTrainedHypothesisFunctionLoader.class.getClassLoader(), "org/ml4j/mnist");
+			return serializationHelper.deserialize(NeuralNetworkHypothesisFunction.class,
+					serializedHypothesisFunctionName);
+		} catch (Exception e) {
+			// SerializationHelper doesn't declare the exceptions it raises, so pass on whatever was thrown as the cause
+			throw new RuntimeException("Unable to load hypothesis function:" + serializedHypothesisFunctionName, e);
+		}
+	}
+
+	/**
+	 *
+	 * @param file A file containing a serialized hypothesis function
+	 * @return The de-serialized hypothesis function
+	 * @throws RuntimeException If the hypothesis function can't be loaded, with the reason as its cause
+	 */
+	public static NeuralNetworkHypothesisFunction load(File file) {
+		try {
+			ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file));
+			try {
+				return (NeuralNetworkHypothesisFunction) inputStream.readObject();
+			} finally {
+				inputStream.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to load hypothesis function:" + file, e);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up a NeuralNetworkDigitClassificationService before it takes traffic, so that class
+ * loading, native BLAS initialization, JIT compilation and the allocation of the first large
+ * matrices happen before the first request rather than during it.
+ *
+ * Synthetic digits are classified through every prediction path - single images as data, as
+ * 28 * 28 images and as larger scans needing normalization, and batches of several representative
+ * sizes - in rounds, until the timings of each path settle or a round or time limit is reached.
+ * The first and settled timing of each path are recorded.
+ *
+ * Batches are split with a temporary autotuner trying every candidate sub-batch size, so that
+ * each size's matrices are warmed up without the slow first calls skewing the service's own
+ * autotuner.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ServiceWarmUp {
+
+	public static final int[] DEFAULT_BATCH_SIZES = new int[] { 1, 64, 512 };
+
+	// A path's timings have settled when this many consecutive calls are within the tolerance
+	private static final int STABLE_ROUNDS = 3;
+
+	private int[] batchSizes;
+	private int maxRounds;
+	private double tolerance;
+	private long maxMillis;
+
+	public ServiceWarmUp() {
+		this(DEFAULT_BATCH_SIZES, 50, 0.1, 60000);
+	}
+
+	/**
+	 *
+	 * @param batchSizes The sizes of the synthetic batches classified
+	 * @param maxRounds The maximum number of calls made to each prediction path
+	 * @param tolerance The maximum spread of the last few timings of a path, relative to their median, for the path to have settled
+	 * @param maxMillis The time after which warm-up stops, whether or not all the paths have settled
+	 */
+	public ServiceWarmUp(int[] batchSizes, int maxRounds, double tolerance, long maxMillis) {
+		if (batchSizes.length == 0 || maxRounds < 1 || tolerance <= 0 || maxMillis < 1) {
+			throw new IllegalArgumentException(
+					"At least one batch size, and a positive round limit, tolerance and time limit are required");
+		}
+		this.batchSizes = batchSizes.clone();
+		Arrays.sort(this.batchSizes);
+		if (this.batchSizes[0] < 1) {
+			throw new IllegalArgumentException("Batch sizes must be positive");
+		}
+		this.maxRounds = maxRounds;
+		this.tolerance = tolerance;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * Classifies synthetic digits through every prediction path of the service until the timings settle
+	 *
+	 * @param service The service to warm up
+	 * @return The cold and warm timings of each path
+	 */
+	public List<WarmUpTiming> warmUp(NeuralNetworkDigitClassificationService service) {
+		List<WarmUpPath> paths = createPaths(new Random(1));
+		SubBatchSizeAutotuner subBatchSizeAutotuner = service.getSubBatchSizeAutotuner();
+		service.setSubBatchSizeAutotuner(new SubBatchSizeAutotuner(subBatchSizeAutotuner.getCandidateSizes(), 1));
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+		try {
+			for (int round = 0; round < maxRounds; round++) {
+				boolean settled = true;
+				for (WarmUpPath path : paths) {
+					if (!path.isStable()) {
+						path.measure(service);
+						settled = settled && path.isStable();
+					}
+				}
+				if (settled || System.nanoTime() > deadline) {
+					break;
+				}
+			}
+		} finally {
+			service.setSubBatchSizeAutotuner(subBatchSizeAutotuner);
+		}
+		List<WarmUpTiming> timings = new ArrayList<WarmUpTiming>();
+		for (WarmUpPath path : paths) {
+			timings.add(path.getTiming());
+		}
+		return timings;
+	}
+
+	private List<WarmUpPath> createPaths(Random random) {
+		final double[] mnistData = createMnistData(random);
+		final BufferedImage image = createImage(mnistData, 28, 28, 1);
+		final BufferedImage scan = createImage(mnistData, 240, 320, 6);
+
+		List<WarmUpPath> paths = new ArrayList<WarmUpPath>();
+		paths.add(new WarmUpPath("getPredictedDigitClassification(double[])", 1) {
+
+			@Override
+			protected void call(NeuralNetworkDigitClassificationService service) {
+				service.getPredictedDigitClassification(mnistData);
+			}
+		});
+		paths.add(new WarmUpPath("getPredictedDigitClassification(28 * 28 image)", 1) {
+
+			@Override
+			protected void call(NeuralNetworkDigitClassificationService service) {
+				service.getPredictedDigitClassification(image);
+			}
+		});
+		paths.add(new WarmUpPath("getPredictedDigitClassification(" + scan.getWidth() + " * " + scan.getHeight()
+				+ " scan)", 1) {
+
+			@Override
+			protected void call(NeuralNetworkDigitClassificationService service) {
+				service.getPredictedDigitClassification(scan);
+			}
+		});
+		for (int batchSize : batchSizes) {
+			final double[][] batch = new double[batchSize][];
+			for (int i = 0; i < batchSize; i++) {
+				batch[i] = createMnistData(random);
+			}
+			paths.add(new WarmUpPath("getPredictedDigitClassifications", batchSize) {
+
+				@Override
+				protected void call(NeuralNetworkDigitClassificationService service) {
+					service.getPredictedDigitClassifications(batch);
+				}
+			});
+		}
+
+		// The probabilities and accuracy paths share most of their code with the batch path, so are
+		// only warmed up at the largest batch size
+		final double[][] batch = new double[batchSizes[batchSizes.length - 1]][];
+		final double[][] labels = new double[batch.length][10];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = createMnistData(random);
+			labels[i][random.nextInt(10)] = 1;
+		}
+		paths.add(new WarmUpPath("getPredictedDigitProbabilities", batch.length) {
+
+			@Override
+			protected void call(NeuralNetworkDigitClassificationService service) {
+				service.getPredictedDigitProbabilities(batch);
+			}
+		});
+		paths.add(new WarmUpPath("getAccuracy", batch.length) {
+
+			@Override
+			protected void call(NeuralNetworkDigitClassificationService service) {
+				service.getAccuracy(batch, labels);
+			}
+		});
+		return paths;
+	}
+
+	/**
+	 * A synthetic digit - random strokes of ink in the central 20 * 20 pixels, as in MNIST data
+	 */
+	private static double[] createMnistData(Random random) {
+		double[] mnistData = new double[28 * 28];
+		int x = 8 + random.nextInt(12);
+		int y = 4 + random.nextInt(4);
+		for (int step = 0; step < 150; step++) {
+			mnistData[y * 28 + x] = 1;
+			x = Math.max(4, Math.min(23, x + random.nextInt(3) - 1));
+			y = Math.max(4, Math.min(23, y + random.nextInt(3) - 1));
+		}
+		return mnistData;
+	}
+
+	/**
+	 * Draws a synthetic digit dark on a white image, enlarged and off-center for images larger than 28 * 28
+	 */
+	private static BufferedImage createImage(double[] mnistData, int width, int height, int enlargement) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, width, height);
+		graphics.setColor(Color.BLACK);
+		int left = (width - 28 * enlargement) / 3;
+		int top = (height - 28 * enlargement) / 3;
+		for (int i = 0; i < mnistData.length; i++) {
+			if (mnistData[i] > 0) {
+				graphics.fillRect(left + (i % 28) * enlargement, top + (i / 28) * enlargement, enlargement,
+						enlargement);
+			}
+		}
+		graphics.dispose();
+		return image;
+	}
+
+	/**
+	 * One prediction path, and the time taken by each call to it
+	 */
+	private abstract class WarmUpPath {
+
+		private String name;
+		private int images;
+		private List<Long> nanos = new ArrayList<Long>();
+
+		public WarmUpPath(String name, int images) {
+			this.name = name;
+			this.images = images;
+		}
+
+		protected abstract void call(NeuralNetworkDigitClassificationService service);
+
+		public void measure(NeuralNetworkDigitClassificationService service) {
+			long start = System.nanoTime();
+			call(service);
+			nanos.add(System.nanoTime() - start);
+		}
+
+		/**
+		 *
+		 * @return The last few timings after the first, sorted, or null if there haven't been enough calls
+		 */
+		private long[] getRecentNanos() {
+			if (nanos.size() < STABLE_ROUNDS + 1) {
+				return null;
+			}
+			long[] recentNanos = new long[STABLE_ROUNDS];
+			for (int i = 0; i < STABLE_ROUNDS; i++) {
+				recentNanos[i] = nanos.get(nanos.size() - STABLE_ROUNDS + i);
+			}
+			Arrays.sort(recentNanos);
+			return recentNanos;
+		}
+
+		public boolean isStable() {
+			long[] recentNanos = getRecentNanos();
+			return recentNanos != null
+					&& recentNanos[STABLE_ROUNDS - 1] - recentNanos[0] <= tolerance * recentNanos[STABLE_ROUNDS / 2];
+		}
+
+		public WarmUpTiming getTiming() {
+			long[] recentNanos = getRecentNanos();
+			long warmNanos = recentNanos == null ? nanos.get(nanos.size() - 1) : recentNanos[STABLE_ROUNDS / 2];
+			return new WarmUpTiming(name, images, nanos.get(0), warmNanos, nanos.size(), isStable());
+		}
+	}
+}
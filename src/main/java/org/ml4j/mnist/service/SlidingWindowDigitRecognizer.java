@@ -0,0 +1,446 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.ml4j.mnist.pruning.FeedForwardLayerWeights;
+import org.ml4j.nn.ConvolutionalLayer;
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.MaxPoolingLayer;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Recognizes strings of digits, such as account numbers and dates, by sliding a 28 * 28 window
+ * over an image and classifying each window position with a pre-learned Convolutional Neural
+ * Network, then keeping only the most confident of any overlapping detections.
+ *
+ * Rather than classifying each window separately, the convolutional layers are run once over the
+ * whole image.  Windows slide two pixels at a time, so each window's 2 * 2 pooling cells line up
+ * with a single pooling of the whole first convolution, and its second convolution outputs are a
+ * 5 * 5 slice of a single second convolution of the whole pooled image.  Only the fully connected
+ * layers are evaluated per window, and only for windows whose ink is centered, as the MNIST digits
+ * are - so the cost grows with the image area rather than with the number of windows times the
+ * window area.
+ *
+ * The network must have the topology of DigitClassificationCNNTrainer - a convolution of 6 9 * 9
+ * filters, 2 * 2 max pooling and a convolution of 16 6 * 6 filters, followed by fully connected
+ * sigmoid layers and a softmax output layer.  The layers' weights are read once, and checked on
+ * construction by comparing a window classified here with the hypothesis function's own prediction.
+ * Instances are thread-safe.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class SlidingWindowDigitRecognizer {
+
+	private static final int WINDOW_SIZE = 28;
+	private static final int STRIDE = 2;
+
+	private static final int FIRST_KERNEL_SIZE = 9;
+	private static final int FIRST_FILTER_COUNT = 6;
+	private static final int FIRST_OUTPUT_SIZE = WINDOW_SIZE - FIRST_KERNEL_SIZE + 1;
+	private static final int POOLED_SIZE = FIRST_OUTPUT_SIZE / 2;
+	private static final int SECOND_KERNEL_SIZE = 6;
+	private static final int SECOND_FILTER_COUNT = 16;
+	private static final int SECOND_OUTPUT_SIZE = POOLED_SIZE - SECOND_KERNEL_SIZE + 1;
+
+	// Windows are only classified if the center of mass of their ink is this close to the window's center
+	private static final double MAX_CENTER_OFFSET = 2.5;
+
+	// Windows with less ink than this are blank
+	private static final double MIN_INK = 10;
+
+	private double[][] firstKernels;
+	private double[][] secondKernels;
+	private List<FeedForwardLayerWeights> fullyConnectedLayers;
+	private double minConfidence;
+	private double maxOverlap;
+
+	/**
+	 *
+	 * @param hypothesisFunction A pre-learned Convolutional Neural Network hypothesis function
+	 * @param minConfidence The softmax output activation a window must reach to be a detection
+	 * @param maxOverlap The intersection over union of windows above which the less confident detection is suppressed
+	 */
+	public SlidingWindowDigitRecognizer(NeuralNetworkHypothesisFunction hypothesisFunction, double minConfidence,
+			double maxOverlap) {
+		List<FeedForwardLayer> layers = hypothesisFunction.getNeuralNetwork().getLayers();
+		if (layers.size() < 4 || !(layers.get(0) instanceof ConvolutionalLayer)
+				|| !(layers.get(1) instanceof MaxPoolingLayer) || !(layers.get(2) instanceof ConvolutionalLayer)
+				|| layers.get(2).getOutputNeuronCount() != SECOND_FILTER_COUNT * SECOND_OUTPUT_SIZE * SECOND_OUTPUT_SIZE) {
+			throw new IllegalArgumentException("Network does not have the topology of DigitClassificationCNNTrainer");
+		}
+		this.firstKernels = readKernels(layers.get(0), 1, WINDOW_SIZE, FIRST_FILTER_COUNT, FIRST_KERNEL_SIZE,
+				FIRST_OUTPUT_SIZE);
+		this.secondKernels = readKernels(layers.get(2), FIRST_FILTER_COUNT, POOLED_SIZE, SECOND_FILTER_COUNT,
+				SECOND_KERNEL_SIZE, SECOND_OUTPUT_SIZE);
+		this.fullyConnectedLayers = FeedForwardLayerWeights.readFullyConnectedLayers(hypothesisFunction
+				.getNeuralNetwork());
+		this.minConfidence = minConfidence;
+		this.maxOverlap = maxOverlap;
+		checkAgainst(hypothesisFunction);
+	}
+
+	/**
+	 * Reads the filters of a convolutional layer as one row per filter, with the bias first and then
+	 * the kernel weights for each input map, row by row.  The layer's thetas may hold one row per
+	 * filter, or one row per output neuron over all the layer's inputs, in which case each filter's
+	 * kernel is read from the row of its top left output neuron.
+	 */
+	private static double[][] readKernels(FeedForwardLayer layer, int inputMaps, int inputSize, int filterCount,
+			int kernelSize, int outputSize) {
+		double[][] thetas = layer.getClonedThetas().toArray2();
+		int firstWeightColumn = layer.hasBiasUnit() ? 1 : 0;
+		double[][] kernels = new double[filterCount][1 + inputMaps * kernelSize * kernelSize];
+		boolean perFilter = thetas.length == filterCount
+				&& thetas[0].length == firstWeightColumn + inputMaps * kernelSize * kernelSize;
+		boolean perOutputNeuron = thetas.length == filterCount * outputSize * outputSize
+				&& thetas[0].length == firstWeightColumn + inputMaps * inputSize * inputSize;
+		if (!perFilter && !perOutputNeuron) {
+			throw new IllegalArgumentException("Unsupported convolutional layer weights of " + thetas.length + " * "
+					+ thetas[0].length);
+		}
+		for (int f = 0; f < filterCount; f++) {
+			double[] row = thetas[perFilter ? f : f * outputSize * outputSize];
+			kernels[f][0] = firstWeightColumn == 0 ? 0 : row[0];
+			for (int map = 0; map < inputMaps; map++) {
+				for (int ky = 0; ky < kernelSize; ky++) {
+					for (int kx = 0; kx < kernelSize; kx++) {
+						int column = perFilter ? (map * kernelSize + ky) * kernelSize + kx : (map * inputSize + ky)
+								* inputSize + kx;
+						kernels[f][1 + (map * kernelSize + ky) * kernelSize + kx] = row[firstWeightColumn + column];
+					}
+				}
+			}
+		}
+		return kernels;
+	}
+
+	/**
+	 * Classifies a random window both here and with the hypothesis function, to check that the
+	 * weights have been read as the network uses them
+	 */
+	private void checkAgainst(NeuralNetworkHypothesisFunction hypothesisFunction) {
+		Random random = new Random(1);
+		double[][] window = new double[WINDOW_SIZE][WINDOW_SIZE];
+		double[] mnistData = new double[WINDOW_SIZE * WINDOW_SIZE];
+		for (int y = 0; y < WINDOW_SIZE; y++) {
+			for (int x = 0; x < WINDOW_SIZE; x++) {
+				window[y][x] = random.nextInt(4) == 0 ? 1 : 0;
+				mnistData[y * WINDOW_SIZE + x] = window[y][x];
+			}
+		}
+		double[] expected = hypothesisFunction.predict(mnistData);
+		double[] actual = classifyWindow(convolve(window), 0, 0);
+		for (int digit = 0; digit < actual.length; digit++) {
+			if (Math.abs(expected[digit] - actual[digit]) > 1e-6) {
+				throw new IllegalArgumentException("Convolutional layer weights are not laid out as expected");
+			}
+		}
+	}
+
+	/**
+	 * Recognizes a line of digits, normalizing it so that its digits are the size of MNIST digits
+	 *
+	 * @param image An image of a single line of dark digits on a light background
+	 * @return The digits from left to right
+	 */
+	public int[] recognizeLine(BufferedImage image) {
+		double[][] line = new MnistDigitImageNormalizer(0.2).normalizeLine(image);
+		return line == null ? new int[0] : toDigitSequence(detect(line));
+	}
+
+	/**
+	 * Finds the digits in an image whose digits are already the size of MNIST digits
+	 *
+	 * @param ink The ink of each pixel of the image, from 0 to 1, row by row - at least 28 * 28
+	 * @return The detected digits, most confident first
+	 */
+	public List<DigitDetection> detect(double[][] ink) {
+		int height = ink.length;
+		int width = ink[0].length;
+		if (height < WINDOW_SIZE || width < WINDOW_SIZE) {
+			throw new IllegalArgumentException("Image must be at least 28 * 28");
+		}
+		double[][][] secondOutputs = convolve(ink);
+		InkMoments moments = new InkMoments(ink);
+
+		List<DigitDetection> candidates = new ArrayList<DigitDetection>();
+		for (int y = 0; y + WINDOW_SIZE <= height; y += STRIDE) {
+			for (int x = 0; x + WINDOW_SIZE <= width; x += STRIDE) {
+				if (!moments.isCentered(x, y, height > WINDOW_SIZE)) {
+					continue;
+				}
+				double[] outputs = classifyWindow(secondOutputs, x / STRIDE, y / STRIDE);
+				int digit = NeuralNetworkDigitClassificationService.getArgMaxIndex(outputs);
+				if (outputs[digit] >= minConfidence) {
+					candidates.add(new DigitDetection(digit, x, y, outputs[digit]));
+				}
+			}
+		}
+		return suppressOverlaps(candidates);
+	}
+
+	/**
+	 * Runs the convolutional and pooling layers over the whole image
+	 *
+	 * @return The second convolution's output maps
+	 */
+	private double[][][] convolve(double[][] ink) {
+		int firstHeight = ink.length - FIRST_KERNEL_SIZE + 1;
+		int firstWidth = ink[0].length - FIRST_KERNEL_SIZE + 1;
+		int pooledHeight = firstHeight / 2;
+		int pooledWidth = firstWidth / 2;
+		double[][][] pooled = new double[FIRST_FILTER_COUNT][pooledHeight][pooledWidth];
+		double[] sums = new double[firstWidth];
+		double[][] firstRows = new double[2][firstWidth];
+		for (int f = 0; f < FIRST_FILTER_COUNT; f++) {
+			double[] kernel = firstKernels[f];
+			for (int y = 0; y < pooledHeight * 2; y++) {
+				Arrays.fill(sums, kernel[0]);
+				for (int ky = 0; ky < FIRST_KERNEL_SIZE; ky++) {
+					double[] inkRow = ink[y + ky];
+					for (int kx = 0; kx < FIRST_KERNEL_SIZE; kx++) {
+						double weight = kernel[1 + ky * FIRST_KERNEL_SIZE + kx];
+						for (int x = 0; x < firstWidth; x++) {
+							sums[x] += weight * inkRow[x + kx];
+						}
+					}
+				}
+				double[] firstRow = firstRows[y % 2];
+				for (int x = 0; x < firstWidth; x++) {
+					firstRow[x] = sigmoid(sums[x]);
+				}
+				if (y % 2 == 1) {
+					double[] pooledRow = pooled[f][y / 2];
+					for (int x = 0; x < pooledWidth; x++) {
+						pooledRow[x] = Math.max(Math.max(firstRows[0][2 * x], firstRows[0][2 * x + 1]), Math.max(
+								firstRows[1][2 * x], firstRows[1][2 * x + 1]));
+					}
+				}
+			}
+		}
+
+		int secondHeight = pooledHeight - SECOND_KERNEL_SIZE + 1;
+		int secondWidth = pooledWidth - SECOND_KERNEL_SIZE + 1;
+		double[][][] secondOutputs = new double[SECOND_FILTER_COUNT][secondHeight][secondWidth];
+		for (int f = 0; f < SECOND_FILTER_COUNT; f++) {
+			double[] kernel = secondKernels[f];
+			for (int y = 0; y < secondHeight; y++) {
+				double[] secondRow = secondOutputs[f][y];
+				Arrays.fill(secondRow, kernel[0]);
+				for (int map = 0; map < FIRST_FILTER_COUNT; map++) {
+					for (int ky = 0; ky < SECOND_KERNEL_SIZE; ky++) {
+						double[] pooledRow = pooled[map][y + ky];
+						for (int kx = 0; kx < SECOND_KERNEL_SIZE; kx++) {
+							double weight = kernel[1 + (map * SECOND_KERNEL_SIZE + ky) * SECOND_KERNEL_SIZE + kx];
+							for (int x = 0; x < secondWidth; x++) {
+								secondRow[x] += weight * pooledRow[x + kx];
+							}
+						}
+					}
+				}
+				for (int x = 0; x < secondWidth; x++) {
+					secondRow[x] = sigmoid(secondRow[x]);
+				}
+			}
+		}
+		return secondOutputs;
+	}
+
+	/**
+	 * Evaluates the fully connected layers for the window whose second convolution outputs start at (left, top)
+	 */
+	private double[] classifyWindow(double[][][] secondOutputs, int left, int top) {
+		double[] activations = new double[SECOND_FILTER_COUNT * SECOND_OUTPUT_SIZE * SECOND_OUTPUT_SIZE];
+		int index = 0;
+		for (int f = 0; f < SECOND_FILTER_COUNT; f++) {
+			for (int y = 0; y < SECOND_OUTPUT_SIZE; y++) {
+				System.arraycopy(secondOutputs[f][top + y], left, activations, index, SECOND_OUTPUT_SIZE);
+				index += SECOND_OUTPUT_SIZE;
+			}
+		}
+		for (FeedForwardLayerWeights layer : fullyConnectedLayers) {
+			double[][] weights = layer.getWeights();
+			double[] biases = layer.getBiases();
+			double[] outputs = new double[weights.length];
+			for (int o = 0; o < outputs.length; o++) {
+				double sum = biases[o];
+				double[] row = weights[o];
+				for (int i = 0; i < row.length; i++) {
+					sum += row[i] * activations[i];
+				}
+				outputs[o] = sum;
+			}
+			if (layer.isSoftmax()) {
+				softmax(outputs);
+			} else {
+				for (int o = 0; o < outputs.length; o++) {
+					outputs[o] = sigmoid(outputs[o]);
+				}
+			}
+			activations = outputs;
+		}
+		return activations;
+	}
+
+	private static double sigmoid(double z) {
+		return 1 / (1 + Math.exp(-z));
+	}
+
+	private static void softmax(double[] values) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double value : values) {
+			max = Math.max(max, value);
+		}
+		double sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(values[i] - max);
+			sum += values[i];
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] /= sum;
+		}
+	}
+
+	/**
+	 * Keeps the most confident detections, dropping any which overlap a more confident one too much
+	 */
+	private List<DigitDetection> suppressOverlaps(List<DigitDetection> candidates) {
+		Collections.sort(candidates, new Comparator<DigitDetection>() {
+
+			@Override
+			public int compare(DigitDetection first, DigitDetection second) {
+				return Double.compare(second.getConfidence(), first.getConfidence());
+			}
+		});
+		List<DigitDetection> detections = new ArrayList<DigitDetection>();
+		for (DigitDetection candidate : candidates) {
+			boolean suppressed = false;
+			for (DigitDetection detection : detections) {
+				if (getOverlap(candidate, detection) > maxOverlap) {
+					suppressed = true;
+					break;
+				}
+			}
+			if (!suppressed) {
+				detections.add(candidate);
+			}
+		}
+		return detections;
+	}
+
+	private static double getOverlap(DigitDetection first, DigitDetection second) {
+		int overlapWidth = Math.max(0, WINDOW_SIZE - Math.abs(first.getX() - second.getX()));
+		int overlapHeight = Math.max(0, WINDOW_SIZE - Math.abs(first.getY() - second.getY()));
+		double intersection = overlapWidth * overlapHeight;
+		return intersection / (2 * WINDOW_SIZE * WINDOW_SIZE - intersection);
+	}
+
+	/**
+	 * Orders detections as they are read - lines from top to bottom, and left to right along each line
+	 *
+	 * @param detections The detected digits
+	 * @return The digits in reading order
+	 */
+	public static int[] toDigitSequence(List<DigitDetection> detections) {
+		List<DigitDetection> ordered = new ArrayList<DigitDetection>(detections);
+		Collections.sort(ordered, new Comparator<DigitDetection>() {
+
+			@Override
+			public int compare(DigitDetection first, DigitDetection second) {
+				return first.getY() != second.getY() ? first.getY() - second.getY() : first.getX() - second.getX();
+			}
+		});
+		// Digits on the same line are detected at slightly different heights
+		List<List<DigitDetection>> lines = new ArrayList<List<DigitDetection>>();
+		for (DigitDetection detection : ordered) {
+			List<DigitDetection> line = lines.isEmpty() ? null : lines.get(lines.size() - 1);
+			if (line == null || detection.getY() - line.get(0).getY() >= WINDOW_SIZE / 2) {
+				line = new ArrayList<DigitDetection>();
+				lines.add(line);
+			}
+			line.add(detection);
+		}
+		int[] digits = new int[detections.size()];
+		int index = 0;
+		for (List<DigitDetection> line : lines) {
+			Collections.sort(line, new Comparator<DigitDetection>() {
+
+				@Override
+				public int compare(DigitDetection first, DigitDetection second) {
+					return first.getX() - second.getX();
+				}
+			});
+			for (DigitDetection detection : line) {
+				digits[index++] = detection.getDigit();
+			}
+		}
+		return digits;
+	}
+
+	/**
+	 * Summed-area tables of the ink and its moments, giving the mass and center of mass of any window in constant time
+	 */
+	private static class InkMoments {
+
+		private double[][] mass;
+		private double[][] xMoment;
+		private double[][] yMoment;
+
+		public InkMoments(double[][] ink) {
+			int height = ink.length;
+			int width = ink[0].length;
+			mass = new double[height + 1][width + 1];
+			xMoment = new double[height + 1][width + 1];
+			yMoment = new double[height + 1][width + 1];
+			for (int y = 0; y < height; y++) {
+				double rowMass = 0;
+				double rowXMoment = 0;
+				for (int x = 0; x < width; x++) {
+					rowMass += ink[y][x];
+					rowXMoment += ink[y][x] * (x + 0.5);
+					mass[y + 1][x + 1] = mass[y][x + 1] + rowMass;
+					xMoment[y + 1][x + 1] = xMoment[y][x + 1] + rowXMoment;
+					yMoment[y + 1][x + 1] = yMoment[y][x + 1] + rowMass * (y + 0.5);
+				}
+			}
+		}
+
+		private static double sum(double[][] table, int x, int y) {
+			return table[y + WINDOW_SIZE][x + WINDOW_SIZE] - table[y][x + WINDOW_SIZE] - table[y + WINDOW_SIZE][x]
+					+ table[y][x];
+		}
+
+		public boolean isCentered(int x, int y, boolean checkVertically) {
+			double windowMass = sum(mass, x, y);
+			if (windowMass < MIN_INK) {
+				return false;
+			}
+			double centerX = sum(xMoment, x, y) / windowMass - x;
+			double centerY = sum(yMoment, x, y) / windowMass - y;
+			return Math.abs(centerX - WINDOW_SIZE / 2d) <= MAX_CENTER_OFFSET
+					&& (!checkVertically || Math.abs(centerY - WINDOW_SIZE / 2d) <= MAX_CENTER_OFFSET);
+		}
+	}
+}
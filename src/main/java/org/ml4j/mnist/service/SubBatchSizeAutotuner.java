@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the size of the sub-batches that large batches are split into before forward
+ * propagation, by measuring images/sec and heap allocation per image for each candidate size
+ * on the current host and model.
+ *
+ * Each candidate size no larger than the largest batch seen is first measured a few times,
+ * and the fastest is chosen - where several sizes are within a few percent of the fastest,
+ * the one allocating least per image is preferred.  Measurements are recent averages, and once
+ * a size has been chosen, every so often a sub-batch of a neighbouring size is measured instead,
+ * so that the choice adapts if the host load or the model changes.
+ *
+ * Only full sub-batches are measured.  Allocation is measured for the calling thread on
+ * JVMs supporting com.sun.management.ThreadMXBean, and excludes memory allocated natively
+ * (eg. by Cuda).  Instances are thread-safe.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class SubBatchSizeAutotuner {
+
+	public static final int[] DEFAULT_CANDIDATE_SIZES = new int[] { 32, 64, 128, 256, 512, 1024, 2048 };
+
+	// The number of times each candidate is measured before a size is first chosen
+	private static final int EXPLORATION_SAMPLES = 3;
+
+	// The weight of the newest measurement in each recent average
+	private static final double SMOOTHING = 0.25;
+
+	// Sizes this close to the fastest are considered as fast, and compared by allocation
+	private static final double THROUGHPUT_TOLERANCE = 0.05;
+
+	private int[] candidateSizes;
+	private int probeInterval;
+
+	private long[] sampleCounts;
+	private double[] imagesPerSecond;
+	private double[] allocatedBytesPerImage;
+	private int largestBatchSize;
+	private int chosenIndex = -1;
+	private int subBatchesSinceProbe;
+	private boolean probeLarger;
+
+	public SubBatchSizeAutotuner() {
+		this(DEFAULT_CANDIDATE_SIZES, 32);
+	}
+
+	/**
+	 *
+	 * @param candidateSizes The sub-batch sizes to choose from
+	 * @param probeInterval Once a size is chosen, one in every probeInterval sub-batches is of a neighbouring size
+	 */
+	public SubBatchSizeAutotuner(int[] candidateSizes, int probeInterval) {
+		if (candidateSizes.length == 0 || probeInterval < 1) {
+			throw new IllegalArgumentException("At least one candidate size and a positive probe interval are required");
+		}
+		this.candidateSizes = candidateSizes.clone();
+		Arrays.sort(this.candidateSizes);
+		if (this.candidateSizes[0] < 1) {
+			throw new IllegalArgumentException("Candidate sizes must be positive");
+		}
+		this.probeInterval = probeInterval;
+		this.sampleCounts = new long[candidateSizes.length];
+		this.imagesPerSecond = new double[candidateSizes.length];
+		this.allocatedBytesPerImage = new double[candidateSizes.length];
+	}
+
+	/**
+	 * Called once for each incoming batch, before it is split
+	 *
+	 * @param batchSize The number of images in the batch
+	 */
+	public synchronized void onBatch(int batchSize) {
+		largestBatchSize = Math.max(largestBatchSize, batchSize);
+	}
+
+	/**
+	 *
+	 * @param remainingImages The number of images of the batch not yet classified
+	 * @return The size of the next sub-batch - may be larger than the number of remaining images
+	 */
+	public synchronized int getNextSubBatchSize(int remainingImages) {
+		if (chosenIndex < 0) {
+			// Explore the least measured candidate which can be measured with a full sub-batch
+			int leastMeasured = -1;
+			for (int i = 0; i < candidateSizes.length && candidateSizes[i] <= remainingImages; i++) {
+				if (leastMeasured < 0 || sampleCounts[i] < sampleCounts[leastMeasured]) {
+					leastMeasured = i;
+				}
+			}
+			return leastMeasured < 0 ? candidateSizes[0] : candidateSizes[leastMeasured];
+		}
+		if (++subBatchesSinceProbe >= probeInterval) {
+			subBatchesSinceProbe = 0;
+			probeLarger = !probeLarger;
+			int neighbour = probeLarger ? chosenIndex + 1 : chosenIndex - 1;
+			if (neighbour >= 0 && neighbour < candidateSizes.length && candidateSizes[neighbour] <= remainingImages) {
+				return candidateSizes[neighbour];
+			}
+		}
+		return candidateSizes[chosenIndex];
+	}
+
+	/**
+	 * Records the measurement of a sub-batch
+	 *
+	 * @param subBatchSize The size returned by getNextSubBatchSize
+	 * @param images The number of images actually classified
+	 * @param elapsedNanos The time taken to classify them
+	 * @param allocatedBytes The heap bytes allocated by the classifying thread, or -1 if unknown
+	 */
+	public synchronized void record(int subBatchSize, int images, long elapsedNanos, long allocatedBytes) {
+		int index = Arrays.binarySearch(candidateSizes, subBatchSize);
+		if (index < 0 || images < subBatchSize || elapsedNanos <= 0) {
+			// Partial sub-batches aren't representative of their size
+			return;
+		}
+		double throughput = images * 1000000000d / elapsedNanos;
+		double allocation = allocatedBytes < 0 ? -1 : (double) allocatedBytes / images;
+		if (sampleCounts[index] == 0) {
+			imagesPerSecond[index] = throughput;
+			allocatedBytesPerImage[index] = allocation;
+		} else {
+			imagesPerSecond[index] += SMOOTHING * (throughput - imagesPerSecond[index]);
+			allocatedBytesPerImage[index] = allocation < 0 ? -1 : allocatedBytesPerImage[index] + SMOOTHING
+					* (allocation - allocatedBytesPerImage[index]);
+		}
+		sampleCounts[index]++;
+
+		if (chosenIndex < 0) {
+			for (int i = 0; i < candidateSizes.length && candidateSizes[i] <= largestBatchSize; i++) {
+				if (sampleCounts[i] < EXPLORATION_SAMPLES) {
+					return;
+				}
+			}
+		}
+		chosenIndex = getBestMeasuredIndex();
+	}
+
+	private int getBestMeasuredIndex() {
+		double fastest = 0;
+		for (int i = 0; i < candidateSizes.length; i++) {
+			if (sampleCounts[i] > 0) {
+				fastest = Math.max(fastest, imagesPerSecond[i]);
+			}
+		}
+		int best = -1;
+		for (int i = 0; i < candidateSizes.length; i++) {
+			if (sampleCounts[i] > 0 && imagesPerSecond[i] >= fastest * (1 - THROUGHPUT_TOLERANCE)) {
+				if (best < 0 || allocatedBytesPerImage[i] < allocatedBytesPerImage[best]) {
+					best = i;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 *
+	 * @return The sub-batch sizes to choose from, smallest first
+	 */
+	public int[] getCandidateSizes() {
+		return candidateSizes.clone();
+	}
+
+	/**
+	 *
+	 * @return Whether a sub-batch size has been chosen yet
+	 */
+	public synchronized boolean isTuned() {
+		return chosenIndex >= 0;
+	}
+
+	/**
+	 *
+	 * @return The chosen sub-batch size, or the size currently being explored if none has been chosen yet
+	 */
+	public synchronized int getChosenSubBatchSize() {
+		return chosenIndex < 0 ? getNextSubBatchSize(Math.max(1, largestBatchSize)) : candidateSizes[chosenIndex];
+	}
+
+	/**
+	 *
+	 * @return The current measurements of each candidate size, smallest first
+	 */
+	public synchronized List<SubBatchSizeMeasurement> getMeasurements() {
+		List<SubBatchSizeMeasurement> measurements = new ArrayList<SubBatchSizeMeasurement>();
+		for (int i = 0; i < candidateSizes.length; i++) {
+			measurements.add(new SubBatchSizeMeasurement(candidateSizes[i], sampleCounts[i], imagesPerSecond[i],
+					allocatedBytesPerImage[i]));
+		}
+		return measurements;
+	}
+
+	/**
+	 *
+	 * @return The heap bytes allocated so far by the current thread, or -1 if this can't be measured
+	 */
+	public static long getCurrentThreadAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspotThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if (hotspotThreadMXBean.isThreadAllocatedMemorySupported()
+					&& hotspotThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+				return hotspotThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
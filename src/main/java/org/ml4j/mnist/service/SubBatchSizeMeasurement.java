@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+/**
+ * A snapshot of the throughput and allocation measured for one candidate sub-batch size
+ * by a SubBatchSizeAutotuner
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class SubBatchSizeMeasurement {
+
+	private int subBatchSize;
+	private long sampleCount;
+	private double imagesPerSecond;
+	private double allocatedBytesPerImage;
+
+	public SubBatchSizeMeasurement(int subBatchSize, long sampleCount, double imagesPerSecond,
+			double allocatedBytesPerImage) {
+		this.subBatchSize = subBatchSize;
+		this.sampleCount = sampleCount;
+		this.imagesPerSecond = imagesPerSecond;
+		this.allocatedBytesPerImage = allocatedBytesPerImage;
+	}
+
+	public int getSubBatchSize() {
+		return subBatchSize;
+	}
+
+	/**
+	 *
+	 * @return The number of full sub-batches of this size measured so far
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 *
+	 * @return The recent average images classified per second, or 0 if not yet measured
+	 */
+	public double getImagesPerSecond() {
+		return imagesPerSecond;
+	}
+
+	/**
+	 *
+	 * @return The recent average heap bytes allocated per image, or -1 if allocation can't be
+	 * measured on this JVM
+	 */
+	public double getAllocatedBytesPerImage() {
+		return allocatedBytesPerImage;
+	}
+
+	@Override
+	public String toString() {
+		return "SubBatchSizeMeasurement [subBatchSize=" + subBatchSize + ", sampleCount=" + sampleCount
+				+ ", imagesPerSecond=" + Math.round(imagesPerSecond) + ", allocatedBytesPerImage="
+				+ Math.round(allocatedBytesPerImage) + "]";
+	}
+}
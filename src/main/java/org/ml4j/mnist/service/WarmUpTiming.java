@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.service;
+
+/**
+ * The cold and warm timings of one prediction path measured by a ServiceWarmUp
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class WarmUpTiming {
+
+	private String path;
+	private int images;
+	private long coldNanos;
+	private long warmNanos;
+	private int rounds;
+	private boolean stable;
+
+	public WarmUpTiming(String path, int images, long coldNanos, long warmNanos, int rounds, boolean stable) {
+		this.path = path;
+		this.images = images;
+		this.coldNanos = coldNanos;
+		this.warmNanos = warmNanos;
+		this.rounds = rounds;
+		this.stable = stable;
+	}
+
+	/**
+	 *
+	 * @return A description of the prediction path, eg. the method and batch size
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 *
+	 * @return The number of images classified by each call
+	 */
+	public int getImages() {
+		return images;
+	}
+
+	/**
+	 *
+	 * @return The time taken by the first call, on the freshly constructed service
+	 */
+	public long getColdNanos() {
+		return coldNanos;
+	}
+
+	/**
+	 *
+	 * @return The median time taken by the last few calls
+	 */
+	public long getWarmNanos() {
+		return warmNanos;
+	}
+
+	/**
+	 *
+	 * @return The number of calls made
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+
+	/**
+	 *
+	 * @return Whether the timings of the last few calls settled within the warm-up's tolerance
+	 */
+	public boolean isStable() {
+		return stable;
+	}
+
+	@Override
+	public String toString() {
+		return "WarmUpTiming [path=" + path + ", images=" + images + ", coldMicros=" + coldNanos / 1000
+				+ ", warmMicros=" + warmNanos / 1000 + ", rounds=" + rounds + ", stable=" + stable + "]";
+	}
+}
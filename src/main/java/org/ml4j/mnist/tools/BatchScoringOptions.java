@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tools;
+
+/**
+ * Command-line options for the BatchScoringTool
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class BatchScoringOptions {
+
+	/**
+	 * Supported input formats
+	 */
+	public enum InputFormat {
+		/**
+		 * Csv in train.csv format - label followed by 784 pixel values
+		 */
+		CSV_LABELLED,
+
+		/**
+		 * Csv in Kaggle test.csv format - 784 pixel values
+		 */
+		CSV_UNLABELLED,
+
+		/**
+		 * A directory of jpg/png images - images other than 28 * 28 are normalized
+		 */
+		IMAGES,
+
+		/**
+		 * An IDX ubyte images file of 28 * 28 images, eg. t10k-images-idx3-ubyte, with an optional
+		 * labels file given by --labels
+		 */
+		IDX
+	}
+
+	public static final String USAGE = "Usage: BatchScoringTool --input <path> --format <csv-labelled|csv-unlabelled|images|idx>"
+			+ " [--labels <idx labels path>] --model <serialized name or file> --output <path> [--threads <n>] [--batch-size <n>]"
+			+ " [--skip-header <true|false>] [--cuda] [--no-jblas]";
+
+	private String inputPath;
+	private InputFormat inputFormat;
+	private String labelsPath;
+	private String model;
+	private String outputPath;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private int batchSize = 1000;
+	private boolean skipHeader = true;
+	private boolean cudaAvailable = false;
+	private boolean jBlasAvailable = true;
+
+	/**
+	 *
+	 * @param args The command-line arguments
+	 * @return The parsed options
+	 * @throws IllegalArgumentException if the arguments are invalid, with a message describing why
+	 */
+	public static BatchScoringOptions parse(String[] args) {
+		BatchScoringOptions options = new BatchScoringOptions();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--cuda")) {
+				options.cudaAvailable = true;
+			} else if (arg.equals("--no-jblas")) {
+				options.jBlasAvailable = false;
+			} else {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				String value = args[++i];
+				if (arg.equals("--input")) {
+					options.inputPath = value;
+				} else if (arg.equals("--format")) {
+					options.inputFormat = parseFormat(value);
+				} else if (arg.equals("--labels")) {
+					options.labelsPath = value;
+				} else if (arg.equals("--model")) {
+					options.model = value;
+				} else if (arg.equals("--output")) {
+					options.outputPath = value;
+				} else if (arg.equals("--threads")) {
+					options.threadCount = parsePositiveInt(arg, value);
+				} else if (arg.equals("--batch-size")) {
+					options.batchSize = parsePositiveInt(arg, value);
+				} else if (arg.equals("--skip-header")) {
+					options.skipHeader = Boolean.parseBoolean(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+		}
+		if (options.inputPath == null || options.inputFormat == null || options.model == null
+				|| options.outputPath == null) {
+			throw new IllegalArgumentException("--input, --format, --model and --output are required");
+		}
+		if (options.labelsPath != null && options.inputFormat != InputFormat.IDX) {
+			throw new IllegalArgumentException("--labels is only supported with --format idx");
+		}
+		return options;
+	}
+
+	private static InputFormat parseFormat(String value) {
+		if (value.equals("csv-labelled")) {
+			return InputFormat.CSV_LABELLED;
+		} else if (value.equals("csv-unlabelled")) {
+			return InputFormat.CSV_UNLABELLED;
+		} else if (value.equals("images")) {
+			return InputFormat.IMAGES;
+		} else if (value.equals("idx")) {
+			return InputFormat.IDX;
+		}
+		throw new IllegalArgumentException("Unknown format " + value);
+	}
+
+	private static int parsePositiveInt(String option, String value) {
+		try {
+			int parsed = Integer.parseInt(value);
+			if (parsed > 0) {
+				return parsed;
+			}
+		} catch (NumberFormatException e) {
+			// Fall through
+		}
+		throw new IllegalArgumentException(option + " must be a positive integer");
+	}
+
+	public String getInputPath() {
+		return inputPath;
+	}
+
+	public InputFormat getInputFormat() {
+		return inputFormat;
+	}
+
+	/**
+	 *
+	 * @return The IDX labels file to report accuracy against, or null
+	 */
+	public String getLabelsPath() {
+		return labelsPath;
+	}
+
+	/**
+	 *
+	 * @return Whether the input includes the actual labels, to report accuracy against
+	 */
+	public boolean isLabelled() {
+		return inputFormat == InputFormat.CSV_LABELLED || labelsPath != null;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public String getOutputPath() {
+		return outputPath;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public boolean isSkipHeader() {
+		return skipHeader;
+	}
+
+	public boolean isCudaAvailable() {
+		return cudaAvailable;
+	}
+
+	public boolean isJBlasAvailable() {
+		return jBlasAvailable;
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+
+import org.ml4j.mnist.service.DigitClassificationService;
+import org.ml4j.mnist.service.MnistDigitBufferedImageFeaturesMapper;
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.tools.BatchScoringOptions.InputFormat;
+import org.ml4j.nn.util.IdxMnistDataSet;
+import org.ml4j.nn.util.ImageFileFilter;
+import org.ml4j.nn.util.KaggleTestSetPixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+
+/**
+ * Scores an input file or image directory as a chunked pipeline - a reader thread
+ * splits the input into chunks of raw lines, files or memory-mapped IDX rows, worker threads parse, classify
+ * and format each chunk, and the calling thread writes the formatted chunks in input order.
+ *
+ * At most two chunks per worker are in flight at any time, so memory use is bounded
+ * regardless of input size.
+ *
+ * Workers classify their chunks concurrently with the one DigitClassificationService, so they
+ * share its hypothesis function and the global DoubleMatrixConfig strategy - as for
+ * ParallelDigitClassificationEvaluator, concurrent predict calls are assumed not to interfere.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class BatchScoringPipeline {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int PROGRESS_INTERVAL_CHUNKS = 50;
+
+	private DigitClassificationService digitClassificationService;
+	private BatchScoringOptions options;
+
+	public BatchScoringPipeline(DigitClassificationService digitClassificationService, BatchScoringOptions options) {
+		this.digitClassificationService = digitClassificationService;
+		this.options = options;
+	}
+
+	/**
+	 * Runs the pipeline to completion
+	 *
+	 * @return A summary of progress and throughput
+	 * @throws IOException
+	 */
+	public String run() throws IOException {
+		long start = System.nanoTime();
+		final BlockingQueue<ChunkResult> results = new LinkedBlockingQueue<ChunkResult>();
+		final Semaphore inFlight = new Semaphore(options.getThreadCount() * 2);
+		final ExecutorService workers = Executors.newFixedThreadPool(options.getThreadCount());
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				int chunkCount = 0;
+				try {
+					chunkCount = readChunks(workers, inFlight, results);
+				} catch (Throwable t) {
+					// Errors are posted too - otherwise the writer would wait for them forever
+					results.add(ChunkResult.failure(t));
+				} finally {
+					results.add(ChunkResult.end(chunkCount));
+				}
+			}
+		}, "batch-scoring-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(options.getOutputPath()), UTF_8));
+		long rows = 0;
+		long correct = 0;
+		long parseNanos = 0;
+		long inferenceNanos = 0;
+		long writeNanos = 0;
+		try {
+			writer.write(getOutputHeader() + "\n");
+			Map<Integer, ChunkResult> pending = new HashMap<Integer, ChunkResult>();
+			int nextChunk = 0;
+			int chunkCount = -1;
+			while (chunkCount < 0 || nextChunk < chunkCount) {
+				ChunkResult result = results.take();
+				if (result.failure != null) {
+					throw new IOException("Batch scoring failed", result.failure);
+				}
+				if (result.index < 0) {
+					chunkCount = result.rows;
+					continue;
+				}
+				pending.put(result.index, result);
+				ChunkResult next;
+				while ((next = pending.remove(nextChunk)) != null) {
+					long writeStart = System.nanoTime();
+					for (String line : next.outputLines) {
+						writer.write(line);
+						writer.write('\n');
+					}
+					writeNanos += System.nanoTime() - writeStart;
+					rows += next.rows;
+					correct += next.correct;
+					parseNanos += next.parseNanos;
+					inferenceNanos += next.inferenceNanos;
+					nextChunk++;
+					inFlight.release();
+					if (nextChunk % PROGRESS_INTERVAL_CHUNKS == 0) {
+						System.err.println("Scored " + rows + " rows");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during batch scoring", e);
+		} finally {
+			workers.shutdownNow();
+			reader.interrupt();
+			writer.close();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		StringBuilder summary = new StringBuilder();
+		summary.append("Rows scored:" + rows + "\n");
+		summary.append("Elapsed s:" + String.format("%.3f", seconds) + "\n");
+		summary.append("Rows/s:" + String.format("%.1f", rows / seconds) + "\n");
+		summary.append("Parse/decode cpu s:" + String.format("%.3f", parseNanos / 1e9) + "\n");
+		summary.append("Inference cpu s:" + String.format("%.3f", inferenceNanos / 1e9) + "\n");
+		summary.append("Write s:" + String.format("%.3f", writeNanos / 1e9) + "\n");
+		if (options.isLabelled() && rows > 0) {
+			summary.append("Accuracy:" + ((double) correct / rows) + "\n");
+		}
+		summary.append("Output:" + options.getOutputPath());
+		return summary.toString();
+	}
+
+	private String getOutputHeader() {
+		if (options.getInputFormat() == InputFormat.IMAGES) {
+			return "\"File\",\"Label\"";
+		}
+		return options.isLabelled() ? "\"RowId\",\"Label\",\"Actual\"" : "\"ImageId\",\"Label\"";
+	}
+
+	/**
+	 * Runs on the reader thread, submitting each chunk to the workers
+	 *
+	 * @return The number of chunks submitted
+	 */
+	private int readChunks(ExecutorService workers, Semaphore inFlight, BlockingQueue<ChunkResult> results)
+			throws IOException, InterruptedException {
+		int chunkIndex = 0;
+		if (options.getInputFormat() == InputFormat.IMAGES) {
+			File[] files = new File(options.getInputPath()).listFiles(new ImageFileFilter());
+			if (files == null) {
+				throw new FileNotFoundException("Not a directory:" + options.getInputPath());
+			}
+			Arrays.sort(files);
+			for (int start = 0; start < files.length; start += options.getBatchSize()) {
+				List<File> chunkFiles = Arrays.asList(files).subList(start,
+						Math.min(files.length, start + options.getBatchSize()));
+				inFlight.acquire();
+				workers.execute(new ChunkScoring(chunkIndex++, start, null, new ArrayList<File>(chunkFiles), null,
+						results));
+			}
+			return chunkIndex;
+		}
+		if (options.getInputFormat() == InputFormat.IDX) {
+			// Chunks are views of the mapped file, so there's nothing to read ahead - workers read the pixels
+			IdxMnistDataSet dataSet = IdxMnistDataSet.open(new File(options.getInputPath()),
+					options.getLabelsPath() == null ? null : new File(options.getLabelsPath()));
+			if (dataSet.getImageWidth() != 28 || dataSet.getImageHeight() != 28) {
+				throw new IOException("Expected 28 * 28 images:" + options.getInputPath());
+			}
+			for (int start = 0; start < dataSet.getRowCount(); start += options.getBatchSize()) {
+				IdxMnistDataSet chunkRows = dataSet.view(start, Math.min(dataSet.getRowCount(), start
+						+ options.getBatchSize()));
+				inFlight.acquire();
+				// Row ids start at 1, as for the csv formats
+				workers.execute(new ChunkScoring(chunkIndex++, start + 1, null, null, chunkRows, results));
+			}
+			return chunkIndex;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(options.getInputPath()), UTF_8), 1 << 20);
+		try {
+			long rowId = 1;
+			if (options.isSkipHeader()) {
+				reader.readLine();
+			}
+			List<String> lines = new ArrayList<String>(options.getBatchSize());
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				lines.add(line);
+				if (lines.size() == options.getBatchSize()) {
+					inFlight.acquire();
+					workers.execute(new ChunkScoring(chunkIndex++, rowId, lines, null, null, results));
+					rowId += lines.size();
+					lines = new ArrayList<String>(options.getBatchSize());
+				}
+			}
+			if (!lines.isEmpty()) {
+				inFlight.acquire();
+				workers.execute(new ChunkScoring(chunkIndex++, rowId, lines, null, null, results));
+			}
+		} finally {
+			reader.close();
+		}
+		return chunkIndex;
+	}
+
+	private class ChunkScoring implements Runnable {
+
+		private int index;
+		private long firstRowId;
+		private List<String> lines;
+		private List<File> files;
+		private IdxMnistDataSet idxRows;
+		private BlockingQueue<ChunkResult> results;
+
+		public ChunkScoring(int index, long firstRowId, List<String> lines, List<File> files,
+				IdxMnistDataSet idxRows, BlockingQueue<ChunkResult> results) {
+			this.index = index;
+			this.firstRowId = firstRowId;
+			this.lines = lines;
+			this.files = files;
+			this.idxRows = idxRows;
+			this.results = results;
+		}
+
+		@Override
+		public void run() {
+			try {
+				results.add(score());
+			} catch (Throwable t) {
+				// Errors (eg. OutOfMemoryError, or BLAS linkage errors) must still post a result for this chunk
+				results.add(ChunkResult.failure(t));
+			}
+		}
+
+		private ChunkResult score() throws IOException {
+			long parseStart = System.nanoTime();
+			int rows = lines != null ? lines.size() : files != null ? files.size() : idxRows.getRowCount();
+			double[][] mnistData = new double[rows][];
+			int[] actual = null;
+			if (files != null) {
+				MnistDigitBufferedImageFeaturesMapper mapper = new MnistDigitBufferedImageFeaturesMapper(28, 28);
+				for (int i = 0; i < rows; i++) {
+					BufferedImage image = ImageIO.read(files.get(i));
+					if (image == null) {
+						throw new IOException("Unsupported image format:" + files.get(i));
+					}
+					mnistData[i] = mapper.toFeaturesVector(image);
+				}
+			} else if (idxRows != null) {
+				// Binarized, as for the csv extractors
+				mnistData = idxRows.getDataMatrix(true);
+				if (idxRows.isLabelled()) {
+					actual = new int[rows];
+					for (int i = 0; i < rows; i++) {
+						actual[i] = idxRows.getLabel(i);
+					}
+				}
+			} else if (options.getInputFormat() == InputFormat.CSV_LABELLED) {
+				PixelFeaturesMatrixCsvDataExtractor featuresExtractor = new PixelFeaturesMatrixCsvDataExtractor();
+				SingleDigitLabelsMatrixCsvDataExtractor labelsExtractor = new SingleDigitLabelsMatrixCsvDataExtractor();
+				actual = new int[rows];
+				for (int i = 0; i < rows; i++) {
+					String[] csvAttributes = lines.get(i).split(",");
+					mnistData[i] = featuresExtractor.createData(csvAttributes);
+					actual[i] = NeuralNetworkDigitClassificationService.getArgMaxIndex(labelsExtractor
+							.createData(csvAttributes));
+				}
+			} else {
+				KaggleTestSetPixelFeaturesMatrixCsvDataExtractor featuresExtractor = new KaggleTestSetPixelFeaturesMatrixCsvDataExtractor();
+				for (int i = 0; i < rows; i++) {
+					mnistData[i] = featuresExtractor.createData(lines.get(i).split(","));
+				}
+			}
+			long inferenceStart = System.nanoTime();
+			int[] predictions = digitClassificationService.getPredictedDigitClassifications(mnistData);
+			long inferenceEnd = System.nanoTime();
+
+			ChunkResult result = new ChunkResult(index, rows);
+			result.parseNanos = inferenceStart - parseStart;
+			result.inferenceNanos = inferenceEnd - inferenceStart;
+			for (int i = 0; i < rows; i++) {
+				if (files != null) {
+					result.outputLines.add("\"" + files.get(i).getName() + "\",\"" + predictions[i] + "\"");
+				} else if (actual != null) {
+					result.outputLines.add((firstRowId + i) + ",\"" + predictions[i] + "\",\"" + actual[i] + "\"");
+					if (predictions[i] == actual[i]) {
+						result.correct++;
+					}
+				} else {
+					result.outputLines.add((firstRowId + i) + ",\"" + predictions[i] + "\"");
+				}
+			}
+			return result;
+		}
+	}
+
+	private static class ChunkResult {
+
+		private int index;
+		private int rows;
+		private int correct;
+		private long parseNanos;
+		private long inferenceNanos;
+		private List<String> outputLines;
+		private Throwable failure;
+
+		public ChunkResult(int index, int rows) {
+			this.index = index;
+			this.rows = rows;
+			this.outputLines = new ArrayList<String>(rows);
+		}
+
+		public static ChunkResult failure(Throwable t) {
+			ChunkResult result = new ChunkResult(-1, 0);
+			result.failure = t;
+			return result;
+		}
+
+		/**
+		 * Marks the end of the input, recording the total number of chunks
+		 */
+		public static ChunkResult end(int chunkCount) {
+			return new ChunkResult(-1, chunkCount);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.ml4j.mnist.service.DigitClassificationService;
+import org.ml4j.mnist.service.NeuralNetworkDigitClassificationService;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Command-line entry point for scoring csv files or image directories with a pre-learned
+ * Neural Network hypothesis function, replacing the hard-coded settings of the demos.
+ *
+ * eg. BatchScoringTool --input test.csv --format csv-unlabelled --model 19_08_2015_CNN_1
+ * --output predictions.csv --threads 4 --batch-size 1000
+ *
+ * or, for the original IDX files, BatchScoringTool --input t10k-images-idx3-ubyte --format idx
+ * --labels t10k-labels-idx1-ubyte --model 19_08_2015_CNN_1 --output predictions.csv
+ *
+ * The model is either a file containing a serialized hypothesis function, or the name of a
+ * serialized hypothesis function on the classpath (under org/ml4j/mnist).
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class BatchScoringTool {
+
+	public static void main(String[] args) throws IOException {
+		BatchScoringOptions options;
+		try {
+			options = BatchScoringOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(BatchScoringOptions.USAGE);
+			System.exit(2);
+			return;
+		}
+
+		NeuralNetworkHypothesisFunction hypothesisFunction = loadHypothesisFunction(options.getModel());
+		DigitClassificationService digitClassificationService = new NeuralNetworkDigitClassificationService(
+				hypothesisFunction, options.isCudaAvailable(), options.isJBlasAvailable());
+
+		System.err.println("Scoring " + options.getInputPath() + " with " + options.getThreadCount()
+				+ " threads, batch size " + options.getBatchSize());
+		String summary = new BatchScoringPipeline(digitClassificationService, options).run();
+		System.err.println(summary);
+	}
+
+	private static NeuralNetworkHypothesisFunction loadHypothesisFunction(String model) {
+		File modelFile = new File(model);
+		return modelFile.isFile() ? PreTrainedHypothesisFunctionLoader.load(modelFile)
+				: PreTrainedHypothesisFunctionLoader.load(model);
+	}
+}
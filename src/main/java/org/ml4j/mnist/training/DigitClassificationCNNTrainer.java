@@ -32,9 +32,7 @@ import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
 import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
 import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
 import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
-import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
-import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
-import org.ml4j.util.DoubleArrayMatrixLoader;
+import org.ml4j.nn.util.MnistDataBatch;
 import org.ml4j.util.SerializationHelper;
 
 /**
@@ -50,18 +48,19 @@ public class DigitClassificationCNNTrainer {
 		// Load Mnist data into double[][] matrices. Load the first x
 		// records to be used as a training set, and the last 10000 records for the test set.
 
-		
-		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
-				DigitClassificationCNNTrainer.class.getClassLoader());
-
-		double[][] trainingDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new PixelFeaturesMatrixCsvDataExtractor(), 1, 1001);
-		double[][] testSetDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new PixelFeaturesMatrixCsvDataExtractor(), 32005, 42005);
-		double[][] trainingLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new SingleDigitLabelsMatrixCsvDataExtractor(), 1, 1001);
-		double[][] testSetLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new SingleDigitLabelsMatrixCsvDataExtractor(), 32005, 42005);
+		// By default load each matrix with DoubleArrayMatrixLoader - set to true to parse the training and
+		// test rows with their labels in one pass, scanning byte ranges of the csv on all available cores
+		boolean parseCsvInParallel = false;
+
+		// The test set starts at line 32005 - rows before it may be used for training
+		MnistTrainingDataHelper trainingDataHelper = new MnistTrainingDataHelper(
+				DigitClassificationCNNTrainer.class.getClassLoader(), "train.csv", parseCsvInParallel, 32005);
+		MnistDataBatch trainingSet = trainingDataHelper.load(1, 1001);
+		MnistDataBatch testSet = trainingDataHelper.load(32005, 42005);
+		double[][] trainingDataMatrix = trainingSet.getData();
+		double[][] trainingLabelsMatrix = trainingSet.getLabels();
+		double[][] testSetDataMatrix = testSet.getData();
+		double[][] testSetLabelsMatrix = testSet.getLabels();
 	
 		
 		// By default, assume CUDA is not available - set to true to use GPU
@@ -72,6 +71,10 @@ public class DigitClassificationCNNTrainer {
 		// false if JBlas not available to use slower JAMA
 		boolean jBlasAvailable = true;
 
+		// By default train on the first 1000 rows loaded up front - set to AUGMENTED_BATCHES, PREFETCHED_CSV_BATCHES,
+		// OFF_HEAP_STORE or IDX_BATCHES to train on mini-batches from one of the alternative sources described in TrainingDataSource
+		TrainingDataSource trainingDataSource = TrainingDataSource.LOADED_ROWS;
+
 		// Configure a Neural Network, with configurable hidden neuron topology,
 		// and classification output neurons corresponding to the 10 numbers to
 		// be predicted.
@@ -129,8 +132,11 @@ public class DigitClassificationCNNTrainer {
 		// Generate hypothesis function from algorithm
 
 		System.out.println("\nTraining...");
-		NeuralNetworkHypothesisFunction hyp1 = alg.getHypothesisFunction(trainingDataMatrix, trainingLabelsMatrix,
-				context);
+		NeuralNetworkHypothesisFunction hyp1 = trainingDataHelper.train(alg, trainingDataSource, trainingSet,
+				context, regularizationLambda);
+		if (trainingDataHelper.getTrainingStatistics() != null) {
+			System.out.println(trainingDataHelper.getTrainingStatistics());
+		}
 
 		// Training Set accuracy
 		System.out.println("Accuracy on training set:" + hyp1.getAccuracy(trainingDataMatrix, trainingLabelsMatrix));
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+import java.io.IOException;
+
+import org.ml4j.DefaultMatrixAdapterStrategy;
+import org.ml4j.DoubleMatrixConfig;
+import org.ml4j.jblas.NoJblasPresentMatrixAdapterStrategy;
+import org.ml4j.mnist.tuning.CrossValidationResult;
+import org.ml4j.mnist.tuning.CrossValidationRunner;
+import org.ml4j.mnist.tuning.HyperparameterSet;
+import org.ml4j.nn.util.CsvMnistDataBatchSource;
+import org.ml4j.nn.util.OffHeapMnistDataStore;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+
+/**
+ * Estimates the accuracy of a network topology by k-fold cross-validation over all the rows
+ * before the test set, rather than a single fixed training/test split.
+ *
+ * The rows are loaded once into an off-heap store shared by all folds, and the folds are trained
+ * and evaluated concurrently within a core budget.  The mean and variance of the fold accuracies
+ * are reported, along with the speedup over running the same folds one after another.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationCrossValidation {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		// By default assume JBlas is available (the case on Macs) - set to
+		// false if JBlas not available to use slower JAMA
+		boolean jBlasAvailable = true;
+
+		// By default also run the folds one after another, to measure the speedup of running them
+		// concurrently - set to false to only run them concurrently
+		boolean measureSequentialBaseline = true;
+
+		int foldCount = 5;
+		int coreBudget = Runtime.getRuntime().availableProcessors();
+
+		// A Feed Forward Neural Network with one hidden layer of 100 neurons, trained for 10 iterations
+		// on each batch of 1000 rows, for 2 epochs
+		HyperparameterSet hyperparameters = new HyperparameterSet(false, new int[] { 100 }, 0.0001, 10);
+		int batchSize = 1000;
+		int epochs = 2;
+
+		if (jBlasAvailable) {
+			DoubleMatrixConfig.setDoubleMatrixStrategy(new DefaultMatrixAdapterStrategy());
+		} else {
+			DoubleMatrixConfig.setDoubleMatrixStrategy(new NoJblasPresentMatrixAdapterStrategy());
+		}
+
+		// Load the 32004 rows before the test set once - every fold reads this store
+		OffHeapMnistDataStore store = OffHeapMnistDataStore.allocateDirect(32004,
+				OffHeapMnistDataStore.Encoding.BINARY, true);
+		try {
+			CsvMnistDataBatchSource csvBatches = CsvMnistDataBatchSource.fromClasspath(
+					DigitClassificationCrossValidation.class.getClassLoader(), "train.csv",
+					new PixelFeaturesMatrixCsvDataExtractor(), new SingleDigitLabelsMatrixCsvDataExtractor(), 1, 32005);
+			try {
+				store.fill(csvBatches, batchSize);
+			} finally {
+				csvBatches.close();
+			}
+			System.out.println("Cross-validating " + hyperparameters + " with " + foldCount + " folds of "
+					+ store.getRowCount() / foldCount + " rows\n");
+
+			CrossValidationRunner runner = new CrossValidationRunner(store, foldCount, hyperparameters, batchSize,
+					epochs);
+
+			CrossValidationResult sequentialResult = null;
+			if (measureSequentialBaseline) {
+				System.out.println("Running folds one after another...\n");
+				sequentialResult = runner.run(1);
+				System.out.println();
+			}
+			System.out.println("Running folds concurrently on up to " + coreBudget + " cores...\n");
+			CrossValidationResult result = runner.run(coreBudget);
+
+			System.out.println("\nFold,Accuracy,Millis");
+			for (int fold = 0; fold < result.getFoldCount(); fold++) {
+				System.out.println((fold + 1) + "," + result.getFoldAccuracy(fold) + "," + result.getFoldMillis(fold));
+			}
+			System.out.println("Mean accuracy:" + result.getMeanAccuracy());
+			System.out.println("Accuracy variance:" + result.getAccuracyVariance());
+			System.out.println("Concurrent wall-clock millis:" + result.getWallClockMillis() + " on "
+					+ result.getThreadCount() + " threads");
+			if (sequentialResult != null) {
+				System.out.println("Sequential wall-clock millis:" + sequentialResult.getWallClockMillis());
+				System.out.println("Speedup:" + result.getSpeedupOver(sequentialResult));
+			}
+		} finally {
+			store.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+import java.io.IOException;
+
+import org.ml4j.ConvertToCudaMatrixOptimisationStrategy;
+import org.ml4j.CudaForMMulStrategy;
+import org.ml4j.DefaultMatrixAdapterStrategy;
+import org.ml4j.DoubleMatrixConfig;
+import org.ml4j.NoOpMatrixOptimisationStrategy;
+import org.ml4j.jblas.NoJblasPresentMatrixAdapterStrategy;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.activationfunctions.SigmoidActivationFunction;
+import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+import org.ml4j.util.SerializationHelper;
+
+/**
+ * Trains a compact, low-latency Feed Forward Neural Network student to recognise MNIST digits
+ * by distilling the knowledge of a pre-learned teacher hypothesis function.
+ *
+ * The student is trained on the teacher's softmax outputs, softened by a temperature, blended
+ * with the hard labels.  Softening p_i to p_i^(1/T) / sum_j p_j^(1/T) is equivalent to
+ * a softmax of the teacher's logits divided by T, so no access to the logits is required.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationDistillationTrainer {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
+				DigitClassificationDistillationTrainer.class.getClassLoader());
+
+		// The teacher labels every row it is shown, so the transfer set can be much larger than
+		// the hard-labelled training set used by the other trainers.  The last 10000 records are
+		// the held-out test set, as for the other trainers.
+		double[][] transferSetDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 1, 10001);
+		double[][] transferSetLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 1, 10001);
+		double[][] testSetDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 32005, 42005);
+		double[][] testSetLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 32005, 42005);
+
+		// By default, assume CUDA is not available - set to true to use GPU
+		// matrix-matrix multiplies
+		boolean cudaAvailable = false;
+
+		// By default assume JBlas is available (the case on Macs) - set to
+		// false if JBlas not available to use slower JAMA
+		boolean jBlasAvailable = true;
+
+		// The pre-trained teacher
+		String teacherHypothesisFunctionName = "19_08_2015_CNN_1";
+
+		// Temperature used to soften the teacher's outputs - higher temperatures expose more of
+		// the teacher's knowledge of which wrong digits are similar to the right one
+		double temperature = 3;
+
+		// Weight of the soft targets relative to the hard labels
+		double softTargetWeight = 0.9;
+
+		SerializationHelper helper = new SerializationHelper(
+				DigitClassificationDistillationTrainer.class.getClassLoader(), "org/ml4j/mnist");
+		NeuralNetworkHypothesisFunction teacher = PreTrainedHypothesisFunctionLoader
+				.load(teacherHypothesisFunctionName);
+
+		// The student is a single hidden layer of 64 Neurons, feeding a 10-way softmax
+		FeedForwardLayer firstLayer = new FeedForwardLayer(28 * 28, 64, new SigmoidActivationFunction(), true);
+		FeedForwardLayer secondLayer = new FeedForwardLayer(64, 10, new SoftmaxActivationFunction(), true);
+		FeedForwardNeuralNetwork student = new FeedForwardNeuralNetwork(firstLayer, secondLayer);
+
+		System.out.println(student);
+
+		// Make JBlas/Cuda optimisations
+		makeJblasAndCudaOptimisations(teacher.getNeuralNetwork(), cudaAvailable, jBlasAvailable);
+		makeJblasAndCudaOptimisations(student, cudaAvailable, jBlasAvailable);
+
+		System.out.println("\nGenerating soft targets from teacher...\n");
+		double[][] targetsMatrix = createDistillationTargets(teacher.predict(transferSetDataMatrix),
+				transferSetLabelsMatrix, temperature, softTargetWeight);
+
+		// Create algorithm
+		NeuralNetworkAlgorithm alg = new NeuralNetworkAlgorithm(student);
+
+		// Create training context
+		int iterations = 200;
+		NeuralNetworkAlgorithmTrainingContext context = new NeuralNetworkAlgorithmTrainingContext(iterations);
+
+		// Choose amount of regularisation ( configure this to reduce generalisation error)
+		double regularizationLambda = 0d;
+
+		context.setRegularizationLambda(regularizationLambda);
+
+		System.out.println("Training student...\n");
+		NeuralNetworkHypothesisFunction studentHypothesisFunction = alg.getHypothesisFunction(transferSetDataMatrix,
+				targetsMatrix, context);
+
+		System.out.println("Teacher vs student on test set...\n");
+		System.out.println("Model,Accuracy,Single image latency us,Batch images/s");
+		System.out.println("Teacher," + teacher.getAccuracy(testSetDataMatrix, testSetLabelsMatrix) + ","
+				+ getSingleImageLatencyMicros(teacher, testSetDataMatrix) + ","
+				+ getBatchImagesPerSecond(teacher, testSetDataMatrix));
+		System.out.println("Student," + studentHypothesisFunction.getAccuracy(testSetDataMatrix, testSetLabelsMatrix)
+				+ "," + getSingleImageLatencyMicros(studentHypothesisFunction, testSetDataMatrix) + ","
+				+ getBatchImagesPerSecond(studentHypothesisFunction, testSetDataMatrix));
+
+		// Serialize the student hypothesis function
+		String serializedHypothesisFunctionName = "workingDistilledHypothesisFunction";
+		helper.serialize(studentHypothesisFunction, serializedHypothesisFunctionName);
+	}
+
+	/**
+	 * Blends the teacher's outputs, softened by the temperature, with the hard labels
+	 */
+	private static double[][] createDistillationTargets(double[][] teacherOutputs, double[][] labels,
+			double temperature, double softTargetWeight) {
+		double[][] targets = new double[teacherOutputs.length][];
+		for (int row = 0; row < teacherOutputs.length; row++) {
+			double[] softened = new double[teacherOutputs[row].length];
+			double sum = 0;
+			for (int c = 0; c < softened.length; c++) {
+				softened[c] = Math.pow(teacherOutputs[row][c], 1 / temperature);
+				sum += softened[c];
+			}
+			for (int c = 0; c < softened.length; c++) {
+				softened[c] = softTargetWeight * softened[c] / sum + (1 - softTargetWeight) * labels[row][c];
+			}
+			targets[row] = softened;
+		}
+		return targets;
+	}
+
+	private static long getSingleImageLatencyMicros(NeuralNetworkHypothesisFunction hypothesisFunction,
+			double[][] testSetDataMatrix) {
+		int images = Math.min(1000, testSetDataMatrix.length);
+		// Warm up before timing
+		for (int i = 0; i < images; i++) {
+			hypothesisFunction.predict(testSetDataMatrix[i]);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < images; i++) {
+			hypothesisFunction.predict(testSetDataMatrix[i]);
+		}
+		return (System.nanoTime() - start) / 1000 / images;
+	}
+
+	private static long getBatchImagesPerSecond(NeuralNetworkHypothesisFunction hypothesisFunction,
+			double[][] testSetDataMatrix) {
+		hypothesisFunction.predict(testSetDataMatrix);
+		long start = System.nanoTime();
+		hypothesisFunction.predict(testSetDataMatrix);
+		return Math.round(testSetDataMatrix.length / ((System.nanoTime() - start) / 1e9));
+	}
+
+	private static void makeJblasAndCudaOptimisations(FeedForwardNeuralNetwork neuralNetwork, boolean cudaAvailable,
+			boolean jBlasAvailable) {
+		if (!cudaAvailable) {
+			// The hypothesis functions may have been generated by CUDA matrix
+			// strategies, so unconfigure these strategies if we don't want to
+			// use CUDA
+			if (jBlasAvailable) {
+				DoubleMatrixConfig.setDoubleMatrixStrategy(new DefaultMatrixAdapterStrategy());
+			} else {
+				DoubleMatrixConfig.setDoubleMatrixStrategy(new NoJblasPresentMatrixAdapterStrategy());
+
+			}
+			neuralNetwork
+					.updateForwardPropagationInputMatrixStrategyForCurrentLayers(new NoOpMatrixOptimisationStrategy());
+		} else {
+			// If Cuda is available, optimise for GPU matrix-matrix
+			// multiplication
+			DoubleMatrixConfig.setDoubleMatrixStrategy(new CudaForMMulStrategy());
+			neuralNetwork
+					.updateForwardPropagationInputMatrixStrategyForCurrentLayers(new ConvertToCudaMatrixOptimisationStrategy());
+		}
+
+	}
+
+}
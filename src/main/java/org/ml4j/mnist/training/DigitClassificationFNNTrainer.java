@@ -30,9 +30,7 @@ import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
 import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
 import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
 import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
-import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
-import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
-import org.ml4j.util.DoubleArrayMatrixLoader;
+import org.ml4j.nn.util.MnistDataBatch;
 import org.ml4j.util.SerializationHelper;
 
 /**
@@ -49,20 +47,22 @@ public class DigitClassificationFNNTrainer {
 		SerializationHelper helper = new SerializationHelper(DigitClassificationFNNTrainer.class.getClassLoader(),
 				"org/ml4j/mnist");
 		
-		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
-				DigitClassificationFNNTrainer.class.getClassLoader());
-
 		// Load Mnist data into double[][] matrices. Load the first x
 		// records to be used as a training set, and the last 10000 records for the test set.
 
-		double[][] trainingDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new PixelFeaturesMatrixCsvDataExtractor(), 1, 1001);
-		double[][] testSetDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new PixelFeaturesMatrixCsvDataExtractor(), 32005, 42005);
-		double[][] trainingLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new SingleDigitLabelsMatrixCsvDataExtractor(), 1, 1001);
-		double[][] testSetLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
-				new SingleDigitLabelsMatrixCsvDataExtractor(), 32005, 42005);
+		// By default load each matrix with DoubleArrayMatrixLoader - set to true to parse the training and
+		// test rows with their labels in one pass, scanning byte ranges of the csv on all available cores
+		boolean parseCsvInParallel = false;
+
+		// The test set starts at line 32005 - rows before it may be used for training
+		MnistTrainingDataHelper trainingDataHelper = new MnistTrainingDataHelper(
+				DigitClassificationFNNTrainer.class.getClassLoader(), "train.csv", parseCsvInParallel, 32005);
+		MnistDataBatch trainingSet = trainingDataHelper.load(1, 1001);
+		MnistDataBatch testSet = trainingDataHelper.load(32005, 42005);
+		double[][] trainingDataMatrix = trainingSet.getData();
+		double[][] trainingLabelsMatrix = trainingSet.getLabels();
+		double[][] testSetDataMatrix = testSet.getData();
+		double[][] testSetLabelsMatrix = testSet.getLabels();
 
 		// By default, assume CUDA is not available - set to true to use GPU
 		// matrix-matrix multiplies
@@ -72,6 +72,10 @@ public class DigitClassificationFNNTrainer {
 		// false if JBlas not available to use slower JAMA
 		boolean jBlasAvailable = true;
 
+		// By default train on the first 1000 rows loaded up front - set to AUGMENTED_BATCHES, PREFETCHED_CSV_BATCHES,
+		// OFF_HEAP_STORE or IDX_BATCHES to train on mini-batches from one of the alternative sources described in TrainingDataSource
+		TrainingDataSource trainingDataSource = TrainingDataSource.LOADED_ROWS;
+
 		// First layer takes inputs from 28 * 28 input Neurons, and activates 500 hidden Neurons
 		FeedForwardLayer firstLayer = new FeedForwardLayer(28 * 28,500, new SigmoidActivationFunction(),true);
 		
@@ -106,8 +110,11 @@ public class DigitClassificationFNNTrainer {
 		// Generate hypothesis function from algorithm
 
 		System.out.println("\nTraining...\n");
-		NeuralNetworkHypothesisFunction hyp1 = alg.getHypothesisFunction(trainingDataMatrix, trainingLabelsMatrix,
-				context);
+		NeuralNetworkHypothesisFunction hyp1 = trainingDataHelper.train(alg, trainingDataSource, trainingSet,
+				context, regularizationLambda);
+		if (trainingDataHelper.getTrainingStatistics() != null) {
+			System.out.println(trainingDataHelper.getTrainingStatistics());
+		}
 
 		// Training Set accuracy
 		System.out.println("Accuracy on training set:" + hyp1.getAccuracy(trainingDataMatrix, trainingLabelsMatrix));
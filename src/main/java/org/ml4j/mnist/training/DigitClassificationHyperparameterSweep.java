@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ml4j.DefaultMatrixAdapterStrategy;
+import org.ml4j.DoubleMatrixConfig;
+import org.ml4j.jblas.NoJblasPresentMatrixAdapterStrategy;
+import org.ml4j.mnist.tuning.HyperparameterSweepRunner;
+import org.ml4j.mnist.tuning.HyperparameterSweepSpec;
+import org.ml4j.mnist.tuning.MedianStoppingRule;
+import org.ml4j.mnist.tuning.TrialResult;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+import org.ml4j.util.SerializationHelper;
+
+/**
+ * Sweeps the topology, regularisation and iteration count of the digit classification
+ * networks, running trials concurrently on a single shared copy of the data, and
+ * serializes the hypothesis function of the best trial.
+ *
+ * Trials are compared on a validation set taken from just before the test set, so the
+ * test set accuracy of the best trial remains an unbiased estimate.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationHyperparameterSweep {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
+				DigitClassificationHyperparameterSweep.class.getClassLoader());
+
+		// Load the data once - every trial shares these matrices
+		double[][] trainingDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 1, 5001);
+		double[][] trainingLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 1, 5001);
+		double[][] validationDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 28005, 32005);
+		double[][] validationLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 28005, 32005);
+		double[][] testSetDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 32005, 42005);
+		double[][] testSetLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 32005, 42005);
+
+		// By default assume JBlas is available (the case on Macs) - set to
+		// false if JBlas not available to use slower JAMA
+		boolean jBlasAvailable = true;
+
+		// By default sweep Feed Forward Neural Networks - set to true to sweep the fully
+		// connected layers of Convolutional Neural Networks instead
+		boolean convolutional = false;
+
+		// By default search the full grid - set to true to sample random trials instead
+		boolean randomSearch = false;
+
+		// Budgets shared by all concurrent trials
+		int coreBudget = Runtime.getRuntime().availableProcessors();
+		long memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 2;
+
+		// Validation accuracy is checked, and losing trials stopped, every 20 iterations
+		int iterationsPerRound = 20;
+
+		List<int[]> hiddenLayerSizeCandidates = new ArrayList<int[]>();
+		if (convolutional) {
+			hiddenLayerSizeCandidates.add(new int[] { 50 });
+			hiddenLayerSizeCandidates.add(new int[] { 100 });
+			hiddenLayerSizeCandidates.add(new int[] { 200 });
+		} else {
+			hiddenLayerSizeCandidates.add(new int[] { 100 });
+			hiddenLayerSizeCandidates.add(new int[] { 500, 500 });
+			hiddenLayerSizeCandidates.add(new int[] { 500, 500, 2000 });
+		}
+
+		HyperparameterSweepSpec spec;
+		if (randomSearch) {
+			spec = HyperparameterSweepSpec.random(convolutional, hiddenLayerSizeCandidates, 0.001, 10,
+					new int[] { 100, 200, 400 }, 20, 1);
+		} else {
+			spec = HyperparameterSweepSpec.grid(convolutional, hiddenLayerSizeCandidates, new double[] { 0, 0.1, 1 },
+					new int[] { 100, 200 });
+		}
+
+		if (jBlasAvailable) {
+			DoubleMatrixConfig.setDoubleMatrixStrategy(new DefaultMatrixAdapterStrategy());
+		} else {
+			DoubleMatrixConfig.setDoubleMatrixStrategy(new NoJblasPresentMatrixAdapterStrategy());
+		}
+
+		// Stop a trial below the median once 3 other trials have reported for the same round,
+		// from the second round onwards
+		HyperparameterSweepRunner runner = new HyperparameterSweepRunner(trainingDataMatrix, trainingLabelsMatrix,
+				validationDataMatrix, validationLabelsMatrix, coreBudget, memoryBudgetBytes, iterationsPerRound,
+				new MedianStoppingRule(3, 2));
+
+		System.out.println("\nSweeping...\n");
+		List<TrialResult> results = runner.run(spec.createTrials());
+
+		String resultsFileName = "hyperparameterSweepResults.csv";
+		Writer writer = new OutputStreamWriter(new FileOutputStream(resultsFileName), "UTF-8");
+		try {
+			System.out.println(TrialResult.CSV_HEADER);
+			writer.write(TrialResult.CSV_HEADER + "\n");
+			for (TrialResult result : results) {
+				System.out.println(result.toCsvRow());
+				writer.write(result.toCsvRow() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		System.out.println("Results written to " + resultsFileName);
+		for (TrialResult result : results) {
+			if (result.getFailure() != null) {
+				System.out.println("Trial " + result.getTrialNumber() + " failed:" + result.getFailure());
+			}
+		}
+
+		NeuralNetworkHypothesisFunction bestHypothesisFunction = runner.getBestHypothesisFunction();
+		if (bestHypothesisFunction != null) {
+			System.out.println("Best trial:" + runner.getBestResult().getHyperparameters());
+			System.out.println("Accuracy on test set:"
+					+ bestHypothesisFunction.getAccuracy(testSetDataMatrix, testSetLabelsMatrix));
+
+			// Serialize the hypothesis function of the best trial
+			SerializationHelper helper = new SerializationHelper(
+					DigitClassificationHyperparameterSweep.class.getClassLoader(), "org/ml4j/mnist");
+			helper.serialize(bestHypothesisFunction, "workingSweepBestHypothesisFunction");
+		}
+	}
+}
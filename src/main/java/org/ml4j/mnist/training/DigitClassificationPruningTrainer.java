@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.ml4j.ConvertToCudaMatrixOptimisationStrategy;
+import org.ml4j.CudaForMMulStrategy;
+import org.ml4j.DefaultMatrixAdapterStrategy;
+import org.ml4j.DoubleMatrixConfig;
+import org.ml4j.NoOpMatrixOptimisationStrategy;
+import org.ml4j.jblas.NoJblasPresentMatrixAdapterStrategy;
+import org.ml4j.mnist.pruning.CsrMatrix;
+import org.ml4j.mnist.pruning.FeedForwardLayerWeights;
+import org.ml4j.mnist.pruning.MagnitudePruner;
+import org.ml4j.mnist.pruning.SparseNeuralNetworkHypothesisFunction;
+import org.ml4j.mnist.service.PreTrainedHypothesisFunctionLoader;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+import org.ml4j.util.SerializationHelper;
+
+/**
+ * Iteratively prunes the fully connected layers of a pre-learned hypothesis function by
+ * weight magnitude, fine-tuning after each pruning step, and reports the trade-off between
+ * accuracy and speed at each sparsity level.
+ *
+ * The pruned network is also run through sparse CSR kernels for its fully connected layers -
+ * for the Convolutional Neural Network, the convolutional and pooling layers are still run
+ * densely - and the final sparse hypothesis function is serialized, so it can be served like
+ * any other hypothesis function.  The speedup of the CSR kernel over a dense kernel for the
+ * fully connected layers alone is reported too.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationPruningTrainer {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(
+				DigitClassificationPruningTrainer.class.getClassLoader());
+
+		// Fine-tuning set, and the last 10000 records for the test set
+		double[][] trainingDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 1, 10001);
+		double[][] trainingLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 1, 10001);
+		double[][] testSetDataMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 32005, 42005);
+		double[][] testSetLabelsMatrix = loader.loadDoubleMatrixFromCsv("train.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 32005, 42005);
+
+		// By default, assume CUDA is not available - set to true to use GPU
+		// matrix-matrix multiplies
+		boolean cudaAvailable = false;
+
+		// By default assume JBlas is available (the case on Macs) - set to
+		// false if JBlas not available to use slower JAMA
+		boolean jBlasAvailable = true;
+
+		// By default prune the Feed Forward Neural Network - set to true to prune the
+		// fully connected layers of the Convolutional Neural Network instead
+		boolean pruneConvolutionalNetwork = false;
+
+		// The fraction of each fully connected layer's weights to prune, raised step by step
+		double[] sparsityLevels = new double[] { 0.5, 0.75, 0.9, 0.95, 0.98 };
+
+		// Fine-tuning after each pruning step
+		int fineTuningIterations = 20;
+		double regularizationLambda = 0d;
+
+		String serializedHypothesisFunctionName = pruneConvolutionalNetwork ? "19_08_2015_CNN_1"
+				: "workingFFNHypothesisFunction";
+
+		SerializationHelper helper = new SerializationHelper(
+				DigitClassificationPruningTrainer.class.getClassLoader(), "org/ml4j/mnist");
+		NeuralNetworkHypothesisFunction hypothesisFunction = PreTrainedHypothesisFunctionLoader
+				.load(serializedHypothesisFunctionName);
+		FeedForwardNeuralNetwork neuralNetwork = hypothesisFunction.getNeuralNetwork();
+
+		// Make JBlas/Cuda optimisations
+		makeJblasAndCudaOptimisations(neuralNetwork, cudaAvailable, jBlasAvailable);
+
+		NeuralNetworkAlgorithm alg = new NeuralNetworkAlgorithm(neuralNetwork);
+		MagnitudePruner pruner = new MagnitudePruner(neuralNetwork, alg);
+		boolean sparseInferenceSupported = SparseNeuralNetworkHypothesisFunction.isSupported(neuralNetwork);
+
+		double denseImagesPerSecond = getBatchImagesPerSecond(hypothesisFunction, testSetDataMatrix);
+
+		System.out.println("Sparsity,Accuracy,Sparse accuracy,Dense images/s,Sparse images/s,Speedup,FC kernel speedup");
+		System.out.println("0.0," + hypothesisFunction.getAccuracy(testSetDataMatrix, testSetLabelsMatrix)
+				+ ",n/a," + Math.round(denseImagesPerSecond) + ",n/a,n/a,"
+				+ String.format("%.2f", getFullyConnectedKernelSpeedup(neuralNetwork)));
+
+		SparseNeuralNetworkHypothesisFunction sparseHypothesisFunction = null;
+		for (double sparsity : sparsityLevels) {
+			pruner.prune(sparsity);
+			hypothesisFunction = pruner.fineTune(trainingDataMatrix, trainingLabelsMatrix, fineTuningIterations,
+					regularizationLambda);
+			String row = String.format("%.3f", pruner.getSparsity()) + ","
+					+ hypothesisFunction.getAccuracy(testSetDataMatrix, testSetLabelsMatrix) + ",";
+			if (sparseInferenceSupported) {
+				sparseHypothesisFunction = new SparseNeuralNetworkHypothesisFunction(neuralNetwork);
+				double sparseImagesPerSecond = getBatchImagesPerSecond(sparseHypothesisFunction, testSetDataMatrix);
+				row = row + sparseHypothesisFunction.getAccuracy(testSetDataMatrix, testSetLabelsMatrix) + ","
+						+ Math.round(denseImagesPerSecond) + "," + Math.round(sparseImagesPerSecond) + ","
+						+ String.format("%.2f", sparseImagesPerSecond / denseImagesPerSecond) + ",";
+			} else {
+				row = row + "n/a," + Math.round(denseImagesPerSecond) + ",n/a,n/a,";
+			}
+			System.out.println(row + String.format("%.2f", getFullyConnectedKernelSpeedup(neuralNetwork)));
+		}
+
+		// Serialize the pruned hypothesis functions
+		helper.serialize(hypothesisFunction, "workingPrunedDenseHypothesisFunction");
+		if (sparseHypothesisFunction != null) {
+			helper.serialize(sparseHypothesisFunction, "workingPrunedSparseHypothesisFunction");
+		}
+	}
+
+	private static double getBatchImagesPerSecond(NeuralNetworkHypothesisFunction hypothesisFunction,
+			double[][] testSetDataMatrix) {
+		hypothesisFunction.predict(testSetDataMatrix);
+		long start = System.nanoTime();
+		hypothesisFunction.predict(testSetDataMatrix);
+		return testSetDataMatrix.length / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Times a dense kernel and the CSR kernel over the current weights of each fully connected
+	 * layer, for a batch of 1000 random input vectors
+	 *
+	 * @return The ratio of the dense time to the sparse time, summed over the layers
+	 */
+	private static double getFullyConnectedKernelSpeedup(FeedForwardNeuralNetwork neuralNetwork) {
+		List<FeedForwardLayerWeights> layers = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+		Random random = new Random(1);
+		long denseNanos = 0;
+		long sparseNanos = 0;
+		for (FeedForwardLayerWeights layerWeights : layers) {
+			double[][] inputs = new double[1000][layerWeights.getInputNeuronCount()];
+			for (double[] input : inputs) {
+				for (int i = 0; i < input.length; i++) {
+					input[i] = random.nextDouble();
+				}
+			}
+			double[][] weights = layerWeights.getWeights();
+			CsrMatrix sparseWeights = CsrMatrix.fromDense(weights, layerWeights.getInputNeuronCount());
+			// Warm up before timing
+			multiplyDense(weights, inputs);
+			sparseWeights.multiply(inputs);
+			long start = System.nanoTime();
+			multiplyDense(weights, inputs);
+			long denseEnd = System.nanoTime();
+			sparseWeights.multiply(inputs);
+			long sparseEnd = System.nanoTime();
+			denseNanos += denseEnd - start;
+			sparseNanos += sparseEnd - denseEnd;
+		}
+		return (double) denseNanos / sparseNanos;
+	}
+
+	private static double[][] multiplyDense(double[][] weights, double[][] inputs) {
+		double[][] outputs = new double[inputs.length][weights.length];
+		for (int i = 0; i < inputs.length; i++) {
+			double[] input = inputs[i];
+			for (int r = 0; r < weights.length; r++) {
+				double[] row = weights[r];
+				double sum = 0;
+				for (int c = 0; c < row.length; c++) {
+					sum += row[c] * input[c];
+				}
+				outputs[i][r] = sum;
+			}
+		}
+		return outputs;
+	}
+
+	private static void makeJblasAndCudaOptimisations(FeedForwardNeuralNetwork neuralNetwork, boolean cudaAvailable,
+			boolean jBlasAvailable) {
+		if (!cudaAvailable) {
+			// The hypothesis functions may have been generated by CUDA matrix
+			// strategies, so unconfigure these strategies if we don't want to
+			// use CUDA
+			if (jBlasAvailable) {
+				DoubleMatrixConfig.setDoubleMatrixStrategy(new DefaultMatrixAdapterStrategy());
+			} else {
+				DoubleMatrixConfig.setDoubleMatrixStrategy(new NoJblasPresentMatrixAdapterStrategy());
+
+			}
+			neuralNetwork
+					.updateForwardPropagationInputMatrixStrategyForCurrentLayers(new NoOpMatrixOptimisationStrategy());
+		} else {
+			// If Cuda is available, optimise for GPU matrix-matrix
+			// multiplication
+			DoubleMatrixConfig.setDoubleMatrixStrategy(new CudaForMMulStrategy());
+			neuralNetwork
+					.updateForwardPropagationInputMatrixStrategyForCurrentLayers(new ConvertToCudaMatrixOptimisationStrategy());
+		}
+
+	}
+
+}
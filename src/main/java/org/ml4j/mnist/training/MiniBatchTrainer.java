@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+import java.io.IOException;
+
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.MnistDataBatch;
+import org.ml4j.nn.util.MnistDataBatchSource;
+
+/**
+ * Trains a Neural Network on successive batches from an MnistDataBatchSource, rather
+ * than on a single training set matrix.
+ *
+ * The algorithm trains the network it was created with, so each batch continues from
+ * the weights learned on the previous batches.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MiniBatchTrainer {
+
+	private NeuralNetworkAlgorithm algorithm;
+	private int iterationsPerBatch;
+	private double regularizationLambda;
+	private long trainedBatchCount;
+
+	/**
+	 *
+	 * @param algorithm The algorithm wrapping the network to train
+	 * @param iterationsPerBatch The number of training iterations on each batch
+	 * @param regularizationLambda The amount of regularisation
+	 */
+	public MiniBatchTrainer(NeuralNetworkAlgorithm algorithm, int iterationsPerBatch, double regularizationLambda) {
+		this.algorithm = algorithm;
+		this.iterationsPerBatch = iterationsPerBatch;
+		this.regularizationLambda = regularizationLambda;
+	}
+
+	/**
+	 * Trains on batches until the source is exhausted.  The source is not closed.
+	 *
+	 * @param source A source of labelled batches
+	 * @param batchSize The maximum number of rows in each batch
+	 * @return The hypothesis function after training on the last batch
+	 * @throws IOException
+	 */
+	public NeuralNetworkHypothesisFunction train(MnistDataBatchSource source, int batchSize) throws IOException {
+		NeuralNetworkHypothesisFunction hypothesisFunction = null;
+		MnistDataBatch batch;
+		while ((batch = source.nextBatch(batchSize)) != null) {
+			if (!batch.isLabelled()) {
+				throw new IllegalArgumentException("Training requires labelled data");
+			}
+			NeuralNetworkAlgorithmTrainingContext context = new NeuralNetworkAlgorithmTrainingContext(
+					iterationsPerBatch);
+			context.setRegularizationLambda(regularizationLambda);
+			hypothesisFunction = algorithm.getHypothesisFunction(batch.getData(), batch.getLabels(), context);
+			trainedBatchCount++;
+		}
+		if (hypothesisFunction == null) {
+			throw new IllegalArgumentException("No training batches available");
+		}
+		return hypothesisFunction;
+	}
+
+	/**
+	 *
+	 * @return The number of batches trained on so far, over all calls to train
+	 */
+	public long getTrainedBatchCount() {
+		return trainedBatchCount;
+	}
+}
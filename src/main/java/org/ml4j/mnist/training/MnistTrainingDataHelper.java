@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+import java.io.IOException;
+
+import org.ml4j.mnist.augmentation.AugmentedMnistDataBatchSource;
+import org.ml4j.mnist.augmentation.DigitImageTransforms;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.CsvMnistDataBatchSource;
+import org.ml4j.nn.util.IdxMnistDataSet;
+import org.ml4j.nn.util.MnistDataBatchSource;
+import org.ml4j.nn.util.MnistDataBatch;
+import org.ml4j.nn.util.OffHeapMnistDataStore;
+import org.ml4j.nn.util.ParallelCsvMnistDataLoader;
+import org.ml4j.nn.util.PixelFeaturesMatrixCsvDataExtractor;
+import org.ml4j.nn.util.PrefetchingMnistDataBatchSource;
+import org.ml4j.nn.util.SingleDigitLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+
+/**
+ * Loads labelled rows of an MNIST training csv, and trains networks from the chosen
+ * TrainingDataSource - shared by the Feed Forward and Convolutional Neural Network trainers.
+ *
+ * Rows are numbered as for DoubleArrayMatrixLoader - line 0 of the csv is the header.  The
+ * streamed and off-heap sources train on every row before the first held-out (test set) line.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MnistTrainingDataHelper {
+
+	public static final String IDX_TRAINING_IMAGES = "train-images-idx3-ubyte";
+	public static final String IDX_TRAINING_LABELS = "train-labels-idx1-ubyte";
+
+	private static final int BATCH_SIZE = 1000;
+	private static final int ITERATIONS_PER_BATCH = 10;
+
+	private ClassLoader classLoader;
+	private String resourceName;
+	private boolean parseCsvInParallel;
+	private int firstHeldOutLine;
+	private ParallelCsvMnistDataLoader parallelCsvLoader;
+	private String trainingStatistics;
+
+	/**
+	 *
+	 * @param classLoader The class loader to load the csv from
+	 * @param resourceName The name of the csv on the classpath, eg. train.csv
+	 * @param parseCsvInParallel Whether to load rows with ParallelCsvMnistDataLoader rather than DoubleArrayMatrixLoader
+	 * @param firstHeldOutLine The first line of the test set - streamed and off-heap training stops before it
+	 */
+	public MnistTrainingDataHelper(ClassLoader classLoader, String resourceName, boolean parseCsvInParallel,
+			int firstHeldOutLine) {
+		if (firstHeldOutLine < 2) {
+			throw new IllegalArgumentException("At least one training row is required before the held-out rows");
+		}
+		this.classLoader = classLoader;
+		this.resourceName = resourceName;
+		this.parseCsvInParallel = parseCsvInParallel;
+		this.firstHeldOutLine = firstHeldOutLine;
+	}
+
+	/**
+	 * Loads the pixel vectors and label vectors of a range of lines
+	 *
+	 * @param startLine The first line to load (inclusive)
+	 * @param endLine The last line to load (exclusive)
+	 * @return The rows, with the start line as the first row id
+	 * @throws IOException
+	 */
+	public MnistDataBatch load(int startLine, int endLine) throws IOException {
+		if (parseCsvInParallel) {
+			if (parallelCsvLoader == null) {
+				// Indexes the csv once, on the first load
+				parallelCsvLoader = ParallelCsvMnistDataLoader.fromClasspath(classLoader, resourceName, true, Runtime
+						.getRuntime().availableProcessors());
+			}
+			return parallelCsvLoader.load(startLine, endLine);
+		}
+		DoubleArrayMatrixLoader loader = new DoubleArrayMatrixLoader(classLoader);
+		double[][] data = loader.loadDoubleMatrixFromCsv(resourceName, new PixelFeaturesMatrixCsvDataExtractor(),
+				startLine, endLine);
+		double[][] labels = loader.loadDoubleMatrixFromCsv(resourceName,
+				new SingleDigitLabelsMatrixCsvDataExtractor(), startLine, endLine);
+		return new MnistDataBatch(data, labels, startLine);
+	}
+
+	/**
+	 * Trains a network from the chosen source
+	 *
+	 * @param alg The algorithm of the network to train
+	 * @param source Where to take the training data from
+	 * @param trainingSet The loaded training rows, used by LOADED_ROWS and AUGMENTED_BATCHES
+	 * @param context The training context for LOADED_ROWS
+	 * @param regularizationLambda The regularisation lambda for the mini-batch sources
+	 * @return The hypothesis function of the trained network
+	 * @throws IOException
+	 */
+	public NeuralNetworkHypothesisFunction train(NeuralNetworkAlgorithm alg, TrainingDataSource source,
+			MnistDataBatch trainingSet, NeuralNetworkAlgorithmTrainingContext context, double regularizationLambda)
+			throws IOException {
+		trainingStatistics = null;
+		switch (source) {
+		case LOADED_ROWS:
+			return alg.getHypothesisFunction(trainingSet.getData(), trainingSet.getLabels(), context);
+		case AUGMENTED_BATCHES:
+			return trainOnAugmentedBatches(alg, trainingSet, regularizationLambda);
+		case PREFETCHED_CSV_BATCHES:
+			return trainOnPrefetchedBatches(alg, regularizationLambda);
+		case OFF_HEAP_STORE:
+			return trainOnOffHeapStore(alg, regularizationLambda);
+		case IDX_BATCHES:
+			return trainOnIdxBatches(alg, regularizationLambda);
+		default:
+			throw new IllegalArgumentException("Unsupported training data source:" + source);
+		}
+	}
+
+	/**
+	 *
+	 * @return Statistics of the source used by the last call to train, eg. the prefetching loader's
+	 *         stall times, or null if the source has none to report
+	 */
+	public String getTrainingStatistics() {
+		return trainingStatistics;
+	}
+
+	private NeuralNetworkHypothesisFunction trainOnAugmentedBatches(NeuralNetworkAlgorithm alg,
+			MnistDataBatch trainingSet, double regularizationLambda) throws IOException {
+		int batchCount = 50;
+		long seed = 1;
+
+		// Augmented batches are generated on background workers, two batches ahead of training
+		AugmentedMnistDataBatchSource augmentedBatches = new AugmentedMnistDataBatchSource(trainingSet.getData(),
+				trainingSet.getLabels(), DigitImageTransforms.createDefaultTransforms(seed), 0.2, BATCH_SIZE,
+				batchCount, seed, 2, 2);
+		try {
+			return new MiniBatchTrainer(alg, ITERATIONS_PER_BATCH, regularizationLambda).train(augmentedBatches,
+					BATCH_SIZE);
+		} finally {
+			augmentedBatches.close();
+		}
+	}
+
+	private NeuralNetworkHypothesisFunction trainOnPrefetchedBatches(NeuralNetworkAlgorithm alg,
+			double regularizationLambda) throws IOException {
+		// Triple-buffered, with at most 64MB of parsed batches queued ahead of training
+		PrefetchingMnistDataBatchSource prefetchedBatches = new PrefetchingMnistDataBatchSource(
+				CsvMnistDataBatchSource.fromClasspath(classLoader, resourceName,
+						new PixelFeaturesMatrixCsvDataExtractor(), new SingleDigitLabelsMatrixCsvDataExtractor(), 1,
+						firstHeldOutLine), BATCH_SIZE, 3, 64L * 1024 * 1024);
+		try {
+			NeuralNetworkHypothesisFunction hyp = new MiniBatchTrainer(alg, ITERATIONS_PER_BATCH,
+					regularizationLambda).train(prefetchedBatches, BATCH_SIZE);
+			trainingStatistics = "Prefetching loader statistics:" + prefetchedBatches;
+			return hyp;
+		} finally {
+			prefetchedBatches.close();
+		}
+	}
+
+	private NeuralNetworkHypothesisFunction trainOnIdxBatches(NeuralNetworkAlgorithm alg,
+			double regularizationLambda) throws IOException {
+		// Batches are read straight from the mapped files, binarized as for the csv extractors
+		MnistDataBatchSource idxBatches = IdxMnistDataSet.fromClasspath(classLoader, IDX_TRAINING_IMAGES,
+				IDX_TRAINING_LABELS).createBatchSource(true);
+		try {
+			return new MiniBatchTrainer(alg, ITERATIONS_PER_BATCH, regularizationLambda).train(idxBatches, BATCH_SIZE);
+		} finally {
+			idxBatches.close();
+		}
+	}
+
+	private NeuralNetworkHypothesisFunction trainOnOffHeapStore(NeuralNetworkAlgorithm alg,
+			double regularizationLambda) throws IOException {
+		int epochs = 5;
+
+		// The 32004 rows before the test set of train.csv take about 3MB off the heap, and only the
+		// current batch is held on the heap as double[][]
+		OffHeapMnistDataStore store = OffHeapMnistDataStore.allocateDirect(firstHeldOutLine - 1,
+				OffHeapMnistDataStore.Encoding.BINARY, true);
+		try {
+			CsvMnistDataBatchSource csvBatches = CsvMnistDataBatchSource.fromClasspath(classLoader, resourceName,
+					new PixelFeaturesMatrixCsvDataExtractor(), new SingleDigitLabelsMatrixCsvDataExtractor(), 1,
+					firstHeldOutLine);
+			try {
+				store.fill(csvBatches, BATCH_SIZE);
+			} finally {
+				csvBatches.close();
+			}
+			trainingStatistics = "Stored " + store.getRowCount() + " rows in " + store.getOffHeapBytes()
+					+ " bytes off-heap";
+			MiniBatchTrainer trainer = new MiniBatchTrainer(alg, ITERATIONS_PER_BATCH, regularizationLambda);
+			NeuralNetworkHypothesisFunction hyp = null;
+			for (int epoch = 0; epoch < epochs; epoch++) {
+				hyp = trainer.train(store.createBatchSource(0, store.getRowCount(), 1), BATCH_SIZE);
+			}
+			return hyp;
+		} finally {
+			store.close();
+		}
+	}
+}
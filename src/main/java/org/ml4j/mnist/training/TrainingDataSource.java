@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.training;
+
+/**
+ * Where the trainers take their training data from - each source is an alternative to the others
+ *
+ * @author Michael Lavelle
+ *
+ */
+public enum TrainingDataSource {
+
+	/**
+	 * The training rows loaded up front, trained on as a single batch
+	 */
+	LOADED_ROWS,
+
+	/**
+	 * Mini-batches of shifted, rotated and elastically distorted copies of the loaded training rows,
+	 * generated lazily in the background
+	 */
+	AUGMENTED_BATCHES,
+
+	/**
+	 * All rows before the test set, streamed from csv in mini-batches, parsing the next batch in the
+	 * background while training on the current one
+	 */
+	PREFETCHED_CSV_BATCHES,
+
+	/**
+	 * All rows before the test set, loaded into an off-heap store at one bit per pixel and trained
+	 * on for several epochs of mini-batches read from it
+	 */
+	OFF_HEAP_STORE,
+
+	/**
+	 * The original MNIST training set, memory-mapped from train-images-idx3-ubyte and
+	 * train-labels-idx1-ubyte on the classpath rather than parsed from csv, in mini-batches.  The
+	 * Kaggle csv rows are drawn from MNIST, so the held-out csv rows may have been trained on - report
+	 * accuracy on t10k-images-idx3-ubyte instead
+	 */
+	IDX_BATCHES
+}
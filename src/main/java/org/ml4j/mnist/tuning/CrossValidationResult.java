@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+/**
+ * The accuracy and timing of each fold of a k-fold cross-validation run
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class CrossValidationResult {
+
+	private double[] foldAccuracies;
+	private long[] foldMillis;
+	private long wallClockMillis;
+	private int threadCount;
+
+	public CrossValidationResult(double[] foldAccuracies, long[] foldMillis, long wallClockMillis, int threadCount) {
+		this.foldAccuracies = foldAccuracies.clone();
+		this.foldMillis = foldMillis.clone();
+		this.wallClockMillis = wallClockMillis;
+		this.threadCount = threadCount;
+	}
+
+	public int getFoldCount() {
+		return foldAccuracies.length;
+	}
+
+	public double getFoldAccuracy(int fold) {
+		return foldAccuracies[fold];
+	}
+
+	/**
+	 *
+	 * @return The time taken to train and evaluate the fold, on its own thread
+	 */
+	public long getFoldMillis(int fold) {
+		return foldMillis[fold];
+	}
+
+	/**
+	 *
+	 * @return The time taken to run all the folds
+	 */
+	public long getWallClockMillis() {
+		return wallClockMillis;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public double getMeanAccuracy() {
+		double sum = 0;
+		for (double accuracy : foldAccuracies) {
+			sum += accuracy;
+		}
+		return sum / foldAccuracies.length;
+	}
+
+	/**
+	 *
+	 * @return The sample variance of the fold accuracies
+	 */
+	public double getAccuracyVariance() {
+		if (foldAccuracies.length < 2) {
+			return 0;
+		}
+		double mean = getMeanAccuracy();
+		double sumOfSquares = 0;
+		for (double accuracy : foldAccuracies) {
+			sumOfSquares += (accuracy - mean) * (accuracy - mean);
+		}
+		return sumOfSquares / (foldAccuracies.length - 1);
+	}
+
+	/**
+	 *
+	 * @param baseline A run of the same folds, eg. one after another on a single thread
+	 * @return How many times faster this run was than the baseline
+	 */
+	public double getSpeedupOver(CrossValidationResult baseline) {
+		return (double) baseline.getWallClockMillis() / Math.max(1, wallClockMillis);
+	}
+}
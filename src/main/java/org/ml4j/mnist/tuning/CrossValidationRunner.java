@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ml4j.NoOpMatrixOptimisationStrategy;
+import org.ml4j.mnist.training.MiniBatchTrainer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+import org.ml4j.nn.util.MnistDataBatch;
+import org.ml4j.nn.util.MnistDataBatchSource;
+import org.ml4j.nn.util.OffHeapMnistDataStore;
+
+/**
+ * Runs k-fold cross-validation of a network topology over the rows of an OffHeapMnistDataStore,
+ * training and evaluating the folds concurrently within a core budget.
+ *
+ * The rows are split into k contiguous folds - each fold's network is trained on the rows of
+ * the other folds and evaluated on its own rows.  All folds read the same, read-only store, and
+ * each fold only materializes the batch it is currently training on or evaluating, so the data
+ * is never copied per fold.
+ *
+ * Each fold trains for a number of epochs over mini-batches, training for the hyperparameters'
+ * iterations on each batch.  Folds run on the CPU - they use whichever DoubleMatrixConfig strategy
+ * is configured when the folds run.  As the strategy is shared by every fold, concurrent folds
+ * rely on the same assumption as ParallelDigitClassificationEvaluator - that networks can be
+ * trained and used for prediction on several threads at once under it.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class CrossValidationRunner {
+
+	private OffHeapMnistDataStore store;
+	private int foldCount;
+	private HyperparameterSet hyperparameters;
+	private int batchSize;
+	private int epochs;
+
+	/**
+	 *
+	 * @param store The labelled rows to cross-validate over, shared read-only by all folds
+	 * @param foldCount The number of folds, k
+	 * @param hyperparameters The topology, regularisation and iterations per batch of each fold's network
+	 * @param batchSize The maximum number of rows in each training or evaluation batch
+	 * @param epochs The number of passes over each fold's training rows
+	 */
+	public CrossValidationRunner(OffHeapMnistDataStore store, int foldCount, HyperparameterSet hyperparameters,
+			int batchSize, int epochs) {
+		if (!store.isLabelled()) {
+			throw new IllegalArgumentException("Cross-validation requires labelled data");
+		}
+		if (foldCount < 2 || foldCount > store.getRowCount()) {
+			throw new IllegalArgumentException("Fold count must be at least 2 and at most the number of rows");
+		}
+		if (batchSize < 1 || epochs < 1) {
+			throw new IllegalArgumentException("Batch size and epochs must be positive");
+		}
+		this.store = store;
+		this.foldCount = foldCount;
+		this.hyperparameters = hyperparameters;
+		this.batchSize = batchSize;
+		this.epochs = epochs;
+	}
+
+	/**
+	 * Trains and evaluates every fold
+	 *
+	 * @param coreBudget The maximum number of folds to run at once - 1 runs the folds one after another
+	 * @return The accuracy and timing of each fold
+	 * @throws InterruptedException
+	 */
+	public CrossValidationResult run(int coreBudget) throws InterruptedException {
+		if (coreBudget < 1) {
+			throw new IllegalArgumentException("Core budget must be positive");
+		}
+		int threadCount = Math.min(coreBudget, foldCount);
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+		long start = System.nanoTime();
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for (int f = 0; f < foldCount; f++) {
+				final int fold = f;
+				futures.add(executorService.submit(new Callable<double[]>() {
+
+					@Override
+					public double[] call() throws IOException {
+						long foldStart = System.nanoTime();
+						double accuracy = runFold(fold);
+						return new double[] { accuracy, (System.nanoTime() - foldStart) / 1000000 };
+					}
+				}));
+			}
+			double[] foldAccuracies = new double[foldCount];
+			long[] foldMillis = new long[foldCount];
+			for (int f = 0; f < foldCount; f++) {
+				try {
+					double[] foldResult = futures.get(f).get();
+					foldAccuracies[f] = foldResult[0];
+					foldMillis[f] = (long) foldResult[1];
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Fold " + (f + 1) + " failed", e.getCause());
+				}
+			}
+			return new CrossValidationResult(foldAccuracies, foldMillis, (System.nanoTime() - start) / 1000000,
+					threadCount);
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	/**
+	 *
+	 * @return The first row of a fold, or the row count for the fold after the last
+	 */
+	private int getFoldStartRow(int fold) {
+		return (int) ((long) store.getRowCount() * fold / foldCount);
+	}
+
+	private double runFold(int fold) throws IOException {
+		int validationStart = getFoldStartRow(fold);
+		int validationEnd = getFoldStartRow(fold + 1);
+
+		FeedForwardNeuralNetwork neuralNetwork = hyperparameters.createNeuralNetwork();
+		neuralNetwork.updateForwardPropagationInputMatrixStrategyForCurrentLayers(new NoOpMatrixOptimisationStrategy());
+		MiniBatchTrainer trainer = new MiniBatchTrainer(new NeuralNetworkAlgorithm(neuralNetwork),
+				hyperparameters.getIterations(), hyperparameters.getRegularizationLambda());
+
+		// Each batch continues training from the weights learned on the previous batches
+		NeuralNetworkHypothesisFunction hypothesisFunction = null;
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			// The training rows are those before and after the validation rows - the first and last folds
+			// have training rows on one side only
+			if (validationStart > 0) {
+				hypothesisFunction = trainer.train(store.createBatchSource(0, validationStart, 1), batchSize);
+			}
+			if (validationEnd < store.getRowCount()) {
+				hypothesisFunction = trainer.train(store.createBatchSource(validationEnd, store.getRowCount(),
+						validationEnd + 1), batchSize);
+			}
+		}
+
+		MnistDataBatchSource validationSource = store.createBatchSource(validationStart, validationEnd,
+				validationStart + 1);
+		double correct = 0;
+		MnistDataBatch batch;
+		while ((batch = validationSource.nextBatch(batchSize)) != null) {
+			correct += hypothesisFunction.getAccuracy(batch.getData(), batch.getLabels()) * batch.size();
+		}
+		return correct / (validationEnd - validationStart);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ml4j.nn.ConvolutionalLayer;
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.MaxPoolingLayer;
+import org.ml4j.nn.activationfunctions.SigmoidActivationFunction;
+import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
+
+/**
+ * The hyperparameters of a single sweep trial - the network topology, the amount of
+ * regularisation and the number of training iterations.
+ *
+ * The hidden layer sizes are the sizes of the fully connected hidden layers.  For a
+ * convolutional network these follow the fixed convolutional and max pooling layers of
+ * DigitClassificationCNNTrainer, so only the fully connected part of the topology varies.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class HyperparameterSet {
+
+	private static final int INPUT_NEURONS = 28 * 28;
+	private static final int OUTPUT_NEURONS = 10;
+	private static final int CONVOLUTIONAL_OUTPUT_NEURONS = 16 * 5 * 5;
+
+	private boolean convolutional;
+	private int[] hiddenLayerSizes;
+	private double regularizationLambda;
+	private int iterations;
+
+	public HyperparameterSet(boolean convolutional, int[] hiddenLayerSizes, double regularizationLambda, int iterations) {
+		this.convolutional = convolutional;
+		this.hiddenLayerSizes = hiddenLayerSizes.clone();
+		this.regularizationLambda = regularizationLambda;
+		this.iterations = iterations;
+	}
+
+	public boolean isConvolutional() {
+		return convolutional;
+	}
+
+	public int[] getHiddenLayerSizes() {
+		return hiddenLayerSizes.clone();
+	}
+
+	public double getRegularizationLambda() {
+		return regularizationLambda;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 *
+	 * @return A new, untrained network with this topology
+	 */
+	public FeedForwardNeuralNetwork createNeuralNetwork() {
+		List<FeedForwardLayer> layers = new ArrayList<FeedForwardLayer>();
+		int inputNeurons = INPUT_NEURONS;
+		if (convolutional) {
+			layers.add(new ConvolutionalLayer(784, 6 * 20 * 20, new SigmoidActivationFunction(), true, 6, 1));
+			layers.add(new MaxPoolingLayer(6 * 20 * 20, 6 * 10 * 10, 6));
+			layers.add(new ConvolutionalLayer(6 * 10 * 10, 16 * 5 * 5, new SigmoidActivationFunction(), true, 16, 6));
+			inputNeurons = CONVOLUTIONAL_OUTPUT_NEURONS;
+		}
+		for (int hiddenLayerSize : hiddenLayerSizes) {
+			layers.add(new FeedForwardLayer(inputNeurons, hiddenLayerSize, new SigmoidActivationFunction(), true));
+			inputNeurons = hiddenLayerSize;
+		}
+		layers.add(new FeedForwardLayer(inputNeurons, OUTPUT_NEURONS, new SoftmaxActivationFunction(), true));
+		return new FeedForwardNeuralNetwork(layers.toArray(new FeedForwardLayer[layers.size()]));
+	}
+
+	/**
+	 * Estimates the memory needed to train a network with this topology on a training set,
+	 * counting the weights and their gradients, and an activation and a delta for every
+	 * neuron of every training row.  Convolutional layers are counted as dense, so the
+	 * estimate is conservative for convolutional networks.
+	 *
+	 * @param trainingRows The number of training rows
+	 * @return The estimated number of bytes
+	 */
+	public long getEstimatedTrainingBytes(int trainingRows) {
+		List<Integer> layerSizes = new ArrayList<Integer>();
+		layerSizes.add(INPUT_NEURONS);
+		if (convolutional) {
+			layerSizes.add(6 * 20 * 20);
+			layerSizes.add(6 * 10 * 10);
+			layerSizes.add(CONVOLUTIONAL_OUTPUT_NEURONS);
+		}
+		for (int hiddenLayerSize : hiddenLayerSizes) {
+			layerSizes.add(hiddenLayerSize);
+		}
+		layerSizes.add(OUTPUT_NEURONS);
+		long weights = 0;
+		long neurons = 0;
+		for (int l = 1; l < layerSizes.size(); l++) {
+			weights += (layerSizes.get(l - 1) + 1L) * layerSizes.get(l);
+			neurons += layerSizes.get(l);
+		}
+		return 8 * (2 * weights + 2 * neurons * trainingRows);
+	}
+
+	@Override
+	public String toString() {
+		return (convolutional ? "CNN" : "FNN") + " hidden:" + Arrays.toString(hiddenLayerSizes) + " lambda:"
+				+ regularizationLambda + " iterations:" + iterations;
+	}
+}
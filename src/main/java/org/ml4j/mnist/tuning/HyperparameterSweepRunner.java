@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.ml4j.NoOpMatrixOptimisationStrategy;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Runs the trials of a hyperparameter sweep concurrently, within a core budget and a
+ * memory budget.
+ *
+ * All trials share the same, read-only training and validation matrices.  At most one
+ * trial runs per budgeted core, and a trial only starts once its estimated training memory
+ * fits within what remains of the memory budget - trials estimated to need more than the
+ * whole budget are skipped.  Each trial trains in rounds, reporting its validation accuracy
+ * after each round to a shared MedianStoppingRule, so losing trials stop early and release
+ * their core and memory to the remaining trials.
+ *
+ * Trials run on the CPU - they use whichever DoubleMatrixConfig strategy is configured
+ * when the sweep runs.  Each trial trains and validates its own network, but the strategy is
+ * global, so trials assume that training and predicting with separate networks on several
+ * threads at once is safe under it (see ParallelDigitClassificationEvaluator).
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class HyperparameterSweepRunner {
+
+	private double[][] trainingData;
+	private double[][] trainingLabels;
+	private double[][] validationData;
+	private double[][] validationLabels;
+	private int coreBudget;
+	private long memoryBudgetBytes;
+	private int iterationsPerRound;
+	private MedianStoppingRule stoppingRule;
+
+	private NeuralNetworkHypothesisFunction bestHypothesisFunction;
+	private TrialResult bestResult;
+
+	/**
+	 *
+	 * @param trainingData The training data shared by all trials
+	 * @param trainingLabels The training labels shared by all trials
+	 * @param validationData The validation data used to compare trials
+	 * @param validationLabels The validation labels
+	 * @param coreBudget The maximum number of trials to run at once
+	 * @param memoryBudgetBytes The maximum total estimated training memory of the trials running at once
+	 * @param iterationsPerRound The number of training iterations between validation checks
+	 * @param stoppingRule The early stopping rule, or null to run every trial to completion
+	 */
+	public HyperparameterSweepRunner(double[][] trainingData, double[][] trainingLabels, double[][] validationData,
+			double[][] validationLabels, int coreBudget, long memoryBudgetBytes, int iterationsPerRound,
+			MedianStoppingRule stoppingRule) {
+		this.trainingData = trainingData;
+		this.trainingLabels = trainingLabels;
+		this.validationData = validationData;
+		this.validationLabels = validationLabels;
+		this.coreBudget = coreBudget;
+		this.memoryBudgetBytes = memoryBudgetBytes;
+		this.iterationsPerRound = iterationsPerRound;
+		this.stoppingRule = stoppingRule;
+	}
+
+	/**
+	 * Runs every trial of the sweep
+	 *
+	 * @param trials The hyperparameters of each trial
+	 * @return The result of each trial, ordered from highest to lowest validation accuracy
+	 * @throws InterruptedException
+	 */
+	public List<TrialResult> run(List<HyperparameterSet> trials) throws InterruptedException {
+		ExecutorService executorService = Executors.newFixedThreadPool(coreBudget);
+		final Semaphore memoryBudgetMegabytes = new Semaphore(toMegabytes(memoryBudgetBytes));
+		List<Future<TrialResult>> futures = new ArrayList<Future<TrialResult>>();
+		try {
+			for (int t = 0; t < trials.size(); t++) {
+				final int trialNumber = t + 1;
+				final HyperparameterSet hyperparameters = trials.get(t);
+				futures.add(executorService.submit(new Callable<TrialResult>() {
+
+					@Override
+					public TrialResult call() throws InterruptedException {
+						return runTrial(trialNumber, hyperparameters, memoryBudgetMegabytes);
+					}
+				}));
+			}
+			List<TrialResult> results = new ArrayList<TrialResult>();
+			for (Future<TrialResult> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Trial failed unexpectedly", e.getCause());
+				}
+			}
+			Collections.sort(results, new Comparator<TrialResult>() {
+
+				@Override
+				public int compare(TrialResult first, TrialResult second) {
+					return Double.compare(second.getValidationAccuracy(), first.getValidationAccuracy());
+				}
+			});
+			return results;
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	private TrialResult runTrial(int trialNumber, HyperparameterSet hyperparameters, Semaphore memoryBudgetMegabytes)
+			throws InterruptedException {
+		long estimatedBytes = hyperparameters.getEstimatedTrainingBytes(trainingData.length);
+		int estimatedMegabytes = Math.max(1, toMegabytes(estimatedBytes));
+		if (estimatedBytes > memoryBudgetBytes) {
+			return new TrialResult(trialNumber, hyperparameters, TrialResult.Status.SKIPPED_OVER_MEMORY_BUDGET, 0, 0,
+					0, estimatedBytes);
+		}
+		memoryBudgetMegabytes.acquire(estimatedMegabytes);
+		long start = System.nanoTime();
+		int iterationsTrained = 0;
+		double accuracy = 0;
+		try {
+			FeedForwardNeuralNetwork neuralNetwork = hyperparameters.createNeuralNetwork();
+			neuralNetwork.updateForwardPropagationInputMatrixStrategyForCurrentLayers(new NoOpMatrixOptimisationStrategy());
+			NeuralNetworkAlgorithm alg = new NeuralNetworkAlgorithm(neuralNetwork);
+
+			// Each round continues training from the weights learned in the previous rounds
+			NeuralNetworkHypothesisFunction hypothesisFunction = null;
+			int round = 0;
+			TrialResult.Status status = TrialResult.Status.COMPLETED;
+			while (iterationsTrained < hyperparameters.getIterations()) {
+				int iterations = Math.min(iterationsPerRound, hyperparameters.getIterations() - iterationsTrained);
+				NeuralNetworkAlgorithmTrainingContext context = new NeuralNetworkAlgorithmTrainingContext(iterations);
+				context.setRegularizationLambda(hyperparameters.getRegularizationLambda());
+				hypothesisFunction = alg.getHypothesisFunction(trainingData, trainingLabels, context);
+				iterationsTrained += iterations;
+				round++;
+				accuracy = hypothesisFunction.getAccuracy(validationData, validationLabels);
+				if (iterationsTrained < hyperparameters.getIterations() && stoppingRule != null
+						&& stoppingRule.report(round, accuracy)) {
+					status = TrialResult.Status.STOPPED_EARLY;
+					break;
+				}
+			}
+			TrialResult result = new TrialResult(trialNumber, hyperparameters, status, iterationsTrained, accuracy,
+					(System.nanoTime() - start) / 1e9, estimatedBytes);
+			offerBest(result, hypothesisFunction);
+			return result;
+		} catch (RuntimeException e) {
+			return new TrialResult(trialNumber, hyperparameters, TrialResult.Status.FAILED, iterationsTrained,
+					accuracy, (System.nanoTime() - start) / 1e9, estimatedBytes, e);
+		} finally {
+			memoryBudgetMegabytes.release(estimatedMegabytes);
+		}
+	}
+
+	/**
+	 * Keeps only the best hypothesis function seen so far, so the memory of finished trials
+	 * can be reclaimed
+	 */
+	private synchronized void offerBest(TrialResult result, NeuralNetworkHypothesisFunction hypothesisFunction) {
+		if (hypothesisFunction != null
+				&& (bestResult == null || result.getValidationAccuracy() > bestResult.getValidationAccuracy())) {
+			bestResult = result;
+			bestHypothesisFunction = hypothesisFunction;
+		}
+	}
+
+	/**
+	 *
+	 * @return The hypothesis function of the trial with the highest validation accuracy, or null if no trial trained
+	 */
+	public synchronized NeuralNetworkHypothesisFunction getBestHypothesisFunction() {
+		return bestHypothesisFunction;
+	}
+
+	public synchronized TrialResult getBestResult() {
+		return bestResult;
+	}
+
+	private static int toMegabytes(long bytes) {
+		return (int) Math.min(Integer.MAX_VALUE, (bytes + 1024 * 1024 - 1) / (1024 * 1024));
+	}
+}
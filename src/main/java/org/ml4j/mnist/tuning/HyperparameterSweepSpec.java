@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Specifies the trials of a hyperparameter sweep, either as the full grid of all
+ * combinations of candidate values, or as a number of random samples.
+ *
+ * Random search picks the topology and iteration count uniformly from the candidates,
+ * and the regularisation lambda log-uniformly between a minimum and maximum, so that
+ * each order of magnitude is explored equally.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class HyperparameterSweepSpec {
+
+	private boolean convolutional;
+	private List<int[]> hiddenLayerSizeCandidates;
+	private int[] iterationCandidates;
+	private double[] regularizationLambdaCandidates;
+	private double minRegularizationLambda;
+	private double maxRegularizationLambda;
+	private int randomTrialCount;
+	private long seed;
+
+	private HyperparameterSweepSpec() {
+	}
+
+	/**
+	 * Creates a grid search over every combination of the candidate values
+	 *
+	 * @param convolutional Whether the trials train convolutional networks
+	 * @param hiddenLayerSizeCandidates The candidate fully connected hidden layer topologies
+	 * @param regularizationLambdaCandidates The candidate regularisation lambdas
+	 * @param iterationCandidates The candidate training iteration counts
+	 */
+	public static HyperparameterSweepSpec grid(boolean convolutional, List<int[]> hiddenLayerSizeCandidates,
+			double[] regularizationLambdaCandidates, int[] iterationCandidates) {
+		HyperparameterSweepSpec spec = new HyperparameterSweepSpec();
+		spec.convolutional = convolutional;
+		spec.hiddenLayerSizeCandidates = hiddenLayerSizeCandidates;
+		spec.regularizationLambdaCandidates = regularizationLambdaCandidates;
+		spec.iterationCandidates = iterationCandidates;
+		return spec;
+	}
+
+	/**
+	 * Creates a random search
+	 *
+	 * @param convolutional Whether the trials train convolutional networks
+	 * @param hiddenLayerSizeCandidates The candidate fully connected hidden layer topologies
+	 * @param minRegularizationLambda The smallest non-zero regularisation lambda to sample
+	 * @param maxRegularizationLambda The largest regularisation lambda to sample
+	 * @param iterationCandidates The candidate training iteration counts
+	 * @param trialCount The number of trials to sample
+	 * @param seed The random seed, so that a sweep can be repeated
+	 */
+	public static HyperparameterSweepSpec random(boolean convolutional, List<int[]> hiddenLayerSizeCandidates,
+			double minRegularizationLambda, double maxRegularizationLambda, int[] iterationCandidates,
+			int trialCount, long seed) {
+		if (minRegularizationLambda <= 0 || maxRegularizationLambda < minRegularizationLambda) {
+			throw new IllegalArgumentException("Regularization lambda range must be positive and non-empty");
+		}
+		HyperparameterSweepSpec spec = new HyperparameterSweepSpec();
+		spec.convolutional = convolutional;
+		spec.hiddenLayerSizeCandidates = hiddenLayerSizeCandidates;
+		spec.minRegularizationLambda = minRegularizationLambda;
+		spec.maxRegularizationLambda = maxRegularizationLambda;
+		spec.iterationCandidates = iterationCandidates;
+		spec.randomTrialCount = trialCount;
+		spec.seed = seed;
+		return spec;
+	}
+
+	/**
+	 *
+	 * @return The hyperparameters of each trial of the sweep
+	 */
+	public List<HyperparameterSet> createTrials() {
+		List<HyperparameterSet> trials = new ArrayList<HyperparameterSet>();
+		if (regularizationLambdaCandidates != null) {
+			for (int[] hiddenLayerSizes : hiddenLayerSizeCandidates) {
+				for (double regularizationLambda : regularizationLambdaCandidates) {
+					for (int iterations : iterationCandidates) {
+						trials.add(new HyperparameterSet(convolutional, hiddenLayerSizes, regularizationLambda,
+								iterations));
+					}
+				}
+			}
+		} else {
+			Random random = new Random(seed);
+			double logMin = Math.log(minRegularizationLambda);
+			double logMax = Math.log(maxRegularizationLambda);
+			for (int i = 0; i < randomTrialCount; i++) {
+				int[] hiddenLayerSizes = hiddenLayerSizeCandidates.get(random.nextInt(hiddenLayerSizeCandidates.size()));
+				double regularizationLambda = Math.exp(logMin + random.nextDouble() * (logMax - logMin));
+				int iterations = iterationCandidates[random.nextInt(iterationCandidates.length)];
+				trials.add(new HyperparameterSet(convolutional, hiddenLayerSizes, regularizationLambda, iterations));
+			}
+		}
+		return trials;
+	}
+}
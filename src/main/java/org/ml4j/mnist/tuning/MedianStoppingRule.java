@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Early stopping rule shared by the trials of a sweep - a trial is stopped after a round
+ * of training if its validation accuracy is below the median accuracy reported by other
+ * trials after the same round.
+ *
+ * No trial is stopped until enough other trials have reported for the round, and no trial
+ * is stopped before a minimum number of rounds, so slow starters get a chance to catch up.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MedianStoppingRule {
+
+	private int minReportsPerRound;
+	private int minRounds;
+	private Map<Integer, List<Double>> accuraciesByRound = new HashMap<Integer, List<Double>>();
+
+	/**
+	 *
+	 * @param minReportsPerRound The number of other trials which must have reported for a round before any trial is stopped at that round
+	 * @param minRounds The number of rounds every trial completes before it can be stopped
+	 */
+	public MedianStoppingRule(int minReportsPerRound, int minRounds) {
+		this.minReportsPerRound = minReportsPerRound;
+		this.minRounds = minRounds;
+	}
+
+	/**
+	 * Records a trial's validation accuracy after a round, and decides whether it should stop
+	 *
+	 * @param round The round just completed, starting at 1
+	 * @param accuracy The trial's validation accuracy after the round
+	 * @return Whether the trial should stop
+	 */
+	public synchronized boolean report(int round, double accuracy) {
+		List<Double> accuracies = accuraciesByRound.get(round);
+		if (accuracies == null) {
+			accuracies = new ArrayList<Double>();
+			accuraciesByRound.put(round, accuracies);
+		}
+		boolean stop = false;
+		if (round >= minRounds && accuracies.size() >= minReportsPerRound) {
+			List<Double> sorted = new ArrayList<Double>(accuracies);
+			Collections.sort(sorted);
+			int middle = sorted.size() / 2;
+			double median = sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted
+					.get(middle)) / 2;
+			stop = accuracy < median;
+		}
+		accuracies.add(accuracy);
+		return stop;
+	}
+}
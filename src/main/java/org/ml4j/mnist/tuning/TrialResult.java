@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.tuning;
+
+/**
+ * The outcome of a single sweep trial
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class TrialResult {
+
+	/**
+	 * How a trial ended
+	 */
+	public enum Status {
+		COMPLETED, STOPPED_EARLY, SKIPPED_OVER_MEMORY_BUDGET, FAILED
+	}
+
+	public static final String CSV_HEADER = "Trial,Network,Hidden layers,Lambda,Iterations,Status,"
+			+ "Iterations trained,Validation accuracy,Training s,Estimated MB";
+
+	private int trialNumber;
+	private HyperparameterSet hyperparameters;
+	private Status status;
+	private int iterationsTrained;
+	private double validationAccuracy;
+	private double trainingSeconds;
+	private long estimatedTrainingBytes;
+	private RuntimeException failure;
+
+	public TrialResult(int trialNumber, HyperparameterSet hyperparameters, Status status, int iterationsTrained,
+			double validationAccuracy, double trainingSeconds, long estimatedTrainingBytes) {
+		this(trialNumber, hyperparameters, status, iterationsTrained, validationAccuracy, trainingSeconds,
+				estimatedTrainingBytes, null);
+	}
+
+	/**
+	 *
+	 * @param failure The exception a FAILED trial ended with, otherwise null
+	 */
+	public TrialResult(int trialNumber, HyperparameterSet hyperparameters, Status status, int iterationsTrained,
+			double validationAccuracy, double trainingSeconds, long estimatedTrainingBytes, RuntimeException failure) {
+		this.trialNumber = trialNumber;
+		this.hyperparameters = hyperparameters;
+		this.status = status;
+		this.iterationsTrained = iterationsTrained;
+		this.validationAccuracy = validationAccuracy;
+		this.trainingSeconds = trainingSeconds;
+		this.estimatedTrainingBytes = estimatedTrainingBytes;
+		this.failure = failure;
+	}
+
+	public int getTrialNumber() {
+		return trialNumber;
+	}
+
+	public HyperparameterSet getHyperparameters() {
+		return hyperparameters;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public int getIterationsTrained() {
+		return iterationsTrained;
+	}
+
+	public double getValidationAccuracy() {
+		return validationAccuracy;
+	}
+
+	public double getTrainingSeconds() {
+		return trainingSeconds;
+	}
+
+	public long getEstimatedTrainingBytes() {
+		return estimatedTrainingBytes;
+	}
+
+	/**
+	 *
+	 * @return The exception the trial failed with, or null if it didn't fail
+	 */
+	public RuntimeException getFailure() {
+		return failure;
+	}
+
+	/**
+	 *
+	 * @return A row of the results table, matching CSV_HEADER
+	 */
+	public String toCsvRow() {
+		StringBuilder hiddenLayers = new StringBuilder();
+		for (int hiddenLayerSize : hyperparameters.getHiddenLayerSizes()) {
+			if (hiddenLayers.length() > 0) {
+				hiddenLayers.append('-');
+			}
+			hiddenLayers.append(hiddenLayerSize);
+		}
+		return trialNumber + "," + (hyperparameters.isConvolutional() ? "CNN" : "FNN") + "," + hiddenLayers + ","
+				+ hyperparameters.getRegularizationLambda() + "," + hyperparameters.getIterations() + "," + status
+				+ "," + iterationsTrained + "," + String.format("%.4f", validationAccuracy) + ","
+				+ String.format("%.1f", trainingSeconds) + "," + estimatedTrainingBytes / (1024 * 1024);
+	}
+}
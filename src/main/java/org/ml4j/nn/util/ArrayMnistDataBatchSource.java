@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.util.Arrays;
+
+/**
+ * Exposes in-memory double[][] matrices, as returned by DoubleArrayMatrixLoader, as
+ * an MnistDataBatchSource.  Batches share the row arrays of the underlying matrices.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ArrayMnistDataBatchSource implements MnistDataBatchSource {
+
+	private double[][] data;
+	private double[][] labels;
+	private long firstRowId;
+	private int nextIndex;
+
+	/**
+	 *
+	 * @param data The pixel vectors
+	 * @param labels The multiclass label vectors, or null if the data is unlabelled
+	 * @param firstRowId The row id to assign to the first row of data
+	 */
+	public ArrayMnistDataBatchSource(double[][] data, double[][] labels, long firstRowId) {
+		if (labels != null && labels.length != data.length) {
+			throw new IllegalArgumentException("Data and labels must have the same number of rows");
+		}
+		this.data = data;
+		this.labels = labels;
+		this.firstRowId = firstRowId;
+	}
+
+	@Override
+	public MnistDataBatch nextBatch(int maxBatchSize) {
+		if (nextIndex >= data.length) {
+			return null;
+		}
+		int endIndex = Math.min(data.length, nextIndex + maxBatchSize);
+		MnistDataBatch batch = new MnistDataBatch(Arrays.copyOfRange(data, nextIndex, endIndex),
+				labels == null ? null : Arrays.copyOfRange(labels, nextIndex, endIndex), firstRowId + nextIndex);
+		nextIndex = endIndex;
+		return batch;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.ml4j.util.MultiClassLabelsMatrixCsvDataExtractor;
+import org.ml4j.util.NumericFeaturesMatrixCsvDataExtractor;
+
+/**
+ * Streams batches of rows from an MNIST csv file, using the same extractors and the
+ * same line range semantics as DoubleArrayMatrixLoader.loadDoubleMatrixFromCsv - line 0
+ * is the header, the start line is inclusive and the end line is exclusive.
+ *
+ * Only one batch of rows is held in memory at any time.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class CsvMnistDataBatchSource implements MnistDataBatchSource {
+
+	private BufferedReader reader;
+	private NumericFeaturesMatrixCsvDataExtractor featuresExtractor;
+	private MultiClassLabelsMatrixCsvDataExtractor labelsExtractor;
+	private long endLine;
+	private long nextLine;
+
+	/**
+	 *
+	 * @param inputStream The csv input stream
+	 * @param featuresExtractor Extracts pixel vectors from csv lines
+	 * @param labelsExtractor Extracts label vectors from csv lines, or null for unlabelled data
+	 * @param startLine The first line to read (inclusive)
+	 * @param endLine The last line to read (exclusive)
+	 * @throws IOException
+	 */
+	public CsvMnistDataBatchSource(InputStream inputStream, NumericFeaturesMatrixCsvDataExtractor featuresExtractor,
+			MultiClassLabelsMatrixCsvDataExtractor labelsExtractor, long startLine, long endLine) throws IOException {
+		this.reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+		this.featuresExtractor = featuresExtractor;
+		this.labelsExtractor = labelsExtractor;
+		this.endLine = endLine;
+		this.nextLine = startLine;
+		this.skipLines(startLine);
+	}
+
+	/**
+	 * Creates a source reading a csv file from the classpath
+	 */
+	public static CsvMnistDataBatchSource fromClasspath(ClassLoader classLoader, String resourceName,
+			NumericFeaturesMatrixCsvDataExtractor featuresExtractor,
+			MultiClassLabelsMatrixCsvDataExtractor labelsExtractor, long startLine, long endLine)
+			throws IOException {
+		InputStream inputStream = classLoader.getResourceAsStream(resourceName);
+		if (inputStream == null) {
+			throw new FileNotFoundException("Unable to find resource on classpath:" + resourceName);
+		}
+		return new CsvMnistDataBatchSource(inputStream, featuresExtractor, labelsExtractor, startLine, endLine);
+	}
+
+	private void skipLines(long lineCount) throws IOException {
+		for (long i = 0; i < lineCount; i++) {
+			if (reader.readLine() == null) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public MnistDataBatch nextBatch(int maxBatchSize) throws IOException {
+		long firstRowId = nextLine;
+		int rowCount = (int) Math.max(0, Math.min(maxBatchSize, endLine - nextLine));
+		double[][] data = new double[rowCount][];
+		double[][] labels = labelsExtractor == null ? null : new double[rowCount][];
+		int row = 0;
+		String line;
+		while (row < rowCount && (line = reader.readLine()) != null) {
+			String[] csvAttributes = line.split(",");
+			data[row] = featuresExtractor.createData(csvAttributes);
+			if (labels != null) {
+				labels[row] = labelsExtractor.createData(csvAttributes);
+			}
+			row++;
+		}
+		nextLine += row;
+		if (row == 0) {
+			return null;
+		}
+		if (row < rowCount) {
+			// End of file reached before end line
+			endLine = nextLine;
+			data = Arrays.copyOf(data, row);
+			labels = labels == null ? null : Arrays.copyOf(labels, row);
+		}
+		return new MnistDataBatch(data, labels, firstRowId);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
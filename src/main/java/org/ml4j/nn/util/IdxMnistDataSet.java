@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads MNIST/EMNIST data in the original IDX ubyte format ( eg. train-images-idx3-ubyte
+ * and train-labels-idx1-ubyte ), memory-mapping the files rather than parsing them.
+ *
+ * Row ranges are exposed as views sharing the mapped files, and pixel vectors are
+ * produced directly from the mapped bytes, either binarized (as for the csv extractors)
+ * or as grayscale values in the range 0.0 to 1.0.  Files must be uncompressed.
+ *
+ * Label vectors have one element per class - 10 for MNIST digits, or the class count of the
+ * EMNIST split, eg. 47 for EMNIST Balanced.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class IdxMnistDataSet {
+
+	private static final int IMAGES_MAGIC_NUMBER = 0x00000803;
+	private static final int LABELS_MAGIC_NUMBER = 0x00000801;
+	private static final int IMAGES_HEADER_LENGTH = 16;
+	private static final int LABELS_HEADER_LENGTH = 8;
+	private static final int DIGIT_CLASS_COUNT = 10;
+
+	private ByteBuffer images;
+	private ByteBuffer labels;
+	private int rows;
+	private int columns;
+	private int classCount;
+	private int startRow;
+	private int endRow;
+
+	private IdxMnistDataSet(ByteBuffer images, ByteBuffer labels, int rows, int columns, int classCount,
+			int startRow, int endRow) {
+		this.images = images;
+		this.labels = labels;
+		this.rows = rows;
+		this.columns = columns;
+		this.classCount = classCount;
+		this.startRow = startRow;
+		this.endRow = endRow;
+	}
+
+	/**
+	 * Memory-maps an IDX images file and optional labels file of the 10 MNIST digits
+	 *
+	 * @param imagesFile The idx3-ubyte images file
+	 * @param labelsFile The idx1-ubyte labels file, or null for unlabelled data
+	 * @return A data set of all rows in the files
+	 * @throws IOException
+	 */
+	public static IdxMnistDataSet open(File imagesFile, File labelsFile) throws IOException {
+		return open(imagesFile, labelsFile, DIGIT_CLASS_COUNT);
+	}
+
+	/**
+	 * Memory-maps an IDX images file and optional labels file
+	 *
+	 * @param imagesFile The idx3-ubyte images file
+	 * @param labelsFile The idx1-ubyte labels file, or null for unlabelled data
+	 * @param classCount The number of classes, eg. 10 for MNIST or 47 for EMNIST Balanced - every label must be less than it
+	 * @return A data set of all rows in the files
+	 * @throws IOException If the files aren't IDX files of matching lengths, or a label is out of range
+	 */
+	public static IdxMnistDataSet open(File imagesFile, File labelsFile, int classCount) throws IOException {
+		if (classCount < 1 || classCount > 256) {
+			throw new IllegalArgumentException("Class count must be between 1 and 256");
+		}
+		ByteBuffer images = map(imagesFile);
+		if (images.getInt(0) != IMAGES_MAGIC_NUMBER) {
+			throw new IOException("Not an IDX images file:" + imagesFile);
+		}
+		int count = images.getInt(4);
+		int rows = images.getInt(8);
+		int columns = images.getInt(12);
+		if (images.capacity() < IMAGES_HEADER_LENGTH + (long) count * rows * columns) {
+			throw new IOException("Truncated IDX images file:" + imagesFile);
+		}
+		ByteBuffer labels = null;
+		if (labelsFile != null) {
+			labels = map(labelsFile);
+			if (labels.getInt(0) != LABELS_MAGIC_NUMBER) {
+				throw new IOException("Not an IDX labels file:" + labelsFile);
+			}
+			if (labels.getInt(4) != count || labels.capacity() < LABELS_HEADER_LENGTH + count) {
+				throw new IOException("Labels file does not match images file:" + labelsFile);
+			}
+			for (int row = 0; row < count; row++) {
+				int label = labels.get(LABELS_HEADER_LENGTH + row) & 0xFF;
+				if (label >= classCount) {
+					throw new IOException("Label " + label + " of row " + row + " is out of range for " + classCount
+							+ " classes - open with the class count of the data set, eg. 47 for EMNIST Balanced:"
+							+ labelsFile);
+				}
+			}
+		}
+		return new IdxMnistDataSet(images, labels, rows, columns, classCount, 0, count);
+	}
+
+	/**
+	 * Memory-maps an IDX images file and optional labels file of the 10 MNIST digits on the classpath -
+	 * they must be files rather than jar entries, to be mapped
+	 *
+	 * @param classLoader The class loader to find the files with
+	 * @param imagesResourceName The name of the images file, eg. train-images-idx3-ubyte
+	 * @param labelsResourceName The name of the labels file, eg. train-labels-idx1-ubyte, or null for unlabelled data
+	 * @return A data set of all rows in the files
+	 * @throws IOException
+	 */
+	public static IdxMnistDataSet fromClasspath(ClassLoader classLoader, String imagesResourceName,
+			String labelsResourceName) throws IOException {
+		return open(getResourceFile(classLoader, imagesResourceName), labelsResourceName == null ? null
+				: getResourceFile(classLoader, labelsResourceName));
+	}
+
+	private static File getResourceFile(ClassLoader classLoader, String resourceName) throws IOException {
+		URL resource = classLoader.getResource(resourceName);
+		if (resource == null) {
+			throw new FileNotFoundException("Unable to find resource on classpath:" + resourceName);
+		}
+		if (!"file".equals(resource.getProtocol())) {
+			throw new IOException("IDX files must be on the file system to be memory-mapped:" + resource);
+		}
+		try {
+			return new File(resource.toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid resource location:" + resource, e);
+		}
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			// The mapping remains valid after the channel is closed
+			return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Returns a view of a range of rows of this data set, without copying
+	 *
+	 * @param fromRow The first row of the view, relative to this data set (inclusive)
+	 * @param toRow The last row of the view, relative to this data set (exclusive)
+	 * @return The view
+	 */
+	public IdxMnistDataSet view(int fromRow, int toRow) {
+		if (fromRow < 0 || toRow > getRowCount() || fromRow > toRow) {
+			throw new IndexOutOfBoundsException("Invalid row range " + fromRow + "-" + toRow + " of "
+					+ getRowCount());
+		}
+		return new IdxMnistDataSet(images, labels, rows, columns, classCount, startRow + fromRow, startRow + toRow);
+	}
+
+	public int getRowCount() {
+		return endRow - startRow;
+	}
+
+	public int getFeatureCount() {
+		return rows * columns;
+	}
+
+	public int getImageWidth() {
+		return columns;
+	}
+
+	public int getImageHeight() {
+		return rows;
+	}
+
+	/**
+	 *
+	 * @return The length of each label vector
+	 */
+	public int getClassCount() {
+		return classCount;
+	}
+
+	public boolean isLabelled() {
+		return labels != null;
+	}
+
+	/**
+	 *
+	 * @return The row id of the first row of this view within the underlying files
+	 */
+	public long getFirstRowId() {
+		return startRow;
+	}
+
+	/**
+	 * Writes the pixel vector of a row into a target array
+	 *
+	 * @param row The row, relative to this view
+	 * @param target The array to write the features into
+	 * @param binarize Whether to map non-zero pixels to 1, or to scale pixels to grayscale values
+	 */
+	public void readFeatures(int row, double[] target, boolean binarize) {
+		int featureCount = getFeatureCount();
+		int offset = IMAGES_HEADER_LENGTH + (startRow + checkRow(row)) * featureCount;
+		if (binarize) {
+			for (int i = 0; i < featureCount; i++) {
+				target[i] = images.get(offset + i) == 0 ? 0 : 1;
+			}
+		} else {
+			for (int i = 0; i < featureCount; i++) {
+				target[i] = (images.get(offset + i) & 0xFF) / 255d;
+			}
+		}
+	}
+
+	public double[] getFeatures(int row, boolean binarize) {
+		double[] features = new double[getFeatureCount()];
+		readFeatures(row, features, binarize);
+		return features;
+	}
+
+	/**
+	 *
+	 * @param row The row, relative to this view
+	 * @return The label of the row, less than the class count
+	 */
+	public int getLabel(int row) {
+		if (labels == null) {
+			throw new IllegalStateException("Data set is unlabelled");
+		}
+		return labels.get(LABELS_HEADER_LENGTH + startRow + checkRow(row)) & 0xFF;
+	}
+
+	/**
+	 * Creates a double[][] matrix of the features of this view, in the format returned by
+	 * DoubleArrayMatrixLoader with PixelFeaturesMatrixCsvDataExtractor
+	 */
+	public double[][] getDataMatrix(boolean binarize) {
+		double[][] data = new double[getRowCount()][];
+		for (int row = 0; row < data.length; row++) {
+			data[row] = getFeatures(row, binarize);
+		}
+		return data;
+	}
+
+	/**
+	 * Creates a double[][] matrix of the multiclass label vectors of this view, one element per
+	 * class - for MNIST, in the format returned by DoubleArrayMatrixLoader with
+	 * SingleDigitLabelsMatrixCsvDataExtractor
+	 */
+	public double[][] getLabelsMatrix() {
+		double[][] labelVectors = new double[getRowCount()][classCount];
+		for (int row = 0; row < labelVectors.length; row++) {
+			labelVectors[row][getLabel(row)] = 1;
+		}
+		return labelVectors;
+	}
+
+	/**
+	 * Creates a source of batches over the rows of this view
+	 *
+	 * @param binarize Whether to binarize the pixel vectors
+	 */
+	public MnistDataBatchSource createBatchSource(final boolean binarize) {
+		return new MnistDataBatchSource() {
+
+			private int nextRow;
+
+			@Override
+			public MnistDataBatch nextBatch(int maxBatchSize) {
+				if (nextRow >= getRowCount()) {
+					return null;
+				}
+				IdxMnistDataSet batchView = view(nextRow, Math.min(getRowCount(), nextRow + maxBatchSize));
+				nextRow += batchView.getRowCount();
+				return new MnistDataBatch(batchView.getDataMatrix(binarize), batchView.isLabelled() ? batchView
+						.getLabelsMatrix() : null, batchView.getFirstRowId());
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= getRowCount()) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + getRowCount());
+		}
+		return row;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+/**
+ * A contiguous batch of MNIST rows, with optional multiclass label vectors.
+ *
+ * The first row id identifies the position of the first row in the
+ * underlying data set, so that results can be traced back to source rows.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MnistDataBatch {
+
+	private double[][] data;
+	private double[][] labels;
+	private long firstRowId;
+
+	/**
+	 *
+	 * @param data The pixel vectors of the batch
+	 * @param labels The multiclass label vectors of the batch, or null if the batch is unlabelled
+	 * @param firstRowId The id of the first row of the batch within the underlying data set
+	 */
+	public MnistDataBatch(double[][] data, double[][] labels, long firstRowId) {
+		if (labels != null && labels.length != data.length) {
+			throw new IllegalArgumentException("Data and labels must have the same number of rows");
+		}
+		this.data = data;
+		this.labels = labels;
+		this.firstRowId = firstRowId;
+	}
+
+	public double[][] getData() {
+		return data;
+	}
+
+	public double[][] getLabels() {
+		return labels;
+	}
+
+	public boolean isLabelled() {
+		return labels != null;
+	}
+
+	public long getFirstRowId() {
+		return firstRowId;
+	}
+
+	public int size() {
+		return data.length;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequential source of MNIST data batches, allowing data sets which are too large
+ * to be held in memory as a single double[][] to be processed batch by batch
+ *
+ * @author Michael Lavelle
+ *
+ */
+public interface MnistDataBatchSource extends Closeable {
+
+	/**
+	 *
+	 * @param maxBatchSize The maximum number of rows to return
+	 * @return The next batch of rows, or null if the source is exhausted
+	 * @throws IOException
+	 */
+	public MnistDataBatch nextBatch(int maxBatchSize) throws IOException;
+
+}
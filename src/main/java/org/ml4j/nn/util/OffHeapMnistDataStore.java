@@ -0,0 +1,458 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores MNIST rows outside the Java heap, in direct or memory-mapped ByteBuffers, so that
+ * large data sets can be held in a small heap without one object per row for the garbage
+ * collector to scan.
+ *
+ * The store is columnar - pixels and labels are held in separate column buffers, and the
+ * pixels of each row are a fixed-width record, either packed one bit per pixel (for the
+ * binarized csv data, 98 bytes per 28 * 28 row) or one byte per pixel (for grayscale data).
+ * Pixel buffers are split into segments of at most 1GB, so the store is not limited to 2GB.
+ *
+ * Rows are appended by a single loader thread, and may then be read concurrently - either
+ * through reusable RowViews, or as on-heap double[][] batches for training.  The off-heap
+ * memory is released by close, after which the store can no longer be used.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class OffHeapMnistDataStore implements Closeable {
+
+	/**
+	 * How pixel values are stored
+	 */
+	public enum Encoding {
+		/**
+		 * One bit per pixel - non-zero pixels are stored as 1
+		 */
+		BINARY,
+
+		/**
+		 * One byte per pixel - pixels in the range 0.0 to 1.0 are stored as 256 gray levels
+		 */
+		GRAYSCALE
+	}
+
+	private static final int FEATURE_COUNT = 28 * 28;
+	private static final int LABEL_COUNT = 10;
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	private Encoding encoding;
+	private int capacity;
+	private int rowBytes;
+	private int rowsPerSegment;
+	private List<ByteBuffer> pixelSegments;
+	private ByteBuffer labels;
+	private RandomAccessFile mappedFile;
+	private File file;
+	private volatile int rowCount;
+	private volatile boolean closed;
+
+	private OffHeapMnistDataStore(Encoding encoding, int capacity) {
+		this.encoding = encoding;
+		this.capacity = capacity;
+		this.rowBytes = encoding == Encoding.BINARY ? (FEATURE_COUNT + 7) / 8 : FEATURE_COUNT;
+		this.rowsPerSegment = (int) Math.min(capacity, MAX_SEGMENT_BYTES / rowBytes);
+		this.pixelSegments = new ArrayList<ByteBuffer>();
+	}
+
+	/**
+	 * Creates a store in direct ByteBuffers
+	 *
+	 * @param capacity The maximum number of rows
+	 * @param encoding How pixel values are stored
+	 * @param labelled Whether rows have labels
+	 * @return The store
+	 */
+	public static OffHeapMnistDataStore allocateDirect(int capacity, Encoding encoding, boolean labelled) {
+		OffHeapMnistDataStore store = new OffHeapMnistDataStore(encoding, capacity);
+		for (int firstRow = 0; firstRow < capacity; firstRow += store.rowsPerSegment) {
+			int segmentRows = Math.min(store.rowsPerSegment, capacity - firstRow);
+			store.pixelSegments.add(ByteBuffer.allocateDirect(segmentRows * store.rowBytes));
+		}
+		if (labelled) {
+			store.labels = ByteBuffer.allocateDirect(capacity);
+		}
+		return store;
+	}
+
+	/**
+	 * Creates a store in a memory-mapped file, for data sets larger than physical memory.
+	 * The file is deleted when the store is closed.
+	 *
+	 * @param file The file to create
+	 * @param capacity The maximum number of rows
+	 * @param encoding How pixel values are stored
+	 * @param labelled Whether rows have labels
+	 * @return The store
+	 * @throws IOException
+	 */
+	public static OffHeapMnistDataStore allocateMapped(File file, int capacity, Encoding encoding, boolean labelled)
+			throws IOException {
+		OffHeapMnistDataStore store = new OffHeapMnistDataStore(encoding, capacity);
+		long pixelBytes = (long) capacity * store.rowBytes;
+		store.file = file;
+		store.mappedFile = new RandomAccessFile(file, "rw");
+		try {
+			store.mappedFile.setLength(pixelBytes + (labelled ? capacity : 0));
+			FileChannel channel = store.mappedFile.getChannel();
+			for (int firstRow = 0; firstRow < capacity; firstRow += store.rowsPerSegment) {
+				int segmentRows = Math.min(store.rowsPerSegment, capacity - firstRow);
+				store.pixelSegments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) firstRow * store.rowBytes,
+						(long) segmentRows * store.rowBytes));
+			}
+			if (labelled) {
+				store.labels = channel.map(FileChannel.MapMode.READ_WRITE, pixelBytes, capacity);
+			}
+		} catch (IOException e) {
+			store.close();
+			throw e;
+		}
+		return store;
+	}
+
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getFeatureCount() {
+		return FEATURE_COUNT;
+	}
+
+	public boolean isLabelled() {
+		return labels != null;
+	}
+
+	/**
+	 *
+	 * @return The number of bytes of off-heap memory used by the store
+	 */
+	public long getOffHeapBytes() {
+		return (long) capacity * rowBytes + (labels == null ? 0 : capacity);
+	}
+
+	/**
+	 * Appends a row.  Only one thread may append at a time.
+	 *
+	 * @param features The 28 * 28 pixel vector
+	 * @param label The digit, or -1 if the store is unlabelled
+	 * @return The index of the row
+	 */
+	public int append(double[] features, int label) {
+		checkOpen();
+		if (rowCount == capacity) {
+			throw new IllegalStateException("Store is full - capacity " + capacity + " rows");
+		}
+		if ((label >= 0) != isLabelled()) {
+			throw new IllegalArgumentException(isLabelled() ? "A label is required" : "Store is unlabelled");
+		}
+		int row = rowCount;
+		ByteBuffer segment = pixelSegments.get(row / rowsPerSegment);
+		int offset = (row % rowsPerSegment) * rowBytes;
+		if (encoding == Encoding.BINARY) {
+			for (int b = 0; b < rowBytes; b++) {
+				int packed = 0;
+				for (int bit = 0; bit < 8; bit++) {
+					int i = b * 8 + bit;
+					if (i < FEATURE_COUNT && features[i] != 0) {
+						packed |= 0x80 >>> bit;
+					}
+				}
+				segment.put(offset + b, (byte) packed);
+			}
+		} else {
+			for (int i = 0; i < FEATURE_COUNT; i++) {
+				segment.put(offset + i, (byte) Math.round(Math.max(0, Math.min(1, features[i])) * 255));
+			}
+		}
+		if (labels != null) {
+			labels.put(row, (byte) label);
+		}
+		// Publishes the row to reading threads
+		rowCount = row + 1;
+		return row;
+	}
+
+	/**
+	 * Appends every row of a batch
+	 *
+	 * @param batch A batch, labelled if and only if the store is labelled
+	 */
+	public void append(MnistDataBatch batch) {
+		double[][] data = batch.getData();
+		double[][] batchLabels = batch.getLabels();
+		for (int row = 0; row < data.length; row++) {
+			append(data[row], batchLabels == null ? -1 : getArgMaxIndex(batchLabels[row]));
+		}
+	}
+
+	/**
+	 * Appends every row from a source, a batch at a time, so that only one batch is on the
+	 * heap at once.  The source is not closed.
+	 *
+	 * @param source The source of rows
+	 * @param batchSize The maximum number of rows to read from the source at a time
+	 * @return The number of rows appended
+	 * @throws IOException
+	 */
+	public int fill(MnistDataBatchSource source, int batchSize) throws IOException {
+		int appended = 0;
+		MnistDataBatch batch;
+		while ((batch = source.nextBatch(batchSize)) != null) {
+			append(batch);
+			appended += batch.size();
+		}
+		return appended;
+	}
+
+	/**
+	 * Writes the pixel vector of a row into a target array.  Safe to call from many threads.
+	 *
+	 * @param row The row
+	 * @param target The array to write the 28 * 28 features into
+	 */
+	public void readFeatures(int row, double[] target) {
+		checkRow(row);
+		ByteBuffer segment = pixelSegments.get(row / rowsPerSegment);
+		int offset = (row % rowsPerSegment) * rowBytes;
+		if (encoding == Encoding.BINARY) {
+			for (int b = 0; b < rowBytes; b++) {
+				int packed = segment.get(offset + b);
+				int first = b * 8;
+				for (int bit = 0; bit < 8 && first + bit < FEATURE_COUNT; bit++) {
+					target[first + bit] = (packed & (0x80 >>> bit)) == 0 ? 0 : 1;
+				}
+			}
+		} else {
+			for (int i = 0; i < FEATURE_COUNT; i++) {
+				target[i] = (segment.get(offset + i) & 0xFF) / 255d;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param row The row
+	 * @return The digit label of the row
+	 */
+	public int getLabel(int row) {
+		checkRow(row);
+		if (labels == null) {
+			throw new IllegalStateException("Store is unlabelled");
+		}
+		return labels.get(row);
+	}
+
+	/**
+	 *
+	 * @return A new view, which can be moved from row to row without allocating
+	 */
+	public RowView createRowView() {
+		return new RowView();
+	}
+
+	/**
+	 * Copies a range of rows onto the heap, in the format returned by DoubleArrayMatrixLoader
+	 * with PixelFeaturesMatrixCsvDataExtractor
+	 *
+	 * @param fromRow The first row (inclusive)
+	 * @param toRow The last row (exclusive)
+	 */
+	public double[][] getDataMatrix(int fromRow, int toRow) {
+		double[][] data = new double[toRow - fromRow][FEATURE_COUNT];
+		for (int row = fromRow; row < toRow; row++) {
+			readFeatures(row, data[row - fromRow]);
+		}
+		return data;
+	}
+
+	/**
+	 * Copies the labels of a range of rows onto the heap, in the format returned by
+	 * DoubleArrayMatrixLoader with SingleDigitLabelsMatrixCsvDataExtractor
+	 *
+	 * @param fromRow The first row (inclusive)
+	 * @param toRow The last row (exclusive)
+	 */
+	public double[][] getLabelsMatrix(int fromRow, int toRow) {
+		double[][] labelVectors = new double[toRow - fromRow][LABEL_COUNT];
+		for (int row = fromRow; row < toRow; row++) {
+			labelVectors[row - fromRow][getLabel(row)] = 1;
+		}
+		return labelVectors;
+	}
+
+	/**
+	 * Creates a source of on-heap batches over a range of rows.  Each source reads
+	 * independently, so several sources may be read concurrently, eg. for several epochs
+	 * or several trainers.
+	 *
+	 * @param fromRow The first row (inclusive)
+	 * @param toRow The last row (exclusive)
+	 * @param firstRowId The row id to assign to fromRow
+	 */
+	public MnistDataBatchSource createBatchSource(final int fromRow, final int toRow, final long firstRowId) {
+		if (fromRow < 0 || toRow > rowCount || fromRow > toRow) {
+			throw new IndexOutOfBoundsException("Invalid row range " + fromRow + "-" + toRow + " of " + rowCount);
+		}
+		return new MnistDataBatchSource() {
+
+			private int nextRow = fromRow;
+
+			@Override
+			public MnistDataBatch nextBatch(int maxBatchSize) {
+				if (nextRow >= toRow) {
+					return null;
+				}
+				int endRow = Math.min(toRow, nextRow + maxBatchSize);
+				MnistDataBatch batch = new MnistDataBatch(getDataMatrix(nextRow, endRow), isLabelled() ? getLabelsMatrix(
+						nextRow, endRow) : null, firstRowId + nextRow - fromRow);
+				nextRow = endRow;
+				return batch;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Releases the off-heap memory, and deletes the file of a mapped store.  No other thread
+	 * may be reading from the store when it is closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (ByteBuffer segment : pixelSegments) {
+			release(segment);
+		}
+		pixelSegments.clear();
+		if (labels != null) {
+			release(labels);
+		}
+		if (mappedFile != null) {
+			mappedFile.close();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Frees a direct or mapped buffer immediately where the JVM allows it, rather than when
+	 * the buffer is garbage collected
+	 */
+	private static void release(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// Not supported by this JVM - the memory is freed when the buffer is collected
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Store is closed");
+		}
+	}
+
+	private void checkRow(int row) {
+		checkOpen();
+		if (row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+		}
+	}
+
+	private static int getArgMaxIndex(double[] values) {
+		int argMax = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[argMax]) {
+				argMax = i;
+			}
+		}
+		return argMax;
+	}
+
+	/**
+	 * A reusable view of one row of the store.  Each view has its own features array, so
+	 * each reading thread should use its own view.
+	 */
+	public class RowView {
+
+		private int row = -1;
+		private double[] features = new double[FEATURE_COUNT];
+
+		/**
+		 * Moves the view to a row, decoding its features into the view's array
+		 *
+		 * @param row The row
+		 * @return This view
+		 */
+		public RowView moveTo(int row) {
+			readFeatures(row, features);
+			this.row = row;
+			return this;
+		}
+
+		public int getRow() {
+			return row;
+		}
+
+		/**
+		 *
+		 * @return The features of the current row - the array is reused by the next move
+		 */
+		public double[] getFeatures() {
+			return features;
+		}
+
+		public int getLabel() {
+			return OffHeapMnistDataStore.this.getLabel(row);
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads rows of an MNIST csv file on several threads, scanning digits directly from the
+ * bytes of the file - no String or String[] is created for any line.
+ *
+ * The file is first indexed by splitting it into byte ranges which are scanned for line
+ * breaks in parallel.  The selected lines are then split into contiguous runs, each a byte
+ * range aligned to line breaks, and each run is parsed on its own thread straight into its
+ * rows of the result, so row order is preserved.
+ *
+ * Lines are numbered as for DoubleArrayMatrixLoader.loadDoubleMatrixFromCsv - line 0 is the
+ * header, the start line is inclusive and the end line is exclusive.  Lines may end with LF or
+ * CRLF, the last line need not end with a line break, and trailing commas are ignored.
+ * Pixel vectors are binarized as by PixelFeaturesMatrixCsvDataExtractor (or
+ * KaggleTestSetPixelFeaturesMatrixCsvDataExtractor for unlabelled files), and labels are mapped
+ * to multiclass label vectors as by SingleDigitLabelsMatrixCsvDataExtractor.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ParallelCsvMnistDataLoader {
+
+	private static final int LABEL_COUNT = 10;
+
+	// Split each load into more runs than threads, so that threads finishing early can help out
+	private static final int RUNS_PER_THREAD = 4;
+
+	private ByteBuffer csv;
+	private boolean labelled;
+	private int threadCount;
+	private int[] lineStarts;
+
+	/**
+	 *
+	 * @param csv The bytes of the csv file - the buffer is only read, using absolute positions
+	 * @param labelled Whether each line starts with a label
+	 * @param threadCount The number of threads to index and parse with
+	 */
+	public ParallelCsvMnistDataLoader(ByteBuffer csv, boolean labelled, int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("Thread count must be positive");
+		}
+		this.csv = csv;
+		this.labelled = labelled;
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Creates a loader memory-mapping a csv file
+	 */
+	public static ParallelCsvMnistDataLoader fromFile(File file, boolean labelled, int threadCount)
+			throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Csv files larger than 2GB are not supported:" + file);
+			}
+			// The mapping remains valid once the file is closed
+			return new ParallelCsvMnistDataLoader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+					labelled, threadCount);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Creates a loader reading a csv file from the classpath.  Files on the filesystem are
+	 * memory-mapped - other resources, such as jar entries, are read into memory.
+	 */
+	public static ParallelCsvMnistDataLoader fromClasspath(ClassLoader classLoader, String resourceName,
+			boolean labelled, int threadCount) throws IOException {
+		URL resource = classLoader.getResource(resourceName);
+		if (resource == null) {
+			throw new FileNotFoundException("Unable to find resource on classpath:" + resourceName);
+		}
+		if ("file".equals(resource.getProtocol())) {
+			try {
+				return fromFile(new File(resource.toURI()), labelled, threadCount);
+			} catch (URISyntaxException e) {
+				throw new IOException("Invalid resource location:" + resource, e);
+			}
+		}
+		InputStream inputStream = resource.openStream();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return new ParallelCsvMnistDataLoader(ByteBuffer.wrap(bytes.toByteArray()), labelled, threadCount);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of lines in the file, including the header
+	 */
+	public int getLineCount() throws IOException {
+		return getLineStarts().length;
+	}
+
+	/**
+	 * Loads a range of lines.  If the file ends before the end line, the rows up to the end
+	 * of the file are returned.
+	 *
+	 * @param startLine The first line to load (inclusive)
+	 * @param endLine The last line to load (exclusive)
+	 * @return The pixel vectors and, for labelled files, label vectors of the lines - the
+	 * first row id is the start line
+	 * @throws IOException if any selected line is malformed
+	 */
+	public MnistDataBatch load(int startLine, int endLine) throws IOException {
+		final int[] starts = getLineStarts();
+		final int firstLine = Math.max(0, startLine);
+		int lastLine = Math.min(starts.length, endLine);
+		int rowCount = Math.max(0, lastLine - firstLine);
+		final double[][] data = new double[rowCount][];
+		final double[][] labels = labelled ? new double[rowCount][] : null;
+		if (rowCount == 0) {
+			return new MnistDataBatch(data, labels, firstLine);
+		}
+
+		// Every selected line must have the same number of values as the first
+		int valueCount = 1;
+		for (int i = starts[firstLine]; i < getLineEnd(starts, firstLine); i++) {
+			if (csv.get(i) == ',') {
+				valueCount++;
+			}
+		}
+		final int featureCount = labelled ? valueCount - 1 : valueCount;
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int runCount = Math.min(rowCount, threadCount * RUNS_PER_THREAD);
+			for (int run = 0; run < runCount; run++) {
+				final int runStart = firstLine + (int) ((long) rowCount * run / runCount);
+				final int runEnd = firstLine + (int) ((long) rowCount * (run + 1) / runCount);
+				futures.add(executorService.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws IOException {
+						for (int line = runStart; line < runEnd; line++) {
+							int row = line - firstLine;
+							data[row] = new double[featureCount];
+							if (labels != null) {
+								labels[row] = new double[LABEL_COUNT];
+							}
+							parseLine(line, starts[line], getLineEnd(starts, line), data[row],
+									labels == null ? null : labels[row]);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading csv", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to load csv", e.getCause());
+		} finally {
+			executorService.shutdownNow();
+		}
+		return new MnistDataBatch(data, labels, firstLine);
+	}
+
+	/**
+	 * Parses a line of comma separated non-negative numbers into a binarized pixel vector,
+	 * preceded by a single digit label for labelled files
+	 */
+	private void parseLine(int line, int start, int end, double[] features, double[] label) throws IOException {
+		int position = start;
+		if (label != null) {
+			int labelIndex = 0;
+			int digits = 0;
+			while (position < end && csv.get(position) != ',') {
+				int digit = csv.get(position++) - '0';
+				if (digit < 0 || digit > 9) {
+					throw malformed(line, "invalid label");
+				}
+				labelIndex = labelIndex * 10 + digit;
+				if (labelIndex >= LABEL_COUNT) {
+					throw malformed(line, "invalid label");
+				}
+				digits++;
+			}
+			if (digits == 0) {
+				throw malformed(line, "invalid label");
+			}
+			label[labelIndex] = 1;
+			position++;
+		}
+		int feature = 0;
+		while (feature < features.length) {
+			if (position > end) {
+				throw malformed(line, "expected " + features.length + " pixel values");
+			}
+			boolean nonZero = false;
+			int characters = 0;
+			while (position < end) {
+				byte character = csv.get(position);
+				if (character == ',') {
+					break;
+				}
+				if (character >= '1' && character <= '9') {
+					nonZero = true;
+				} else if (character != '0' && character != '.') {
+					throw malformed(line, "invalid pixel value");
+				}
+				characters++;
+				position++;
+			}
+			if (characters == 0) {
+				throw malformed(line, "missing pixel value");
+			}
+			features[feature++] = nonZero ? 1 : 0;
+			// Skip the comma
+			position++;
+		}
+		if (position <= end) {
+			throw malformed(line, "expected " + features.length + " pixel values");
+		}
+	}
+
+	private static IOException malformed(int line, String reason) {
+		return new IOException("Malformed csv line " + line + ": " + reason);
+	}
+
+	/**
+	 *
+	 * @return The end of a line, excluding the line break and any trailing commas - which,
+	 * as for String.split, don't separate any further values
+	 */
+	private int getLineEnd(int[] starts, int line) {
+		int end = line + 1 < starts.length ? starts[line + 1] - 1 : csv.limit();
+		if (end > starts[line] && line + 1 == starts.length && csv.get(end - 1) == '\n') {
+			// The last line, ending with a line break
+			end--;
+		}
+		if (end > starts[line] && csv.get(end - 1) == '\r') {
+			end--;
+		}
+		while (end > starts[line] && csv.get(end - 1) == ',') {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * Indexes the start of each line, scanning byte ranges of the file for line breaks in parallel
+	 */
+	private synchronized int[] getLineStarts() throws IOException {
+		if (lineStarts != null) {
+			return lineStarts;
+		}
+		final int length = csv.limit();
+		int rangeCount = Math.max(1, Math.min(threadCount * RUNS_PER_THREAD, length / (1 << 16)));
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+			for (int range = 0; range < rangeCount; range++) {
+				final int rangeStart = (int) ((long) length * range / rangeCount);
+				final int rangeEnd = (int) ((long) length * (range + 1) / rangeCount);
+				futures.add(executorService.submit(new Callable<int[]>() {
+
+					@Override
+					public int[] call() {
+						int[] starts = new int[64];
+						int count = 0;
+						for (int i = rangeStart; i < rangeEnd; i++) {
+							// A line break at the very end of the file does not start another line
+							if (csv.get(i) == '\n' && i + 1 < length) {
+								if (count == starts.length) {
+									int[] grown = new int[starts.length * 2];
+									System.arraycopy(starts, 0, grown, 0, count);
+									starts = grown;
+								}
+								starts[count++] = i + 1;
+							}
+						}
+						int[] rangeStarts = new int[count];
+						System.arraycopy(starts, 0, rangeStarts, 0, count);
+						return rangeStarts;
+					}
+				}));
+			}
+			List<int[]> rangeStarts = new ArrayList<int[]>();
+			int lineCount = length == 0 ? 0 : 1;
+			for (Future<int[]> future : futures) {
+				int[] starts = future.get();
+				rangeStarts.add(starts);
+				lineCount += starts.length;
+			}
+			int[] starts = new int[lineCount];
+			int line = length == 0 ? 0 : 1;
+			for (int[] range : rangeStarts) {
+				System.arraycopy(range, 0, starts, line, range.length);
+				line += range.length;
+			}
+			lineStarts = starts;
+			return lineStarts;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing csv", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to index csv", e.getCause());
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+}
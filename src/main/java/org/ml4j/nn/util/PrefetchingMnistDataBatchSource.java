@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wraps an MnistDataBatchSource, reading, parsing and assembling batches on a
+ * background thread so that the next batch is ready while the current batch is
+ * being processed.
+ *
+ * The number of queued batches is limited by a queue depth (2 for double buffering, 3
+ * for triple buffering) and by a memory budget for the queued pixel and label data.
+ * Stall times are recorded for both sides of the queue - time the consumer spends
+ * waiting indicates that processing is I/O-bound, time the loader spends blocked on a
+ * full queue indicates that processing is compute-bound.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class PrefetchingMnistDataBatchSource implements MnistDataBatchSource {
+
+	private static final int BYTES_PER_VALUE = 8;
+	private static final int BYTES_PER_ROW_OVERHEAD = 32;
+
+	private MnistDataBatchSource delegate;
+	private int batchSize;
+	private int queueDepth;
+	private long memoryBudgetBytes;
+
+	private ReentrantLock lock = new ReentrantLock();
+	private Condition batchAvailable = lock.newCondition();
+	private Condition spaceAvailable = lock.newCondition();
+	private Deque<MnistDataBatch> queue = new ArrayDeque<MnistDataBatch>();
+	private long queuedBytes;
+	private boolean loaderFinished;
+	private boolean closed;
+	private IOException loaderException;
+	private Thread loaderThread;
+
+	private long consumerStallNanos;
+	private long loaderBlockedNanos;
+	private long loadNanos;
+	private long batchesDelivered;
+	private long rowsDelivered;
+
+	/**
+	 *
+	 * @param delegate The source to read batches from on the loader thread
+	 * @param batchSize The number of rows to request for each batch
+	 * @param queueDepth The maximum number of batches to load ahead
+	 * @param memoryBudgetBytes The maximum estimated size of the queued batches - at least one batch is always permitted
+	 */
+	public PrefetchingMnistDataBatchSource(MnistDataBatchSource delegate, int batchSize, int queueDepth,
+			long memoryBudgetBytes) {
+		if (batchSize < 1 || queueDepth < 1) {
+			throw new IllegalArgumentException("Batch size and queue depth must be positive");
+		}
+		this.delegate = delegate;
+		this.batchSize = batchSize;
+		this.queueDepth = queueDepth;
+		this.memoryBudgetBytes = memoryBudgetBytes;
+		this.loaderThread = new Thread(new Loader(), "mnist-prefetch-loader");
+		this.loaderThread.setDaemon(true);
+		this.loaderThread.start();
+	}
+
+	/**
+	 * Estimates the heap occupied by a batch's pixel and label data
+	 */
+	public static long getEstimatedSizeInBytes(MnistDataBatch batch) {
+		long bytes = 0;
+		for (int row = 0; row < batch.size(); row++) {
+			bytes += BYTES_PER_ROW_OVERHEAD + (long) batch.getData()[row].length * BYTES_PER_VALUE;
+			if (batch.isLabelled()) {
+				bytes += BYTES_PER_ROW_OVERHEAD + (long) batch.getLabels()[row].length * BYTES_PER_VALUE;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the next prefetched batch.  The maximum batch size must be at least the
+	 * batch size this source was configured with, as batches are assembled in advance.
+	 */
+	@Override
+	public MnistDataBatch nextBatch(int maxBatchSize) throws IOException {
+		if (maxBatchSize < batchSize) {
+			throw new IllegalArgumentException("Batches of " + batchSize + " rows are prefetched - unable to return "
+					+ maxBatchSize);
+		}
+		lock.lock();
+		try {
+			long waitStart = System.nanoTime();
+			while (queue.isEmpty() && !loaderFinished && !closed) {
+				batchAvailable.await();
+			}
+			consumerStallNanos += System.nanoTime() - waitStart;
+			// Batches loaded before a failure are still delivered - the failure is thrown once they have been
+			MnistDataBatch batch = queue.pollFirst();
+			if (batch == null) {
+				if (loaderException != null) {
+					throw loaderException;
+				}
+				return null;
+			}
+			queuedBytes -= getEstimatedSizeInBytes(batch);
+			batchesDelivered++;
+			rowsDelivered += batch.size();
+			spaceAvailable.signalAll();
+			return batch;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for prefetched batch", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			closed = true;
+			queue.clear();
+			spaceAvailable.signalAll();
+			batchAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		loaderThread.interrupt();
+		try {
+			loaderThread.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		delegate.close();
+	}
+
+	/**
+	 *
+	 * @return The total time the consumer has spent waiting for the loader
+	 */
+	public long getConsumerStallNanos() {
+		lock.lock();
+		try {
+			return consumerStallNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return The total time the loader has spent waiting for queue space or memory budget
+	 */
+	public long getLoaderBlockedNanos() {
+		lock.lock();
+		try {
+			return loaderBlockedNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return The total time the loader has spent reading and parsing batches
+	 */
+	public long getLoadNanos() {
+		lock.lock();
+		try {
+			return loadNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getBatchesDelivered() {
+		lock.lock();
+		try {
+			return batchesDelivered;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getRowsDelivered() {
+		lock.lock();
+		try {
+			return rowsDelivered;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return Whether the consumer has spent more time waiting for batches than the
+	 *         loader has spent waiting for the consumer
+	 */
+	public boolean isIoBound() {
+		lock.lock();
+		try {
+			return consumerStallNanos > loaderBlockedNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "Batches:" + batchesDelivered + ",Rows:" + rowsDelivered + ",Load ms:"
+					+ TimeUnit.NANOSECONDS.toMillis(loadNanos) + ",Consumer stall ms:"
+					+ TimeUnit.NANOSECONDS.toMillis(consumerStallNanos) + ",Loader blocked ms:"
+					+ TimeUnit.NANOSECONDS.toMillis(loaderBlockedNanos) + ",I/O bound:"
+					+ (consumerStallNanos > loaderBlockedNanos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private class Loader implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					long loadStart = System.nanoTime();
+					MnistDataBatch batch = delegate.nextBatch(batchSize);
+					long loadEnd = System.nanoTime();
+					lock.lock();
+					try {
+						loadNanos += loadEnd - loadStart;
+						if (batch == null) {
+							return;
+						}
+						long batchBytes = getEstimatedSizeInBytes(batch);
+						long waitStart = System.nanoTime();
+						while (!closed && (queue.size() >= queueDepth
+								|| (!queue.isEmpty() && queuedBytes + batchBytes > memoryBudgetBytes))) {
+							spaceAvailable.await();
+						}
+						loaderBlockedNanos += System.nanoTime() - waitStart;
+						if (closed) {
+							return;
+						}
+						queue.addLast(batch);
+						queuedBytes += batchBytes;
+						batchAvailable.signalAll();
+					} finally {
+						lock.unlock();
+					}
+				}
+			} catch (InterruptedException e) {
+				fail(new IOException("Interrupted loading batch", e));
+			} catch (IOException e) {
+				fail(e);
+			} catch (Throwable t) {
+				// Errors too (eg. OutOfMemoryError) - otherwise the consumer would wait for the next batch forever
+				fail(new IOException("Unable to load batch", t));
+			} finally {
+				lock.lock();
+				try {
+					loaderFinished = true;
+					batchAvailable.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		private void fail(IOException e) {
+			lock.lock();
+			try {
+				// Interrupts from close aren't failures
+				if (!closed) {
+					loaderException = e;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
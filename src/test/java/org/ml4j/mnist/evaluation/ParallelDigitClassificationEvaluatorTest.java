@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.evaluation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.ml4j.DoubleMatrixConfig;
+import org.ml4j.jblas.NoJblasPresentMatrixAdapterStrategy;
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.activationfunctions.SigmoidActivationFunction;
+import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Checks the assumption ParallelDigitClassificationEvaluator relies on - that concurrent calls
+ * to predict on one hypothesis function, under the global DoubleMatrixConfig strategy, give
+ * the same results as sequential calls.
+ *
+ * A small network is trained briefly on random data with the JAMA strategy, so no pre-trained
+ * model, training data or native libraries are required.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ParallelDigitClassificationEvaluatorTest {
+
+	private static final int ROW_COUNT = 500;
+	private static final int THREAD_COUNT = 8;
+
+	private static double[][] data;
+	private static double[][] labels;
+	private static NeuralNetworkHypothesisFunction hypothesisFunction;
+
+	@BeforeClass
+	public static void trainSmallNetwork() {
+		DoubleMatrixConfig.setDoubleMatrixStrategy(new NoJblasPresentMatrixAdapterStrategy());
+
+		Random random = new Random(1);
+		data = new double[ROW_COUNT][28 * 28];
+		labels = new double[ROW_COUNT][10];
+		for (int row = 0; row < ROW_COUNT; row++) {
+			for (int i = 0; i < data[row].length; i++) {
+				data[row][i] = random.nextDouble();
+			}
+			labels[row][random.nextInt(10)] = 1;
+		}
+
+		FeedForwardLayer firstLayer = new FeedForwardLayer(28 * 28, 16, new SigmoidActivationFunction(), true);
+		FeedForwardLayer secondLayer = new FeedForwardLayer(16, 10, new SoftmaxActivationFunction(), true);
+		NeuralNetworkAlgorithm alg = new NeuralNetworkAlgorithm(new FeedForwardNeuralNetwork(firstLayer, secondLayer));
+		hypothesisFunction = alg.getHypothesisFunction(data, labels, new NeuralNetworkAlgorithmTrainingContext(5));
+	}
+
+	@Test
+	public void testConcurrentPredictionsMatchSequentialPredictions() throws Exception {
+		final double[][] expected = hypothesisFunction.predict(data);
+
+		// Every thread predicts every row, in chunks of a different size, so the calls overlap
+		ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+		try {
+			List<Future<double[][]>> futures = new ArrayList<Future<double[][]>>();
+			for (int t = 0; t < THREAD_COUNT; t++) {
+				final int chunkSize = 7 + t * 13;
+				futures.add(executorService.submit(new Callable<double[][]>() {
+
+					@Override
+					public double[][] call() {
+						double[][] predictions = new double[ROW_COUNT][];
+						for (int start = 0; start < ROW_COUNT; start += chunkSize) {
+							int end = Math.min(ROW_COUNT, start + chunkSize);
+							double[][] chunk = new double[end - start][];
+							System.arraycopy(data, start, chunk, 0, chunk.length);
+							System.arraycopy(hypothesisFunction.predict(chunk), 0, predictions, start, chunk.length);
+						}
+						return predictions;
+					}
+				}));
+			}
+			for (Future<double[][]> future : futures) {
+				double[][] actual = future.get();
+				for (int row = 0; row < ROW_COUNT; row++) {
+					assertArrayEquals("Row " + row, expected[row], actual[row], 0);
+				}
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelEvaluationMatchesSequentialEvaluation() {
+		ParallelDigitClassificationEvaluator sequentialEvaluator = new ParallelDigitClassificationEvaluator(
+				hypothesisFunction, 1, ROW_COUNT, ROW_COUNT);
+		final Map<Long, Integer> sequentialMisclassifications = new ConcurrentHashMap<Long, Integer>();
+		sequentialEvaluator.setMisclassificationListener(new RecordingListener(sequentialMisclassifications));
+		DigitClassificationEvaluation sequential = sequentialEvaluator.evaluate(data, labels, 1);
+
+		ParallelDigitClassificationEvaluator parallelEvaluator = new ParallelDigitClassificationEvaluator(
+				hypothesisFunction, THREAD_COUNT, 9, ROW_COUNT);
+		final Map<Long, Integer> parallelMisclassifications = new ConcurrentHashMap<Long, Integer>();
+		parallelEvaluator.setMisclassificationListener(new RecordingListener(parallelMisclassifications));
+		DigitClassificationEvaluation parallel = parallelEvaluator.evaluate(data, labels, 1);
+
+		assertEquals(ROW_COUNT, parallel.getRowCount());
+		for (int actual = 0; actual < 10; actual++) {
+			for (int predicted = 0; predicted < 10; predicted++) {
+				assertEquals("Confusion matrix cell " + actual + "," + predicted, sequential.getConfusionMatrix()
+						.getCount(actual, predicted), parallel.getConfusionMatrix().getCount(actual, predicted));
+			}
+		}
+		assertEquals(sequential.getTopKAccuracy(3), parallel.getTopKAccuracy(3), 0);
+		assertEquals(sequentialMisclassifications, parallelMisclassifications);
+	}
+
+	private static class RecordingListener implements MisclassificationListener {
+
+		private Map<Long, Integer> predictions;
+
+		public RecordingListener(Map<Long, Integer> predictions) {
+			this.predictions = predictions;
+		}
+
+		@Override
+		public void onMisclassified(long rowId, double[] mnistData, int predicted, int actual) {
+			predictions.put(rowId, predicted);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the CSR kernels with dense multiplication on random pruned matrices
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class CsrMatrixTest {
+
+	private static final double DELTA = 1e-12;
+
+	@Test
+	public void testFromDenseKeepsOnlyNonZeroElements() {
+		double[][] dense = new double[][] { { 0, 2, 0 }, { 0, 0, 0 }, { -1, 0, 3 } };
+		CsrMatrix matrix = CsrMatrix.fromDense(dense, 3);
+		assertEquals(3, matrix.getRowCount());
+		assertEquals(3, matrix.getColumnCount());
+		assertEquals(3, matrix.getNonZeroCount());
+		assertEquals(3d / 9, matrix.getDensity(), DELTA);
+
+		double[] output = new double[3];
+		matrix.multiply(new double[] { 1, 10, 100 }, output);
+		assertArrayEquals(new double[] { 20, 0, 299 }, output, DELTA);
+	}
+
+	@Test
+	public void testMatrixVectorMultiplyMatchesDense() {
+		Random random = new Random(1);
+		for (double sparsity : new double[] { 0, 0.5, 0.9, 0.99, 1 }) {
+			double[][] dense = createPrunedMatrix(random, 37, 53, sparsity);
+			CsrMatrix matrix = CsrMatrix.fromDense(dense, 53);
+			for (int trial = 0; trial < 10; trial++) {
+				double[] input = createRandomVector(random, 53);
+				double[] output = new double[37];
+				matrix.multiply(input, output);
+				assertArrayEquals("Sparsity " + sparsity, multiplyDense(dense, input), output, DELTA);
+			}
+		}
+	}
+
+	@Test
+	public void testMatrixMatrixMultiplyMatchesDense() {
+		Random random = new Random(2);
+		// Batch sizes smaller than, equal to and spanning several example blocks, with a partial last block
+		for (int batchSize : new int[] { 1, 63, 64, 65, 200 }) {
+			for (double sparsity : new double[] { 0, 0.75, 0.98 }) {
+				double[][] dense = createPrunedMatrix(random, 30, 100, sparsity);
+				CsrMatrix matrix = CsrMatrix.fromDense(dense, 100);
+				double[][] inputs = new double[batchSize][];
+				for (int i = 0; i < batchSize; i++) {
+					inputs[i] = createRandomVector(random, 100);
+				}
+				double[][] outputs = matrix.multiply(inputs);
+				assertEquals(batchSize, outputs.length);
+				for (int i = 0; i < batchSize; i++) {
+					assertArrayEquals("Batch size " + batchSize + ", sparsity " + sparsity + ", example " + i,
+							multiplyDense(dense, inputs[i]), outputs[i], DELTA);
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInconsistentArraysAreRejected() {
+		new CsrMatrix(2, 2, new int[] { 0, 1, 3 }, new int[] { 0, 1 }, new double[] { 1, 2 });
+	}
+
+	/**
+	 * Creates a random matrix with approximately the given fraction of its elements zeroed
+	 */
+	private static double[][] createPrunedMatrix(Random random, int rowCount, int columnCount, double sparsity) {
+		double[][] matrix = new double[rowCount][columnCount];
+		for (int r = 0; r < rowCount; r++) {
+			for (int c = 0; c < columnCount; c++) {
+				matrix[r][c] = random.nextDouble() < sparsity ? 0 : random.nextGaussian();
+			}
+		}
+		return matrix;
+	}
+
+	private static double[] createRandomVector(Random random, int length) {
+		double[] vector = new double[length];
+		for (int i = 0; i < length; i++) {
+			vector[i] = random.nextGaussian();
+		}
+		return vector;
+	}
+
+	private static double[] multiplyDense(double[][] matrix, double[] input) {
+		double[] output = new double[matrix.length];
+		for (int r = 0; r < matrix.length; r++) {
+			for (int c = 0; c < input.length; c++) {
+				output[r] += matrix[r][c] * input[c];
+			}
+		}
+		return output;
+	}
+}
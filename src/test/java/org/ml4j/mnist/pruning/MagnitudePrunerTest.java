@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.pruning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.nn.FeedForwardLayer;
+import org.ml4j.nn.FeedForwardNeuralNetwork;
+import org.ml4j.nn.activationfunctions.SigmoidActivationFunction;
+import org.ml4j.nn.activationfunctions.SoftmaxActivationFunction;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithm;
+import org.ml4j.nn.algorithms.NeuralNetworkAlgorithmTrainingContext;
+import org.ml4j.nn.algorithms.NeuralNetworkHypothesisFunction;
+
+/**
+ * Checks which weights MagnitudePruner prunes, and that pruned weights stay pruned
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class MagnitudePrunerTest {
+
+	private FeedForwardNeuralNetwork neuralNetwork;
+
+	@Before
+	public void createNetwork() {
+		neuralNetwork = new FeedForwardNeuralNetwork(new FeedForwardLayer(20, 8, new SigmoidActivationFunction(),
+				true), new FeedForwardLayer(8, 4, new SoftmaxActivationFunction(), true));
+		Random random = new Random(1);
+		for (FeedForwardLayerWeights layerWeights : FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork)) {
+			for (double[] row : layerWeights.getWeights()) {
+				for (int c = 0; c < row.length; c++) {
+					row[c] = random.nextGaussian();
+				}
+			}
+			for (int r = 0; r < layerWeights.getBiases().length; r++) {
+				layerWeights.getBiases()[r] = random.nextGaussian();
+			}
+			layerWeights.write();
+		}
+	}
+
+	@Test
+	public void testPruneZeroesSmallestMagnitudeWeightsOfEachLayer() {
+		List<FeedForwardLayerWeights> before = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+
+		MagnitudePruner pruner = new MagnitudePruner(neuralNetwork, new NeuralNetworkAlgorithm(neuralNetwork));
+		pruner.prune(0.5);
+
+		List<FeedForwardLayerWeights> after = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+		for (int l = 0; l < after.size(); l++) {
+			double[][] originalWeights = before.get(l).getWeights();
+			double[][] prunedWeights = after.get(l).getWeights();
+			double largestPruned = 0;
+			double smallestKept = Double.POSITIVE_INFINITY;
+			for (int r = 0; r < prunedWeights.length; r++) {
+				for (int c = 0; c < prunedWeights[r].length; c++) {
+					if (prunedWeights[r][c] == 0) {
+						largestPruned = Math.max(largestPruned, Math.abs(originalWeights[r][c]));
+					} else {
+						assertEquals(originalWeights[r][c], prunedWeights[r][c], 0);
+						smallestKept = Math.min(smallestKept, Math.abs(originalWeights[r][c]));
+					}
+				}
+			}
+			assertEquals("Layer " + l, after.get(l).getWeightCount() / 2, after.get(l).getNonZeroWeightCount());
+			assertTrue("Layer " + l, largestPruned <= smallestKept);
+			assertArrayEquals("Biases aren't pruned", before.get(l).getBiases(), after.get(l).getBiases(), 0);
+		}
+		assertEquals(0.5, pruner.getSparsity(), 1e-12);
+	}
+
+	@Test
+	public void testPrunedWeightsStayPrunedAsSparsityIsRaised() {
+		MagnitudePruner pruner = new MagnitudePruner(neuralNetwork, new NeuralNetworkAlgorithm(neuralNetwork));
+		pruner.prune(0.5);
+		List<boolean[][]> prunedAtHalf = getZeroWeights();
+
+		// Once every weight has the same magnitude, only the masks decide which stay pruned
+		setAllWeights(1);
+		pruner.prune(0.75);
+
+		List<FeedForwardLayerWeights> layers = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+		for (int l = 0; l < layers.size(); l++) {
+			double[][] weights = layers.get(l).getWeights();
+			for (int r = 0; r < weights.length; r++) {
+				for (int c = 0; c < weights[r].length; c++) {
+					if (prunedAtHalf.get(l)[r][c]) {
+						assertEquals(0, weights[r][c], 0);
+					}
+				}
+			}
+			assertEquals("Layer " + l, Math.round(0.25 * layers.get(l).getWeightCount()), layers.get(l)
+					.getNonZeroWeightCount());
+		}
+	}
+
+	@Test
+	public void testFineTuneReappliesMasksAfterEachSlice() {
+		final List<Integer> nonZeroPrunedWeightsAtSliceStart = new ArrayList<Integer>();
+		final List<boolean[][]> pruned = new ArrayList<boolean[][]>();
+
+		// Stands in for training - checks the masks were applied, then moves every weight away from zero
+		NeuralNetworkAlgorithm algorithm = new NeuralNetworkAlgorithm(neuralNetwork) {
+
+			@Override
+			public NeuralNetworkHypothesisFunction getHypothesisFunction(double[][] trainingData,
+					double[][] trainingLabels, NeuralNetworkAlgorithmTrainingContext context) {
+				nonZeroPrunedWeightsAtSliceStart.add(countNonZero(pruned));
+				setAllWeights(1);
+				return new NeuralNetworkHypothesisFunction(neuralNetwork);
+			}
+		};
+		MagnitudePruner pruner = new MagnitudePruner(neuralNetwork, algorithm, 5);
+		pruner.prune(0.5);
+		pruned.addAll(getZeroWeights());
+
+		pruner.fineTune(new double[1][20], new double[1][4], 12, 0);
+
+		// 12 iterations train as slices of 5, 5 and 2
+		assertEquals(3, nonZeroPrunedWeightsAtSliceStart.size());
+		for (int count : nonZeroPrunedWeightsAtSliceStart) {
+			assertEquals(0, count);
+		}
+		assertEquals(0, countNonZero(pruned));
+		assertEquals(0.5, pruner.getSparsity(), 1e-12);
+	}
+
+	private List<boolean[][]> getZeroWeights() {
+		List<boolean[][]> zeroWeights = new ArrayList<boolean[][]>();
+		for (FeedForwardLayerWeights layerWeights : FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork)) {
+			double[][] weights = layerWeights.getWeights();
+			boolean[][] zero = new boolean[weights.length][];
+			for (int r = 0; r < weights.length; r++) {
+				zero[r] = new boolean[weights[r].length];
+				for (int c = 0; c < weights[r].length; c++) {
+					zero[r][c] = weights[r][c] == 0;
+				}
+			}
+			zeroWeights.add(zero);
+		}
+		return zeroWeights;
+	}
+
+	private int countNonZero(List<boolean[][]> positions) {
+		List<FeedForwardLayerWeights> layers = FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork);
+		int nonZero = 0;
+		for (int l = 0; l < layers.size(); l++) {
+			double[][] weights = layers.get(l).getWeights();
+			for (int r = 0; r < weights.length; r++) {
+				for (int c = 0; c < weights[r].length; c++) {
+					if (positions.get(l)[r][c] && weights[r][c] != 0) {
+						nonZero++;
+					}
+				}
+			}
+		}
+		return nonZero;
+	}
+
+	private void setAllWeights(double value) {
+		for (FeedForwardLayerWeights layerWeights : FeedForwardLayerWeights.readFullyConnectedLayers(neuralNetwork)) {
+			for (double[] row : layerWeights.getWeights()) {
+				for (int c = 0; c < row.length; c++) {
+					row[c] = value;
+				}
+			}
+			layerWeights.write();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.mnist.regression;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs DigitClassificationRegressionSuite against the committed baselines as part of mvn test.
+ *
+ * The tests are skipped while the pre-learned model isn't on the classpath, or its prediction
+ * baseline hasn't been committed.  Run with -Dregression.record=true to record the baselines
+ * instead, with -Dregression.host=<host id> to check against another host's performance baseline,
+ * with -Dregression.jBlasAvailable=true to measure with JBlas rather than JAMA, and with
+ * -Dregression.requirePerformanceBaseline=true to fail when there is no performance baseline.
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class DigitClassificationRegressionTest {
+
+	private static RegressionResult result;
+
+	@BeforeClass
+	public static void runSuite() throws IOException {
+		String hostId = System.getProperty("regression.host", PerformanceBaseline.getCurrentHostId());
+		DigitClassificationRegressionSuite suite = new DigitClassificationRegressionSuite(
+				DigitClassificationRegressionSuite.DEFAULT_MODEL_NAME,
+				DigitClassificationRegressionSuite.DEFAULT_BASELINE_DIRECTORY, hostId,
+				Boolean.getBoolean("regression.jBlasAvailable"), 0.25, 3000);
+		boolean record = Boolean.getBoolean("regression.record");
+		String unavailableReason = suite.getUnavailableReason(record);
+		Assume.assumeTrue(unavailableReason, unavailableReason == null);
+		result = suite.run(record, Boolean.getBoolean("regression.requirePerformanceBaseline"));
+	}
+
+	@Test
+	public void testImagePredictionsMatchBaseline() {
+		assertNoFailures(result.getImagePredictionFailures());
+	}
+
+	@Test
+	public void testHeldOutPredictionsMatchBaseline() {
+		Assume.assumeTrue(result.getHeldOutSkippedReason(), result.getHeldOutSkippedReason() == null);
+		assertNoFailures(result.getHeldOutPredictionFailures());
+	}
+
+	@Test
+	public void testPerformanceWithinToleranceOfBaseline() {
+		Assume.assumeTrue(result.getPerformanceSkippedReason(), result.getPerformanceSkippedReason() == null);
+		assertNoFailures(result.getPerformanceFailures());
+	}
+
+	private void assertNoFailures(List<String> failures) {
+		StringBuilder message = new StringBuilder();
+		for (String failure : failures) {
+			message.append('\n').append(failure);
+		}
+		assertTrue(failures.size() + " failures:" + message, failures.isEmpty());
+	}
+}
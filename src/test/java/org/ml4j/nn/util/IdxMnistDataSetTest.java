@@ -0,0 +1,295 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+
+/**
+ * Reads small generated IDX files with IdxMnistDataSet, comparing the pixel and label vectors with
+ * those DoubleArrayMatrixLoader produces from the same rows written as csv
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class IdxMnistDataSetTest {
+
+	private static final int IMAGES_MAGIC_NUMBER = 0x00000803;
+	private static final int LABELS_MAGIC_NUMBER = 0x00000801;
+
+	private static final int ROW_COUNT = 25;
+	private static final int IMAGE_HEIGHT = 4;
+	private static final int IMAGE_WIDTH = 7;
+
+	private static File directory;
+	private static int[][] pixels;
+	private static int[] labels;
+	private static File imagesFile;
+	private static File labelsFile;
+
+	@BeforeClass
+	public static void writeFixtures() throws IOException {
+		directory = File.createTempFile("idxFixtures", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create fixture directory:" + directory);
+		}
+		directory.deleteOnExit();
+
+		// Mostly blank pixels, with the extremes and a faint value in every image
+		Random random = new Random(1);
+		pixels = new int[ROW_COUNT][IMAGE_HEIGHT * IMAGE_WIDTH];
+		labels = new int[ROW_COUNT];
+		for (int row = 0; row < ROW_COUNT; row++) {
+			for (int i = 0; i < pixels[row].length; i++) {
+				pixels[row][i] = random.nextInt(3) == 0 ? random.nextInt(256) : 0;
+			}
+			pixels[row][0] = 255;
+			pixels[row][1] = 1;
+			labels[row] = row % 10;
+		}
+		imagesFile = writeImages("images-idx3-ubyte", IMAGES_MAGIC_NUMBER, ROW_COUNT);
+		labelsFile = writeLabels("labels-idx1-ubyte", LABELS_MAGIC_NUMBER, labels);
+	}
+
+	@Test
+	public void testHeader() throws IOException {
+		IdxMnistDataSet dataSet = IdxMnistDataSet.open(imagesFile, labelsFile);
+		assertEquals(ROW_COUNT, dataSet.getRowCount());
+		assertEquals(IMAGE_HEIGHT, dataSet.getImageHeight());
+		assertEquals(IMAGE_WIDTH, dataSet.getImageWidth());
+		assertEquals(IMAGE_HEIGHT * IMAGE_WIDTH, dataSet.getFeatureCount());
+		assertEquals(10, dataSet.getClassCount());
+		assertTrue(dataSet.isLabelled());
+		assertEquals(0, dataSet.getFirstRowId());
+		assertFalse(IdxMnistDataSet.open(imagesFile, null).isLabelled());
+	}
+
+	@Test
+	public void testBinarizedMatchesCsvLoader() throws IOException {
+		DoubleArrayMatrixLoader csvLoader = new DoubleArrayMatrixLoader(new URLClassLoader(new URL[] { directory
+				.toURI().toURL() }, null));
+		writeCsv("idx.csv");
+		// Line 0 of the csv is the header, so row r of the IDX files is line r + 1
+		double[][] expectedData = csvLoader.loadDoubleMatrixFromCsv("idx.csv",
+				new PixelFeaturesMatrixCsvDataExtractor(), 1, ROW_COUNT + 1);
+		double[][] expectedLabels = csvLoader.loadDoubleMatrixFromCsv("idx.csv",
+				new SingleDigitLabelsMatrixCsvDataExtractor(), 1, ROW_COUNT + 1);
+
+		IdxMnistDataSet dataSet = IdxMnistDataSet.open(imagesFile, labelsFile);
+		double[][] data = dataSet.getDataMatrix(true);
+		double[][] labelVectors = dataSet.getLabelsMatrix();
+		assertEquals(ROW_COUNT, data.length);
+		for (int row = 0; row < ROW_COUNT; row++) {
+			assertArrayEquals("Row " + row, expectedData[row], data[row], 0);
+			assertArrayEquals("Label " + row, expectedLabels[row], labelVectors[row], 0);
+		}
+	}
+
+	@Test
+	public void testGrayscale() throws IOException {
+		IdxMnistDataSet dataSet = IdxMnistDataSet.open(imagesFile, labelsFile);
+		for (int row = 0; row < ROW_COUNT; row++) {
+			double[] features = dataSet.getFeatures(row, false);
+			for (int i = 0; i < features.length; i++) {
+				assertEquals("Row " + row + " pixel " + i, pixels[row][i] / 255d, features[i], 0);
+			}
+			assertEquals(1, features[0], 0);
+			assertEquals(1 / 255d, features[1], 0);
+			assertEquals(labels[row], dataSet.getLabel(row));
+		}
+	}
+
+	@Test
+	public void testViews() throws IOException {
+		IdxMnistDataSet dataSet = IdxMnistDataSet.open(imagesFile, labelsFile);
+		IdxMnistDataSet view = dataSet.view(5, 20);
+		assertEquals(15, view.getRowCount());
+		assertEquals(5, view.getFirstRowId());
+
+		// A view of a view is relative to the view
+		IdxMnistDataSet nestedView = view.view(3, 6);
+		assertEquals(3, nestedView.getRowCount());
+		assertEquals(8, nestedView.getFirstRowId());
+		for (int row = 0; row < nestedView.getRowCount(); row++) {
+			assertArrayEquals(dataSet.getFeatures(8 + row, false), nestedView.getFeatures(row, false), 0);
+			assertEquals(labels[8 + row], nestedView.getLabel(row));
+		}
+		assertEquals(0, dataSet.view(25, 25).getRowCount());
+
+		try {
+			view.view(10, 16);
+			fail("Expected a range past the end of the view to be rejected");
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+		try {
+			nestedView.getFeatures(3, true);
+			fail("Expected a row outside the view to be rejected");
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testBatchSource() throws IOException {
+		MnistDataBatchSource batchSource = IdxMnistDataSet.open(imagesFile, labelsFile).view(2, 25)
+				.createBatchSource(true);
+		long expectedFirstRowId = 2;
+		int batches = 0;
+		MnistDataBatch batch;
+		while ((batch = batchSource.nextBatch(10)) != null) {
+			assertEquals(expectedFirstRowId, batch.getFirstRowId());
+			assertEquals(batch.getData().length, batch.getLabels().length);
+			expectedFirstRowId += batch.size();
+			batches++;
+		}
+		// 23 rows in batches of 10, 10 and 3
+		assertEquals(3, batches);
+		assertEquals(25, expectedFirstRowId);
+		batchSource.close();
+
+		batch = IdxMnistDataSet.open(imagesFile, null).createBatchSource(false).nextBatch(5);
+		assertNull(batch.getLabels());
+	}
+
+	@Test
+	public void testMagicNumbersChecked() throws IOException {
+		expectOpenFailure(labelsFile, labelsFile, "Not an IDX images file");
+		expectOpenFailure(imagesFile, imagesFile, "Not an IDX labels file");
+		expectOpenFailure(writeImages("images-wrongMagic", LABELS_MAGIC_NUMBER, ROW_COUNT), null,
+				"Not an IDX images file");
+	}
+
+	@Test
+	public void testMismatchedAndTruncatedFilesRejected() throws IOException {
+		expectOpenFailure(imagesFile, writeLabels("labels-short", LABELS_MAGIC_NUMBER, new int[ROW_COUNT - 1]),
+				"Labels file does not match images file");
+		// The header claims one more image than the file holds
+		expectOpenFailure(writeImages("images-truncated", IMAGES_MAGIC_NUMBER, ROW_COUNT + 1), null,
+				"Truncated IDX images file");
+	}
+
+	@Test
+	public void testClassCount() throws IOException {
+		// EMNIST labels go beyond the 10 digits
+		int[] emnistLabels = new int[ROW_COUNT];
+		for (int row = 0; row < ROW_COUNT; row++) {
+			emnistLabels[row] = row * 46 / (ROW_COUNT - 1);
+		}
+		File emnistLabelsFile = writeLabels("emnist-labels", LABELS_MAGIC_NUMBER, emnistLabels);
+		expectOpenFailure(imagesFile, emnistLabelsFile, "Label 11 of row 6 is out of range for 10 classes");
+
+		IdxMnistDataSet dataSet = IdxMnistDataSet.open(imagesFile, emnistLabelsFile, 47);
+		assertEquals(47, dataSet.getClassCount());
+		double[][] labelVectors = dataSet.getLabelsMatrix();
+		for (int row = 0; row < ROW_COUNT; row++) {
+			assertEquals(47, labelVectors[row].length);
+			assertEquals(1, labelVectors[row][emnistLabels[row]], 0);
+		}
+		assertEquals(46, dataSet.getLabel(ROW_COUNT - 1));
+	}
+
+	private void expectOpenFailure(File images, File labels, String expectedMessage) {
+		try {
+			IdxMnistDataSet.open(images, labels);
+			fail("Expected " + expectedMessage);
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(expectedMessage));
+		}
+	}
+
+	/**
+	 * Writes the fixture pixels as an IDX images file, with the given header values
+	 */
+	private static File writeImages(String name, int magicNumber, int headerCount) throws IOException {
+		File file = new File(directory, name);
+		file.deleteOnExit();
+		DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file));
+		try {
+			outputStream.writeInt(magicNumber);
+			outputStream.writeInt(headerCount);
+			outputStream.writeInt(IMAGE_HEIGHT);
+			outputStream.writeInt(IMAGE_WIDTH);
+			for (int[] image : pixels) {
+				for (int pixel : image) {
+					outputStream.writeByte(pixel);
+				}
+			}
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	private static File writeLabels(String name, int magicNumber, int[] labelValues) throws IOException {
+		File file = new File(directory, name);
+		file.deleteOnExit();
+		DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file));
+		try {
+			outputStream.writeInt(magicNumber);
+			outputStream.writeInt(labelValues.length);
+			for (int label : labelValues) {
+				outputStream.writeByte(label);
+			}
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Writes the fixture in train.csv format - a header, then the label and pixel values of each row
+	 */
+	private static void writeCsv(String name) throws IOException {
+		File file = new File(directory, name);
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+		try {
+			writer.write("label");
+			for (int i = 0; i < IMAGE_HEIGHT * IMAGE_WIDTH; i++) {
+				writer.write(",pixel" + i);
+			}
+			writer.write("\n");
+			for (int row = 0; row < ROW_COUNT; row++) {
+				writer.write(String.valueOf(labels[row]));
+				for (int pixel : pixels[row]) {
+					writer.write("," + pixel);
+				}
+				writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.ml4j.util.DoubleArrayMatrixLoader;
+
+/**
+ * Compares ParallelCsvMnistDataLoader with DoubleArrayMatrixLoader on a small fixture,
+ * written out with the line endings and trailing commas found in csv files from different tools
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class ParallelCsvMnistDataLoaderTest {
+
+	private static final String FIXTURE = "mnist_fixture.csv";
+
+	private static List<String> fixtureLines;
+	private static File directory;
+	private static DoubleArrayMatrixLoader referenceLoader;
+
+	@BeforeClass
+	public static void readFixture() throws IOException {
+		fixtureLines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(ParallelCsvMnistDataLoaderTest.class
+				.getClassLoader().getResourceAsStream(FIXTURE), "US-ASCII"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				fixtureLines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		directory = File.createTempFile("csvFixtures", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create fixture directory:" + directory);
+		}
+		directory.deleteOnExit();
+		referenceLoader = new DoubleArrayMatrixLoader(new URLClassLoader(new URL[] { directory.toURI().toURL() },
+				null));
+	}
+
+	@Test
+	public void testLineFeedsWithFinalNewline() throws IOException {
+		assertMatchesReferenceLoader(write("lf.csv", fixtureLines, "\n", "", true), true);
+	}
+
+	@Test
+	public void testCarriageReturnLineFeeds() throws IOException {
+		assertMatchesReferenceLoader(write("crlf.csv", fixtureLines, "\r\n", "", true), true);
+	}
+
+	@Test
+	public void testMissingFinalNewline() throws IOException {
+		assertMatchesReferenceLoader(write("lfNoFinalNewline.csv", fixtureLines, "\n", "", false), true);
+		assertMatchesReferenceLoader(write("crlfNoFinalNewline.csv", fixtureLines, "\r\n", "", false), true);
+	}
+
+	@Test
+	public void testTrailingCommas() throws IOException {
+		assertMatchesReferenceLoader(write("trailingComma.csv", fixtureLines, "\n", ",", true), true);
+		assertMatchesReferenceLoader(write("trailingCommasCrlf.csv", fixtureLines, "\r\n", ",,", false), true);
+	}
+
+	@Test
+	public void testUnlabelledFile() throws IOException {
+		// As for the Kaggle test set - the same pixels without the label column
+		List<String> unlabelledLines = new ArrayList<String>();
+		for (String line : fixtureLines) {
+			unlabelledLines.add(line.substring(line.indexOf(',') + 1));
+		}
+		assertMatchesReferenceLoader(write("unlabelled.csv", unlabelledLines, "\n", "", true), false);
+		assertMatchesReferenceLoader(write("unlabelledCrlf.csv", unlabelledLines, "\r\n", ",", false), false);
+	}
+
+	@Test
+	public void testHeaderIsLineZero() throws IOException {
+		ParallelCsvMnistDataLoader loader = ParallelCsvMnistDataLoader.fromFile(
+				write("header.csv", fixtureLines, "\n", "", true), true, 2);
+		assertEquals(fixtureLines.size(), loader.getLineCount());
+
+		MnistDataBatch batch = loader.load(1, 3);
+		assertEquals(1, batch.getFirstRowId());
+		assertEquals(2, batch.getData().length);
+		assertEquals(fixtureLines.get(1).split(",").length - 1, batch.getData()[0].length);
+
+		// Selecting the header parses it as a row, which is malformed
+		try {
+			loader.load(0, 3);
+			fail("Expected the header to be rejected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRangesPastEndOfFile() throws IOException {
+		File file = write("pastEnd.csv", fixtureLines, "\r\n", "", false);
+		ParallelCsvMnistDataLoader loader = ParallelCsvMnistDataLoader.fromFile(file, true, 3);
+		MnistDataBatch batch = loader.load(fixtureLines.size() - 2, fixtureLines.size() + 100);
+		assertEquals(2, batch.getData().length);
+		assertEquals(0, loader.load(fixtureLines.size(), fixtureLines.size() + 10).getData().length);
+		assertMatchesReferenceLoader(file, true, fixtureLines.size() - 2, fixtureLines.size() + 100);
+	}
+
+	@Test
+	public void testMalformedLineIsReported() throws IOException {
+		List<String> lines = new ArrayList<String>(fixtureLines);
+		lines.set(3, lines.get(3) + ",0");
+		ParallelCsvMnistDataLoader loader = ParallelCsvMnistDataLoader.fromFile(
+				write("malformed.csv", lines, "\n", "", true), true, 2);
+		try {
+			loader.load(1, lines.size());
+			fail("Expected the extra pixel value on line 3 to be rejected");
+		} catch (IOException e) {
+			assertEquals("Malformed csv line 3: expected " + (lines.get(1).split(",").length - 1)
+					+ " pixel values", e.getMessage());
+		}
+	}
+
+	private void assertMatchesReferenceLoader(File file, boolean labelled) throws IOException {
+		int lineCount = fixtureLines.size();
+		assertMatchesReferenceLoader(file, labelled, 1, lineCount);
+		assertMatchesReferenceLoader(file, labelled, 1, 2);
+		assertMatchesReferenceLoader(file, labelled, 4, 9);
+		assertMatchesReferenceLoader(file, labelled, lineCount - 1, lineCount);
+	}
+
+	private void assertMatchesReferenceLoader(File file, boolean labelled, int startLine, int endLine)
+			throws IOException {
+		String description = file.getName() + " lines " + startLine + " to " + endLine;
+		double[][] expectedData = referenceLoader.loadDoubleMatrixFromCsv(file.getName(),
+				labelled ? new PixelFeaturesMatrixCsvDataExtractor()
+						: new KaggleTestSetPixelFeaturesMatrixCsvDataExtractor(), startLine, endLine);
+		// Vary the thread count, so that lines are split across runs differently
+		for (int threadCount = 1; threadCount <= 4; threadCount++) {
+			MnistDataBatch batch = ParallelCsvMnistDataLoader.fromFile(file, labelled, threadCount).load(startLine,
+					endLine);
+			assertEquals(description, startLine, batch.getFirstRowId());
+			assertEquals(description, expectedData.length, batch.getData().length);
+			for (int row = 0; row < expectedData.length; row++) {
+				assertArrayEquals(description + " row " + row, expectedData[row], batch.getData()[row], 0);
+			}
+			if (labelled) {
+				double[][] expectedLabels = referenceLoader.loadDoubleMatrixFromCsv(file.getName(),
+						new SingleDigitLabelsMatrixCsvDataExtractor(), startLine, endLine);
+				for (int row = 0; row < expectedLabels.length; row++) {
+					assertArrayEquals(description + " label " + row, expectedLabels[row], batch.getLabels()[row], 0);
+				}
+			} else {
+				assertNull(batch.getLabels());
+			}
+		}
+	}
+
+	/**
+	 * Writes lines to a file in the fixture directory
+	 *
+	 * @param lineBreak The line break to end each line with
+	 * @param lineSuffix Appended to every line, eg. trailing commas
+	 * @param finalNewline Whether the last line ends with a line break
+	 */
+	private static File write(String name, List<String> lines, String lineBreak, String lineSuffix,
+			boolean finalNewline) throws IOException {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < lines.size(); i++) {
+			csv.append(lines.get(i)).append(lineSuffix);
+			if (finalNewline || i + 1 < lines.size()) {
+				csv.append(lineBreak);
+			}
+		}
+		File file = new File(directory, name);
+		file.deleteOnExit();
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(csv.toString().getBytes("US-ASCII"));
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+}
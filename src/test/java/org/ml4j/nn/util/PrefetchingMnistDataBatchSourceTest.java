@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ml4j.nn.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Checks that PrefetchingMnistDataBatchSource delivers every loaded batch, and then ends or
+ * reports the loader's failure rather than waiting forever
+ *
+ * @author Michael Lavelle
+ *
+ */
+public class PrefetchingMnistDataBatchSourceTest {
+
+	@Test(timeout = 10000)
+	public void testAllBatchesDeliveredThenEnd() throws IOException {
+		PrefetchingMnistDataBatchSource source = new PrefetchingMnistDataBatchSource(new CountingSource(5, null), 1,
+				2, 1 << 20);
+		try {
+			for (int i = 0; i < 5; i++) {
+				assertEquals(i, source.nextBatch(1).getFirstRowId());
+			}
+			assertNull(source.nextBatch(1));
+			assertNull(source.nextBatch(1));
+		} finally {
+			source.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testQueuedBatchesDeliveredBeforeLoaderError() throws Exception {
+		Error error = new OutOfMemoryError("Simulated");
+		PrefetchingMnistDataBatchSource source = new PrefetchingMnistDataBatchSource(new CountingSource(2, error), 1,
+				3, 1 << 20);
+		try {
+			// Let the loader queue both batches and fail before any are taken
+			Thread.sleep(200);
+			assertEquals(0, source.nextBatch(1).getFirstRowId());
+			assertEquals(1, source.nextBatch(1).getFirstRowId());
+			try {
+				source.nextBatch(1);
+				fail("Expected the loader's error to be reported");
+			} catch (IOException e) {
+				assertSame(error, e.getCause());
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Returns single row batches, then either ends or throws
+	 */
+	private static class CountingSource implements MnistDataBatchSource {
+
+		private int batchCount;
+		private Error error;
+		private int delivered;
+
+		public CountingSource(int batchCount, Error error) {
+			this.batchCount = batchCount;
+			this.error = error;
+		}
+
+		@Override
+		public MnistDataBatch nextBatch(int maxBatchSize) {
+			if (delivered < batchCount) {
+				return new MnistDataBatch(new double[1][4], new double[1][10], delivered++);
+			}
+			if (error != null) {
+				throw error;
+			}
+			return null;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}